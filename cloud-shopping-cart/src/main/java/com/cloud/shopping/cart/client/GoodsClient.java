@@ -0,0 +1,12 @@
+package com.cloud.shopping.cart.client;
+
+import com.cloud.shopping.item.api.GoodsApi;
+import org.springframework.cloud.openfeign.FeignClient;
+
+/**
+ * Use Feign to call the item service API
+ */
+@FeignClient("item-service")
+public interface GoodsClient extends GoodsApi {
+
+}
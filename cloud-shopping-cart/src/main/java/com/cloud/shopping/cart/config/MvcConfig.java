@@ -1,7 +1,9 @@
 package com.cloud.shopping.cart.config;
 
 import com.cloud.shopping.cart.filters.UserInterceptor;
+import com.cloud.shopping.cart.service.CartService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -24,11 +26,20 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private JwtProperties prop; // JwtProperties bean is automatically injected by Spring with the properties defined in the application.yml
 
+    @Autowired
+    private CartService cartService; // Merges a guest cart into the user's cart on login
+
+    @Value("${ly.cart.guest-cookie-name:LY_CART_GUEST}")
+    private String guestCookieName = "LY_CART_GUEST"; // Cookie with the id of a guest cart
+
+    @Value("${ly.cart.guest-ttl:2592000}")
+    private int guestTtl = 2592000; // Seconds a guest cart lives, also the lifetime of its cookie
+
 
     // This ensures that the UserInterceptor is added to the list of interceptors
     // So that it can intercept requests and validate the JWT token whenever a request is made to the shopping cart service
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new UserInterceptor(prop)).addPathPatterns("/**");
+        registry.addInterceptor(new UserInterceptor(prop, cartService, guestCookieName, guestTtl)).addPathPatterns("/**");
     }
 }
\ No newline at end of file
@@ -3,29 +3,48 @@ package com.cloud.shopping.cart.filters;
 import com.cloud.shopping.auth.entity.UserInfo;
 import com.cloud.shopping.auth.utils.JwtUtils;
 import com.cloud.shopping.cart.config.JwtProperties;
+import com.cloud.shopping.cart.service.CartService;
 import com.cloud.shopping.common.utils.CookieUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.web.servlet.HandlerAdapter;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.util.UUID;
+import java.util.regex.Pattern;
 
 /**
  * User Authentication Interceptor
  * Validates JWT tokens and maintains user context
+ *
+ * Requests without a valid token are served as a guest: the guest cookie holds a random id that keys the
+ * guest cart, and is set on the first such request. The first request after login that still carries the
+ * guest cookie merges the guest cart into the user's and removes the cookie.
  */
 @Slf4j
 public class UserInterceptor implements HandlerInterceptor {
 
     private JwtProperties prop;
+    private CartService cartService;
+    private String guestCookieName;
+    private int guestCookieMaxAge; // Seconds
 
     // ThreadLocal storage for user information
     private static final ThreadLocal<UserInfo> tl = new ThreadLocal<>();
+    // ThreadLocal storage for the guest id, when there is no user
+    private static final ThreadLocal<String> guest = new ThreadLocal<>();
 
-    public UserInterceptor(JwtProperties prop) {
+    // Guest ids are generated here, anything else in the cookie is replaced
+    private static final Pattern GUEST_ID = Pattern.compile("[0-9a-f]{32}");
+
+    public UserInterceptor(JwtProperties prop, CartService cartService, String guestCookieName, int guestCookieMaxAge) {
         this.prop = prop;
+        this.cartService = cartService;
+        this.guestCookieName = guestCookieName;
+        this.guestCookieMaxAge = guestCookieMaxAge;
     }
 
 
@@ -34,18 +53,39 @@ public class UserInterceptor implements HandlerInterceptor {
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
         // Extract JWT token from cookie
         String token = CookieUtils.getCookieValue(request, prop.getCookieName());
-        try {
-            // Parse token and verify user
-            UserInfo user = JwtUtils.getInfoFromToken(token, prop.getPublicKey());
+        String guestId = CookieUtils.getCookieValue(request, guestCookieName);
+        if (guestId != null && !GUEST_ID.matcher(guestId).matches()) {
+            guestId = null;
+        }
+        UserInfo user = null;
+        if (StringUtils.isNotBlank(token)) {
+            try {
+                // Parse token and verify user
+                user = JwtUtils.getInfoFromToken(token, prop.getPublicKey());
+            } catch(Exception e) {
+                log.error("[Cart Service] Failed to parse user authentication.", e);
+            }
+        }
+        if (user != null) {
             // Store user info in a thread local context
             // Since each Http request is handled by a separate thread,
             // We need to ensure that the current user info are available throughout the request lifecycle for the current thread
             tl.set(user);
+            if (guestId != null) {
+                // First request after login: the guest cart becomes part of the user's
+                cartService.mergeGuestCart(guestId, user.getId());
+                CookieUtils.newBuilder(response).httpOnly().maxAge(0).request(request).build(guestCookieName, null);
+            }
             return true;
-        } catch(Exception e) {
-            log.error("[Cart Service] Failed to parse user authentication.", e);
-            return false;
         }
+        // Not logged in: a guest, with the cart of the guest cookie
+        if (guestId == null) {
+            guestId = UUID.randomUUID().toString().replace("-", "");
+            CookieUtils.newBuilder(response).httpOnly().maxAge(guestCookieMaxAge).request(request)
+                    .build(guestCookieName, guestId);
+        }
+        guest.set(guestId);
+        return true;
     }
 
     @Override
@@ -53,13 +93,22 @@ public class UserInterceptor implements HandlerInterceptor {
                                 Object handler, Exception ex) throws Exception {
         // Clean up thread local storage
         tl.remove();
+        guest.remove();
     }
 
     /**
      * Get current user from thread context
-     * @return UserInfo of current user
+     * @return UserInfo of current user, null for a guest
      */
     public static UserInfo getUser() {
         return tl.get();
     }
+
+    /**
+     * Get current guest id from thread context
+     * @return Id of the guest cart, null for a logged in user
+     */
+    public static String getGuestId() {
+        return guest.get();
+    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.cloud.shopping.cart.pojo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
 @Data
@@ -11,4 +13,18 @@ public class CartItem {
     private Integer num; // number of items
     private String ownSpec;// product specification
 
+    // Current state of the SKU, filled in when the cart is listed and never stored
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long currentPrice;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Boolean enable; // false once the SKU is disabled or gone
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Integer stock;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Boolean priceChanged; // the current price differs from the price when added
+
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.cloud.shopping.cart.pojo;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one line of a batch cart request
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartLineResult {
+    private Long skuId;
+    private int status; // 200, or the code of the error of this line
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer num; // Quantity of the line after an add or update
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String message; // Why the line failed
+
+    public static CartLineResult ok(Long skuId, Integer num) {
+        return new CartLineResult(skuId, 200, num, null);
+    }
+
+    public static CartLineResult error(Long skuId, ExceptionEnum em) {
+        return new CartLineResult(skuId, em.getCode(), null, em.getMsg());
+    }
+}
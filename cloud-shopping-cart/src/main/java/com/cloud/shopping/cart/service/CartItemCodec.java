@@ -0,0 +1,142 @@
+package com.cloud.shopping.cart.service;
+
+import com.cloud.shopping.cart.pojo.CartItem;
+import com.cloud.shopping.common.utils.JsonUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding of the cart items stored in Redis
+ *
+ * ly.cart.encoding selects how this deployment writes items:
+ * - json: the Jackson JSON of the item, as before.
+ * - binary: version byte 1, a flags byte, then varints for skuId and price and, unless
+ *   ly.cart.store-display is false, title, image and ownSpec as length-prefixed UTF-8. Without the
+ *   display fields an item holds little more than its ids; the cart fills them in from item-service.
+ * The quantity is not part of the item, it has its own hash field.
+ *
+ * Both formats are always read, a JSON item starting with '{', so a deployment can switch either way
+ * while carts written in the other format are still around; a line moves to the new format on its next add.
+ */
+@Component
+public class CartItemCodec {
+
+    static final byte VERSION_1 = 1;
+    private static final int FLAG_PRICE = 1;
+    private static final int FLAG_DISPLAY = 2;
+
+    @Value("${ly.cart.encoding:json}")
+    private String encoding = "json";
+
+    @Value("${ly.cart.store-display:true}")
+    private boolean storeDisplay = true;
+
+    /**
+     * @param item Cart item, its num is not written
+     * @return The item in this deployment's encoding
+     */
+    public byte[] encode(CartItem item) {
+        if ("binary".equalsIgnoreCase(encoding)) {
+            return encodeBinary(item, storeDisplay);
+        }
+        Integer num = item.getNum();
+        item.setNum(null);
+        try {
+            return JsonUtils.toString(item).getBytes(StandardCharsets.UTF_8);
+        } finally {
+            item.setNum(num);
+        }
+    }
+
+    /**
+     * @param value An item in either encoding
+     * @return The item, without display fields if they were not stored
+     */
+    public CartItem decode(byte[] value) {
+        if (value.length > 0 && value[0] == '{') {
+            return JsonUtils.toBean(new String(value, StandardCharsets.UTF_8), CartItem.class);
+        }
+        return decodeBinary(value);
+    }
+
+    static byte[] encodeBinary(CartItem item, boolean display) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(display ? 128 : 16);
+        out.write(VERSION_1);
+        out.write((item.getPrice() != null ? FLAG_PRICE : 0) | (display ? FLAG_DISPLAY : 0));
+        writeVarint(out, item.getSkuId());
+        if (item.getPrice() != null) {
+            writeVarint(out, item.getPrice());
+        }
+        if (display) {
+            writeString(out, item.getTitle());
+            writeString(out, item.getImage());
+            writeString(out, item.getOwnSpec());
+        }
+        return out.toByteArray();
+    }
+
+    static CartItem decodeBinary(byte[] value) {
+        if (value.length < 2 || value[0] != VERSION_1) {
+            throw new IllegalArgumentException("Unknown cart item encoding " + (value.length == 0 ? "" : value[0]));
+        }
+        int[] pos = {2};
+        int flags = value[1];
+        CartItem item = new CartItem();
+        item.setSkuId(readVarint(value, pos));
+        if ((flags & FLAG_PRICE) != 0) {
+            item.setPrice(readVarint(value, pos));
+        }
+        if ((flags & FLAG_DISPLAY) != 0) {
+            item.setTitle(readString(value, pos));
+            item.setImage(readString(value, pos));
+            item.setOwnSpec(readString(value, pos));
+        }
+        return item;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] value, int[] pos) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = value[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in cart item");
+    }
+
+    /**
+     * Length + 1 as a varint, 0 for null, then the UTF-8 bytes
+     */
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        if (s == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1L);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(byte[] value, int[] pos) {
+        int length = (int) readVarint(value, pos) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(value, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return s;
+    }
+}
@@ -1,24 +1,64 @@
 package com.cloud.shopping.cart.service;
 
 import com.cloud.shopping.auth.entity.UserInfo;
+import com.cloud.shopping.cart.client.GoodsClient;
 import com.cloud.shopping.cart.pojo.CartItem;
+import com.cloud.shopping.cart.pojo.CartLineResult;
+import com.cloud.shopping.common.cache.BoundedCache;
+import com.cloud.shopping.common.cache.BoundedCacheMetrics;
 import com.cloud.shopping.common.enums.ExceptionEnum;
 import com.cloud.shopping.common.exception.LyException;
-import com.cloud.shopping.common.utils.JsonUtils;
 import com.cloud.shopping.cart.filters.UserInterceptor;
+import com.cloud.shopping.item.pojo.Sku;
+import feign.FeignException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
  * Shopping Cart Service
  * Manages shopping cart operations using Redis as storage:
- * cart:uid:{userId} (primary key) -> {skuId(hash key): cartItem}
+ * cart:uid:{userId} (primary key) -> {skuId(hash key): cartItem, num:{skuId}(hash key): quantity}
+ *
+ * The quantity of a line lives in its own field so that adding and updating are single server-side
+ * scripts (scripts/cart_add.lua, scripts/cart_update.lua): one round trip each, and two concurrent
+ * adds of the same SKU both count. Lines written before that keep their quantity in the item until
+ * their next add.
+ *
+ * Items are written by CartItemCodec, in JSON or in its compact binary form (ly.cart.encoding), so the
+ * hash is read and written as bytes.
+ *
+ * A listed cart shows the current price, enable flag and stock of each SKU, and flags the lines whose
+ * price changed since they were added. They come from one item-service call per listing, behind a
+ * near cache of a few seconds (skuCache), which also supplies the display fields of lines stored without them.
+ * SKUs that item-service no longer has are cached too, as NOT_SOLD, so a cart keeping one does not ask for it
+ * on every view.
+ *
+ * Visitors who are not logged in get a guest cart, cart:guest:{guestId}, keyed by the anonymous cookie set
+ * by UserInterceptor. It expires ly.cart.guest-ttl seconds after its last change, and on the first request
+ * after login scripts/cart_merge.lua moves its lines into the user's cart.
+ *
+ * The batch methods send the commands of all their lines in one pipeline and report each line on its own:
+ * a line that is invalid or fails in Redis does not stop the others.
  */
 @Slf4j
 @Service
@@ -26,38 +66,63 @@ public class CartService {
     @Autowired
     private StringRedisTemplate redisTemplate; // Redis template for string operations
 
+    @Autowired
+    private CartItemCodec codec;
+
+    @Autowired
+    private GoodsClient goodsClient;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${ly.cart.batch-max:100}")
+    private int batchMax = 100; // Most lines in one batch request
+
+    @Value("${ly.cart.guest-ttl:2592000}")
+    private long guestTtl = 2592000; // Seconds a guest cart lives after its last change
+
+    @Value("${ly.cart.sku-cache.maximum-size:10000}")
+    private int skuCacheSize = 10000;
+
+    @Value("${ly.cart.sku-cache.ttl:5000}")
+    private long skuCacheTtl = 5000; // Milliseconds, how stale a listed price or stock may be
+
+    private BoundedCache<Long, Sku> skuCache;
+
+    // Cached for the SKUs item-service does not have, the cache does not keep absent keys
+    private static final Sku NOT_SOLD = new Sku();
+
     // Redis key prefix for cart storage: cart:uid:{userId}
     static final String KEY_PREFIX = "cart:uid:";
 
+    // Redis key prefix of guest carts: cart:guest:{guestId}
+    static final String GUEST_PREFIX = "cart:guest:";
+
+    // Hash key prefix of the quantity of a line: num:{skuId}
+    static final String NUM_PREFIX = "num:";
+
+    static final RedisScript<Long> ADD_SCRIPT = script("scripts/cart_add.lua");
+    static final RedisScript<Long> UPDATE_SCRIPT = script("scripts/cart_update.lua");
+    static final RedisScript<Long> MERGE_SCRIPT = script("scripts/cart_merge.lua");
+
+    private static final RedisSerializer<Long> LONG_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    @PostConstruct
+    public void init() {
+        skuCache = new BoundedCache<>("cart.sku", skuCacheSize, skuCacheTtl);
+        BoundedCacheMetrics.monitor(meterRegistry, skuCache);
+    }
+
     /**
      * Add or update item in shopping cart
      * If item exists, quantity will be added to existing amount
      *
      * @param cartItem Cart item to add or update
+     * @throws LyException if the quantity is not positive
      */
     public void addItemToCart(CartItem cartItem) {
-        // Get current user from thread context
-        UserInfo user = UserInterceptor.getUser();
-        // Generate Redis key for user's cart
-        String key = KEY_PREFIX + user.getId();
-        // Generate hash key using SKU ID
-        String hashKey = cartItem.getSkuId().toString();
-        // Store original quantity for addition
-        Integer num = cartItem.getNum();
-
-        // Get Redis hash operations object
-        BoundHashOperations<String, Object, Object> operation = redisTemplate.boundHashOps(key);
-
-        // Check if item already exists in cart
-        if(operation.hasKey(hashKey)) {
-            // Update existing item quantity
-            // cartItem json -> json string -> CartItem
-            String json = operation.get(hashKey).toString();
-            CartItem existingCartItem = JsonUtils.toBean(json, CartItem.class);
-            cartItem.setNum(existingCartItem.getNum() + num);
-        }
-        // Save to Redis
-        operation.put(hashKey, JsonUtils.toString(cartItem));
+        // Get the cart of the current user, or guest, from thread context
+        addItem(cartKey(), cartItem);
     }
 
     /**
@@ -68,20 +133,11 @@ public class CartService {
      */
     public List<CartItem> quertyCartList() {
         // Get current user
-        UserInfo user = UserInterceptor.getUser();
-        String key = KEY_PREFIX + user.getId();
-
-        if(!redisTemplate.hasKey(key)) {
+        List<CartItem> items = queryItems(cartKey());
+        if (items.isEmpty()) {
             throw new LyException(ExceptionEnum.CART_NOT_FOUND);
         }
-
-        // Get all items from user's cart
-        BoundHashOperations<String, Object, Object> operation = redisTemplate.boundHashOps(key);
-
-        // Convert all values to Cart objects
-        return operation.values().stream()
-                .map(o -> JsonUtils.toBean(o.toString(), CartItem.class))
-                .collect(Collectors.toList());
+        return items;
     }
 
     /**
@@ -89,36 +145,357 @@ public class CartService {
      *
      * @param skuId Product SKU ID
      * @param num New quantity
-     * @throws LyException if item not found in cart
+     * @throws LyException if item not found in cart or the quantity is not positive
      */
     public void updateItemNum(Long skuId, Integer num) {
-        UserInfo user = UserInterceptor.getUser();
-        String key = KEY_PREFIX + user.getId();
-        String hashKey = skuId.toString();
+        updateNum(cartKey(), skuId, num);
+    }
+
+    /**
+     * Remove item from shopping cart
+     *
+     * @param skuId Product SKU ID to remove
+     */
+    public void deleteCartItem(Long skuId) {
+        redisTemplate.opsForHash().delete(cartKey(), skuId.toString(), NUM_PREFIX + skuId);
+    }
+
+    /**
+     * Add several items to the cart, as addItemToCart does for each
+     *
+     * @param cartItems Cart items to add
+     * @return The result of each line, in request order
+     * @throws LyException if there are more lines than ly.cart.batch-max
+     */
+    public List<CartLineResult> addItemsToCart(List<CartItem> cartItems) {
+        return addItems(cartKey(), cartItems);
+    }
+
+    /**
+     * Set the quantity of several lines
+     *
+     * @param cartItems SKU ID and new quantity of each line
+     * @return The result of each line, in request order
+     * @throws LyException if there are more lines than ly.cart.batch-max
+     */
+    public List<CartLineResult> updateItemNums(List<CartItem> cartItems) {
+        return updateNums(cartKey(), cartItems);
+    }
+
+    /**
+     * Remove several items from the cart
+     *
+     * @param skuIds Product SKU IDs to remove
+     * @return The result of each line, in request order
+     * @throws LyException if there are more lines than ly.cart.batch-max
+     */
+    public List<CartLineResult> deleteCartItems(List<Long> skuIds) {
+        return deleteItems(cartKey(), skuIds);
+    }
 
-        BoundHashOperations<String, Object, Object> operations = redisTemplate.boundHashOps(key);
+    /**
+     * Move the lines of a guest cart into a user's cart and delete the guest cart, atomically
+     * A SKU in both carts ends up with the sum of both quantities
+     *
+     * @param guestId Anonymous cookie id of the guest cart
+     * @param userId User who just logged in
+     * @return Number of lines moved
+     */
+    public long mergeGuestCart(String guestId, Long userId) {
+        Long moved = redisTemplate.execute(MERGE_SCRIPT, Arrays.asList(GUEST_PREFIX + guestId, KEY_PREFIX + userId), NUM_PREFIX);
+        return moved == null ? 0 : moved;
+    }
 
+    /**
+     * @return The new quantity of the line
+     */
+    long addItem(String key, CartItem cartItem) {
+        Integer num = cartItem.getNum();
+        if (num == null || num <= 0) {
+            throw new LyException(ExceptionEnum.INVALID_CART_NUM);
+        }
+        String hashKey = cartItem.getSkuId().toString();
+        // the quantity is kept in its own field, the codec leaves it out of the item
+        return redisTemplate.execute(ADD_SCRIPT, RedisSerializer.byteArray(), LONG_SERIALIZER, Collections.singletonList(key),
+                bytes(hashKey), codec.encode(cartItem), bytes(NUM_PREFIX + hashKey), bytes(num.toString()),
+                bytes(String.valueOf(ttl(key))));
+    }
+
+    void updateNum(String key, Long skuId, Integer num) {
+        if (num == null || num <= 0) {
+            throw new LyException(ExceptionEnum.INVALID_CART_NUM);
+        }
+        String hashKey = skuId.toString();
+        Long updated = redisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(key),
+                hashKey, NUM_PREFIX + hashKey, num.toString(), String.valueOf(ttl(key)));
         // Verify item exists
-        if(!operations.hasKey(hashKey)) {
+        if (updated == null || updated == 0) {
             throw new LyException(ExceptionEnum.CART_NOT_FOUND);
         }
+    }
+
+    List<CartLineResult> addItems(String key, List<CartItem> cartItems) {
+        checkBatch(cartItems.size());
+        CartLineResult[] results = new CartLineResult[cartItems.size()];
+        List<byte[][]> commands = new ArrayList<>();
+        for (int i = 0; i < cartItems.size(); i++) {
+            CartItem item = cartItems.get(i);
+            results[i] = validate(item.getSkuId(), item.getNum());
+            if (results[i] == null) {
+                String hashKey = item.getSkuId().toString();
+                commands.add(new byte[][]{bytes(key), bytes(hashKey), codec.encode(item),
+                        bytes(NUM_PREFIX + hashKey), bytes(item.getNum().toString()), bytes(String.valueOf(ttl(key)))});
+            }
+        }
+        Iterator<Object> replies = evalPipelined(ADD_SCRIPT, commands).iterator();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                Long skuId = cartItems.get(i).getSkuId();
+                Object reply = replies.next();
+                results[i] = reply instanceof Long ? CartLineResult.ok(skuId, ((Long) reply).intValue()) : failed(skuId, reply);
+            }
+        }
+        return Arrays.asList(results);
+    }
 
-        // Update quantity
-        CartItem cartItem = JsonUtils.toBean(operations.get(hashKey).toString(), CartItem.class);
-        cartItem.setNum(num);
+    List<CartLineResult> updateNums(String key, List<CartItem> cartItems) {
+        checkBatch(cartItems.size());
+        CartLineResult[] results = new CartLineResult[cartItems.size()];
+        List<byte[][]> commands = new ArrayList<>();
+        for (int i = 0; i < cartItems.size(); i++) {
+            CartItem item = cartItems.get(i);
+            results[i] = validate(item.getSkuId(), item.getNum());
+            if (results[i] == null) {
+                String hashKey = item.getSkuId().toString();
+                commands.add(new byte[][]{bytes(key), bytes(hashKey), bytes(NUM_PREFIX + hashKey),
+                        bytes(item.getNum().toString()), bytes(String.valueOf(ttl(key)))});
+            }
+        }
+        Iterator<Object> replies = evalPipelined(UPDATE_SCRIPT, commands).iterator();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                CartItem item = cartItems.get(i);
+                Object reply = replies.next();
+                if (!(reply instanceof Long)) {
+                    results[i] = failed(item.getSkuId(), reply);
+                } else if ((Long) reply == 0) {
+                    results[i] = CartLineResult.error(item.getSkuId(), ExceptionEnum.CART_NOT_FOUND);
+                } else {
+                    results[i] = CartLineResult.ok(item.getSkuId(), item.getNum());
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
 
-        // Save back to Redis
-        operations.put(hashKey, JsonUtils.toString(cartItem));
+    List<CartLineResult> deleteItems(String key, List<Long> skuIds) {
+        checkBatch(skuIds.size());
+        List<byte[][]> commands = new ArrayList<>();
+        for (Long skuId : skuIds) {
+            if (skuId != null) {
+                commands.add(new byte[][]{bytes(skuId.toString()), bytes(NUM_PREFIX + skuId)});
+            }
+        }
+        byte[] rawKey = bytes(key);
+        Iterator<Object> replies = pipelined(commands, (connection, fields) ->
+                connection.hashCommands().hDel(rawKey, fields)).iterator();
+        List<CartLineResult> results = new ArrayList<>();
+        for (Long skuId : skuIds) {
+            if (skuId == null) {
+                results.add(CartLineResult.error(null, ExceptionEnum.GOODS_ID_CANNOT_BE_NULL));
+                continue;
+            }
+            Object reply = replies.next();
+            results.add(reply instanceof Long ? CartLineResult.ok(skuId, null) : failed(skuId, reply));
+        }
+        return results;
     }
 
     /**
-     * Remove item from shopping cart
-     *
-     * @param skuId Product SKU ID to remove
+     * @return Cart of the current user, or of the current guest
      */
-    public void deleteCartItem(Long skuId) {
+    private static String cartKey() {
         UserInfo user = UserInterceptor.getUser();
-        String key = KEY_PREFIX + user.getId();
-        redisTemplate.opsForHash().delete(key, skuId.toString());
+        return user != null ? KEY_PREFIX + user.getId() : GUEST_PREFIX + UserInterceptor.getGuestId();
+    }
+
+    /**
+     * @return Seconds the cart lives on after a change: guest carts expire, user carts are kept
+     */
+    private long ttl(String key) {
+        return key.startsWith(GUEST_PREFIX) ? guestTtl : 0;
+    }
+
+    private void checkBatch(int size) {
+        if (size > batchMax) {
+            throw new LyException(ExceptionEnum.CART_BATCH_TOO_LARGE);
+        }
+    }
+
+    /**
+     * @return The error of an invalid line, null if the line can be sent
+     */
+    private static CartLineResult validate(Long skuId, Integer num) {
+        if (skuId == null) {
+            return CartLineResult.error(null, ExceptionEnum.GOODS_ID_CANNOT_BE_NULL);
+        }
+        if (num == null || num <= 0) {
+            return CartLineResult.error(skuId, ExceptionEnum.INVALID_CART_NUM);
+        }
+        return null;
+    }
+
+    private static CartLineResult failed(Long skuId, Object reply) {
+        log.error("[Cart Service] Failed to change cart line {}: {}", skuId, reply);
+        return CartLineResult.error(skuId, ExceptionEnum.CART_UPDATE_ERROR);
+    }
+
+    /**
+     * Run a cart script once per command (key and arguments) in one pipeline, by its SHA1.
+     * Commands the server answers with NOSCRIPT did not run, they are sent again with the script body.
+     */
+    private List<Object> evalPipelined(RedisScript<Long> script, List<byte[][]> commands) {
+        List<Object> replies = new ArrayList<>(pipelined(commands, (connection, keysAndArgs) ->
+                connection.scriptingCommands().evalSha(script.getSha1(), ReturnType.INTEGER, 1, keysAndArgs)));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < replies.size(); i++) {
+            if (isNoScript(replies.get(i))) {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            byte[] body = bytes(script.getScriptAsString());
+            List<Object> retried = pipelined(missing.stream().map(commands::get).collect(Collectors.toList()),
+                    (connection, keysAndArgs) -> connection.scriptingCommands().eval(body, ReturnType.INTEGER, 1, keysAndArgs));
+            for (int i = 0; i < missing.size(); i++) {
+                replies.set(missing.get(i), retried.get(i));
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * @return The reply of each command, or the exception of a command that failed
+     */
+    private List<Object> pipelined(List<byte[][]> commands, BiConsumer<RedisConnection, byte[][]> command) {
+        if (commands.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                commands.forEach(c -> command.accept(connection, c));
+                return null;
+            }, RedisSerializer.byteArray());
+        } catch (RedisPipelineException e) {
+            return e.getPipelineResult();
+        }
+    }
+
+    private static boolean isNoScript(Object reply) {
+        for (Throwable e = reply instanceof Throwable ? (Throwable) reply : null; e != null; e = e.getCause()) {
+            if (e.getMessage() != null && e.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get all fields of a cart, items and quantities, in one round trip
+     *
+     * @return The lines of the cart, empty if there is none
+     */
+    List<CartItem> queryItems(String key) {
+        Map<byte[], byte[]> entries = redisTemplate.execute((RedisCallback<Map<byte[], byte[]>>) connection ->
+                connection.hashCommands().hGetAll(bytes(key)));
+        if (entries == null || entries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<CartItem> items = toItems(entries);
+        enrich(items);
+        return items;
+    }
+
+    /**
+     * Pair each item with its quantity field
+     */
+    private List<CartItem> toItems(Map<byte[], byte[]> entries) {
+        Map<String, byte[]> fields = new HashMap<>();
+        entries.forEach((field, value) -> fields.put(new String(field, StandardCharsets.UTF_8), value));
+        List<CartItem> items = new ArrayList<>();
+        fields.forEach((field, value) -> {
+            if (field.startsWith(NUM_PREFIX)) {
+                return;
+            }
+            CartItem item = codec.decode(value);
+            byte[] num = fields.get(NUM_PREFIX + field);
+            if (num != null) {
+                item.setNum(Integer.valueOf(new String(num, StandardCharsets.UTF_8)));
+            }
+            items.add(item);
+        });
+        return items;
+    }
+
+    /**
+     * Add the current state of each SKU to the lines, looking up all SKUs that are not cached with one
+     * call to item-service. Lines stored without title, image and spec get them too.
+     */
+    void enrich(List<CartItem> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        List<Long> ids = items.stream().map(CartItem::getSkuId).collect(Collectors.toList());
+        Map<Long, Sku> skus;
+        try {
+            skus = skuCache.getAll(ids, this::loadSkus);
+        } catch (Exception e) {
+            // the cart is still usable with ids, prices when added and quantities
+            log.error("[Cart Service] Failed to look up SKUs {}", ids, e);
+            return;
+        }
+        for (CartItem item : items) {
+            Sku sku = skus.get(item.getSkuId());
+            if (sku == null || sku == NOT_SOLD) {
+                // no longer sold
+                item.setEnable(false);
+                item.setStock(0);
+                continue;
+            }
+            if (item.getTitle() == null) {
+                item.setTitle(sku.getTitle());
+                item.setImage(StringUtils.substringBefore(sku.getImages(), ","));
+                item.setOwnSpec(sku.getOwnSpec());
+            }
+            item.setCurrentPrice(sku.getPrice());
+            item.setEnable(sku.getEnable());
+            item.setStock(sku.getStock());
+            item.setPriceChanged(item.getPrice() != null && sku.getPrice() != null && !item.getPrice().equals(sku.getPrice()));
+        }
+    }
+
+    /**
+     * Look up SKUs in item-service, NOT_SOLD for the ones it does not have
+     */
+    private Map<Long, Sku> loadSkus(Set<Long> ids) {
+        Map<Long, Sku> skus = new HashMap<>();
+        ids.forEach(id -> skus.put(id, NOT_SOLD));
+        try {
+            goodsClient.querySkuByIds(new ArrayList<>(ids)).forEach(sku -> skus.put(sku.getId(), sku));
+        } catch (FeignException.NotFound e) {
+            // item-service answers 404 when none of them exists
+        }
+        return skus;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static RedisScript<Long> script(String path) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(Long.class);
+        return script;
     }
 }
@@ -1,6 +1,7 @@
 package com.cloud.shopping.cart.web;
 
 import com.cloud.shopping.cart.pojo.CartItem;
+import com.cloud.shopping.cart.pojo.CartLineResult;
 import com.cloud.shopping.cart.service.CartService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,7 +14,8 @@ import java.util.List;
 /**
  * Shopping Cart REST Controller
  * Handles all cart-related HTTP requests
- * All endpoints require user authentication via JWT
+ * Endpoints act on the cart of the user logged in via JWT, or on the guest cart of the visitor's
+ * guest cookie when there is no valid token (see UserInterceptor)
  */
 @Slf4j
 @RequestMapping
@@ -35,6 +37,17 @@ public class CartController {
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
+    /**
+     * Add several items to the shopping cart in one request
+     *
+     * @param cartItems Cart items, each with SKU and quantity
+     * @return Result of each line, in request order, with OK (200) status
+     */
+    @PostMapping("batch")
+    public ResponseEntity<List<CartLineResult>> addItemsToCart(@RequestBody List<CartItem> cartItems) {
+        return ResponseEntity.ok(cartService.addItemsToCart(cartItems));
+    }
+
     /**
      * Retrieve user's shopping cart contents
      *
@@ -62,6 +75,28 @@ public class CartController {
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     }
 
+    /**
+     * Update the quantity of several cart items in one request
+     *
+     * @param cartItems SKU and new quantity of each line
+     * @return Result of each line, in request order, with OK (200) status
+     */
+    @PutMapping("batch")
+    public ResponseEntity<List<CartLineResult>> updateCartNums(@RequestBody List<CartItem> cartItems) {
+        return ResponseEntity.ok(cartService.updateItemNums(cartItems));
+    }
+
+    /**
+     * Remove several items from cart in one request
+     *
+     * @param skuIds Product SKU identifiers to remove
+     * @return Result of each line, in request order, with OK (200) status
+     */
+    @DeleteMapping("batch")
+    public ResponseEntity<List<CartLineResult>> deleteCartItems(@RequestParam("ids") List<Long> skuIds) {
+        return ResponseEntity.ok(cartService.deleteCartItems(skuIds));
+    }
+
     /**
      * Remove item from cart
      *
@@ -0,0 +1,21 @@
+-- Add to the quantity of a cart line and store its latest details, in one step
+-- KEYS[1]: cart hash
+-- ARGV[1]: item field, ARGV[2]: item, ARGV[3]: quantity field, ARGV[4]: quantity to add,
+-- ARGV[5]: seconds the cart lives on after this change, 0 to keep it
+-- Returns the new quantity
+if redis.call('HEXISTS', KEYS[1], ARGV[3]) == 0 then
+    -- a line written before quantities had their own field keeps it in the JSON item
+    local old = redis.call('HGET', KEYS[1], ARGV[1])
+    if old then
+        local ok, item = pcall(cjson.decode, old)
+        if ok and type(item) == 'table' and tonumber(item['num']) then
+            redis.call('HSET', KEYS[1], ARGV[3], tonumber(item['num']))
+        end
+    end
+end
+redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+local num = redis.call('HINCRBY', KEYS[1], ARGV[3], ARGV[4])
+if tonumber(ARGV[5]) > 0 then
+    redis.call('EXPIRE', KEYS[1], ARGV[5])
+end
+return num
@@ -0,0 +1,32 @@
+-- Move the lines of a guest cart into a user cart and delete the guest cart, in one step
+-- KEYS[1]: guest cart hash, KEYS[2]: user cart hash
+-- ARGV[1]: prefix of the quantity fields
+-- A SKU in both carts keeps the guest's details and the sum of both quantities
+-- Returns the number of lines moved
+local fields = redis.call('HGETALL', KEYS[1])
+local guest = {}
+for i = 1, #fields, 2 do
+    guest[fields[i]] = fields[i + 1]
+end
+local moved = 0
+for i = 1, #fields, 2 do
+    local field, item = fields[i], fields[i + 1]
+    local numField = ARGV[1] .. field
+    if string.sub(field, 1, #ARGV[1]) ~= ARGV[1] and guest[numField] then
+        if redis.call('HEXISTS', KEYS[2], numField) == 0 then
+            -- a user line written before quantities had their own field keeps it in the JSON item
+            local old = redis.call('HGET', KEYS[2], field)
+            if old then
+                local ok, decoded = pcall(cjson.decode, old)
+                if ok and type(decoded) == 'table' and tonumber(decoded['num']) then
+                    redis.call('HSET', KEYS[2], numField, tonumber(decoded['num']))
+                end
+            end
+        end
+        redis.call('HSET', KEYS[2], field, item)
+        redis.call('HINCRBY', KEYS[2], numField, guest[numField])
+        moved = moved + 1
+    end
+end
+redis.call('DEL', KEYS[1])
+return moved
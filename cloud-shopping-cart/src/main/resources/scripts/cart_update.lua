@@ -0,0 +1,13 @@
+-- Set the quantity of a cart line if the line exists
+-- KEYS[1]: cart hash
+-- ARGV[1]: item field, ARGV[2]: quantity field, ARGV[3]: new quantity,
+-- ARGV[4]: seconds the cart lives on after this change, 0 to keep it
+-- Returns 1, or 0 if the line is not in the cart
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return 0
+end
+redis.call('HSET', KEYS[1], ARGV[2], ARGV[3])
+if tonumber(ARGV[4]) > 0 then
+    redis.call('EXPIRE', KEYS[1], ARGV[4])
+end
+return 1
@@ -0,0 +1,149 @@
+package com.cloud.shopping.cart.service;
+
+import com.cloud.shopping.cart.client.GoodsClient;
+import com.cloud.shopping.cart.pojo.CartItem;
+import com.cloud.shopping.common.utils.JsonUtils;
+import com.cloud.shopping.item.pojo.Sku;
+import feign.FeignException;
+import feign.Request;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class CartEnrichmentTest {
+
+    private GoodsClient goodsClient;
+    private CartService cartService;
+
+    @BeforeEach
+    void setUp() {
+        goodsClient = mock(GoodsClient.class);
+        when(goodsClient.querySkuByIds(anyList())).thenAnswer(inv -> {
+            List<Long> ids = inv.getArgument(0);
+            List<Sku> skus = new ArrayList<>();
+            for (Long id : ids) {
+                // SKU 9 is no longer sold
+                if (id != 9L) {
+                    skus.add(sku(id, 100L * id, id != 8L));
+                }
+            }
+            // as item-service does when none of the ids exists
+            if (skus.isEmpty()) {
+                throw notFound();
+            }
+            return skus;
+        });
+        cartService = new CartService();
+        ReflectionTestUtils.setField(cartService, "goodsClient", goodsClient);
+        cartService.init();
+    }
+
+    @Test
+    void flagsChangedPricesWithOneCall() {
+        List<CartItem> items = Arrays.asList(item(7L, 700L), item(8L, 750L), item(9L, 900L));
+
+        cartService.enrich(items);
+
+        verify(goodsClient).querySkuByIds(Arrays.asList(7L, 8L, 9L));
+        assertEquals(700L, items.get(0).getCurrentPrice());
+        assertFalse(items.get(0).getPriceChanged());
+        assertEquals(7, items.get(0).getStock());
+        assertTrue(items.get(0).getEnable());
+        assertEquals(800L, items.get(1).getCurrentPrice());
+        assertTrue(items.get(1).getPriceChanged());
+        assertFalse(items.get(1).getEnable());
+        assertFalse(items.get(2).getEnable());
+        assertEquals(0, items.get(2).getStock());
+        assertEquals(750L, items.get(1).getPrice());
+    }
+
+    @Test
+    void repeatedViewsAreServedFromTheNearCache() {
+        cartService.enrich(Arrays.asList(item(7L, 700L), item(8L, 800L)));
+        cartService.enrich(Arrays.asList(item(7L, 700L), item(8L, 800L)));
+        cartService.enrich(Arrays.asList(item(7L, 700L), item(10L, 1000L)));
+
+        verify(goodsClient).querySkuByIds(Arrays.asList(7L, 8L));
+        verify(goodsClient).querySkuByIds(Arrays.asList(10L));
+        verifyNoMoreInteractions(goodsClient);
+    }
+
+    @Test
+    void cachesSkusThatAreNoLongerSold() {
+        // item-service answers 404 for a lookup of only 9
+        CartItem gone = item(9L, 900L);
+        cartService.enrich(Arrays.asList(gone));
+        List<CartItem> items = Arrays.asList(item(7L, 700L), item(9L, 900L));
+        cartService.enrich(items);
+        cartService.enrich(Arrays.asList(item(7L, 700L), item(9L, 900L)));
+
+        verify(goodsClient).querySkuByIds(Collections.singletonList(9L));
+        verify(goodsClient).querySkuByIds(Collections.singletonList(7L));
+        verifyNoMoreInteractions(goodsClient);
+        assertFalse(gone.getEnable());
+        assertEquals(0, gone.getStock());
+        assertEquals(700L, items.get(0).getCurrentPrice());
+        assertTrue(items.get(0).getEnable());
+        assertFalse(items.get(1).getEnable());
+        assertNull(items.get(1).getCurrentPrice());
+    }
+
+    @Test
+    void keepsTheCartWhenItemServiceFails() {
+        reset(goodsClient);
+        when(goodsClient.querySkuByIds(anyList())).thenThrow(new IllegalStateException("item-service down"));
+        CartItem item = item(7L, 700L);
+
+        cartService.enrich(Arrays.asList(item));
+
+        assertNull(item.getCurrentPrice());
+        assertEquals("sku 7", item.getTitle());
+    }
+
+    @Test
+    void neverStoresTheLiveFields() {
+        CartItem item = item(7L, 700L);
+        cartService.enrich(Arrays.asList(item));
+
+        // a client cannot set them either
+        CartItem read = JsonUtils.toBean(JsonUtils.toString(item), CartItem.class);
+        assertNull(read.getCurrentPrice());
+        assertNull(read.getPriceChanged());
+        assertFalse(JsonUtils.toString(item(7L, 700L)).contains("currentPrice"));
+    }
+
+    private static FeignException notFound() {
+        Request request = Request.create(Request.HttpMethod.GET, "http://item-service/goods/sku/list/ids",
+                Collections.emptyMap(), null, StandardCharsets.UTF_8, null);
+        return new FeignException.NotFound("Product not found", request, null, Collections.emptyMap());
+    }
+
+    private static CartItem item(Long skuId, Long price) {
+        CartItem item = new CartItem();
+        item.setSkuId(skuId);
+        item.setTitle("sku " + skuId);
+        item.setPrice(price);
+        item.setNum(1);
+        return item;
+    }
+
+    private static Sku sku(Long id, Long price, boolean enable) {
+        Sku sku = new Sku();
+        sku.setId(id);
+        sku.setTitle("sku " + id);
+        sku.setPrice(price);
+        sku.setEnable(enable);
+        sku.setStock(id.intValue());
+        return sku;
+    }
+}
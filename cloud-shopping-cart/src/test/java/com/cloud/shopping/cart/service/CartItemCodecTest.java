@@ -0,0 +1,139 @@
+package com.cloud.shopping.cart.service;
+
+import com.cloud.shopping.cart.pojo.CartItem;
+import com.cloud.shopping.common.utils.JsonUtils;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trips of both encodings, and a benchmark of their size and speed
+ * The benchmark tables go to the test log, the assertions only check the sizes.
+ */
+public class CartItemCodecTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CartItemCodecTest.class);
+
+    private static final int[] CART_SIZES = {1, 10, 50};
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void binaryKeepsEveryField() {
+        CartItem item = item(1L << 40);
+        item.setOwnSpec(null);
+        CartItem decoded = codec("binary", true).decode(codec("binary", true).encode(item));
+
+        assertEquals(item.getSkuId(), decoded.getSkuId());
+        assertEquals(item.getPrice(), decoded.getPrice());
+        assertEquals(item.getTitle(), decoded.getTitle());
+        assertEquals(item.getImage(), decoded.getImage());
+        assertNull(decoded.getOwnSpec());
+        assertNull(decoded.getNum());
+        assertEquals(3, item.getNum());
+    }
+
+    @Test
+    void binaryWithoutDisplayKeepsOnlyTheIds() {
+        byte[] value = codec("binary", false).encode(item(27359021728L));
+        CartItem decoded = codec("json", true).decode(value);
+
+        assertEquals(27359021728L, decoded.getSkuId());
+        assertEquals(99900L, decoded.getPrice());
+        assertNull(decoded.getTitle());
+        assertTrue(value.length <= 10, "got " + value.length + " bytes");
+    }
+
+    @Test
+    void readsTheOtherEncodingToo() {
+        CartItem item = item(7L);
+        // written before the codec existed, with the quantity in the item
+        byte[] legacy = JsonUtils.toString(item).getBytes(StandardCharsets.UTF_8);
+        CartItem decoded = codec("binary", true).decode(legacy);
+        assertEquals(3, decoded.getNum());
+        assertEquals("sku 7", decoded.getTitle());
+
+        assertEquals("sku 7", codec("json", true).decode(codec("binary", true).encode(item)).getTitle());
+        assertNull(codec("binary", true).decode(codec("json", true).encode(item)).getNum());
+    }
+
+    @Test
+    void rejectsUnknownVersions() {
+        assertThrows(IllegalArgumentException.class, () -> codec("binary", true).decode(new byte[]{2, 0, 1}));
+    }
+
+    @Test
+    void binaryCartsAreSmallerAndFaster() {
+        CartItemCodec[] codecs = {codec("json", true), codec("binary", true), codec("binary", false)};
+        report("items | json bytes | binary bytes | binary ids-only bytes");
+        for (int size : CART_SIZES) {
+            long[] bytes = new long[codecs.length];
+            for (int i = 0; i < size; i++) {
+                for (int c = 0; c < codecs.length; c++) {
+                    bytes[c] += codecs[c].encode(item(27359021728L + i)).length;
+                }
+            }
+            report("%5d | %10d | %12d | %21d", size, bytes[0], bytes[1], bytes[2]);
+            assertTrue(bytes[1] < bytes[0]);
+            assertTrue(bytes[2] < bytes[1]);
+        }
+
+        report("encoding           | encode ns/op | decode ns/op");
+        String[] names = {"json", "binary", "binary ids-only"};
+        for (int c = 0; c < codecs.length; c++) {
+            CartItem item = item(27359021728L);
+            byte[] value = codecs[c].encode(item);
+            // warm up, then measure
+            measure(codecs[c], item, value);
+            long[] nanos = measure(codecs[c], item, value);
+            report("%-18s | %12d | %12d", names[c], nanos[0] / ITERATIONS, nanos[1] / ITERATIONS);
+        }
+    }
+
+    private static long[] measure(CartItemCodec codec, CartItem item, byte[] value) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.encode(item).length;
+        }
+        long encode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.decode(value).getSkuId();
+        }
+        long decode = System.nanoTime() - start;
+        assertTrue(sink > 0);
+        return new long[]{encode, decode};
+    }
+
+    /**
+     * Log one line of a benchmark table
+     */
+    private static void report(String format, Object... args) {
+        if (log.isInfoEnabled()) {
+            log.info(String.format(format, args));
+        }
+    }
+
+    private static CartItemCodec codec(String encoding, boolean storeDisplay) {
+        CartItemCodec codec = new CartItemCodec();
+        ReflectionTestUtils.setField(codec, "encoding", encoding);
+        ReflectionTestUtils.setField(codec, "storeDisplay", storeDisplay);
+        return codec;
+    }
+
+    private static CartItem item(Long skuId) {
+        CartItem item = new CartItem();
+        item.setSkuId(skuId);
+        item.setTitle("sku " + skuId);
+        item.setImage("http://image.cloudshopping.com/images/9/15/1524297313793.jpg");
+        item.setPrice(99900L);
+        item.setNum(3);
+        item.setOwnSpec("{\"机身颜色\":\"白色\",\"内存\":\"4GB\",\"机身存储\":\"64GB\"}");
+        return item;
+    }
+}
@@ -0,0 +1,194 @@
+package com.cloud.shopping.cart.service;
+
+import com.cloud.shopping.cart.client.GoodsClient;
+import com.cloud.shopping.cart.pojo.CartItem;
+import com.cloud.shopping.cart.pojo.CartLineResult;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.pojo.Sku;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the cart scripts against a local Redis server
+ */
+public class CartServiceConcurrencyTest {
+
+    private static final String KEY = CartService.KEY_PREFIX + 1;
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+    private CartItemCodec codec;
+    private GoodsClient goodsClient;
+    private CartService cartService;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new RedisServer(port);
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.delete(KEY);
+        cartService = new CartService();
+        codec = new CartItemCodec();
+        goodsClient = mock(GoodsClient.class);
+        ReflectionTestUtils.setField(cartService, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(cartService, "codec", codec);
+        ReflectionTestUtils.setField(cartService, "goodsClient", goodsClient);
+        cartService.init();
+    }
+
+    @Test
+    void parallelAddsAreNeverLost() throws Exception {
+        ExecutorService tabs = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 800; i++) {
+            futures.add(tabs.submit(() -> cartService.addItem(KEY, item(7L, 1))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        tabs.shutdown();
+
+        List<CartItem> items = cartService.queryItems(KEY);
+        assertEquals(1, items.size());
+        assertEquals(800, items.get(0).getNum());
+        assertEquals("sku 7", items.get(0).getTitle());
+    }
+
+    @Test
+    void updatesOnlyLinesInTheCart() {
+        cartService.addItem(KEY, item(7L, 2));
+        cartService.updateNum(KEY, 7L, 5);
+        assertEquals(5, cartService.queryItems(KEY).get(0).getNum());
+
+        LyException e = assertThrows(LyException.class, () -> cartService.updateNum(KEY, 8L, 1));
+        assertEquals(ExceptionEnum.CART_NOT_FOUND, e.getExceptionEnum());
+        assertFalse(redisTemplate.opsForHash().hasKey(KEY, CartService.NUM_PREFIX + 8));
+    }
+
+    @Test
+    void keepsTheQuantityOfLinesWrittenBeforeTheQuantityField() {
+        redisTemplate.opsForHash().put(KEY, "7", "{\"skuId\":7,\"title\":\"old\",\"price\":100,\"num\":3}");
+        assertEquals(3, cartService.queryItems(KEY).get(0).getNum());
+
+        assertEquals(5, cartService.addItem(KEY, item(7L, 2)));
+    }
+
+    @Test
+    void readsBothEncodingsAndLooksUpWhatIsNotStored() {
+        cartService.addItem(KEY, item(7L, 1));
+        ReflectionTestUtils.setField(codec, "encoding", "binary");
+        ReflectionTestUtils.setField(codec, "storeDisplay", false);
+        cartService.addItem(KEY, item(8L, 2));
+        Sku sku = new Sku();
+        sku.setId(8L);
+        sku.setTitle("sku 8 now");
+        sku.setImages("a.jpg,b.jpg");
+        when(goodsClient.querySkuByIds(anyList())).thenReturn(Collections.singletonList(sku));
+
+        List<CartItem> items = cartService.queryItems(KEY);
+        items.sort((a, b) -> Long.compare(a.getSkuId(), b.getSkuId()));
+
+        assertEquals("sku 7", items.get(0).getTitle());
+        assertEquals("sku 8 now", items.get(1).getTitle());
+        assertEquals("a.jpg", items.get(1).getImage());
+        assertEquals(2, items.get(1).getNum());
+        assertEquals(100L, items.get(1).getPrice());
+        verify(goodsClient).querySkuByIds(argThat(ids -> ids.size() == 2 && ids.containsAll(Arrays.asList(7L, 8L))));
+    }
+
+    @Test
+    void batchesReportEachLine() {
+        // the scripts are not cached yet, the pipeline falls back to sending them
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+        List<CartLineResult> added = cartService.addItems(KEY, Arrays.asList(item(7L, 2), item(8L, 0), item(7L, 1), item(9L, 4)));
+        assertEquals(Arrays.asList(200, 400, 200, 200), added.stream().map(CartLineResult::getStatus).toList());
+        assertEquals(3, added.get(2).getNum());
+
+        List<CartLineResult> updated = cartService.updateNums(KEY, Arrays.asList(item(9L, 1), item(10L, 1)));
+        assertEquals(CartLineResult.ok(9L, 1), updated.get(0));
+        assertEquals(CartLineResult.error(10L, ExceptionEnum.CART_NOT_FOUND), updated.get(1));
+
+        List<CartLineResult> deleted = cartService.deleteItems(KEY, Arrays.asList(7L, null, 11L));
+        assertEquals(Arrays.asList(200, 400, 200), deleted.stream().map(CartLineResult::getStatus).toList());
+        List<CartItem> items = cartService.queryItems(KEY);
+        assertEquals(1, items.size());
+        assertEquals(1, items.get(0).getNum());
+
+        ReflectionTestUtils.setField(cartService, "batchMax", 2);
+        LyException e = assertThrows(LyException.class, () -> cartService.deleteItems(KEY, Arrays.asList(1L, 2L, 3L)));
+        assertEquals(ExceptionEnum.CART_BATCH_TOO_LARGE, e.getExceptionEnum());
+    }
+
+    @Test
+    void mergesTheGuestCartOnLogin() {
+        String guestKey = CartService.GUEST_PREFIX + "0123456789abcdef0123456789abcdef";
+        redisTemplate.delete(guestKey);
+        cartService.addItem(guestKey, item(7L, 2));
+        cartService.addItem(guestKey, item(8L, 1));
+        assertTrue(redisTemplate.getExpire(guestKey) > 0);
+        redisTemplate.opsForHash().put(KEY, "7", "{\"skuId\":7,\"title\":\"old\",\"price\":100,\"num\":3}");
+
+        assertEquals(2, cartService.mergeGuestCart("0123456789abcdef0123456789abcdef", 1L));
+
+        assertFalse(redisTemplate.hasKey(guestKey));
+        assertEquals(-1, redisTemplate.getExpire(KEY));
+        List<CartItem> items = cartService.queryItems(KEY);
+        items.sort((a, b) -> Long.compare(a.getSkuId(), b.getSkuId()));
+        assertEquals(5, items.get(0).getNum());
+        assertEquals("sku 7", items.get(0).getTitle());
+        assertEquals(1, items.get(1).getNum());
+        assertEquals(0, cartService.mergeGuestCart("0123456789abcdef0123456789abcdef", 1L));
+    }
+
+    private static CartItem item(Long skuId, int num) {
+        CartItem item = new CartItem();
+        item.setSkuId(skuId);
+        item.setTitle("sku " + skuId);
+        item.setPrice(100L);
+        item.setNum(num);
+        return item;
+    }
+}
@@ -18,6 +18,6 @@ public class CommonExceptionHandler {
     @ExceptionHandler(LyException.class)
     public ResponseEntity<ExceptionResult> HandlerException(LyException le){
         ExceptionEnum em = le.getExceptionEnum();
-        return ResponseEntity.status(le.getExceptionEnum().getCode()).body(new ExceptionResult(le.getExceptionEnum()));
+        return ResponseEntity.status(le.getExceptionEnum().getCode()).body(new ExceptionResult(le.getExceptionEnum(), le.getDetails()));
     }
 }
@@ -0,0 +1,252 @@
+package com.cloud.shopping.common.cache;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Size-bounded in-process cache with LRU eviction and an optional time-to-live
+ *
+ * Null values are never cached. Loads happen outside the lock; a value loaded while an invalidation
+ * ran is handed to the caller but not installed, so an invalidation can never be undone by a load
+ * that read the old data before it.
+ *
+ * A maximum size of 0 disables caching: every lookup goes to the loader.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class BoundedCache<K, V> {
+
+    private final String name;
+    private final int maximumSize;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    /**
+     * Bumped by every invalidation, used to detect loads that raced with one
+     */
+    private long epoch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * @param name Cache name, used for metrics
+     * @param maximumSize Maximum number of entries, 0 disables the cache
+     * @param ttlMillis Time-to-live of an entry in milliseconds, 0 for no expiry
+     */
+    public BoundedCache(String name, int maximumSize, long ttlMillis) {
+        if (maximumSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("maximumSize and ttlMillis must not be negative");
+        }
+        this.name = name;
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > BoundedCache.this.maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return The cached value, or null if absent or expired
+     */
+    public V getIfPresent(K key) {
+        V value = lookup(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Get the cached value, loading and caching it on a miss
+     *
+     * @param key Key to look up
+     * @param loader Loads the value, may return null
+     * @return The value, or null if the loader returned null
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        long seen;
+        synchronized (this) {
+            V value = lookup(key);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+            misses.increment();
+            seen = epoch;
+        }
+        loads.increment();
+        V value = loader.apply(key);
+        if (value != null) {
+            install(Collections.singletonMap(key, value), seen);
+        }
+        return value;
+    }
+
+    /**
+     * Get the values of several keys, loading all the missing ones with a single loader call
+     *
+     * @param keys Keys to look up
+     * @param loader Loads the missing keys, keys without a value may be left out of the result
+     * @return Found values in the order of the given keys, without keys that have no value
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys, Function<Set<K>, Map<K, V>> loader) {
+        Map<K, V> found = new LinkedHashMap<>();
+        Set<K> missing = new LinkedHashSet<>();
+        long seen;
+        synchronized (this) {
+            for (K key : keys) {
+                if (found.containsKey(key) || missing.contains(key)) {
+                    continue;
+                }
+                V value = lookup(key);
+                if (value != null) {
+                    found.put(key, value);
+                } else {
+                    missing.add(key);
+                }
+            }
+            seen = epoch;
+        }
+        hits.add(found.size());
+        misses.add(missing.size());
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        loads.increment();
+        Map<K, V> loaded = new HashMap<>();
+        loader.apply(Collections.unmodifiableSet(missing)).forEach((k, v) -> {
+            if (v != null && missing.contains(k)) {
+                loaded.put(k, v);
+            }
+        });
+        install(loaded, seen);
+
+        // keep the caller's key order
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = found.containsKey(key) ? found.get(key) : loaded.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Put a value unconditionally
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null || maximumSize == 0) {
+            return;
+        }
+        map.put(key, new Entry<>(value, expiresAt()));
+        puts.increment();
+    }
+
+    public synchronized void invalidate(K key) {
+        epoch++;
+        map.remove(key);
+    }
+
+    public synchronized void invalidateAll(Collection<? extends K> keys) {
+        epoch++;
+        for (K key : keys) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Remove every entry whose value matches the predicate
+     */
+    public synchronized void invalidateIf(Predicate<? super V> predicate) {
+        epoch++;
+        map.values().removeIf(e -> predicate.test(e.value));
+    }
+
+    public synchronized void invalidateAll() {
+        epoch++;
+        map.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long putCount() {
+        return puts.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long loadCount() {
+        return loads.sum();
+    }
+
+    private synchronized V lookup(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt != 0 && entry.expiresAt <= System.currentTimeMillis()) {
+            map.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized void install(Map<K, V> values, long seen) {
+        // an invalidation ran while loading, the loaded values may be stale
+        if (seen != epoch || maximumSize == 0) {
+            return;
+        }
+        long expiresAt = expiresAt();
+        values.forEach((k, v) -> map.put(k, new Entry<>(v, expiresAt)));
+        puts.add(values.size());
+    }
+
+    private long expiresAt() {
+        return ttlMillis == 0 ? 0 : System.currentTimeMillis() + ttlMillis;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.cloud.shopping.common.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+/**
+ * Exposes the statistics of a {@link BoundedCache} as the standard Micrometer cache meters
+ * (cache.gets, cache.puts, cache.evictions, cache.size), tagged with the cache name
+ */
+public class BoundedCacheMetrics extends CacheMeterBinder<BoundedCache<?, ?>> {
+
+    public BoundedCacheMetrics(BoundedCache<?, ?> cache) {
+        super(cache, cache.getName(), Tags.empty());
+    }
+
+    /**
+     * Bind the cache to the registry, ignored when there is no registry (e.g. plain unit tests)
+     */
+    public static void monitor(MeterRegistry registry, BoundedCache<?, ?> cache) {
+        if (registry != null) {
+            new BoundedCacheMetrics(cache).bindTo(registry);
+        }
+    }
+
+    @Override
+    protected Long size() {
+        BoundedCache<?, ?> cache = getCache();
+        return cache == null ? null : (long) cache.size();
+    }
+
+    @Override
+    protected long hitCount() {
+        BoundedCache<?, ?> cache = getCache();
+        return cache == null ? 0 : cache.hitCount();
+    }
+
+    @Override
+    protected Long missCount() {
+        BoundedCache<?, ?> cache = getCache();
+        return cache == null ? null : cache.missCount();
+    }
+
+    @Override
+    protected Long evictionCount() {
+        BoundedCache<?, ?> cache = getCache();
+        return cache == null ? null : cache.evictionCount();
+    }
+
+    @Override
+    protected long putCount() {
+        BoundedCache<?, ?> cache = getCache();
+        return cache == null ? 0 : cache.putCount();
+    }
+
+    @Override
+    protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("cache.loads", getCache(), c -> c == null ? 0 : c.loadCount())
+                .tags(getTagsWithCacheName())
+                .description("The number of times the cache called its loader")
+                .register(registry);
+    }
+}
@@ -0,0 +1,17 @@
+package com.cloud.shopping.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A SKU that did not have enough stock for a decrement, sent as the details of STOCK_NOT_ENOUGH
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockShortfall {
+    private Long skuId;
+    private Integer requested; // Quantity asked for, summed over the lines of the SKU
+    private Integer available; // Stock when the decrement was checked, 0 if the SKU has no stock row
+}
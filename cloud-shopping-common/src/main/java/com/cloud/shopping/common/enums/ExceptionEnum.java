@@ -16,23 +16,52 @@ public enum ExceptionEnum {
     INVALID_FILE_TYPE(400, "Invalid file type"),
     SPEC_GROUP_NOT_FOUND(404, "Specification group not found"),
     SPEC_PARAM_NOT_FOUND(404, "Specification parameter not found"),
+    FACET_INDEX_NOT_READY(503, "Facet index is still being built"),
     GOODS_NOT_FOUND(404, "Product not found"),
     GOODS_SAVE_ERROR(500, "Failed to save product"),
     GOODS_DETAIL_NOT_FOUND(404, "Product details not found"),
     GOODS_SKU_NOT_FOUND(404, "Product SKU not found"),
     GOODS_STOCK_NOT_FOUND(404, "Product stock not found"),
     GOODS_UPDATE_ERROR(500, "Failed to update product"),
+    ITEM_EVENT_SAVE_ERROR(500, "Failed to save item event"),
+    INVALID_REPLAY_RANGE(400, "Invalid replay id range"),
     GOODS_ID_CANNOT_BE_NULL(400, "Product ID cannot be null"),
+    GOODS_PAGE_UNAVAILABLE(503, "Product page could not be loaded"),
+    SPU_BATCH_TOO_LARGE(400, "Too many SPU ids in one request"),
+    IMPORT_FORMAT_NOT_SUPPORTED(415, "Import format not supported, expected NDJSON or CSV"),
+    IMPORT_UPLOAD_ERROR(500, "Failed to receive the import file"),
+    IMPORT_BUSY(503, "Too many imports are running"),
+    IMPORT_JOB_NOT_FOUND(404, "Import job not found"),
+    INVALID_PAGE_CURSOR(400, "Invalid page cursor"),
+    INVALID_PAGE_SIZE(400, "Page size must be at least 1"),
+    INVALID_COUNT_MODE(400, "Invalid count mode, expected exact, estimate or none"),
     INVALID_USER_DATA_TYPE(400, "Invalid user data type"),
     INVALID_VERIFY_CODE(400, "Invalid verification code"),
     INVALID_USERNAME_PASSWORD(400, "Incorrect username or password"),
     CREATE_TOKEN_ERROR(500, "Failed to generate user token"),
     UN_AUTHORIZED(403, "Unauthorized"),
     CART_NOT_FOUND(404, "Shopping cart not found"),
+    INVALID_CART_NUM(400, "Cart item quantity must be positive"),
+    CART_BATCH_TOO_LARGE(400, "Too many cart lines in one request"),
+    CART_UPDATE_ERROR(500, "Failed to update shopping cart"),
     STOCK_NOT_FOUND(404, "Stock not found"),
+    STOCK_CHANGED(409, "Stock changed since it was loaded, reload and retry"),
     RECEIVER_ADDRESS_NOT_FOUND(404, "Recipient address not found"),
     CREATED_ORDER_ERROR(500, "Failed to create order"),
     STOCK_NOT_ENOUGH(500, "Insufficient stock"),
+    INVALID_STOCK_QUANTITY(400, "Stock quantity must be positive"),
+    INVALID_STOCK_BUCKET_COUNT(400, "Stock bucket count out of range"),
+    STOCK_RESERVATION_NOT_FOUND(404, "Stock reservation not found or expired"),
+    STOCK_UPDATE_ERROR(500, "Failed to update stock, retry shortly"),
+    SKU_NOT_OWNED(421, "SKU stock is owned by another item-service instance"),
+    STOCK_OWNERSHIP_MOVING(503, "SKU stock ownership is moving between instances, retry shortly"),
+    INVALID_SECKILL_SESSION(400, "Invalid flash sale session"),
+    SECKILL_NOT_FOUND(404, "No flash sale for this SKU"),
+    SECKILL_NOT_STARTED(403, "Flash sale has not started"),
+    SECKILL_ENDED(410, "Flash sale has ended"),
+    SECKILL_SOLD_OUT(410, "Flash sale is sold out"),
+    SECKILL_REPEATED(409, "User already won this flash sale"),
+    SECKILL_BUSY(503, "Flash sale is busy, retry shortly"),
     ORDER_NOT_FOUND(404, "Order not found"),
     ORDER_DETAIL_NOT_FOUND(404, "Order detail not found"),
     ORDER_STATUS_NOT_FOUND(404, "Order status not found"),
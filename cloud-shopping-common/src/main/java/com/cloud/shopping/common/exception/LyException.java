@@ -1,13 +1,22 @@
 package com.cloud.shopping.common.exception;
 
 import com.cloud.shopping.common.enums.ExceptionEnum;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 
 @Getter
-@AllArgsConstructor
 @NoArgsConstructor
 public class LyException extends RuntimeException{
     private ExceptionEnum exceptionEnum;
+    // Optional data returned to the caller with the error, e.g. the SKUs that are short of stock
+    private Object details;
+
+    public LyException(ExceptionEnum exceptionEnum){
+        this.exceptionEnum=exceptionEnum;
+    }
+
+    public LyException(ExceptionEnum exceptionEnum, Object details){
+        this.exceptionEnum=exceptionEnum;
+        this.details=details;
+    }
 }
@@ -107,7 +107,7 @@ public final class CookieUtils {
                     cookieValue = URLEncoder.encode(cookieValue, charset);
                 }
                 Cookie cookie = new Cookie(cookieName, cookieValue);
-                if (maxAge != null && maxAge > 0)
+                if (maxAge != null && maxAge >= 0)// 0 deletes the cookie
                     cookie.setMaxAge(maxAge);
                 if (null != request)// 设置域名的cookie
                     //todo
@@ -1,6 +1,7 @@
 package com.cloud.shopping.common.vo;
 
 import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
@@ -8,12 +9,18 @@ public class ExceptionResult {
     private int status;
     private String message;
     private Long timestamp;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Object details; // Extra data about the error, left out when there is none
 
     // Construct an ExceptionResult object based on the ExceptionEnum object
     public ExceptionResult(ExceptionEnum em){
+        this(em, null);
+    }
+
+    public ExceptionResult(ExceptionEnum em, Object details){
         this.status=em.getCode();
         this.message=em.getMsg();
         this.timestamp=System.currentTimeMillis();
-
+        this.details=details;
     }
 }
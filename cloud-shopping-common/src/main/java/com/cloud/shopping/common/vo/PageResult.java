@@ -1,5 +1,6 @@
 package com.cloud.shopping.common.vo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import org.mockito.cglib.core.CollectionUtils;
 
@@ -17,6 +18,9 @@ public class PageResult<T> {
     private Long totalPage;  // Total number of pages available
     private List<T> items;   // Current page's items
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String nextCursor;  // Opaque token for the next page in cursor mode, null on the last page
+
     /**
      * Default constructor
      */
@@ -0,0 +1,101 @@
+package com.cloud.shopping.common.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 2, 0);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        // touch 1 so that 2 becomes the eldest
+        assertEquals("a", cache.getIfPresent(1L));
+        cache.put(3L, "c");
+
+        assertNull(cache.getIfPresent(2L));
+        assertEquals("a", cache.getIfPresent(1L));
+        assertEquals("c", cache.getIfPresent(3L));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() throws InterruptedException {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 10, 20);
+        cache.put(1L, "a");
+        assertEquals("a", cache.getIfPresent(1L));
+        Thread.sleep(40);
+        assertNull(cache.getIfPresent(1L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void getAllLoadsOnlyMissingKeysInOneCall() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 10, 0);
+        cache.put(2L, "v2");
+        List<Set<Long>> calls = new ArrayList<>();
+
+        Map<Long, String> result = cache.getAll(Arrays.asList(3L, 2L, 1L, 3L, 99L), missing -> {
+            calls.add(new HashSet<>(missing));
+            return missing.stream().filter(k -> k != 99L).collect(Collectors.toMap(k -> k, k -> "v" + k));
+        });
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), new ArrayList<>(result.keySet()));
+        assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList(1L, 3L, 99L))), calls);
+
+        // everything that exists is cached now, the unknown key is asked for again
+        cache.getAll(Arrays.asList(1L, 2L, 3L), missing -> {
+            fail("unexpected load of " + missing);
+            return null;
+        });
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void loadRacingWithInvalidationIsNotInstalled() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 10, 0);
+        String value = cache.get(1L, k -> {
+            // a writer invalidates while the old row is being read
+            cache.invalidate(k);
+            return "stale";
+        });
+
+        assertEquals("stale", value);
+        assertNull(cache.getIfPresent(1L));
+
+        assertEquals("fresh", cache.get(1L, k -> "fresh"));
+        assertEquals("fresh", cache.getIfPresent(1L));
+    }
+
+    @Test
+    void invalidateIfRemovesMatchingValues() {
+        BoundedCache<Long, List<Long>> cache = new BoundedCache<>("test", 10, 0);
+        cache.put(1L, Arrays.asList(10L, 11L));
+        cache.put(2L, Arrays.asList(12L));
+
+        cache.invalidateIf(ids -> ids.contains(11L));
+
+        assertNull(cache.getIfPresent(1L));
+        assertNotNull(cache.getIfPresent(2L));
+    }
+
+    @Test
+    void zeroSizeDisablesCaching() {
+        BoundedCache<Long, String> cache = new BoundedCache<>("test", 0, 0);
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(1L, k -> "v" + loads.incrementAndGet());
+        cache.get(1L, k -> "v" + loads.incrementAndGet());
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+}
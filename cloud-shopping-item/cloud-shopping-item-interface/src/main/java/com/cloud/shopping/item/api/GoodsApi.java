@@ -2,6 +2,11 @@ package com.cloud.shopping.item.api;
 
 import com.cloud.shopping.common.dto.CartDTO;
 import com.cloud.shopping.common.vo.PageResult;
+import com.cloud.shopping.item.dto.FacetQuery;
+import com.cloud.shopping.item.dto.FacetResult;
+import com.cloud.shopping.item.dto.GoodsPage;
+import com.cloud.shopping.item.dto.StockReservation;
+import com.cloud.shopping.item.dto.StockReservationRequest;
 import com.cloud.shopping.item.pojo.Spu;
 import com.cloud.shopping.item.pojo.SpuDetail;
 import com.cloud.shopping.item.pojo.Sku;
@@ -9,6 +14,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Goods Management API Interface
@@ -35,10 +41,14 @@ public interface GoodsApi {
 
     /**
      * Retrieve a paginated list of SPUs with optional filtering
+     * When a cursor is given (empty for the first page) the keyset mode is used: the result carries
+     * a nextCursor token for the next page, or null on the last page, and the page number is ignored.
      * @param page Current page number (defaults to 1)
      * @param rows Items per page (defaults to 5)
      * @param saleable Filter by whether item is saleable (optional)
      * @param key Search keyword for filtering results (optional)
+     * @param cursor nextCursor returned by the previous page (optional)
+     * @param count Total count mode: exact, estimate or none (optional)
      * @return PageResult containing list of SPUs and total count
      */
     @GetMapping("/spu/page")
@@ -46,7 +56,28 @@ public interface GoodsApi {
             @RequestParam(value = "page", defaultValue = "1") Integer page,
             @RequestParam(value = "rows", defaultValue = "5") Integer rows,
             @RequestParam(value = "saleable", required = false) Boolean saleable,
-            @RequestParam(value = "key", required = false) String key);
+            @RequestParam(value = "key", required = false) String key,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "count", required = false) String count);
+
+    /**
+     * Filter the saleable SPUs of a category by searchable spec params
+     * Values of one param are ORed, params are ANDed; every searchable value comes back with
+     * the number of SPUs it would match
+     * @param query Category, selected values per spec param and page
+     * @return Matching SPU ids and facet counts
+     */
+    @PostMapping("spu/facet")
+    FacetResult querySpuFacets(@RequestBody FacetQuery query);
+
+    /**
+     * Load everything a product page shows in one call
+     * Only the spu is guaranteed; parts that could not be loaded are null and named in errors
+     * @param spuId SPU ID
+     * @return Product page document
+     */
+    @GetMapping("goods/{spuId}/page")
+    GoodsPage queryGoodsPage(@PathVariable("spuId") Long spuId);
 
     /**
      * Retrieve a specific SPU by its ID
@@ -64,6 +95,15 @@ public interface GoodsApi {
     @GetMapping("/sku/{id}")
     ResponseEntity<Sku> querySkuById(@PathVariable("id") Long id);
 
+    /**
+     * Retrieve the SKUs of several SPUs with their stock in one call
+     * The ids go in the request body, so large batches do not hit URL length limits
+     * @param spuIds SPU identifiers, at most ly.item.sku.max-spu-batch-size distinct ids
+     * @return SPU ID -> its SKUs, in request order; an SPU without SKUs maps to an empty list
+     */
+    @PostMapping("sku/list/spus")
+    Map<Long, List<Sku>> querySkusBySpuIds(@RequestBody List<Long> spuIds);
+
     /**
      * Retrieve multiple SKUs by their IDs
      * @param ids List of SKU identifiers to retrieve
@@ -80,4 +120,40 @@ public interface GoodsApi {
      */
     @PostMapping("stock/decrease")
     Void decreaseStock(@RequestBody List<CartDTO> carts);
+
+    /**
+     * Hold stock for a checkout without locking tb_stock, all lines or none
+     * Must reach the instance that owns every SKU of the request (see queryStockOwners);
+     * otherwise it fails with 421 and the owner of each foreign SKU.
+     * @param request Lines to hold and an optional TTL in milliseconds
+     * @return The reservation, to be confirmed or released on the same instance
+     */
+    @PostMapping("stock/reservations")
+    StockReservation reserveStock(@RequestBody StockReservationRequest request);
+
+    /**
+     * Grant a reservation for good; the stock is subtracted from the database before it returns
+     * Fails with STOCK_NOT_ENOUGH and the short SKUs if the database no longer has the stock, in which
+     * case the reservation is released, or with STOCK_UPDATE_ERROR if the write failed and it is still open.
+     * @param id Reservation ID
+     * @return Void response indicating success
+     */
+    @PostMapping("stock/reservations/{id}/confirm")
+    Void confirmStock(@PathVariable("id") String id);
+
+    /**
+     * Give the stock of a reservation back
+     * @param id Reservation ID
+     * @return Void response indicating success
+     */
+    @DeleteMapping("stock/reservations/{id}")
+    Void releaseStock(@PathVariable("id") String id);
+
+    /**
+     * Find the item-service instance that owns the stock of each SKU
+     * @param skuIds SKU identifiers
+     * @return SKU ID -> instance id of its owner
+     */
+    @PostMapping("stock/owners")
+    Map<Long, String> queryStockOwners(@RequestBody List<Long> skuIds);
 }
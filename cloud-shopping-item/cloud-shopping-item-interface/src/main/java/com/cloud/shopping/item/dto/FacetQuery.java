@@ -0,0 +1,19 @@
+package com.cloud.shopping.item.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Facet search request
+ * Values of one parameter are ORed, different parameters are ANDed.
+ * Numeric parameters are filtered by segment, using the segment as written in SpecParam.segments (e.g. "5.0-5.5").
+ */
+@Data
+public class FacetQuery {
+    private Long cid3;                          // Level 3 category ID, required
+    private Map<Long, List<String>> filters;    // Spec param ID -> selected values or segments
+    private Integer page = 1;                   // Page of matching SPU ids, starting at 1
+    private Integer rows = 20;                  // SPU ids per page
+}
@@ -0,0 +1,35 @@
+package com.cloud.shopping.item.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Facet search result: the matching SPUs and the live count of every searchable value
+ *
+ * Counts are disjunctive: the count of a value ignores the filter on its own parameter,
+ * so it tells how many SPUs would match if that value were added to the selection.
+ */
+@Data
+public class FacetResult {
+    private Long total;             // Number of matching SPUs
+    private List<Long> spuIds;      // Matching SPU ids of the requested page, newest first
+    private List<Facet> facets;     // One facet per searchable spec param of the category
+
+    @Data
+    public static class Facet {
+        private Long paramId;
+        private String name;
+        private String unit;
+        private Boolean numeric;
+        private List<FacetValue> values;
+    }
+
+    @Data
+    public static class FacetValue {
+        private String value;       // Value or segment to send back as a filter
+        private String label;       // Display text, with unit and bounds for segments
+        private Long count;
+        private Boolean selected;
+    }
+}
@@ -0,0 +1,23 @@
+package com.cloud.shopping.item.dto;
+
+import com.cloud.shopping.item.pojo.Brand;
+import com.cloud.shopping.item.pojo.Category;
+import com.cloud.shopping.item.pojo.SpecGroup;
+import com.cloud.shopping.item.pojo.Spu;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything a product page needs, loaded in one call
+ * Only the spu is guaranteed; a part that failed or timed out is left null and its name is listed in errors.
+ */
+@Data
+public class GoodsPage {
+    private Spu spu;                                // SPU with its skus (stock filled) and spuDetail
+    private List<Category> categories;              // Category path, level 1 to level 3
+    private Brand brand;
+    private List<SpecGroup> specGroups;             // Spec groups of the level 3 category with their params
+    private List<String> errors = new ArrayList<>(); // Parts that could not be loaded: skus, detail, categories, brand, specGroups
+}
@@ -0,0 +1,24 @@
+package com.cloud.shopping.item.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * A user who won one unit of a flash sale, sent to order creation as seckill.order on ly.item.exchange
+ * The token is unique per win, so order creation can drop redelivered messages.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SeckillOrder implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String token;       // Admission token, returned to the user
+    private Long sessionId;     // Flash sale session ID
+    private Long skuId;
+    private Long userId;
+    private Long admittedAt;    // Epoch milliseconds of the admission
+}
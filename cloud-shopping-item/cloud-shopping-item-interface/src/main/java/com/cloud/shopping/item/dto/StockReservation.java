@@ -0,0 +1,20 @@
+package com.cloud.shopping.item.dto;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Stock held for a checkout until it is confirmed, released or expires
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockReservation {
+    private String id;              // Reservation ID, used to confirm or release it
+    private List<CartDTO> lines;    // Held quantity per SKU, sorted by SKU id
+    private Long expiresAt;         // Epoch milliseconds when the hold is released if not confirmed
+}
@@ -0,0 +1,16 @@
+package com.cloud.shopping.item.dto;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Request to hold stock for a checkout
+ * Lines of the same SKU are added up; all lines are reserved or none.
+ */
+@Data
+public class StockReservationRequest {
+    private List<CartDTO> lines;    // SKU ids and positive quantities, required
+    private Long ttl;               // Milliseconds until the hold is released if not confirmed, optional
+}
@@ -0,0 +1,26 @@
+package com.cloud.shopping.item.pojo;
+
+import lombok.Data;
+import tk.mybatis.mapper.annotation.KeySql;
+
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Item event waiting in the outbox to be published to ly.item.exchange
+ * The SKU columns are only set on an item.update that tracked its SKU changes.
+ */
+@Table(name = "tb_item_outbox")
+@Data
+public class ItemOutboxEvent {
+    @Id
+    @KeySql(useGeneratedKeys=true)
+    private Long id;
+    private String routingKey;
+    private String payload;        // SPU ID, or comma separated SPU IDs of an item.import
+    private String skuInserted;
+    private String skuUpdated;
+    private String skuDeleted;
+    private Date createTime;
+}
@@ -0,0 +1,23 @@
+package com.cloud.shopping.item.pojo;
+
+import lombok.Data;
+import tk.mybatis.mapper.annotation.KeySql;
+
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Flash sale of one SKU
+ * The units on sale are the SKU's tb_stock.seckill_stock; each user can win one of them.
+ */
+@Table(name = "tb_seckill_session")
+@Data
+public class SeckillSession {
+    @Id
+    @KeySql(useGeneratedKeys=true)
+    private Long id;
+    private Long skuId;
+    private Date startTime;    // Admission opens
+    private Date endTime;      // Admission closes
+}
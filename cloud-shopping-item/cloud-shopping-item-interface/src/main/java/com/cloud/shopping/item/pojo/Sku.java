@@ -37,4 +37,8 @@ public class Sku {
     // This field does not persist in the database but is used to temporarily store stock information when retrieving SKU data.
     @Transient
     private Integer stock;// Stock quantity
+
+    // Stock the edit form was loaded with; an update only changes the stock if the database still has this value
+    @Transient
+    private Integer loadedStock;
 }
\ No newline at end of file
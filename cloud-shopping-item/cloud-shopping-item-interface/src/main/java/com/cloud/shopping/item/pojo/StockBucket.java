@@ -0,0 +1,24 @@
+package com.cloud.shopping.item.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * One slice of the stock of a hot SKU
+ * A SKU with buckets has its stock in them and 0 in tb_stock; its stock is the sum of its buckets.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "tb_stock_bucket")
+public class StockBucket {
+    @Id
+    private Long skuId;
+    @Id
+    private Integer bucket;    // Bucket number, 0 to bucket count - 1
+    private Integer stock;
+}
@@ -0,0 +1,27 @@
+package com.cloud.shopping.item.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+/**
+ * The right of one item-service instance to reserve the stock of a SKU
+ * A lease is renewed while its holder serves the SKU; another instance may only take the SKU over once
+ * the lease is released or has run out, and every takeover increments the epoch.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "tb_stock_lease")
+public class StockLease {
+    @Id
+    private Long skuId;
+    private String owner;
+    private Long epoch;
+    @Transient
+    private Boolean expired;    // Whether expire_time has passed, in database time
+}
@@ -0,0 +1,46 @@
+package com.cloud.shopping.item.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executors of the bulk goods import
+ *
+ * Each running import has one reader thread that parses the feed and hands chunks to the shared writer
+ * pool. The reader pool has no queue, so an import beyond max-concurrent-jobs is rejected up front.
+ * The writer pool is bounded in threads and queue; the readers also limit how many chunks they have in
+ * flight, and when the pool is saturated anyway the reader writes the chunk itself.
+ */
+@Configuration
+public class GoodsImportExecutorConfig {
+
+    @Bean(name = "goodsImportReaderExecutor")
+    public ThreadPoolTaskExecutor goodsImportReaderExecutor(
+            @Value("${ly.item.import.max-concurrent-jobs:2}") int maxJobs) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxJobs);
+        executor.setMaxPoolSize(maxJobs);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("goods-import-reader-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(name = "goodsImportExecutor")
+    public ThreadPoolTaskExecutor goodsImportExecutor(
+            @Value("${ly.item.import.pool.size:4}") int size,
+            @Value("${ly.item.import.pool.queue-capacity:8}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("goods-import-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
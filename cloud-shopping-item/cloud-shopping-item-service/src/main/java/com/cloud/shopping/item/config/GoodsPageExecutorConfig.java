@@ -0,0 +1,34 @@
+package com.cloud.shopping.item.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor for the concurrent lookups of the product page
+ *
+ * Bounded in threads and queue so a burst of page views cannot exhaust the database pool.
+ * When it is saturated the request thread runs the lookup itself, which degrades to the
+ * sequential behaviour instead of failing the page.
+ */
+@Configuration
+public class GoodsPageExecutorConfig {
+
+    @Bean(name = "goodsPageExecutor")
+    public ThreadPoolTaskExecutor goodsPageExecutor(
+            @Value("${ly.item.goods-page.pool.core-size:16}") int coreSize,
+            @Value("${ly.item.goods-page.pool.max-size:32}") int maxSize,
+            @Value("${ly.item.goods-page.pool.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("goods-page-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,33 @@
+package com.cloud.shopping.item.config;
+
+import com.cloud.shopping.auth.utils.RsaUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.security.PublicKey;
+
+/**
+ * JWT Configuration Properties
+ * The RSA public key that verifies the login token, and the cookie that carries it
+ */
+@Slf4j
+@Data
+@ConfigurationProperties(prefix = "ly.jwt")
+public class JwtProperties {
+
+    private String pubKeyPath;    // Path to RSA public key file
+    private PublicKey publicKey;  // Loaded RSA public key
+    private String cookieName;    // Name of cookie containing JWT token
+
+    @PostConstruct
+    public void init() {
+        try {
+            this.publicKey = RsaUtils.getPublicKey(pubKeyPath);
+        } catch (Exception e) {
+            log.error("Failed to initialize public key!", e);
+            throw new RuntimeException(e);
+        }
+    }
+}
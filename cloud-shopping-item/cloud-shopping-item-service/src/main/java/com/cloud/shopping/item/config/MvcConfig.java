@@ -0,0 +1,24 @@
+package com.cloud.shopping.item.config;
+
+import com.cloud.shopping.item.filters.UserInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the {@link UserInterceptor} on the flash sale endpoints, which admit the logged in user
+ */
+@Configuration
+@EnableConfigurationProperties(JwtProperties.class)
+public class MvcConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private JwtProperties prop;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new UserInterceptor(prop)).addPathPatterns("/seckill/**");
+    }
+}
@@ -0,0 +1,24 @@
+package com.cloud.shopping.item.config;
+
+import com.cloud.shopping.item.seckill.SeckillService;
+import org.springframework.boot.autoconfigure.amqp.RabbitTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+/**
+ * RabbitTemplate settings beyond application.yml
+ *
+ * Messages carrying the {@link SeckillService#MANDATORY_HEADER} are sent as mandatory, so the broker returns
+ * them when no queue is bound to their routing key. Every other message keeps the default and is dropped
+ * silently in that case.
+ */
+@Configuration
+public class RabbitConfig {
+
+    @Bean
+    public RabbitTemplateCustomizer mandatoryHeaderCustomizer() {
+        return template -> template.setMandatoryExpression(new SpelExpressionParser().parseExpression(
+                "messageProperties.headers['" + SeckillService.MANDATORY_HEADER + "'] == true"));
+    }
+}
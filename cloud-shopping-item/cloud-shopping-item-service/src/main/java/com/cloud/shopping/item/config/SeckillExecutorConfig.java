@@ -0,0 +1,28 @@
+package com.cloud.shopping.item.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Executor of the flash sale dispatcher
+ *
+ * One thread sends the queued winners to order creation for the life of the application. On shutdown
+ * it is given a few seconds to empty the queue before it is interrupted.
+ */
+@Configuration
+public class SeckillExecutorConfig {
+
+    @Bean(name = "seckillDispatchExecutor")
+    public ThreadPoolTaskExecutor seckillDispatchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("seckill-dispatch-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        executor.initialize();
+        return executor;
+    }
+}
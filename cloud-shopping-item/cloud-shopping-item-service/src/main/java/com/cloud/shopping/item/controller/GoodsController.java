@@ -2,16 +2,35 @@ package com.cloud.shopping.item.controller;
 
 import com.cloud.shopping.common.dto.CartDTO;
 import com.cloud.shopping.common.vo.PageResult;
+import com.cloud.shopping.item.dto.FacetQuery;
+import com.cloud.shopping.item.dto.FacetResult;
+import com.cloud.shopping.item.dto.GoodsPage;
+import com.cloud.shopping.item.dto.StockReservation;
+import com.cloud.shopping.item.dto.StockReservationRequest;
+import com.cloud.shopping.item.importer.ImportFormat;
+import com.cloud.shopping.item.importer.ImportJob;
+import com.cloud.shopping.item.index.SpecFacetIndex;
 import com.cloud.shopping.item.pojo.Sku;
 import com.cloud.shopping.item.pojo.Spu;
 import com.cloud.shopping.item.pojo.SpuDetail;
+import com.cloud.shopping.item.pojo.StockBucket;
+import com.cloud.shopping.item.reservation.StockReservationEngine;
+import com.cloud.shopping.item.service.GoodsImportService;
+import com.cloud.shopping.item.service.GoodsPageService;
 import com.cloud.shopping.item.service.GoodsService;
+import com.cloud.shopping.item.service.ItemOutboxRelay;
+import com.cloud.shopping.item.service.StockBucketService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Goods Management Controller
@@ -22,12 +41,36 @@ public class GoodsController {
     @Autowired
     private GoodsService goodsService;
 
+    @Autowired
+    private SpecFacetIndex facetIndex;
+
+    @Autowired
+    private GoodsPageService goodsPageService;
+
+    @Autowired
+    private GoodsImportService goodsImportService;
+
+    @Autowired
+    private StockReservationEngine reservationEngine;
+
+    @Autowired
+    private StockBucketService stockBucketService;
+
+    @Autowired
+    private ItemOutboxRelay outboxRelay;
+
     /**
      * Query SPUs with pagination and filtering
-     * @param page Current page number, defaults to 1
-     * @param rows Items per page, defaults to 5
+     * Offset mode is used by default. Passing the cursor parameter, empty for the first page,
+     * switches to cursor mode, which seeks past the previous page instead of skipping rows
+     * and returns a nextCursor token for the following page.
+     *
+     * @param page Current page number, defaults to 1, ignored in cursor mode
+     * @param rows Items per page, defaults to 5; in cursor mode at least 1 and capped at ly.item.spu.max-page-size
      * @param saleable Filter by product availability
      * @param key Search keyword
+     * @param cursor nextCursor of the previous page, enables cursor mode
+     * @param count Total count mode: exact, estimate or none; defaults to exact in offset mode and none in cursor mode
      * @return Paginated list of SPUs
      */
     @GetMapping("/spu/page")
@@ -35,8 +78,37 @@ public class GoodsController {
             @RequestParam(value = "page", defaultValue = "1") Integer page,
             @RequestParam(value = "rows", defaultValue = "5") Integer rows,
             @RequestParam(value = "saleable", required = false) Boolean saleable,
-            @RequestParam(value = "key", required = false) String key) {
-        return ResponseEntity.ok(goodsService.querySpuByPage(page, rows, saleable, key));
+            @RequestParam(value = "key", required = false) String key,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "count", required = false) String count) {
+        if (cursor != null) {
+            return ResponseEntity.ok(goodsService.querySpuByCursor(
+                    cursor, rows, saleable, key, GoodsService.CountMode.of(count, GoodsService.CountMode.NONE)));
+        }
+        return ResponseEntity.ok(goodsService.querySpuByPage(
+                page, rows, saleable, key, GoodsService.CountMode.of(count, GoodsService.CountMode.EXACT)));
+    }
+
+    /**
+     * Filter the saleable SPUs of a category by searchable spec params and count every value
+     * @param query Category, selected values per spec param and page
+     * @return Matching SPU ids and live facet counts
+     */
+    @PostMapping("spu/facet")
+    public ResponseEntity<FacetResult> querySpuFacets(@RequestBody FacetQuery query) {
+        return ResponseEntity.ok(facetIndex.search(query));
+    }
+
+    /**
+     * Load everything a product page shows in one call
+     * The spu, its skus and detail, category path, brand and spec groups are loaded concurrently;
+     * parts that fail or time out are left out and named in the errors list of the result.
+     * @param spuId SPU ID
+     * @return Product page document
+     */
+    @GetMapping("goods/{spuId}/page")
+    public ResponseEntity<GoodsPage> queryGoodsPage(@PathVariable("spuId") Long spuId) {
+        return ResponseEntity.ok(goodsPageService.queryGoodsPage(spuId));
     }
 
     /**
@@ -50,8 +122,34 @@ public class GoodsController {
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
+    /**
+     * Bulk import products from a supplier feed
+     * The feed is received in full, then imported in the background in chunked transactions.
+     * NDJSON has one product per line, shaped like the body of POST goods; CSV has one SKU per row,
+     * consecutive rows with the same spu column forming one product.
+     * @param body Feed as application/x-ndjson or text/csv
+     * @param contentType Content type of the feed
+     * @return The started import job with ACCEPTED status
+     */
+    @PostMapping(value = "goods/import", consumes = {ImportFormat.NDJSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, ImportFormat.CSV_VALUE})
+    public ResponseEntity<ImportJob> importGoods(InputStream body, @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(goodsImportService.startImport(body, contentType));
+    }
+
+    /**
+     * Query the progress of a bulk import
+     * @param jobId Job ID returned by the import
+     * @return Counts so far, per-record errors and the status of the job
+     */
+    @GetMapping("goods/import/{jobId}")
+    public ResponseEntity<ImportJob> queryImportJob(@PathVariable("jobId") String jobId) {
+        return ResponseEntity.ok(goodsImportService.queryJob(jobId));
+    }
+
     /**
      * Update existing product information
+     * A SKU whose stock is changed must carry loadedStock, the stock it was read with; the update fails
+     * with CONFLICT if the stock changed since, so a stale form never overwrites the orders placed meanwhile.
      * @param spu Updated product information
      * @return Empty response with NO_CONTENT status
      */
@@ -62,25 +160,32 @@ public class GoodsController {
     }
 
     /**
-     * Delete one or multiple products
+     * Delete one or multiple products in one transaction
      * @param ids Single ID or hyphen-separated IDs (e.g., "1" or "1-2-3")
      * @return Empty response with OK status
      */
     @DeleteMapping("goods/spu/{id}")
     public ResponseEntity<Void> deleteGoods(@PathVariable("id") String ids) {
-        String separator="-";
-        if (ids.contains(separator)){
-            String[] goodsId = ids.split(separator);
-            for (String id:goodsId){
-                this.goodsService.deleteGoods(Long.parseLong(id));
-            }
-        }
-        else {
-            this.goodsService.deleteGoods(Long.parseLong(ids));
+        List<Long> spuIds = new ArrayList<>();
+        for (String id : ids.split("-")) {
+            spuIds.add(Long.parseLong(id));
         }
+        this.goodsService.deleteGoodsBatch(spuIds);
         return ResponseEntity.status(HttpStatus.OK).build();
     }
 
+    /**
+     * Delete a selection of products of any size
+     * Runs a fixed number of set-based statements in one transaction; unknown ids are ignored.
+     * @param ids SPU identifiers
+     * @return Empty response with NO_CONTENT status
+     */
+    @PostMapping("goods/spu/delete")
+    public ResponseEntity<Void> deleteGoodsBatch(@RequestBody List<Long> ids) {
+        this.goodsService.deleteGoodsBatch(ids);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
     /**
      * Query detailed product information by SPU ID
      * @param spuId SPU identifier
@@ -101,6 +206,16 @@ public class GoodsController {
         return ResponseEntity.ok(goodsService.querySkuBySpuId(spuId));
     }
 
+    /**
+     * Query the SKUs of several SPUs with their stock in one call
+     * @param spuIds SPU identifiers, at most ly.item.sku.max-spu-batch-size distinct ids
+     * @return SPU ID -> its SKUs, in request order; an SPU without SKUs maps to an empty list
+     */
+    @PostMapping("sku/list/spus")
+    public ResponseEntity<Map<Long, List<Sku>>> querySkusBySpuIds(@RequestBody List<Long> spuIds) {
+        return ResponseEntity.ok(goodsService.querySkusBySpuIds(spuIds));
+    }
+
     /**
      * Query multiple SKUs by their IDs
      * @param ids List of SKU identifiers
@@ -146,6 +261,85 @@ public class GoodsController {
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     }
 
+    /**
+     * Hold stock for a checkout in memory, all lines or none
+     * Every SKU must be owned by this instance, otherwise the request fails with 421 and the owner
+     * of each foreign SKU; see stock/owners.
+     * @param request Lines to hold and an optional TTL in milliseconds
+     * @return The reservation with CREATED status
+     */
+    @PostMapping("stock/reservations")
+    public ResponseEntity<StockReservation> reserveStock(@RequestBody StockReservationRequest request) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(reservationEngine.reserve(request.getLines(), request.getTtl()));
+    }
+
+    /**
+     * Grant a reservation for good; the stock is subtracted from the database before it returns
+     * Fails with STOCK_NOT_ENOUGH and the short SKUs if the database no longer has the stock, in which
+     * case the reservation is released, or with STOCK_UPDATE_ERROR if the write failed and it is still open.
+     * @param id Reservation ID
+     * @return Empty response with NO_CONTENT status
+     */
+    @PostMapping("stock/reservations/{id}/confirm")
+    public ResponseEntity<Void> confirmStock(@PathVariable("id") String id) {
+        reservationEngine.confirm(id);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    /**
+     * Give the stock of a reservation back
+     * @param id Reservation ID
+     * @return Empty response with NO_CONTENT status
+     */
+    @DeleteMapping("stock/reservations/{id}")
+    public ResponseEntity<Void> releaseStock(@PathVariable("id") String id) {
+        reservationEngine.release(id);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    /**
+     * Find the instance that owns the stock of each SKU
+     * @param skuIds SKU identifiers
+     * @return SKU ID -> instance id of its owner
+     */
+    @PostMapping("stock/owners")
+    public ResponseEntity<Map<Long, String>> queryStockOwners(@RequestBody List<Long> skuIds) {
+        return ResponseEntity.ok(reservationEngine.queryOwners(skuIds));
+    }
+
+    /**
+     * Split the stock of a hot SKU into buckets, or merge them back with count 1
+     * @param skuId SKU identifier
+     * @param count Number of buckets
+     * @return The buckets, empty after a merge
+     */
+    @PutMapping("stock/{skuId}/buckets")
+    public ResponseEntity<List<StockBucket>> resizeStockBuckets(@PathVariable("skuId") Long skuId,
+                                                                @RequestParam("count") Integer count) {
+        return ResponseEntity.ok(stockBucketService.resize(skuId, count));
+    }
+
+    /**
+     * Query the stock buckets of a SKU
+     * @param skuId SKU identifier
+     * @return The buckets, empty if the SKU is not bucketed
+     */
+    @GetMapping("stock/{skuId}/buckets")
+    public ResponseEntity<List<StockBucket>> queryStockBuckets(@PathVariable("skuId") Long skuId) {
+        return ResponseEntity.ok(stockBucketService.queryBuckets(skuId));
+    }
+
+    /**
+     * Publish item.update again for every SPU in an id range, for consumers that have to rebuild
+     * @param from First SPU ID
+     * @param to Last SPU ID
+     * @return Number of events queued
+     */
+    @PostMapping("goods/events/replay")
+    public ResponseEntity<Integer> replayItemEvents(@RequestParam("from") Long from, @RequestParam("to") Long to) {
+        return ResponseEntity.ok(outboxRelay.replay(from, to));
+    }
+
     /**
      * Toggle product availability status (on/off shelf)
      * @param id SPU identifier
@@ -156,4 +350,17 @@ public class GoodsController {
         this.goodsService.goodsSoldOut(id);
         return ResponseEntity.status(HttpStatus.OK).build();
     }
+
+    /**
+     * Put a selection of products on or off the shelf, together with all their SKUs
+     * Runs two set-based statements in one transaction; unknown ids are ignored.
+     * @param saleable true to put on the shelf, false to take off
+     * @param ids SPU identifiers
+     * @return Empty response with NO_CONTENT status
+     */
+    @PutMapping("goods/spu/saleable")
+    public ResponseEntity<Void> updateSaleable(@RequestParam("saleable") Boolean saleable, @RequestBody List<Long> ids) {
+        this.goodsService.updateSaleable(ids, saleable);
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.cloud.shopping.item.controller;
+
+import com.cloud.shopping.auth.entity.UserInfo;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.SeckillOrder;
+import com.cloud.shopping.item.filters.UserInterceptor;
+import com.cloud.shopping.item.pojo.SeckillSession;
+import com.cloud.shopping.item.seckill.SeckillService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Flash Sale Controller
+ * Schedules flash sales and admits users to them
+ */
+@RestController
+@RequestMapping("seckill")
+public class SeckillController {
+
+    @Autowired
+    private SeckillService seckillService;
+
+    /**
+     * Schedule a flash sale of a SKU, selling its seckill stock
+     * @param session SKU, start time and end time
+     * @return The saved session with CREATED status
+     */
+    @PostMapping("sessions")
+    public ResponseEntity<SeckillSession> createSession(@RequestBody SeckillSession session) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(seckillService.createSession(session));
+    }
+
+    /**
+     * Try to win one unit of a running flash sale for the logged in user
+     * Must reach the instance that owns the SKU, otherwise it fails with 421 and the owner.
+     * The order is created asynchronously; the token identifies it.
+     * @param skuId SKU on sale
+     * @return The admission with ACCEPTED status
+     * @throws LyException UN_AUTHORIZED without a valid login token
+     */
+    @PostMapping("{skuId}")
+    public ResponseEntity<SeckillOrder> admit(@PathVariable("skuId") Long skuId) {
+        UserInfo user = UserInterceptor.getUser();
+        if (user == null) {
+            throw new LyException(ExceptionEnum.UN_AUTHORIZED);
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(seckillService.admit(skuId, user.getId()));
+    }
+
+    /**
+     * Units left in a flash sale
+     * @param skuId SKU on sale
+     * @return Remaining units, or NOT_FOUND if the sale is not running on this instance
+     */
+    @GetMapping("{skuId}")
+    public ResponseEntity<Integer> queryRemaining(@PathVariable("skuId") Long skuId) {
+        Integer remaining = seckillService.queryRemaining(skuId);
+        if (remaining == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(remaining);
+    }
+}
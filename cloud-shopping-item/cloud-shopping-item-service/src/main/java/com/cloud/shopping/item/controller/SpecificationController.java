@@ -3,11 +3,14 @@ package com.cloud.shopping.item.controller;
 import com.cloud.shopping.item.pojo.SpecGroup;
 import com.cloud.shopping.item.pojo.SpecParam;
 import com.cloud.shopping.item.pojo.Specification;
+import com.cloud.shopping.item.service.SpecTemplate;
 import com.cloud.shopping.item.service.SpecificationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -52,13 +55,23 @@ public class SpecificationController {
     /**
      * Query specification groups with their parameters by category ID
      * Returns complete specification structure for a category
+     * The body is the cached, pre-encoded JSON of the template; a request whose If-None-Match
+     * carries the current ETag gets 304 Not Modified without a body.
      *
      * @param cid Category ID
-     * @return List of specification groups including their parameters
+     * @param request Current request, used for the conditional check
+     * @return JSON list of specification groups including their parameters
      */
     @GetMapping("group")
-    public ResponseEntity<List<SpecGroup>> queryListByCid(@RequestParam("cid") Long cid) {
-        return ResponseEntity.ok(specService.queryListByCid(cid));
+    public ResponseEntity<byte[]> queryListByCid(@RequestParam("cid") Long cid, WebRequest request) {
+        SpecTemplate template = specService.queryTemplateByCid(cid);
+        if (request.checkNotModified(template.getEtag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(template.getEtag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(template.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(template.getJson());
     }
 
     /**
@@ -0,0 +1,53 @@
+package com.cloud.shopping.item.filters;
+
+import com.cloud.shopping.auth.entity.UserInfo;
+import com.cloud.shopping.auth.utils.JwtUtils;
+import com.cloud.shopping.common.utils.CookieUtils;
+import com.cloud.shopping.item.config.JwtProperties;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * User Authentication Interceptor
+ * Reads the logged in user from the JWT cookie, for the endpoints that act on behalf of a user.
+ * A request without a valid token goes through without a user; the endpoint decides whether it needs one.
+ */
+@Slf4j
+public class UserInterceptor implements HandlerInterceptor {
+
+    private final JwtProperties prop;
+
+    private static final ThreadLocal<UserInfo> tl = new ThreadLocal<>();
+
+    public UserInterceptor(JwtProperties prop) {
+        this.prop = prop;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String token = CookieUtils.getCookieValue(request, prop.getCookieName());
+        if (StringUtils.isNotBlank(token)) {
+            try {
+                tl.set(JwtUtils.getInfoFromToken(token, prop.getPublicKey()));
+            } catch (Exception e) {
+                log.warn("[Item Service] Failed to parse user authentication: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        tl.remove();
+    }
+
+    /**
+     * @return The logged in user of the current request, null if there is none
+     */
+    public static UserInfo getUser() {
+        return tl.get();
+    }
+}
@@ -0,0 +1,228 @@
+package com.cloud.shopping.item.importer;
+
+import com.cloud.shopping.item.pojo.Sku;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.pojo.SpuDetail;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Reads CSV with one SKU per row
+ *
+ * The first row names the columns, in any order; unknown columns are ignored. Consecutive rows with
+ * the same value in the spu column (the supplier's product code) form one SPU, whose own columns are
+ * taken from its first row. A row with an empty spu column is an SPU of its own.
+ *
+ * SPU columns: spu, title, subTitle, cid1, cid2, cid3, brandId,
+ * description, genericSpec, specialSpec, packingList, afterService.
+ * SKU columns: skuTitle (defaults to the SPU title), images, price, indexes, ownSpec, enable (defaults to true), stock.
+ *
+ * Fields follow RFC 4180: a field in double quotes may contain commas, line breaks and doubled quotes.
+ */
+public class CsvGoodsReader implements GoodsImportReader {
+
+    public static final String SPU_COLUMN = "spu";
+
+    private final PushbackReader reader;
+    private Map<String, Integer> columns;
+
+    /**
+     * Line the reader is on, and the line the last row read started on
+     */
+    private long line = 1;
+    private long rowLine;
+
+    /**
+     * First row of the next SPU, read ahead while looking for the end of the current one
+     */
+    private List<String> pending;
+    private long pendingLine;
+
+    public CsvGoodsReader(Reader reader) {
+        this.reader = new PushbackReader(reader instanceof BufferedReader ? reader : new BufferedReader(reader));
+    }
+
+    @Override
+    public ImportRecord next() throws IOException {
+        if (columns == null && !readHeader()) {
+            return null;
+        }
+        List<String> first = pending;
+        long start = pendingLine;
+        pending = null;
+        if (first == null) {
+            first = readRow();
+            start = rowLine;
+        }
+        if (first == null) {
+            return null;
+        }
+
+        List<List<String>> rows = new ArrayList<>();
+        rows.add(first);
+        String key = value(first, SPU_COLUMN);
+        for (List<String> row = readRow(); row != null; row = readRow()) {
+            if (key == null || !key.equals(value(row, SPU_COLUMN))) {
+                pending = row;
+                pendingLine = rowLine;
+                break;
+            }
+            rows.add(row);
+        }
+
+        try {
+            return ImportRecord.of(start, toSpu(rows));
+        } catch (IllegalArgumentException e) {
+            return ImportRecord.error(start, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean readHeader() throws IOException {
+        List<String> header = readRow();
+        if (header == null) {
+            return false;
+        }
+        columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.putIfAbsent(header.get(i).trim(), i);
+        }
+        if (!columns.containsKey(SPU_COLUMN)) {
+            throw new IOException("CSV header has no " + SPU_COLUMN + " column");
+        }
+        return true;
+    }
+
+    private Spu toSpu(List<List<String>> rows) {
+        List<String> first = rows.get(0);
+        Spu spu = new Spu();
+        spu.setTitle(value(first, "title"));
+        spu.setSubTitle(value(first, "subTitle"));
+        spu.setCategoryId1(longValue(first, "cid1"));
+        spu.setCategoryId2(longValue(first, "cid2"));
+        spu.setCategoryId3(longValue(first, "cid3"));
+        spu.setBrandId(longValue(first, "brandId"));
+
+        SpuDetail detail = new SpuDetail();
+        detail.setDescription(value(first, "description"));
+        detail.setGenericSpec(value(first, "genericSpec"));
+        detail.setSpecialSpec(value(first, "specialSpec"));
+        detail.setPackingList(value(first, "packingList"));
+        detail.setAfterService(value(first, "afterService"));
+        spu.setSpuDetail(detail);
+
+        List<Sku> skus = new ArrayList<>(rows.size());
+        for (List<String> row : rows) {
+            Sku sku = new Sku();
+            sku.setTitle(StringUtils.defaultIfBlank(value(row, "skuTitle"), spu.getTitle()));
+            sku.setImages(value(row, "images"));
+            sku.setPrice(longValue(row, "price"));
+            sku.setIndexes(value(row, "indexes"));
+            sku.setOwnSpec(value(row, "ownSpec"));
+            String enable = value(row, "enable");
+            sku.setEnable(enable == null || Boolean.parseBoolean(enable));
+            sku.setStock(intValue(row, "stock"));
+            skus.add(sku);
+        }
+        spu.setSkus(skus);
+        return spu;
+    }
+
+    /**
+     * @return The trimmed value of the column, null if the column is missing or the value is empty
+     */
+    private String value(List<String> row, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= row.size()) {
+            return null;
+        }
+        return StringUtils.trimToNull(row.get(index));
+    }
+
+    private Long longValue(List<String> row, String column) {
+        String value = value(row, column);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    private Integer intValue(List<String> row, String column) {
+        Long value = longValue(row, column);
+        if (value != null && (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+        return value == null ? null : value.intValue();
+    }
+
+    /**
+     * Read one row, skipping empty lines
+     *
+     * @return The fields of the row, null at the end of the input
+     */
+    private List<String> readRow() throws IOException {
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        boolean quoted = false;
+        rowLine = line;
+        while (true) {
+            int c = reader.read();
+            if (c == -1) {
+                if (row.isEmpty() && field.length() == 0 && !quoted) {
+                    return null;
+                }
+                row.add(field.toString());
+                return row;
+            }
+            if (inQuotes) {
+                if (c == '"') {
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                        if (next != -1) {
+                            reader.unread(next);
+                        }
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+                quoted = false;
+            } else if (c == '\n') {
+                line++;
+                if (row.isEmpty() && field.length() == 0 && !quoted) {
+                    rowLine = line;
+                    continue;
+                }
+                row.add(field.toString());
+                return row;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.cloud.shopping.item.importer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the SPUs of an import feed one at a time, without holding more than the current record in memory
+ */
+public interface GoodsImportReader extends Closeable {
+
+    /**
+     * Read the next SPU
+     * A malformed record is returned as an error record, reading continues after it.
+     *
+     * @return The next record, null at the end of the feed
+     * @throws IOException if the feed cannot be read at all
+     */
+    ImportRecord next() throws IOException;
+}
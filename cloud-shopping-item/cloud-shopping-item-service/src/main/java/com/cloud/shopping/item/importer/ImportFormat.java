@@ -0,0 +1,56 @@
+package com.cloud.shopping.item.importer;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.io.Reader;
+
+/**
+ * Supported import feed formats, chosen by the content type of the upload
+ */
+public enum ImportFormat {
+
+    NDJSON {
+        @Override
+        public GoodsImportReader open(Reader reader, ObjectMapper objectMapper) {
+            return new NdjsonGoodsReader(reader, objectMapper);
+        }
+    },
+    CSV {
+        @Override
+        public GoodsImportReader open(Reader reader, ObjectMapper objectMapper) {
+            return new CsvGoodsReader(reader);
+        }
+    };
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String CSV_VALUE = "text/csv";
+
+    public abstract GoodsImportReader open(Reader reader, ObjectMapper objectMapper);
+
+    /**
+     * @param contentType Content-Type header of the upload
+     * @return The matching format
+     * @throws LyException if the content type is missing or not supported
+     */
+    public static ImportFormat of(String contentType) {
+        if (contentType == null) {
+            throw new LyException(ExceptionEnum.IMPORT_FORMAT_NOT_SUPPORTED);
+        }
+        try {
+            MediaType type = MediaType.parseMediaType(contentType);
+            if (type.isCompatibleWith(MediaType.APPLICATION_NDJSON) || type.isCompatibleWith(MediaType.parseMediaType(NDJSON_VALUE))) {
+                return NDJSON;
+            }
+            if (type.isCompatibleWith(MediaType.parseMediaType(CSV_VALUE))) {
+                return CSV;
+            }
+        } catch (InvalidMediaTypeException e) {
+            // falls through to the error below
+        }
+        throw new LyException(ExceptionEnum.IMPORT_FORMAT_NOT_SUPPORTED);
+    }
+}
@@ -0,0 +1,150 @@
+package com.cloud.shopping.item.importer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one bulk import, updated by the reader and the chunk writers while it runs
+ *
+ * Only the first maxErrors record errors are kept; the failed count includes all of them.
+ */
+public class ImportJob {
+
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    private final String id;
+    private final ImportFormat format;
+    private final long startTime = System.currentTimeMillis();
+    private final int maxErrors;
+
+    private volatile Status status = Status.RUNNING;
+    private volatile Long endTime;
+    private volatile String message;
+
+    private final AtomicLong recordsRead = new AtomicLong();
+    private final AtomicLong recordsFailed = new AtomicLong();
+    private final AtomicLong spusImported = new AtomicLong();
+    private final AtomicLong skusImported = new AtomicLong();
+
+    /**
+     * Guarded by itself
+     */
+    private final List<RecordError> errors = new ArrayList<>();
+
+    public ImportJob(String id, ImportFormat format, int maxErrors) {
+        this.id = id;
+        this.format = format;
+        this.maxErrors = maxErrors;
+    }
+
+    public void recordRead() {
+        recordsRead.incrementAndGet();
+    }
+
+    public void imported(int spus, int skus) {
+        spusImported.addAndGet(spus);
+        skusImported.addAndGet(skus);
+    }
+
+    /**
+     * @param line Line the failed record starts on
+     * @param message Why it was not imported
+     */
+    public void failed(long line, String message) {
+        recordsFailed.incrementAndGet();
+        synchronized (errors) {
+            if (errors.size() < maxErrors) {
+                errors.add(new RecordError(line, message));
+            }
+        }
+    }
+
+    /**
+     * @param failure Why the import stopped early, null if the whole feed was read
+     */
+    public void finish(String failure) {
+        message = failure;
+        endTime = System.currentTimeMillis();
+        status = failure == null ? Status.COMPLETED : Status.FAILED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ImportFormat getFormat() {
+        return format;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status != Status.RUNNING;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public Long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return Why the import failed, null unless the status is FAILED
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public long getRecordsRead() {
+        return recordsRead.get();
+    }
+
+    public long getRecordsFailed() {
+        return recordsFailed.get();
+    }
+
+    public long getSpusImported() {
+        return spusImported.get();
+    }
+
+    public long getSkusImported() {
+        return skusImported.get();
+    }
+
+    /**
+     * @return The kept record errors, in the order they were found
+     */
+    public List<RecordError> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public static class RecordError {
+        private final long line;
+        private final String message;
+
+        public RecordError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
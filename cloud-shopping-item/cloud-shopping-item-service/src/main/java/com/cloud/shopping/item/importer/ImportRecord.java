@@ -0,0 +1,48 @@
+package com.cloud.shopping.item.importer;
+
+import com.cloud.shopping.item.pojo.Spu;
+
+/**
+ * One SPU read from an import feed, or the reason it could not be read
+ */
+public final class ImportRecord {
+
+    private final long line;
+    private final Spu spu;
+    private final String error;
+
+    private ImportRecord(long line, Spu spu, String error) {
+        this.line = line;
+        this.spu = spu;
+        this.error = error;
+    }
+
+    public static ImportRecord of(long line, Spu spu) {
+        return new ImportRecord(line, spu, null);
+    }
+
+    public static ImportRecord error(long line, String error) {
+        return new ImportRecord(line, null, error);
+    }
+
+    /**
+     * @return Line of the feed the record starts on, counting from 1
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * @return The SPU with its detail and SKUs, null if the record is malformed
+     */
+    public Spu getSpu() {
+        return spu;
+    }
+
+    /**
+     * @return Why the record could not be read, null if it was read
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,48 @@
+package com.cloud.shopping.item.importer;
+
+import com.cloud.shopping.item.pojo.Spu;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads newline delimited JSON, one SPU per line in the same shape as the body of POST /goods
+ * Blank lines are skipped.
+ */
+public class NdjsonGoodsReader implements GoodsImportReader {
+
+    private final BufferedReader reader;
+    private final ObjectReader spuReader;
+    private long line;
+
+    public NdjsonGoodsReader(Reader reader, ObjectMapper objectMapper) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.spuReader = objectMapper.readerFor(Spu.class);
+    }
+
+    @Override
+    public ImportRecord next() throws IOException {
+        String text;
+        while ((text = reader.readLine()) != null) {
+            line++;
+            if (text.isBlank()) {
+                continue;
+            }
+            try {
+                return ImportRecord.of(line, spuReader.readValue(text));
+            } catch (JsonProcessingException e) {
+                return ImportRecord.error(line, "Malformed JSON: " + e.getOriginalMessage());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
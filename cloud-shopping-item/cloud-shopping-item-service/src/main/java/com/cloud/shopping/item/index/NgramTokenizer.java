@@ -0,0 +1,107 @@
+package com.cloud.shopping.item.index;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * N-gram tokenizer for product titles
+ *
+ * Text is normalized the way MySQL's default utf8mb4 collation compares it for LIKE: compatibility
+ * forms are folded (full-width to half-width), accents are stripped and case is ignored.
+ * The normalized text is split into runs of CJK characters and runs of other letters and digits;
+ * every other character ends a run.
+ * - CJK runs are indexed as unigrams and bigrams, since a single Chinese character is already a word
+ * - Letter/digit runs are indexed as trigrams
+ * A query produces the grams that any matching text must contain, so the posting list intersection
+ * is a superset of the LIKE result. Letter/digit runs shorter than three characters produce no gram.
+ */
+public final class NgramTokenizer {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private NgramTokenizer() {
+    }
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param text Normalized text
+     * @return All grams to index for the text
+     */
+    public static Set<String> indexGrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        forEachRun(text, (run, cjk) -> {
+            if (cjk) {
+                addGrams(run, 1, grams);
+                addGrams(run, 2, grams);
+            } else {
+                addGrams(run, 3, grams);
+            }
+        });
+        return grams;
+    }
+
+    /**
+     * @param key Raw search keyword
+     * @return Grams every matching text contains, empty if the keyword is too short to use the index
+     */
+    public static Set<String> queryGrams(String key) {
+        Set<String> grams = new LinkedHashSet<>();
+        forEachRun(normalize(key), (run, cjk) -> {
+            if (cjk) {
+                addGrams(run, run.length() == 1 ? 1 : 2, grams);
+            } else {
+                addGrams(run, 3, grams);
+            }
+        });
+        return grams;
+    }
+
+    private static void addGrams(String run, int n, Set<String> grams) {
+        for (int i = 0; i + n <= run.length(); i++) {
+            grams.add(run.substring(i, i + n));
+        }
+    }
+
+    private interface RunConsumer {
+        void accept(String run, boolean cjk);
+    }
+
+    private static void forEachRun(String text, RunConsumer consumer) {
+        int start = -1;
+        boolean startCjk = false;
+        for (int i = 0; i <= text.length(); i++) {
+            int kind = i == text.length() ? 0 : kind(text.charAt(i));
+            boolean cjk = kind == 2;
+            if (start >= 0 && (kind == 0 || cjk != startCjk)) {
+                consumer.accept(text.substring(start, i), startCjk);
+                start = -1;
+            }
+            if (start < 0 && kind != 0) {
+                start = i;
+                startCjk = cjk;
+            }
+        }
+    }
+
+    /**
+     * @return 0 for separators, 1 for letters and digits, 2 for CJK characters
+     */
+    private static int kind(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        if (script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL) {
+            return 2;
+        }
+        return Character.isLetterOrDigit(c) ? 1 : 0;
+    }
+}
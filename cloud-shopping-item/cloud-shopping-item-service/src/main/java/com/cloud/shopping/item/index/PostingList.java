@@ -0,0 +1,118 @@
+package com.cloud.shopping.item.index;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Compressed posting list: a varint count followed by the varint deltas of the sorted ids
+ *
+ * Ids of the same gram are usually close to each other, so most deltas fit in one or two bytes
+ * instead of the eight bytes of a long. Encoded lists are immutable; updates build a new array.
+ */
+final class PostingList {
+
+    private PostingList() {
+    }
+
+    static byte[] encode(long[] sortedIds, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 2);
+        writeVarLong(out, length);
+        long previous = 0;
+        for (int i = 0; i < length; i++) {
+            writeVarLong(out, sortedIds[i] - previous);
+            previous = sortedIds[i];
+        }
+        return out.toByteArray();
+    }
+
+    static long[] decode(byte[] bytes) {
+        int[] pos = {0};
+        int count = (int) readVarLong(bytes, pos);
+        long[] ids = new long[count];
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarLong(bytes, pos);
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    static int count(byte[] bytes) {
+        return (int) readVarLong(bytes, new int[]{0});
+    }
+
+    /**
+     * @return New posting list with the id added, or null if it is already present
+     */
+    static byte[] add(byte[] bytes, long id) {
+        long[] ids = bytes == null ? new long[0] : decode(bytes);
+        int i = Arrays.binarySearch(ids, id);
+        if (i >= 0) {
+            return null;
+        }
+        int at = -i - 1;
+        long[] next = new long[ids.length + 1];
+        System.arraycopy(ids, 0, next, 0, at);
+        next[at] = id;
+        System.arraycopy(ids, at, next, at + 1, ids.length - at);
+        return encode(next, next.length);
+    }
+
+    /**
+     * @return New posting list without the id, an empty array if it was the last one, or null if it is absent
+     */
+    static byte[] remove(byte[] bytes, long id) {
+        long[] ids = decode(bytes);
+        int i = Arrays.binarySearch(ids, id);
+        if (i < 0) {
+            return null;
+        }
+        if (ids.length == 1) {
+            return new byte[0];
+        }
+        long[] next = new long[ids.length - 1];
+        System.arraycopy(ids, 0, next, 0, i);
+        System.arraycopy(ids, i + 1, next, i, ids.length - i - 1);
+        return encode(next, next.length);
+    }
+
+    /**
+     * @return Ids present in both sorted arrays
+     */
+    static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] bytes, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,456 @@
+package com.cloud.shopping.item.index;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.common.utils.JsonUtils;
+import com.cloud.shopping.item.dto.FacetQuery;
+import com.cloud.shopping.item.dto.FacetResult;
+import com.cloud.shopping.item.mapper.SpecParamMapper;
+import com.cloud.shopping.item.mapper.SpuDetailMapper;
+import com.cloud.shopping.item.pojo.SpecParam;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bitmap facet index over the searchable spec params
+ *
+ * For every level 3 category it keeps one Roaring bitmap of SPU ids per (param, value), where numeric
+ * params are bucketed into the segments of SpecParam.segments. A filter is a few bitmap ORs and ANDs
+ * and every facet count is one AND cardinality, so a query costs microseconds regardless of the
+ * number of SPUs. Only saleable SPUs are indexed.
+ *
+ * Values come from SpuDetail.genericSpec for generic params and SpuDetail.specialSpec for the others.
+ *
+ * A category is an immutable snapshot: writers clone the bitmaps they touch and swap the snapshot,
+ * so readers never lock and never see a half-applied update. Writers are serialized on this object.
+ */
+@Slf4j
+@Component
+public class SpecFacetIndex {
+
+    @Autowired
+    private SpuDetailMapper detailMapper;
+
+    @Autowired
+    private SpecParamMapper specParamMapper;
+
+    @Value("${ly.item.facet.index.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${ly.item.facet.index.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Value("${ly.item.facet.max-rows:100}")
+    private int maxRows = 100;
+
+    private volatile Map<Long, CategoryFacets> categories = new ConcurrentHashMap<>();
+
+    /**
+     * Searchable params per category
+     */
+    private volatile Map<Long, List<SpecParam>> paramsByCid = new ConcurrentHashMap<>();
+
+    /**
+     * What each indexed SPU contributed, needed to undo it on update; guarded by this
+     */
+    private Map<Integer, Doc> docs = new HashMap<>();
+
+    /**
+     * SPUs changed while the index was being built; guarded by this
+     */
+    private final Set<Long> pending = new HashSet<>();
+
+    private volatile boolean ready;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        Thread builder = new Thread(this::build, "spec-facet-index-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Build the whole index in SPU id batches and swap it in
+     */
+    public void build() {
+        long start = System.currentTimeMillis();
+        Map<Long, List<SpecParam>> params = new HashMap<>();
+        Map<Integer, Doc> builtDocs = new HashMap<>();
+        Map<Long, CategoryFacets> built = new HashMap<>();
+        try {
+            SpecParam searchable = new SpecParam();
+            searchable.setSearching(true);
+            for (SpecParam param : specParamMapper.select(searchable)) {
+                params.computeIfAbsent(param.getCid(), k -> new ArrayList<>()).add(param);
+            }
+            params.values().forEach(list -> list.sort(Comparator.comparing(SpecParam::getId)));
+
+            long afterId = 0;
+            List<SpuSpecRow> batch;
+            do {
+                batch = detailMapper.selectSpecRowsAfter(afterId, batchSize);
+                for (SpuSpecRow row : batch) {
+                    afterId = row.getSpuId();
+                    Doc doc = toDoc(row, params.getOrDefault(row.getCid3(), Collections.emptyList()));
+                    if (doc == null) {
+                        continue;
+                    }
+                    builtDocs.put(doc.spuId, doc);
+                    built.computeIfAbsent(doc.cid3, k -> CategoryFacets.empty()).add(doc);
+                }
+            } while (batch.size() == batchSize);
+        } catch (Exception e) {
+            log.error("Failed to build the spec facet index", e);
+            return;
+        }
+        built.values().forEach(CategoryFacets::optimize);
+
+        List<Long> changed;
+        synchronized (this) {
+            categories = new ConcurrentHashMap<>(built);
+            paramsByCid = new ConcurrentHashMap<>(params);
+            docs = builtDocs;
+            ready = true;
+            changed = new ArrayList<>(pending);
+            pending.clear();
+        }
+        changed.forEach(this::reindex);
+        log.info("Spec facet index built: {} spus in {} categories in {} ms",
+                builtDocs.size(), built.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reload one SPU and update its bitmaps
+     *
+     * @param spuId SPU ID
+     */
+    public synchronized void reindex(Long spuId) {
+        if (!ready) {
+            pending.add(spuId);
+            return;
+        }
+        SpuSpecRow row = detailMapper.selectSpecRow(spuId);
+        Doc doc = row == null || row.getCid3() == null ? null : toDoc(row, params(row.getCid3()));
+        replace(spuId, doc);
+    }
+
+    /**
+     * Remove one SPU from the index
+     *
+     * @param spuId SPU ID
+     */
+    public synchronized void remove(Long spuId) {
+        if (!ready) {
+            pending.add(spuId);
+            return;
+        }
+        replace(spuId, null);
+    }
+
+    /**
+     * Filter the SPUs of a category and count every searchable value
+     *
+     * @param query Category, selected values and page
+     * @return Matching SPU ids and facet counts
+     * @throws LyException if the index is not built yet
+     */
+    public FacetResult search(FacetQuery query) {
+        if (query.getCid3() == null) {
+            throw new LyException(ExceptionEnum.CATEGORY_NOT_FOUND);
+        }
+        if (!ready) {
+            throw new LyException(ExceptionEnum.FACET_INDEX_NOT_READY);
+        }
+        List<SpecParam> params = paramsByCid.getOrDefault(query.getCid3(), Collections.emptyList());
+        CategoryFacets facets = categories.getOrDefault(query.getCid3(), CategoryFacets.EMPTY);
+        Map<Long, List<String>> filters = query.getFilters() == null ? Collections.emptyMap() : query.getFilters();
+
+        // union of the selected values of every filtered param
+        Map<Long, RoaringBitmap> unions = new HashMap<>();
+        filters.forEach((paramId, values) -> {
+            if (values == null || values.isEmpty()) {
+                return;
+            }
+            Map<String, RoaringBitmap> byValue = facets.values.getOrDefault(paramId, Collections.emptyMap());
+            RoaringBitmap union = new RoaringBitmap();
+            for (String value : values) {
+                RoaringBitmap bitmap = byValue.get(value);
+                if (bitmap != null) {
+                    union.or(bitmap);
+                }
+            }
+            unions.put(paramId, union);
+        });
+
+        RoaringBitmap matched = restrict(facets.all, unions, null);
+
+        FacetResult result = new FacetResult();
+        result.setTotal((long) matched.getCardinality());
+        result.setSpuIds(page(matched, query.getPage(), query.getRows()));
+
+        List<FacetResult.Facet> list = new ArrayList<>(params.size());
+        for (SpecParam param : params) {
+            // disjunctive counts: a param's own selection does not narrow its counts
+            RoaringBitmap base = unions.containsKey(param.getId()) ? restrict(facets.all, unions, param.getId()) : matched;
+            Set<String> selected = new HashSet<>(filters.getOrDefault(param.getId(), Collections.emptyList()));
+
+            List<FacetResult.FacetValue> values = new ArrayList<>();
+            facets.values.getOrDefault(param.getId(), Collections.emptyMap()).forEach((value, bitmap) -> {
+                FacetResult.FacetValue v = new FacetResult.FacetValue();
+                v.setValue(value);
+                v.setLabel(label(value, param));
+                v.setCount((long) RoaringBitmap.andCardinality(base, bitmap));
+                v.setSelected(selected.contains(value));
+                values.add(v);
+            });
+            values.sort(Comparator.comparing(FacetResult.FacetValue::getCount).reversed()
+                    .thenComparing(FacetResult.FacetValue::getValue));
+
+            FacetResult.Facet facet = new FacetResult.Facet();
+            facet.setParamId(param.getId());
+            facet.setName(param.getName());
+            facet.setUnit(param.getUnit());
+            facet.setNumeric(param.getNumeric());
+            facet.setValues(values);
+            list.add(facet);
+        }
+        result.setFacets(list);
+        return result;
+    }
+
+    private static RoaringBitmap restrict(RoaringBitmap all, Map<Long, RoaringBitmap> unions, Long skip) {
+        RoaringBitmap result = all.clone();
+        for (Map.Entry<Long, RoaringBitmap> e : unions.entrySet()) {
+            if (!e.getKey().equals(skip)) {
+                result.and(e.getValue());
+            }
+        }
+        return result;
+    }
+
+    private List<Long> page(RoaringBitmap matched, Integer page, Integer rows) {
+        int size = Math.max(1, Math.min(rows == null ? 20 : rows, maxRows));
+        long skip = (long) Math.max(0, (page == null ? 1 : page) - 1) * size;
+        List<Long> ids = new ArrayList<>(size);
+        IntIterator it = matched.getReverseIntIterator();
+        for (long i = 0; it.hasNext() && ids.size() < size; i++) {
+            int id = it.next();
+            if (i >= skip) {
+                ids.add((long) id);
+            }
+        }
+        return ids;
+    }
+
+    private List<SpecParam> params(Long cid3) {
+        return paramsByCid.computeIfAbsent(cid3, cid -> {
+            SpecParam searchable = new SpecParam();
+            searchable.setCid(cid);
+            searchable.setSearching(true);
+            List<SpecParam> list = new ArrayList<>(specParamMapper.select(searchable));
+            list.sort(Comparator.comparing(SpecParam::getId));
+            return list;
+        });
+    }
+
+    private void replace(Long spuId, Doc doc) {
+        if (spuId > Integer.MAX_VALUE) {
+            return;
+        }
+        Doc old = docs.remove(spuId.intValue());
+        if (old != null) {
+            CategoryFacets copy = categories.getOrDefault(old.cid3, CategoryFacets.EMPTY).copyFor(old);
+            copy.remove(old);
+            categories.put(old.cid3, copy);
+        }
+        if (doc != null) {
+            docs.put(doc.spuId, doc);
+            CategoryFacets copy = categories.getOrDefault(doc.cid3, CategoryFacets.EMPTY).copyFor(doc);
+            copy.add(doc);
+            categories.put(doc.cid3, copy);
+        }
+    }
+
+    /**
+     * Extract the indexed values of one SPU, null if it is not indexed
+     */
+    private Doc toDoc(SpuSpecRow row, List<SpecParam> params) {
+        if (row.getSpuId() == null || row.getSpuId() > Integer.MAX_VALUE
+                || row.getCid3() == null || !Boolean.TRUE.equals(row.getSaleable())) {
+            return null;
+        }
+        Map<String, Object> generic = parse(row.getGenericSpec());
+        Map<String, Object> special = parse(row.getSpecialSpec());
+
+        Map<Long, Set<String>> values = new HashMap<>();
+        for (SpecParam param : params) {
+            Object raw = Boolean.TRUE.equals(param.getGeneric())
+                    ? generic.get(String.valueOf(param.getId()))
+                    : special.get(String.valueOf(param.getId()));
+            Collection<?> items = raw instanceof Collection ? (Collection<?>) raw : Collections.singletonList(raw);
+            for (Object item : items) {
+                String value = value(item, param);
+                if (value != null) {
+                    values.computeIfAbsent(param.getId(), k -> new HashSet<>()).add(value);
+                }
+            }
+        }
+        return new Doc(row.getSpuId().intValue(), row.getCid3(), values);
+    }
+
+    private static Map<String, Object> parse(String json) {
+        if (StringUtils.isBlank(json)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> map = JsonUtils.toMap(json, String.class, Object.class);
+        return map == null ? Collections.emptyMap() : map;
+    }
+
+    /**
+     * The facet value of one spec value: the trimmed text, or the matching segment for numeric params
+     */
+    private static String value(Object item, SpecParam param) {
+        if (item == null || StringUtils.isBlank(item.toString())) {
+            return null;
+        }
+        String text = item.toString().trim();
+        if (!Boolean.TRUE.equals(param.getNumeric())) {
+            return text;
+        }
+        if (StringUtils.isBlank(param.getSegments())) {
+            return null;
+        }
+        try {
+            double val = Double.parseDouble(text);
+            for (String segment : param.getSegments().split(",")) {
+                String[] bounds = segment.trim().split("-");
+                double begin = Double.parseDouble(bounds[0]);
+                double end = bounds.length == 2 ? Double.parseDouble(bounds[1]) : Double.MAX_VALUE;
+                if (val >= begin && val < end) {
+                    return segment.trim();
+                }
+            }
+        } catch (NumberFormatException e) {
+            // not a number, or a malformed segment definition
+        }
+        return null;
+    }
+
+    private static String label(String value, SpecParam param) {
+        if (!Boolean.TRUE.equals(param.getNumeric())) {
+            return value;
+        }
+        String unit = StringUtils.defaultString(param.getUnit());
+        String[] bounds = value.split("-");
+        if (bounds.length == 1) {
+            return bounds[0] + unit + " and above";
+        }
+        if ("0".equals(bounds[0]) || "0.0".equals(bounds[0])) {
+            return "below " + bounds[1] + unit;
+        }
+        return value + unit;
+    }
+
+    /**
+     * The values one SPU contributes to the index
+     */
+    private static final class Doc {
+        private final int spuId;
+        private final Long cid3;
+        private final Map<Long, Set<String>> values;
+
+        private Doc(int spuId, Long cid3, Map<Long, Set<String>> values) {
+            this.spuId = spuId;
+            this.cid3 = cid3;
+            this.values = values;
+        }
+    }
+
+    /**
+     * The bitmaps of one category; only mutated before it is published
+     */
+    private static final class CategoryFacets {
+        private static final CategoryFacets EMPTY = empty();
+
+        private final RoaringBitmap all;
+        private final Map<Long, Map<String, RoaringBitmap>> values;
+
+        private CategoryFacets(RoaringBitmap all, Map<Long, Map<String, RoaringBitmap>> values) {
+            this.all = all;
+            this.values = values;
+        }
+
+        private static CategoryFacets empty() {
+            return new CategoryFacets(new RoaringBitmap(), new HashMap<>());
+        }
+
+        /**
+         * Copy that shares every bitmap except the ones the document touches
+         */
+        private CategoryFacets copyFor(Doc doc) {
+            Map<Long, Map<String, RoaringBitmap>> copy = new HashMap<>(values);
+            doc.values.forEach((paramId, vals) -> {
+                Map<String, RoaringBitmap> byValue = new HashMap<>(values.getOrDefault(paramId, Collections.emptyMap()));
+                for (String value : vals) {
+                    RoaringBitmap bitmap = byValue.get(value);
+                    if (bitmap != null) {
+                        byValue.put(value, bitmap.clone());
+                    }
+                }
+                copy.put(paramId, byValue);
+            });
+            return new CategoryFacets(all.clone(), copy);
+        }
+
+        private void add(Doc doc) {
+            all.add(doc.spuId);
+            doc.values.forEach((paramId, vals) -> {
+                Map<String, RoaringBitmap> byValue = values.computeIfAbsent(paramId, k -> new HashMap<>());
+                for (String value : vals) {
+                    byValue.computeIfAbsent(value, k -> new RoaringBitmap()).add(doc.spuId);
+                }
+            });
+        }
+
+        private void remove(Doc doc) {
+            all.remove(doc.spuId);
+            doc.values.forEach((paramId, vals) -> {
+                Map<String, RoaringBitmap> byValue = values.get(paramId);
+                if (byValue == null) {
+                    return;
+                }
+                for (String value : vals) {
+                    RoaringBitmap bitmap = byValue.get(value);
+                    if (bitmap != null) {
+                        bitmap.remove(doc.spuId);
+                        if (bitmap.isEmpty()) {
+                            byValue.remove(value);
+                        }
+                    }
+                }
+            });
+        }
+
+        private void optimize() {
+            all.runOptimize();
+            values.values().forEach(byValue -> byValue.values().forEach(RoaringBitmap::runOptimize));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.cloud.shopping.item.index;
+
+import lombok.Data;
+
+/**
+ * The columns of one SPU that the facet index is built from
+ */
+@Data
+public class SpuSpecRow {
+    private Long spuId;
+    private Long cid3;
+    private Boolean saleable;
+    private String genericSpec;    // JSON object: spec param ID -> value
+    private String specialSpec;    // JSON object: spec param ID -> list of values
+}
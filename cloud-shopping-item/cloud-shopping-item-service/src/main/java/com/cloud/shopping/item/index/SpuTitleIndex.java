@@ -0,0 +1,226 @@
+package com.cloud.shopping.item.index;
+
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.Spu;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process n-gram inverted index over Spu title and subTitle
+ *
+ * Resolves the admin keyword filter to a small set of candidate SPU ids, so MySQL only has to
+ * re-check those rows instead of scanning tb_spu with LIKE '%key%'. The candidates are a superset
+ * of the real matches; the LIKE condition is kept on the candidate rows for exact semantics.
+ *
+ * The index is built in id batches after startup and kept current from the item change messages.
+ * Until it is ready, and whenever it cannot narrow the search (keyword too short, too many
+ * candidates), {@link #search(String)} returns null and the caller falls back to a plain LIKE scan.
+ *
+ * Readers never lock: posting lists are immutable arrays replaced one key at a time.
+ * Writers are serialized on this object.
+ */
+@Slf4j
+@Component
+public class SpuTitleIndex {
+
+    @Autowired
+    private SpuMapper spuMapper;
+
+    @Value("${ly.item.search.index.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${ly.item.search.index.batch-size:1000}")
+    private int batchSize = 1000;
+
+    @Value("${ly.item.search.index.max-candidates:5000}")
+    private int maxCandidates = 5000;
+
+    private volatile Map<String, byte[]> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Normalized text indexed for each SPU, needed to find the grams to drop on update; guarded by this
+     */
+    private Map<Long, String> textById = new HashMap<>();
+
+    /**
+     * SPUs changed while the index was being built, reindexed once it is ready; guarded by this
+     */
+    private final Set<Long> pending = new HashSet<>();
+
+    private volatile boolean ready;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        Thread builder = new Thread(this::build, "spu-title-index-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Build the whole index from tb_spu in id batches and swap it in
+     */
+    public void build() {
+        long start = System.currentTimeMillis();
+        Map<String, long[]> lists = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        Map<Long, String> texts = new HashMap<>();
+        try {
+            long afterId = 0;
+            List<Spu> batch;
+            do {
+                batch = spuMapper.selectTitlesAfter(afterId, batchSize);
+                for (Spu spu : batch) {
+                    String text = text(spu);
+                    texts.put(spu.getId(), text);
+                    // ids arrive in ascending order, so every list stays sorted
+                    for (String gram : NgramTokenizer.indexGrams(text)) {
+                        long[] ids = lists.get(gram);
+                        int size = sizes.getOrDefault(gram, 0);
+                        if (ids == null || size == ids.length) {
+                            ids = ids == null ? new long[4] : Arrays.copyOf(ids, size * 2);
+                            lists.put(gram, ids);
+                        }
+                        ids[size] = spu.getId();
+                        sizes.put(gram, size + 1);
+                    }
+                    afterId = spu.getId();
+                }
+            } while (batch.size() == batchSize);
+        } catch (Exception e) {
+            log.error("Failed to build the SPU title index, keyword search keeps using LIKE", e);
+            return;
+        }
+
+        Map<String, byte[]> encoded = new ConcurrentHashMap<>(lists.size() * 2);
+        lists.forEach((gram, ids) -> encoded.put(gram, PostingList.encode(ids, sizes.get(gram))));
+
+        List<Long> changed;
+        synchronized (this) {
+            postings = encoded;
+            textById = texts;
+            ready = true;
+            changed = new ArrayList<>(pending);
+            pending.clear();
+        }
+        // rows changed during the build may have been read before the change
+        changed.forEach(this::reindex);
+        log.info("SPU title index built: {} spus, {} grams in {} ms",
+                texts.size(), encoded.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Resolve a keyword to candidate SPU ids
+     *
+     * @param key Raw keyword
+     * @return Sorted candidate ids, empty if nothing can match, or null if the index cannot narrow the search
+     */
+    public List<Long> search(String key) {
+        if (!ready) {
+            return null;
+        }
+        Set<String> grams = NgramTokenizer.queryGrams(key);
+        if (grams.isEmpty()) {
+            return null;
+        }
+
+        Map<String, byte[]> current = postings;
+        List<byte[]> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            byte[] list = current.get(gram);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            lists.add(list);
+        }
+        // start from the rarest gram so the intersection shrinks as fast as possible
+        lists.sort(Comparator.comparingInt(PostingList::count));
+
+        long[] ids = PostingList.decode(lists.get(0));
+        for (int i = 1; i < lists.size() && ids.length > 0; i++) {
+            ids = PostingList.intersect(ids, PostingList.decode(lists.get(i)));
+        }
+        if (ids.length > maxCandidates) {
+            return null;
+        }
+        List<Long> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * Reload one SPU from the database and update its postings, removing it if it no longer exists
+     *
+     * @param id SPU ID
+     */
+    public synchronized void reindex(Long id) {
+        if (!ready) {
+            pending.add(id);
+            return;
+        }
+        Spu spu = spuMapper.selectByPrimaryKey(id);
+        update(id, spu == null ? null : text(spu));
+    }
+
+    /**
+     * Remove one SPU from the index
+     *
+     * @param id SPU ID
+     */
+    public synchronized void remove(Long id) {
+        if (!ready) {
+            pending.add(id);
+            return;
+        }
+        update(id, null);
+    }
+
+    private void update(Long id, String text) {
+        String old = text == null ? textById.remove(id) : textById.put(id, text);
+        if (Objects.equals(old, text)) {
+            return;
+        }
+        Set<String> oldGrams = old == null ? Collections.emptySet() : NgramTokenizer.indexGrams(old);
+        Set<String> newGrams = text == null ? Collections.emptySet() : NgramTokenizer.indexGrams(text);
+
+        for (String gram : oldGrams) {
+            if (!newGrams.contains(gram)) {
+                byte[] list = postings.get(gram);
+                byte[] next = list == null ? null : PostingList.remove(list, id);
+                if (next != null && next.length == 0) {
+                    postings.remove(gram);
+                } else if (next != null) {
+                    postings.put(gram, next);
+                }
+            }
+        }
+        for (String gram : newGrams) {
+            if (!oldGrams.contains(gram)) {
+                byte[] next = PostingList.add(postings.get(gram), id);
+                if (next != null) {
+                    postings.put(gram, next);
+                }
+            }
+        }
+    }
+
+    private static String text(Spu spu) {
+        // the separator ends the title run, so no gram spans both fields
+        return NgramTokenizer.normalize(spu.getTitle()) + " " + NgramTokenizer.normalize(spu.getSubTitle());
+    }
+}
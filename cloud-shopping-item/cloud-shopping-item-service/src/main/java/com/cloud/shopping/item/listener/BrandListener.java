@@ -0,0 +1,49 @@
+package com.cloud.shopping.item.listener;
+
+import com.cloud.shopping.item.service.BrandService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Brand Change Listener
+ * Drops the cached brand and category brand lists that any instance changed
+ *
+ * Like the category listener, every instance binds its own anonymous queue so each change reaches all of them.
+ */
+@Slf4j
+@Component
+public class BrandListener {
+
+    @Autowired
+    private BrandService brandService;
+
+    /**
+     * Handle a brand change broadcast
+     *
+     * @param bid Brand ID that changed, 0 if none
+     * @param cids Comma separated category IDs whose brand lists changed, null if none
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {BrandService.BRAND_UPDATE_KEY}
+    ))
+    public void onBrandUpdate(Long bid, @Header(name = BrandService.CATEGORY_IDS_HEADER, required = false) String cids) {
+        log.debug("Brand change received for brand {} in categories {}", bid, cids);
+        List<Long> categoryIds = StringUtils.isBlank(cids) ? null
+                : Arrays.stream(StringUtils.split(cids, ',')).map(Long::valueOf).collect(Collectors.toList());
+        brandService.evict(bid == null || bid == 0 ? null : bid, categoryIds);
+    }
+}
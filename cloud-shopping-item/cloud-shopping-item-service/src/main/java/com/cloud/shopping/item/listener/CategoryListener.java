@@ -0,0 +1,45 @@
+package com.cloud.shopping.item.listener;
+
+import com.cloud.shopping.item.service.CategoryService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Category Change Listener
+ * Rebuilds the local category tree snapshot when another instance changes a category
+ *
+ * Every instance binds its own anonymous, exclusive, auto-delete queue to the item exchange,
+ * so each change is delivered to all running instances.
+ */
+@Slf4j
+@Component
+public class CategoryListener {
+
+    @Autowired
+    private CategoryService categoryService;
+
+    /**
+     * Handle a category change broadcast
+     *
+     * @param origin Instance id of the instance that made the change
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {CategoryService.CATEGORY_UPDATE_KEY}
+    ))
+    public void onCategoryUpdate(String origin) {
+        // the origin already rebuilt its snapshot before sending
+        if (categoryService.getInstanceId().equals(origin)) {
+            return;
+        }
+        log.info("Category change received from {}, rebuilding snapshot", origin);
+        categoryService.refresh();
+    }
+}
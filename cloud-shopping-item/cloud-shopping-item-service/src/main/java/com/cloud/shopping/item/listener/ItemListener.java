@@ -0,0 +1,83 @@
+package com.cloud.shopping.item.listener;
+
+import com.cloud.shopping.item.index.SpecFacetIndex;
+import com.cloud.shopping.item.index.SpuTitleIndex;
+import com.cloud.shopping.item.service.ItemEventPublisher;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Item Change Listener
+ * Keeps the in-process indexes of this instance current with SPU changes made on any instance
+ *
+ * Like {@link CategoryListener}, every instance binds its own anonymous queue, so each message
+ * reaches all instances. The shared named queues of other consumers are not touched.
+ */
+@Component
+public class ItemListener {
+
+    @Autowired
+    private SpuTitleIndex titleIndex;
+
+    @Autowired
+    private SpecFacetIndex facetIndex;
+
+    /**
+     * Reindex a created or updated SPU
+     *
+     * @param spuId SPU ID
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {"item.insert", "item.update"}
+    ))
+    public void onInsertOrUpdate(Long spuId) {
+        if (spuId != null) {
+            titleIndex.reindex(spuId);
+            facetIndex.reindex(spuId);
+        }
+    }
+
+    /**
+     * Index the SPUs created by one chunk of a bulk import
+     * Bulk updates and deletes also send item.update and item.delete per SPU, so their batch keys are not bound here.
+     *
+     * @param spuIds SPU IDs
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {ItemEventPublisher.IMPORT_KEY}
+    ))
+    public void onImport(List<Long> spuIds) {
+        if (spuIds != null) {
+            spuIds.forEach(this::onInsertOrUpdate);
+        }
+    }
+
+    /**
+     * Drop a deleted SPU
+     *
+     * @param spuId SPU ID
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {"item.delete"}
+    ))
+    public void onDelete(Long spuId) {
+        if (spuId != null) {
+            titleIndex.remove(spuId);
+            facetIndex.remove(spuId);
+        }
+    }
+
+}
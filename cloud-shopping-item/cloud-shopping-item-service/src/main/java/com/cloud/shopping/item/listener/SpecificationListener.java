@@ -0,0 +1,40 @@
+package com.cloud.shopping.item.listener;
+
+import com.cloud.shopping.item.service.SpecificationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Spec Template Change Listener
+ * Drops the cached spec template of a category when any instance changes it
+ *
+ * Like the category listener, every instance binds its own anonymous queue so each change reaches all of them.
+ */
+@Slf4j
+@Component
+public class SpecificationListener {
+
+    @Autowired
+    private SpecificationService specificationService;
+
+    /**
+     * Handle a spec template change broadcast
+     *
+     * @param cid Category ID whose template changed, 0 if unknown
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {SpecificationService.SPEC_UPDATE_KEY}
+    ))
+    public void onSpecUpdate(Long cid) {
+        log.debug("Spec template change received for category {}", cid);
+        specificationService.evictTemplate(cid == null || cid == 0 ? null : cid);
+    }
+}
@@ -0,0 +1,46 @@
+package com.cloud.shopping.item.listener;
+
+import com.cloud.shopping.item.service.StockCache;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Stock Change Listener
+ * Drops the cached stock of SKUs another instance changed
+ *
+ * Like {@link CategoryListener}, every instance binds its own anonymous queue, so each change
+ * reaches all instances.
+ */
+@Component
+public class StockListener {
+
+    @Autowired
+    private StockCache stockCache;
+
+    /**
+     * Handle a stock change broadcast
+     *
+     * @param skuIds SKU IDs whose stock changed
+     * @param origin Instance id of the instance that made the change
+     */
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(name = "ly.item.exchange", type = ExchangeTypes.TOPIC, ignoreDeclarationExceptions = "true"),
+            key = {StockCache.STOCK_UPDATE_KEY}
+    ))
+    public void onStockUpdate(List<Long> skuIds, @Header(name = StockCache.ORIGIN_HEADER, required = false) String origin) {
+        // the origin already dropped them when it committed
+        if (skuIds == null || stockCache.getInstanceId().equals(origin)) {
+            return;
+        }
+        stockCache.evict(skuIds);
+    }
+}
@@ -0,0 +1,22 @@
+package com.cloud.shopping.item.mapper;
+
+import com.cloud.shopping.common.mapper.BaseMapper;
+import com.cloud.shopping.item.pojo.ItemOutboxEvent;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
+
+@org.apache.ibatis.annotations.Mapper
+public interface ItemOutboxMapper extends BaseMapper<ItemOutboxEvent> {
+
+    /**
+     * Read and lock the oldest events
+     * A second relay asking at the same time waits for these rows, so events leave in id order.
+     * @param limit Maximum number of events
+     * @return Events ordered by ID
+     */
+    @Select("SELECT id, routing_key AS routingKey, payload, sku_inserted AS skuInserted, sku_updated AS skuUpdated, " +
+            "sku_deleted AS skuDeleted, create_time AS createTime FROM tb_item_outbox ORDER BY id LIMIT #{limit} FOR UPDATE")
+    List<ItemOutboxEvent> selectOldestForUpdate(@Param("limit") int limit);
+}
@@ -0,0 +1,30 @@
+package com.cloud.shopping.item.mapper;
+
+import com.cloud.shopping.item.dto.SeckillOrder;
+import org.apache.ibatis.annotations.*;
+
+import java.util.List;
+
+/**
+ * Flash sale wins that the broker has not confirmed yet
+ * A win is written before the user is told and deleted once order creation has it.
+ */
+@org.apache.ibatis.annotations.Mapper
+public interface SeckillOrderMapper {
+
+    @Insert("INSERT INTO tb_seckill_order (token, session_id, sku_id, user_id, admitted_at) " +
+            "VALUES (#{token}, #{sessionId}, #{skuId}, #{userId}, #{admittedAt})")
+    int insert(SeckillOrder order);
+
+    /**
+     * @param before Epoch milliseconds
+     * @param limit Maximum number of wins
+     * @return The oldest wins admitted before the given time
+     */
+    @Select("SELECT token, session_id AS sessionId, sku_id AS skuId, user_id AS userId, admitted_at AS admittedAt " +
+            "FROM tb_seckill_order WHERE admitted_at < #{before} ORDER BY admitted_at LIMIT #{limit}")
+    List<SeckillOrder> selectAdmittedBefore(@Param("before") long before, @Param("limit") int limit);
+
+    @Delete("DELETE FROM tb_seckill_order WHERE token = #{token}")
+    int deleteByToken(@Param("token") String token);
+}
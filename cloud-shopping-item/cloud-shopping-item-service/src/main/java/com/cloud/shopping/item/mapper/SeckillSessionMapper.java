@@ -0,0 +1,8 @@
+package com.cloud.shopping.item.mapper;
+
+import com.cloud.shopping.common.mapper.BaseMapper;
+import com.cloud.shopping.item.pojo.SeckillSession;
+
+@org.apache.ibatis.annotations.Mapper
+public interface SeckillSessionMapper extends BaseMapper<SeckillSession> {
+}
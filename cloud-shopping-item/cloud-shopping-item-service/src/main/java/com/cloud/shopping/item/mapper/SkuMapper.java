@@ -2,9 +2,13 @@ package com.cloud.shopping.item.mapper;
 
 import com.cloud.shopping.common.mapper.BaseMapper;
 import com.cloud.shopping.item.pojo.Sku;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
+import java.util.Collection;
 import java.util.List;
 
 @org.apache.ibatis.annotations.Mapper
@@ -18,4 +22,57 @@ public interface SkuMapper extends BaseMapper<Sku> {
      */
     @Select("SELECT a.*,b.stock FROM tb_sku a,tb_stock b WHERE a.id=b.sku_id AND a.spu_id=#{id}")
     List<Sku> queryById(@Param("id") Long id);
+
+    /**
+     * Query the SKUs of several SPUs with their stock in one joined query
+     * A SKU without a stock row is returned with a null stock; a bucketed SKU with the sum of its buckets.
+     * @param spuIds SPU IDs, must not be empty
+     * @return SKUs ordered by SPU ID and SKU ID
+     */
+    @Select({"<script>",
+            "SELECT a.id AS id, a.spu_id AS spuId, a.title AS title, a.images AS images, a.price AS price,",
+            "a.own_spec AS ownSpec, a.indexes AS indexes, a.enable AS enable,",
+            "a.create_time AS createTime, a.last_update_time AS lastUpdateTime,",
+            "COALESCE((SELECT SUM(c.stock) FROM tb_stock_bucket c WHERE c.sku_id = a.id), b.stock) AS stock",
+            "FROM tb_sku a LEFT JOIN tb_stock b ON b.sku_id = a.id",
+            "WHERE a.spu_id IN",
+            "<foreach collection='spuIds' item='spuId' open='(' separator=',' close=')'>#{spuId}</foreach>",
+            "ORDER BY a.spu_id, a.id",
+            "</script>"})
+    List<Sku> selectWithStockBySpuIds(@Param("spuIds") Collection<Long> spuIds);
+
+    /**
+     * Insert several SKUs with one multi-row statement
+     * The generated ids are written back to the SKUs, in list order.
+     * @param skus SKUs to insert, must not be empty
+     * @return Number of inserted rows
+     */
+    @Insert({"<script>",
+            "INSERT INTO tb_sku (spu_id, title, images, price, indexes, own_spec, enable, create_time, last_update_time) VALUES",
+            "<foreach collection='skus' item='sku' separator=','>",
+            "(#{sku.spuId}, #{sku.title}, #{sku.images}, #{sku.price}, #{sku.indexes}, #{sku.ownSpec},",
+            "#{sku.enable}, #{sku.createTime}, #{sku.lastUpdateTime})",
+            "</foreach>",
+            "</script>"})
+    @Options(useGeneratedKeys = true, keyProperty = "skus.id", keyColumn = "id")
+    int insertBatch(@Param("skus") List<Sku> skus);
+
+    /**
+     * Update the editable columns of several SKUs with one statement, each SKU getting its own values
+     * @param skus SKUs with their id and full new values, must not be empty
+     * @return Number of matched rows
+     */
+    @Update({"<script>",
+            "UPDATE tb_sku SET",
+            "title = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.title} </foreach>END,",
+            "images = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.images} </foreach>END,",
+            "price = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.price} </foreach>END,",
+            "indexes = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.indexes} </foreach>END,",
+            "own_spec = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.ownSpec} </foreach>END,",
+            "enable = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.enable} </foreach>END,",
+            "last_update_time = CASE id <foreach collection='skus' item='sku'>WHEN #{sku.id} THEN #{sku.lastUpdateTime} </foreach>END",
+            "WHERE id IN",
+            "<foreach collection='skus' item='sku' open='(' separator=',' close=')'>#{sku.id}</foreach>",
+            "</script>"})
+    int updateBatch(@Param("skus") List<Sku> skus);
 }
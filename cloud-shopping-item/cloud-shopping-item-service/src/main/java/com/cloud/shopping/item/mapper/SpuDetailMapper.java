@@ -1,8 +1,53 @@
 package com.cloud.shopping.item.mapper;
 
+import com.cloud.shopping.item.index.SpuSpecRow;
 import com.cloud.shopping.item.pojo.SpuDetail;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import tk.mybatis.mapper.common.Mapper;
 
+import java.util.List;
+
 @org.apache.ibatis.annotations.Mapper
 public interface SpuDetailMapper extends Mapper<SpuDetail> {
+
+    /**
+     * Read one batch of spec values in SPU id order, used to build the facet index
+     *
+     * @param afterId Only SPUs with a larger id are returned
+     * @param limit Maximum number of rows
+     * @return Spec rows of the batch
+     */
+    @Select("SELECT s.id AS spuId, s.cid3 AS cid3, s.saleable AS saleable, " +
+            "d.generic_spec AS genericSpec, d.special_spec AS specialSpec " +
+            "FROM tb_spu s JOIN tb_spu_detail d ON d.spu_id = s.id " +
+            "WHERE s.id > #{afterId} ORDER BY s.id LIMIT #{limit}")
+    List<SpuSpecRow> selectSpecRowsAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * Read the spec values of one SPU
+     *
+     * @param spuId SPU ID
+     * @return Spec row, or null if the SPU or its detail does not exist
+     */
+    @Select("SELECT s.id AS spuId, s.cid3 AS cid3, s.saleable AS saleable, " +
+            "d.generic_spec AS genericSpec, d.special_spec AS specialSpec " +
+            "FROM tb_spu s JOIN tb_spu_detail d ON d.spu_id = s.id " +
+            "WHERE s.id = #{spuId}")
+    SpuSpecRow selectSpecRow(@Param("spuId") Long spuId);
+
+    /**
+     * Insert the details of several SPUs with one multi-row statement
+     *
+     * @param details Details with their SPU id set, must not be empty
+     * @return Number of inserted rows
+     */
+    @Insert({"<script>",
+            "INSERT INTO tb_spu_detail (spu_id, description, generic_spec, special_spec, packing_list, after_service) VALUES",
+            "<foreach collection='details' item='d' separator=','>",
+            "(#{d.spuId}, #{d.description}, #{d.genericSpec}, #{d.specialSpec}, #{d.packingList}, #{d.afterService})",
+            "</foreach>",
+            "</script>"})
+    int insertBatch(@Param("details") List<SpuDetail> details);
 }
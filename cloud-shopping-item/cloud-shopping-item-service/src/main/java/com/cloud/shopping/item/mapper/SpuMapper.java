@@ -1,8 +1,50 @@
 package com.cloud.shopping.item.mapper;
 
 import com.cloud.shopping.item.pojo.Spu;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import tk.mybatis.mapper.common.Mapper;
 
+import java.util.List;
+
 @org.apache.ibatis.annotations.Mapper
 public interface SpuMapper extends Mapper<Spu> {
+
+    /**
+     * Row count of tb_spu from the table statistics, cheap but approximate
+     *
+     * @return Estimated number of rows, null if the statistics are not available
+     */
+    @Select("SELECT TABLE_ROWS FROM information_schema.TABLES " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'tb_spu'")
+    Long estimateRowCount();
+
+    /**
+     * Read one batch of titles in id order, used to build the title index
+     *
+     * @param afterId Only SPUs with a larger id are returned
+     * @param limit Maximum number of rows
+     * @return SPUs with only id, title and subTitle filled
+     */
+    @Select("SELECT id, title, sub_title AS subTitle FROM tb_spu WHERE id > #{afterId} ORDER BY id LIMIT #{limit}")
+    List<Spu> selectTitlesAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * Insert several SPUs with one multi-row statement
+     * The generated ids are written back to the SPUs, in list order.
+     *
+     * @param spus SPUs to insert, must not be empty
+     * @return Number of inserted rows
+     */
+    @Insert({"<script>",
+            "INSERT INTO tb_spu (title, sub_title, cid1, cid2, cid3, brand_id, saleable, valid, create_time, last_update_time) VALUES",
+            "<foreach collection='spus' item='spu' separator=','>",
+            "(#{spu.title}, #{spu.subTitle}, #{spu.categoryId1}, #{spu.categoryId2}, #{spu.categoryId3}, #{spu.brandId},",
+            "#{spu.saleable}, #{spu.valid}, #{spu.createTime}, #{spu.lastUpdateTime})",
+            "</foreach>",
+            "</script>"})
+    @Options(useGeneratedKeys = true, keyProperty = "spus.id", keyColumn = "id")
+    int insertBatch(@Param("spus") List<Spu> spus);
 }
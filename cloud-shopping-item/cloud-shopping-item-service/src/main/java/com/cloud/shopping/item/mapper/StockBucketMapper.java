@@ -0,0 +1,55 @@
+package com.cloud.shopping.item.mapper;
+
+import com.cloud.shopping.item.pojo.StockBucket;
+import org.apache.ibatis.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@org.apache.ibatis.annotations.Mapper
+public interface StockBucketMapper {
+
+    /**
+     * Count the buckets of several SKUs, without locking them
+     * @param skuIds SKU ids, must not be empty
+     * @return One row per bucketed SKU, with skuId and buckets
+     */
+    @Select({"<script>",
+            "SELECT sku_id AS skuId, COUNT(*) AS buckets FROM tb_stock_bucket WHERE sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "GROUP BY sku_id",
+            "</script>"})
+    List<Map<String, Object>> countBuckets(@Param("skuIds") Collection<Long> skuIds);
+
+    @Select("SELECT sku_id AS skuId, bucket, stock FROM tb_stock_bucket WHERE sku_id = #{skuId} ORDER BY bucket")
+    List<StockBucket> selectBySkuId(@Param("skuId") Long skuId);
+
+    /**
+     * Read and lock every bucket of a SKU
+     */
+    @Select("SELECT sku_id AS skuId, bucket, stock FROM tb_stock_bucket WHERE sku_id = #{skuId} ORDER BY bucket FOR UPDATE")
+    List<StockBucket> selectForUpdate(@Param("skuId") Long skuId);
+
+    /**
+     * Decrease one bucket if it has enough stock; only that row is locked
+     * @return 1 if decreased, 0 if the bucket is short or missing
+     */
+    @Update("UPDATE tb_stock_bucket SET stock = stock - #{num} WHERE sku_id = #{skuId} AND bucket = #{bucket} AND stock >= #{num}")
+    int decreaseBucket(@Param("skuId") Long skuId, @Param("bucket") int bucket, @Param("num") int num);
+
+    @Update("UPDATE tb_stock_bucket SET stock = #{stock} WHERE sku_id = #{skuId} AND bucket = #{bucket}")
+    int updateBucket(@Param("skuId") Long skuId, @Param("bucket") int bucket, @Param("stock") int stock);
+
+    @Insert({"<script>",
+            "INSERT INTO tb_stock_bucket (sku_id, bucket, stock) VALUES",
+            "<foreach collection='buckets' item='b' separator=','>(#{b.skuId}, #{b.bucket}, #{b.stock})</foreach>",
+            "</script>"})
+    int insertBuckets(@Param("buckets") List<StockBucket> buckets);
+
+    @Delete({"<script>",
+            "DELETE FROM tb_stock_bucket WHERE sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "</script>"})
+    int deleteBySkuIds(@Param("skuIds") Collection<Long> skuIds);
+}
@@ -0,0 +1,81 @@
+package com.cloud.shopping.item.mapper;
+
+import com.cloud.shopping.item.pojo.StockLease;
+import org.apache.ibatis.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Leases of the SKUs served by the in-memory stock reservations
+ * Lease times are taken from the database clock, so the instances do not need synchronized clocks.
+ */
+@org.apache.ibatis.annotations.Mapper
+public interface StockLeaseMapper {
+
+    /**
+     * Read and lock the leases of several SKUs
+     * @param skuIds SKU ids, must not be empty
+     * @return The leases that exist, sorted by SKU id
+     */
+    @Select({"<script>",
+            "SELECT sku_id AS skuId, owner, epoch, expire_time &lt;= NOW(3) AS expired FROM tb_stock_lease WHERE sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "ORDER BY sku_id FOR UPDATE",
+            "</script>"})
+    List<StockLease> selectForUpdate(@Param("skuIds") Collection<Long> skuIds);
+
+    /**
+     * Write leases running for ttl ms, in the transaction that locked them
+     * @param leases SKU ids with their new owner and epoch, must not be empty
+     * @param ttl Milliseconds
+     */
+    @Insert({"<script>",
+            "INSERT INTO tb_stock_lease (sku_id, owner, epoch, expire_time) VALUES",
+            "<foreach collection='leases' item='l' separator=','>",
+            "(#{l.skuId}, #{l.owner}, #{l.epoch}, DATE_ADD(NOW(3), INTERVAL (#{ttl} * 1000) MICROSECOND))",
+            "</foreach>",
+            "ON DUPLICATE KEY UPDATE owner = VALUES(owner), epoch = VALUES(epoch), expire_time = VALUES(expire_time)",
+            "</script>"})
+    int upsertLeases(@Param("leases") List<StockLease> leases, @Param("ttl") long ttl);
+
+    /**
+     * Extend the leases an owner still holds to ttl ms from now
+     * @param owner Lease owner
+     * @param skuIds SKU ids, must not be empty
+     * @param ttl Milliseconds
+     * @return Number of extended leases
+     */
+    @Update({"<script>",
+            "UPDATE tb_stock_lease SET expire_time = DATE_ADD(NOW(3), INTERVAL (#{ttl} * 1000) MICROSECOND)",
+            "WHERE owner = #{owner} AND expire_time &gt; NOW(3) AND sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "</script>"})
+    int renewLeases(@Param("owner") String owner, @Param("skuIds") Collection<Long> skuIds, @Param("ttl") long ttl);
+
+    /**
+     * @param owner Lease owner
+     * @param skuIds SKU ids, must not be empty
+     * @return The leases of these SKUs that the owner holds and that have not run out
+     */
+    @Select({"<script>",
+            "SELECT sku_id AS skuId, owner, epoch FROM tb_stock_lease",
+            "WHERE owner = #{owner} AND expire_time &gt; NOW(3) AND sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "</script>"})
+    List<StockLease> selectHeld(@Param("owner") String owner, @Param("skuIds") Collection<Long> skuIds);
+
+    /**
+     * End leases right away so the next owner does not wait for them to run out
+     * @param leases SKU ids with the owner and epoch they were taken with, must not be empty; a lease
+     *               that changed hands since is left alone
+     * @return Number of released leases
+     */
+    @Update({"<script>",
+            "UPDATE tb_stock_lease SET expire_time = NOW(3) WHERE",
+            "<foreach collection='leases' item='l' separator=' OR '>",
+            "(sku_id = #{l.skuId} AND owner = #{l.owner} AND epoch = #{l.epoch})",
+            "</foreach>",
+            "</script>"})
+    int releaseLeases(@Param("leases") Collection<StockLease> leases);
+}
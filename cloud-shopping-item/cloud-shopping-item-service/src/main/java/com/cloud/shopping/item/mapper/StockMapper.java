@@ -1,12 +1,121 @@
 package com.cloud.shopping.item.mapper;
 
+import com.cloud.shopping.common.dto.CartDTO;
 import com.cloud.shopping.common.mapper.BaseMapper;
+import com.cloud.shopping.item.pojo.Sku;
 import com.cloud.shopping.item.pojo.Stock;
+import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
+import java.util.Collection;
+import java.util.List;
+
 @org.apache.ibatis.annotations.Mapper
 public interface StockMapper extends BaseMapper<Stock> {
+    /**
+     * Read the stock of several SKUs; for a SKU with buckets the stock is the sum of its buckets
+     * Use this instead of selectByIdList wherever the stock value matters.
+     * @param skuIds SKU ids, must not be empty
+     * @return Stock rows of the SKUs that have one
+     */
+    @Select({"<script>",
+            "SELECT s.sku_id AS skuId, s.seckill_stock AS seckillStock, s.seckill_total AS seckillTotal,",
+            "COALESCE((SELECT SUM(b.stock) FROM tb_stock_bucket b WHERE b.sku_id = s.sku_id), s.stock) AS stock",
+            "FROM tb_stock s WHERE s.sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "</script>"})
+    List<Stock> selectStocks(@Param("skuIds") Collection<Long> skuIds);
+
+    /**
+     * Read and lock the stock row of a SKU
+     */
+    @Select("SELECT sku_id AS skuId, seckill_stock AS seckillStock, seckill_total AS seckillTotal, stock FROM tb_stock WHERE sku_id = #{skuId} FOR UPDATE")
+    Stock selectForUpdate(@Param("skuId") Long skuId);
+
+    /**
+     * Read and lock the stock rows of several SKUs, in SKU id order
+     * The stock is tb_stock.stock only; a SKU with buckets has 0 here and its stock in its buckets.
+     * @param skuIds SKU ids, must not be empty
+     * @return Stock rows of the SKUs that have one
+     */
+    @Select({"<script>",
+            "SELECT sku_id AS skuId, seckill_stock AS seckillStock, seckill_total AS seckillTotal, stock FROM tb_stock WHERE sku_id IN",
+            "<foreach collection='skuIds' item='skuId' open='(' separator=',' close=')'>#{skuId}</foreach>",
+            "ORDER BY sku_id FOR UPDATE",
+            "</script>"})
+    List<Stock> selectForUpdateBatch(@Param("skuIds") Collection<Long> skuIds);
+
     @Update("update tb_stock set stock = stock - #{num} where sku_id = #{skuId} and stock >= #{num}")
     int decreaseStock(@Param("skuId") Long skuId, @Param("num") Integer num);
+
+    /**
+     * Decrease the stock of several SKUs with one statement
+     * Each SKU is only decreased if it has at least its quantity in stock, so a result smaller than the
+     * number of lines means some SKUs were short and the others were decreased.
+     * @param carts Lines with distinct SKU ids and positive quantities, sorted by SKU id, must not be empty
+     * @return Number of decreased rows
+     */
+    @Update({"<script>",
+            "UPDATE tb_stock SET stock = stock - CASE sku_id",
+            "<foreach collection='carts' item='c'>WHEN #{c.skuId} THEN #{c.num} </foreach>",
+            "END WHERE sku_id IN",
+            "<foreach collection='carts' item='c' open='(' separator=',' close=')'>#{c.skuId}</foreach>",
+            "AND stock >= CASE sku_id",
+            "<foreach collection='carts' item='c'>WHEN #{c.skuId} THEN #{c.num} </foreach>",
+            "END",
+            "</script>"})
+    int decreaseStockBatch(@Param("carts") List<CartDTO> carts);
+
+    /**
+     * Subtract the units won in flash sales from the seckill stock of several SKUs with one statement
+     * @param deltas Lines with distinct SKU ids, sorted by SKU id, must not be empty; a negative
+     *               quantity gives units back
+     * @return Number of matched rows
+     */
+    @Update({"<script>",
+            "UPDATE tb_stock SET seckill_stock = seckill_stock - CASE sku_id",
+            "<foreach collection='deltas' item='d'>WHEN #{d.skuId} THEN #{d.num} </foreach>",
+            "END WHERE sku_id IN",
+            "<foreach collection='deltas' item='d' open='(' separator=',' close=')'>#{d.skuId}</foreach>",
+            "</script>"})
+    int decreaseSeckillStockBatch(@Param("deltas") List<CartDTO> deltas);
+
+    /**
+     * Set the stock of several SKUs with one statement
+     * @param stocks SKU ids with their new stock, must not be empty
+     * @return Number of matched rows
+     */
+    @Update({"<script>",
+            "UPDATE tb_stock SET stock = CASE sku_id",
+            "<foreach collection='stocks' item='s'>WHEN #{s.skuId} THEN #{s.stock} </foreach>",
+            "END WHERE sku_id IN",
+            "<foreach collection='stocks' item='s' open='(' separator=',' close=')'>#{s.skuId}</foreach>",
+            "</script>"})
+    int updateStockBatch(@Param("stocks") List<Stock> stocks);
+
+    /**
+     * Set the stock of several SKUs with one statement, each only if it still has the stock it was loaded with
+     * @param skus SKU ids with their new stock and their loaded stock, must not be empty
+     * @return Number of updated rows; fewer than the SKUs means some stock changed since it was loaded
+     */
+    @Update({"<script>",
+            "UPDATE tb_stock SET stock = CASE sku_id",
+            "<foreach collection='skus' item='s'>WHEN #{s.id} THEN #{s.stock} </foreach>",
+            "END WHERE",
+            "<foreach collection='skus' item='s' separator=' OR '>(sku_id = #{s.id} AND stock = #{s.loadedStock})</foreach>",
+            "</script>"})
+    int updateStockIfUnchanged(@Param("skus") List<Sku> skus);
+
+    /**
+     * Delete the stock of every SKU of several SPUs with one statement
+     * @param spuIds SPU ids, must not be empty
+     * @return Number of deleted rows
+     */
+    @Delete({"<script>",
+            "DELETE st FROM tb_stock st JOIN tb_sku s ON s.id = st.sku_id WHERE s.spu_id IN",
+            "<foreach collection='spuIds' item='spuId' open='(' separator=',' close=')'>#{spuId}</foreach>",
+            "</script>"})
+    int deleteBySpuIds(@Param("spuIds") Collection<Long> spuIds);
 }
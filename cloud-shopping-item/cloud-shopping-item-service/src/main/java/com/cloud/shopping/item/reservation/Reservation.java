@@ -0,0 +1,32 @@
+package com.cloud.shopping.item.reservation;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.item.dto.StockReservation;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * Open reservation: SKU id -> held units, sorted by SKU id
+ */
+@Getter
+final class Reservation {
+
+    private final String id;
+    private final SortedMap<Long, Integer> lines;
+    private final long expiresAt;
+
+    Reservation(String id, SortedMap<Long, Integer> lines, long expiresAt) {
+        this.id = id;
+        this.lines = lines;
+        this.expiresAt = expiresAt;
+    }
+
+    StockReservation toDto() {
+        List<CartDTO> carts = new ArrayList<>(lines.size());
+        lines.forEach((skuId, num) -> carts.add(new CartDTO(skuId, num)));
+        return new StockReservation(id, carts, expiresAt);
+    }
+}
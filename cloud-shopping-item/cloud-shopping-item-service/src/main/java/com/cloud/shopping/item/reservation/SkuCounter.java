@@ -0,0 +1,113 @@
+package com.cloud.shopping.item.reservation;
+
+/**
+ * In-memory stock of one SKU owned by this instance
+ *
+ * Every SKU has its own counter and its own lock, so reservations of different SKUs never contend.
+ * The units that can still be reserved are stock - reserved, where
+ * - stock is the last value read from tb_stock
+ * - reserved is held by open reservations, including the ones being confirmed right now
+ */
+final class SkuCounter {
+
+    private int stock;
+    private int reserved;
+
+    /**
+     * Epoch of the lease the counter was loaded under; writes are fenced on it
+     */
+    private final long epoch;
+
+    /**
+     * Set when the SKU is handed to another instance: no new reservations, open ones still settle
+     */
+    private boolean retired;
+
+    /**
+     * Set when the lease was lost; the counter stays retired and its confirmations are refused
+     */
+    private boolean lost;
+
+    /**
+     * Set when the counter is dropped from the engine; it takes nothing any more
+     */
+    private boolean evicted;
+
+    private long lastUsed;
+
+    SkuCounter(int stock, long epoch, long now) {
+        this.stock = stock;
+        this.epoch = epoch;
+        this.lastUsed = now;
+    }
+
+    synchronized boolean reserve(int num, long now) {
+        lastUsed = now;
+        if (retired || evicted || available() < num) {
+            return false;
+        }
+        reserved += num;
+        return true;
+    }
+
+    synchronized void release(int num) {
+        reserved -= num;
+    }
+
+    /**
+     * Settle reserved units whose confirmation was written or refused
+     * @param num Units leaving the reservations
+     * @param stock Stock of tb_stock after the write, read under its lock
+     */
+    synchronized void settle(int num, int stock) {
+        this.reserved -= num;
+        this.stock = stock;
+    }
+
+    /**
+     * Take the stock just read from tb_stock
+     */
+    synchronized void reload(int stock) {
+        this.stock = stock;
+    }
+
+    synchronized int available() {
+        return stock - reserved;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    synchronized void retire() {
+        retired = true;
+    }
+
+    synchronized void adopt() {
+        retired = lost;
+    }
+
+    synchronized void lose() {
+        lost = true;
+        retired = true;
+    }
+
+    synchronized boolean isRetired() {
+        return retired;
+    }
+
+    synchronized boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Mark the counter dropped if nothing is held, and it is retired or was not used since idleBefore
+     * @return Whether it was marked
+     */
+    synchronized boolean evict(long idleBefore) {
+        if (reserved == 0 && (retired || lastUsed < idleBefore)) {
+            evicted = true;
+        }
+        return evicted;
+    }
+}
@@ -0,0 +1,155 @@
+package com.cloud.shopping.item.reservation;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Which item-service instance owns the stock of a SKU
+ *
+ * The owner is chosen by rendezvous hashing over the instances registered in the discovery server:
+ * every instance scores (instance, SKU) with the same hash and the highest score wins. All instances
+ * with the same view of the registry therefore agree on one owner per SKU, and when an instance joins
+ * or leaves only the SKUs it wins or held change hands.
+ *
+ * The view is refreshed every membership-refresh ms and only converges within the registry's propagation
+ * delay, so two instances may both think they own a SKU for a while. The stock reservations therefore also
+ * take a lease on every SKU they serve (see {@link StockReservationEngine}); flash sales only load newly
+ * won SKUs after handoff-delay, which must cover that delay plus one reconcile of the previous owner.
+ *
+ * Instance ids must be unique across hosts, see eureka.instance.instanceId.
+ */
+@Slf4j
+@Component
+public class SkuOwnership {
+
+    @Autowired(required = false)
+    private DiscoveryClient discoveryClient;
+
+    @Value("${spring.application.name:item-service}")
+    private String serviceId = "item-service";
+
+    @Value("${eureka.instance.instanceId:item-service}")
+    private String selfId = "item-service";
+
+    @Value("${ly.item.reservation.handoff-delay:15000}")
+    private long handoffDelay = 15000;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile List<String> members = Collections.emptyList();
+
+    private volatile long changedAt;
+
+    @PostConstruct
+    public void init() {
+        update(Collections.emptyList(), System.currentTimeMillis());
+        refresh();
+    }
+
+    /**
+     * Re-read the instances of this service from the discovery server
+     */
+    @Scheduled(fixedDelayString = "${ly.item.reservation.membership-refresh:5000}")
+    public void refresh() {
+        if (discoveryClient == null) {
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        try {
+            for (ServiceInstance instance : discoveryClient.getInstances(serviceId)) {
+                ids.add(instance.getInstanceId());
+            }
+        } catch (RuntimeException e) {
+            // keep the last view until the registry answers again
+            log.warn("Failed to read the {} instances, keeping {}", serviceId, members, e);
+            return;
+        }
+        update(ids, System.currentTimeMillis());
+    }
+
+    /**
+     * Take a new list of instances and notify the listeners if it changed
+     * @param instanceIds Registered instance ids; this instance is always a member
+     * @param now Current time
+     */
+    void update(Collection<String> instanceIds, long now) {
+        TreeSet<String> ids = new TreeSet<>();
+        instanceIds.stream().filter(Objects::nonNull).forEach(ids::add);
+        ids.add(selfId);
+        List<String> next = List.copyOf(ids);
+        if (next.equals(members)) {
+            return;
+        }
+        log.info("Stock ownership members changed from {} to {}", members, next);
+        members = next;
+        changedAt = now;
+        listeners.forEach(Runnable::run);
+    }
+
+    /**
+     * @param listener Called after the members changed, on the thread that noticed it
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param skuId SKU ID
+     * @return Instance id of the owner
+     */
+    public String owner(long skuId) {
+        String owner = null;
+        long best = 0;
+        for (String member : members) {
+            long score = score(member, skuId);
+            if (owner == null || Long.compareUnsigned(score, best) > 0) {
+                owner = member;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    public boolean owns(long skuId) {
+        return selfId.equals(owner(skuId));
+    }
+
+    /**
+     * @param now Current time
+     * @return Whether the members changed less than handoff-delay ago, so SKUs this instance just won
+     *         may still be served by their previous owner
+     */
+    public boolean isSettling(long now) {
+        return now - changedAt < handoffDelay;
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    private static long score(String member, long skuId) {
+        // FNV-1a of the instance id, mixed with the SKU id by the murmur3 finalizer
+        long h = 0xcbf29ce484222325L;
+        for (byte b : member.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h ^= skuId * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
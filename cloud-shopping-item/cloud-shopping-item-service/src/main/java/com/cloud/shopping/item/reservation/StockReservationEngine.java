@@ -0,0 +1,634 @@
+package com.cloud.shopping.item.reservation;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.common.dto.StockShortfall;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.StockReservation;
+import com.cloud.shopping.item.mapper.StockLeaseMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.pojo.StockBucket;
+import com.cloud.shopping.item.pojo.StockLease;
+import com.cloud.shopping.item.service.StockBucketService;
+import com.cloud.shopping.item.service.StockCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.CollectionUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory stock reservations in front of tb_stock
+ *
+ * A checkout reserves its lines, then confirms the reservation when the order is placed or releases it
+ * when it is abandoned; a reservation that is neither is released after its TTL. Reserving and releasing
+ * do not touch the database: each SKU has a {@link SkuCounter} loaded from tb_stock on first use.
+ * A confirmation is written before it returns. Confirmations arriving together are written together:
+ * the first one in locks the stock rows of the waiting confirmations, accepts them in arrival order
+ * while the locked stock covers them, refuses the rest with STOCK_NOT_ENOUGH and subtracts the accepted
+ * units with guarded updates, up to flush-batch-size SKUs per transaction. It stops once the batch with
+ * its own confirmation is written and leaves the later arrivals to their own threads, so a confirmation
+ * never waits for more than the batches queued ahead of it. A hot SKU therefore costs one row update
+ * per group of confirmations, and the engine never grants more than tb_stock holds, whatever the other
+ * stock paths do meanwhile.
+ *
+ * A SKU is only served by its owner (see {@link SkuOwnership}); requests for other SKUs are rejected
+ * with SKU_NOT_OWNED and the owner of each of them, so callers send each SKU to its owner. On top of
+ * that, an instance holds a lease in tb_stock_lease on every SKU it has a counter for, renewed every
+ * lease-renew-interval ms for lease-ttl ms:
+ * - A counter is only loaded once its lease is taken, and tb_stock is read after that.
+ * - A SKU that moved away takes no new reservations, its open ones still confirm or release here, and
+ *   its lease is only released once they are settled. Until then, or until the lease runs out if this
+ *   instance died, the new owner answers STOCK_OWNERSHIP_MOVING.
+ * - Every takeover increments the lease epoch, and a confirmation is only written while the lease row
+ *   still has this instance and the counter's epoch, so an instance that lost its lease writes nothing.
+ * The lease owner is the instance id plus a random id per start, so two processes never share a lease.
+ *
+ * Counters follow the writes of the other stock paths through {@link StockCache#addListener}, on this
+ * instance at their commit and on the others through the stock broadcast; a missed change only makes
+ * the counter admit or refuse a reservation wrongly, its confirmation is still checked against tb_stock.
+ * Open reservations live in memory only: on a crash they are simply gone. Counters idle for
+ * idle-timeout ms are dropped.
+ */
+@Slf4j
+@Service
+public class StockReservationEngine {
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired
+    private StockLeaseMapper leaseMapper;
+
+    @Autowired
+    private StockCache stockCache;
+
+    @Autowired
+    private SkuOwnership ownership;
+
+    @Autowired
+    private StockBucketService stockBucketService;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${ly.item.reservation.ttl:600000}")
+    private long defaultTtl = 600000;
+
+    @Value("${ly.item.reservation.max-ttl:1800000}")
+    private long maxTtl = 1800000;
+
+    @Value("${ly.item.reservation.flush-batch-size:500}")
+    private int flushBatchSize = 500;
+
+    @Value("${ly.item.reservation.idle-timeout:60000}")
+    private long idleTimeout = 60000;
+
+    @Value("${ly.item.reservation.lease-ttl:30000}")
+    private long leaseTtl = 30000;
+
+    private final ConcurrentMap<Long, SkuCounter> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+    private final Queue<PendingConfirm> confirms = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Held while leases are taken, so one SKU is never loaded twice at once
+     */
+    private final Object loading = new Object();
+
+    private TransactionTemplate transactionTemplate;
+
+    private String leaseOwner;
+
+    @PostConstruct
+    public void init() {
+        leaseOwner = ownership.getSelfId() + "/" + UUID.randomUUID();
+        if (transactionManager != null) {
+            transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        }
+        ownership.addListener(this::onOwnershipChanged);
+        stockCache.addListener(skuIds -> {
+            // the engine's own writes are already in its counters
+            if (!Thread.holdsLock(this)) {
+                invalidate(skuIds);
+            }
+        });
+    }
+
+    /**
+     * Hold stock for a checkout, all lines or none
+     *
+     * @param lines SKU ids and quantities; lines of the same SKU are added up
+     * @param ttl Milliseconds until the hold is released, null for the default; capped at max-ttl
+     * @return The reservation
+     * @throws LyException SKU_NOT_OWNED with SKU id -> owner if some SKUs are owned by other instances,
+     *                     STOCK_OWNERSHIP_MOVING if the previous owner of some SKUs still holds them,
+     *                     STOCK_NOT_ENOUGH with a {@link StockShortfall} per short SKU
+     */
+    public StockReservation reserve(List<CartDTO> lines, Long ttl) {
+        SortedMap<Long, Integer> wanted = mergeLines(lines);
+        long now = System.currentTimeMillis();
+        checkOwned(wanted.keySet());
+        while (!hold(wanted, now)) {
+            // a counter was dropped while the request was running, load it again
+        }
+        long hold = ttl == null || ttl <= 0 ? defaultTtl : Math.min(ttl, maxTtl);
+        Reservation reservation = new Reservation(UUID.randomUUID().toString(), wanted, now + hold);
+        reservations.put(reservation.getId(), reservation);
+        return reservation.toDto();
+    }
+
+    /**
+     * Reserve every line or none
+     * @return false if a counter was evicted meanwhile and nothing was reserved
+     */
+    private boolean hold(SortedMap<Long, Integer> wanted, long now) {
+        Map<Long, SkuCounter> loaded = load(wanted.keySet(), now);
+        List<Long> held = new ArrayList<>();
+        List<StockShortfall> shortfalls = new ArrayList<>();
+        boolean evicted = false;
+        boolean retired = false;
+        for (Map.Entry<Long, Integer> line : wanted.entrySet()) {
+            SkuCounter counter = loaded.get(line.getKey());
+            if (counter != null && counter.reserve(line.getValue(), now)) {
+                held.add(line.getKey());
+                continue;
+            }
+            evicted |= counter != null && counter.isEvicted();
+            retired |= counter != null && counter.isRetired();
+            shortfalls.add(new StockShortfall(line.getKey(), line.getValue(),
+                    counter == null ? 0 : Math.max(counter.available(), 0)));
+        }
+        if (shortfalls.isEmpty()) {
+            return true;
+        }
+        held.forEach(skuId -> loaded.get(skuId).release(wanted.get(skuId)));
+        if (evicted) {
+            return false;
+        }
+        if (retired) {
+            // ownership moved while the request was running, or the lease was lost
+            checkOwned(wanted.keySet());
+            throw new LyException(ExceptionEnum.STOCK_OWNERSHIP_MOVING);
+        }
+        throw new LyException(ExceptionEnum.STOCK_NOT_ENOUGH, shortfalls);
+    }
+
+    /**
+     * Grant the held stock for good, subtracting it from tb_stock
+     *
+     * @param reservationId Reservation ID
+     * @throws LyException STOCK_RESERVATION_NOT_FOUND if the reservation is unknown, already settled or expired;
+     *                     STOCK_NOT_ENOUGH if tb_stock no longer covers it, STOCK_OWNERSHIP_MOVING if this
+     *                     instance lost the lease of one of its SKUs, in both cases it is released;
+     *                     STOCK_UPDATE_ERROR if the write failed, in which case it stays open
+     */
+    public void confirm(String reservationId) {
+        Reservation reservation = take(reservationId);
+        if (reservation.getExpiresAt() <= System.currentTimeMillis()) {
+            release(reservation);
+            throw new LyException(ExceptionEnum.STOCK_RESERVATION_NOT_FOUND);
+        }
+        PendingConfirm pending = new PendingConfirm(reservation);
+        confirms.add(pending);
+        // whoever gets the lock first writes the confirmations queued up to its own, this one may already be done
+        flush(pending);
+        if (pending.failure != null) {
+            throw pending.failure;
+        }
+    }
+
+    /**
+     * Give the held stock back
+     *
+     * @param reservationId Reservation ID
+     * @throws LyException if the reservation is unknown, already settled or expired
+     */
+    public void release(String reservationId) {
+        release(take(reservationId));
+    }
+
+    /**
+     * @param skuIds SKU ids
+     * @return SKU id -> instance id of its owner
+     */
+    public Map<Long, String> queryOwners(Collection<Long> skuIds) {
+        Map<Long, String> owners = new LinkedHashMap<>();
+        skuIds.stream().filter(Objects::nonNull).forEach(skuId -> owners.put(skuId, ownership.owner(skuId)));
+        return owners;
+    }
+
+    /**
+     * Write the waiting confirmations, flush-batch-size SKUs per transaction, then drop settled retired counters
+     */
+    public synchronized void flush() {
+        while (!confirms.isEmpty()) {
+            writeNext();
+        }
+        evict(Long.MIN_VALUE);
+    }
+
+    /**
+     * Write the waiting confirmations up to and including own, then drop settled retired counters
+     */
+    private synchronized void flush(PendingConfirm own) {
+        // own is queued before the lock is taken, so it is either written already or still in the queue
+        while (!own.written) {
+            writeNext();
+        }
+        evict(Long.MIN_VALUE);
+    }
+
+    /**
+     * Write the oldest waiting confirmations, up to flush-batch-size SKUs, in one transaction
+     */
+    private void writeNext() {
+        List<PendingConfirm> batch = new ArrayList<>();
+        SortedSet<Long> skuIds = new TreeSet<>();
+        PendingConfirm next;
+        while (skuIds.size() < flushBatchSize && (next = confirms.poll()) != null) {
+            batch.add(next);
+            skuIds.addAll(next.reservation.getLines().keySet());
+        }
+        write(batch, skuIds);
+        batch.forEach(p -> p.written = true);
+    }
+
+    /**
+     * Release the reservations whose TTL has passed and drop idle counters
+     */
+    @Scheduled(fixedDelayString = "${ly.item.reservation.sweep-interval:1000}")
+    public void expire() {
+        long now = System.currentTimeMillis();
+        for (Reservation reservation : reservations.values()) {
+            if (reservation.getExpiresAt() <= now && reservations.remove(reservation.getId(), reservation)) {
+                release(reservation);
+            }
+        }
+        evict(now - idleTimeout);
+    }
+
+    /**
+     * Extend the leases of every loaded SKU; a counter whose lease was taken over meanwhile is retired for good
+     */
+    @Scheduled(fixedDelayString = "${ly.item.reservation.lease-renew-interval:5000}")
+    public void renew() {
+        List<Long> skuIds = new ArrayList<>();
+        counters.forEach((skuId, counter) -> {
+            if (!counter.isEvicted()) {
+                skuIds.add(skuId);
+            }
+        });
+        for (int from = 0; from < skuIds.size(); from += flushBatchSize) {
+            List<Long> batch = skuIds.subList(from, Math.min(from + flushBatchSize, skuIds.size()));
+            Map<Long, Long> held = new HashMap<>();
+            try {
+                leaseMapper.renewLeases(leaseOwner, batch, leaseTtl);
+                leaseMapper.selectHeld(leaseOwner, batch).forEach(l -> held.put(l.getSkuId(), l.getEpoch()));
+            } catch (RuntimeException e) {
+                // confirmations stay fenced, so a lease that runs out meanwhile costs nothing but the counter
+                log.warn("Failed to renew the stock leases of {} skus", batch.size(), e);
+                continue;
+            }
+            for (Long skuId : batch) {
+                SkuCounter counter = counters.get(skuId);
+                if (counter != null && !counter.isEvicted() && !Objects.equals(held.get(skuId), counter.getEpoch())) {
+                    log.warn("Lost the stock lease of sku {}, it takes no more reservations here", skuId);
+                    counter.lose();
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        if (!reservations.isEmpty()) {
+            log.info("Shutting down with {} open stock reservations, they are released", reservations.size());
+        }
+        List<StockLease> leases = new ArrayList<>();
+        counters.forEach((skuId, counter) -> leases.add(new StockLease(skuId, leaseOwner, counter.getEpoch(), null)));
+        releaseLeases(leases);
+    }
+
+    /**
+     * Stop taking reservations for the SKUs that moved away and hand over the settled ones right away
+     */
+    void onOwnershipChanged() {
+        counters.forEach((skuId, counter) -> {
+            if (ownership.owns(skuId)) {
+                counter.adopt();
+            } else {
+                counter.retire();
+            }
+        });
+        evict(Long.MIN_VALUE);
+    }
+
+    /**
+     * Re-read the stock of the loaded SKUs among skuIds, after another stock path wrote them
+     */
+    synchronized void invalidate(Collection<Long> skuIds) {
+        List<Long> loaded = new ArrayList<>();
+        skuIds.stream().filter(counters::containsKey).forEach(loaded::add);
+        if (loaded.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> stocks = new HashMap<>();
+        try {
+            stockMapper.selectStocks(loaded).forEach(s -> stocks.put(s.getSkuId(), s.getStock()));
+        } catch (RuntimeException e) {
+            // confirmations are checked against tb_stock anyway
+            log.warn("Failed to reload the stock of {} skus", loaded.size(), e);
+            return;
+        }
+        for (Long skuId : loaded) {
+            SkuCounter counter = counters.get(skuId);
+            if (counter != null) {
+                // a deleted SKU has nothing left to reserve
+                counter.reload(stocks.getOrDefault(skuId, 0));
+            }
+        }
+    }
+
+    int available(long skuId) {
+        SkuCounter counter = counters.get(skuId);
+        return counter == null ? -1 : counter.available();
+    }
+
+    String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    private void checkOwned(Collection<Long> skuIds) {
+        Map<Long, String> foreign = new TreeMap<>();
+        for (Long skuId : skuIds) {
+            String owner = ownership.owner(skuId);
+            if (!ownership.getSelfId().equals(owner)) {
+                foreign.put(skuId, owner);
+            }
+        }
+        if (!foreign.isEmpty()) {
+            throw new LyException(ExceptionEnum.SKU_NOT_OWNED, foreign);
+        }
+    }
+
+    /**
+     * Get the counters of owned SKUs, taking the leases of the missing ones and then reading them from
+     * tb_stock in one query
+     * A SKU without a stock row has no counter.
+     */
+    private Map<Long, SkuCounter> load(Collection<Long> skuIds, long now) {
+        Map<Long, SkuCounter> loaded = new HashMap<>();
+        List<Long> missing = collectLoaded(skuIds, loaded);
+        if (missing.isEmpty()) {
+            return loaded;
+        }
+        synchronized (loading) {
+            // another request may have loaded them meanwhile
+            missing = collectLoaded(missing, loaded);
+            if (missing.isEmpty()) {
+                return loaded;
+            }
+            Map<Long, Long> epochs = acquire(missing);
+            List<StockLease> unused = new ArrayList<>();
+            try {
+                Map<Long, Integer> stocks = new HashMap<>();
+                stockMapper.selectStocks(missing).forEach(s -> stocks.put(s.getSkuId(), s.getStock()));
+                epochs.forEach((skuId, epoch) -> {
+                    Integer stock = stocks.get(skuId);
+                    if (stock == null) {
+                        unused.add(new StockLease(skuId, leaseOwner, epoch, null));
+                        return;
+                    }
+                    SkuCounter counter = new SkuCounter(stock, epoch, now);
+                    counters.put(skuId, counter);
+                    loaded.put(skuId, counter);
+                });
+            } catch (RuntimeException e) {
+                epochs.forEach((skuId, epoch) -> unused.add(new StockLease(skuId, leaseOwner, epoch, null)));
+                throw e;
+            } finally {
+                releaseLeases(unused);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Put the live counters of skuIds into loaded
+     * @return The SKUs without a live counter
+     */
+    private List<Long> collectLoaded(Collection<Long> skuIds, Map<Long, SkuCounter> loaded) {
+        List<Long> missing = new ArrayList<>();
+        for (Long skuId : skuIds) {
+            SkuCounter counter = counters.get(skuId);
+            if (counter == null || counter.isEvicted()) {
+                missing.add(skuId);
+            } else {
+                counter.adopt();
+                loaded.put(skuId, counter);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Take the leases of several SKUs, all or none
+     * @return SKU id -> epoch of its new lease
+     * @throws LyException STOCK_OWNERSHIP_MOVING if another instance still holds some of them
+     */
+    private Map<Long, Long> acquire(List<Long> skuIds) {
+        return inTransaction(() -> {
+            Map<Long, StockLease> current = new HashMap<>();
+            leaseMapper.selectForUpdate(skuIds).forEach(l -> current.put(l.getSkuId(), l));
+            List<StockLease> next = new ArrayList<>(skuIds.size());
+            Map<Long, Long> epochs = new TreeMap<>();
+            for (Long skuId : skuIds) {
+                StockLease lease = current.get(skuId);
+                if (lease != null && !leaseOwner.equals(lease.getOwner()) && !Boolean.TRUE.equals(lease.getExpired())) {
+                    // the previous owner serves it until its reservations are settled or its lease runs out
+                    throw new LyException(ExceptionEnum.STOCK_OWNERSHIP_MOVING);
+                }
+                long epoch = lease == null ? 1 : lease.getEpoch() + 1;
+                next.add(new StockLease(skuId, leaseOwner, epoch, null));
+                epochs.put(skuId, epoch);
+            }
+            leaseMapper.upsertLeases(next, leaseTtl);
+            return epochs;
+        });
+    }
+
+    /**
+     * Write one group of confirmations in one transaction and settle their counters
+     */
+    private void write(List<PendingConfirm> batch, SortedSet<Long> skuIds) {
+        Map<Long, Integer> after;
+        try {
+            after = inTransaction(() -> decide(batch, skuIds));
+        } catch (RuntimeException e) {
+            log.error("Failed to confirm {} stock reservations, they stay open", batch.size(), e);
+            for (PendingConfirm pending : batch) {
+                pending.failure = new LyException(ExceptionEnum.STOCK_UPDATE_ERROR);
+                reservations.put(pending.reservation.getId(), pending.reservation);
+            }
+            return;
+        }
+        // accepted or refused, the units are no longer reserved
+        Map<Long, Integer> settled = new HashMap<>();
+        batch.forEach(p -> p.reservation.getLines().forEach((skuId, num) -> settled.merge(skuId, num, Integer::sum)));
+        settled.forEach((skuId, num) -> counters.get(skuId).settle(num, after.getOrDefault(skuId, 0)));
+    }
+
+    /**
+     * Lock the leases and stock of the SKUs, accept the confirmations that fit in arrival order and
+     * subtract them; runs in the caller's transaction
+     * @return SKU id -> stock after the write, for the SKUs with a stock row
+     */
+    private Map<Long, Integer> decide(List<PendingConfirm> batch, SortedSet<Long> skuIds) {
+        Set<Long> fenced = new HashSet<>(skuIds);
+        for (StockLease lease : leaseMapper.selectForUpdate(skuIds)) {
+            SkuCounter counter = counters.get(lease.getSkuId());
+            if (leaseOwner.equals(lease.getOwner()) && counter != null && counter.getEpoch() == lease.getEpoch()) {
+                fenced.remove(lease.getSkuId());
+            }
+        }
+        Map<Long, Integer> stocks = new TreeMap<>();
+        stockMapper.selectForUpdateBatch(skuIds).forEach(s -> stocks.put(s.getSkuId(), s.getStock()));
+        Map<Long, List<StockBucket>> buckets = new HashMap<>();
+        for (Long skuId : stockBucketService.countBuckets(skuIds).keySet()) {
+            List<StockBucket> locked = stockBucketService.lock(skuId);
+            buckets.put(skuId, locked);
+            stocks.put(skuId, locked.stream().mapToInt(StockBucket::getStock).sum());
+        }
+
+        SortedMap<Long, Integer> taken = new TreeMap<>();
+        for (PendingConfirm pending : batch) {
+            SortedMap<Long, Integer> lines = pending.reservation.getLines();
+            if (lines.keySet().stream().anyMatch(fenced::contains)) {
+                pending.failure = new LyException(ExceptionEnum.STOCK_OWNERSHIP_MOVING);
+                continue;
+            }
+            List<StockShortfall> shortfalls = new ArrayList<>();
+            lines.forEach((skuId, num) -> {
+                int left = stocks.getOrDefault(skuId, 0) - taken.getOrDefault(skuId, 0);
+                if (left < num) {
+                    shortfalls.add(new StockShortfall(skuId, num, Math.max(left, 0)));
+                }
+            });
+            if (!shortfalls.isEmpty()) {
+                pending.failure = new LyException(ExceptionEnum.STOCK_NOT_ENOUGH, shortfalls);
+                continue;
+            }
+            lines.forEach((skuId, num) -> taken.merge(skuId, num, Integer::sum));
+        }
+
+        List<CartDTO> plain = new ArrayList<>();
+        taken.forEach((skuId, num) -> {
+            if (!buckets.containsKey(skuId)) {
+                plain.add(new CartDTO(skuId, num));
+            } else if (!stockBucketService.take(buckets.get(skuId), num, 0)) {
+                throw new IllegalStateException("Locked buckets of sku " + skuId + " do not cover " + num);
+            }
+        });
+        if (!plain.isEmpty() && stockMapper.decreaseStockBatch(plain) != plain.size()) {
+            throw new IllegalStateException("Locked stock rows do not cover " + plain);
+        }
+        Map<Long, Integer> after = new HashMap<>();
+        stocks.forEach((skuId, stock) -> after.put(skuId, stock - taken.getOrDefault(skuId, 0)));
+        if (!taken.isEmpty()) {
+            Map<Long, Integer> written = new HashMap<>();
+            taken.keySet().forEach(skuId -> written.put(skuId, after.get(skuId)));
+            stockCache.written(written);
+        }
+        return after;
+    }
+
+    /**
+     * Drop the settled counters that are retired or were not used since idleBefore, and release their leases
+     * Runs under the flush lock, so a counter is never dropped while its confirmations are being written.
+     */
+    private synchronized void evict(long idleBefore) {
+        List<StockLease> leases = new ArrayList<>();
+        counters.forEach((skuId, counter) -> {
+            if (counter.evict(idleBefore) && counters.remove(skuId, counter)) {
+                leases.add(new StockLease(skuId, leaseOwner, counter.getEpoch(), null));
+            }
+        });
+        releaseLeases(leases);
+    }
+
+    private void releaseLeases(List<StockLease> leases) {
+        if (leases.isEmpty()) {
+            return;
+        }
+        try {
+            leaseMapper.releaseLeases(leases);
+        } catch (RuntimeException e) {
+            // the next owner waits for them to run out instead
+            log.warn("Failed to release the stock leases of {} skus", leases.size(), e);
+        }
+    }
+
+    private <T> T inTransaction(Supplier<T> action) {
+        return transactionTemplate == null ? action.get() : transactionTemplate.execute(status -> action.get());
+    }
+
+    private Reservation take(String reservationId) {
+        Reservation reservation = reservationId == null ? null : reservations.remove(reservationId);
+        if (reservation == null) {
+            throw new LyException(ExceptionEnum.STOCK_RESERVATION_NOT_FOUND);
+        }
+        return reservation;
+    }
+
+    private void release(Reservation reservation) {
+        reservation.getLines().forEach((skuId, num) -> counters.get(skuId).release(num));
+    }
+
+    private static SortedMap<Long, Integer> mergeLines(List<CartDTO> lines) {
+        SortedMap<Long, Integer> merged = new TreeMap<>();
+        if (CollectionUtils.isEmpty(lines)) {
+            throw new LyException(ExceptionEnum.INVALID_STOCK_QUANTITY);
+        }
+        for (CartDTO line : lines) {
+            if (line == null || line.getSkuId() == null || line.getNum() == null || line.getNum() <= 0) {
+                throw new LyException(ExceptionEnum.INVALID_STOCK_QUANTITY);
+            }
+            merged.merge(line.getSkuId(), line.getNum(), Integer::sum);
+        }
+        return merged;
+    }
+
+    /**
+     * A confirmation waiting for the next write; failure is set by the write if it was not accepted
+     * Both fields are set under the flush lock.
+     */
+    private static final class PendingConfirm {
+
+        private final Reservation reservation;
+        private LyException failure;
+        private boolean written;
+
+        private PendingConfirm(Reservation reservation) {
+            this.reservation = reservation;
+        }
+    }
+}
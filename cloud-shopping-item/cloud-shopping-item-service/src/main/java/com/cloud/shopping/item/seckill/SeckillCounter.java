@@ -0,0 +1,101 @@
+package com.cloud.shopping.item.seckill;
+
+import com.cloud.shopping.item.pojo.SeckillSession;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Units left in a running flash sale on this instance, and who won them
+ * Everything is lock-free, so losers are turned away with a couple of atomic reads.
+ */
+final class SeckillCounter {
+
+    private final SeckillSession session;
+    private final AtomicInteger remaining;
+
+    /**
+     * Units won but not yet subtracted from tb_stock.seckill_stock
+     */
+    private final AtomicInteger unreconciled = new AtomicInteger();
+
+    private final Set<Long> winners = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Set when the sale ended or moved to another instance; the counter is dropped once reconciled
+     */
+    private volatile boolean closed;
+
+    /**
+     * Reconcile runs that found the counter closed; only touched by the reconciler
+     */
+    private int closedRuns;
+
+    SeckillCounter(SeckillSession session, int remaining) {
+        this.session = session;
+        this.remaining = new AtomicInteger(remaining);
+    }
+
+    /**
+     * Take one unit for a user
+     * @return false if the user already won one or nothing is left
+     */
+    boolean take(Long userId) {
+        if (remaining.get() <= 0 || !winners.add(userId)) {
+            return false;
+        }
+        if (remaining.decrementAndGet() < 0) {
+            remaining.incrementAndGet();
+            winners.remove(userId);
+            return false;
+        }
+        unreconciled.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Undo {@link #take(Long)} when the win could not be queued
+     */
+    void giveBack(Long userId) {
+        unreconciled.decrementAndGet();
+        remaining.incrementAndGet();
+        winners.remove(userId);
+    }
+
+    boolean hasWon(Long userId) {
+        return winners.contains(userId);
+    }
+
+    int drainUnreconciled() {
+        return unreconciled.getAndSet(0);
+    }
+
+    void undrain(int delta) {
+        unreconciled.addAndGet(delta);
+    }
+
+    int getRemaining() {
+        return Math.max(remaining.get(), 0);
+    }
+
+    SeckillSession getSession() {
+        return session;
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Count a reconcile run that found the counter closed
+     * @return Whether an earlier run found it closed too, so no admission can still be taking a unit
+     */
+    boolean closedBefore() {
+        return closedRuns++ > 0;
+    }
+}
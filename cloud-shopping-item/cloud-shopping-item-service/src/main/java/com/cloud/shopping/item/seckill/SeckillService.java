@@ -0,0 +1,385 @@
+package com.cloud.shopping.item.seckill;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.SeckillOrder;
+import com.cloud.shopping.item.mapper.SeckillOrderMapper;
+import com.cloud.shopping.item.mapper.SeckillSessionMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.SeckillSession;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.reservation.SkuOwnership;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tk.mybatis.mapper.entity.Example;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Flash Sale Service
+ *
+ * A flash sale sends a huge spike at a few SKUs for a few seconds, so none of the hot path touches MySQL:
+ * - Sessions starting within warm-ahead ms are loaded every refresh-interval ms by the instance that owns
+ *   their SKU (see {@link SkuOwnership}), with the SKU's tb_stock.seckill_stock as the units on sale.
+ * - {@link #admit(Long, Long)} is the gate: a winner takes a unit from the in-memory counter and gets an
+ *   admission token; a loser, a repeat winner or a request outside the sale window is turned away at once.
+ *   Only a win is written to MySQL, to tb_seckill_order, before the user is told; if that fails the unit is
+ *   given back and the user is told to retry.
+ * - Winners go through a bounded queue of queue-capacity entries to a dispatcher thread, which sends each
+ *   of them to order creation as seckill.order on ly.item.exchange, as mandatory and correlated. A win is
+ *   delivered once the broker acks it and did not return it as unroutable; then its row is deleted.
+ *   Otherwise it is sent again every retry-interval ms.
+ * - Every redeliver-interval ms, wins whose row is older than redeliver-after ms are sent again by any
+ *   instance: those that did not fit in the queue and those of an instance that died before delivering.
+ * - Every reconcile-interval ms the units won since the last run are subtracted from seckill_stock, one
+ *   statement for all SKUs; a session that ended is reconciled a last time and dropped.
+ *
+ * A win may be delivered more than once, so order creation drops repeated tokens and should still ignore
+ * a second order of the same user and session: winners are only remembered while their session is loaded
+ * on its owner. At most one reconcile interval of won units is lost if the instance dies.
+ */
+@Slf4j
+@Service
+public class SeckillService {
+
+    public static final String ORDER_KEY = "seckill.order";
+
+    /**
+     * Header of the messages the broker has to return when no queue takes them, see RabbitConfig
+     */
+    public static final String MANDATORY_HEADER = "mandatory";
+
+    private static final MessagePostProcessor MANDATORY = message -> {
+        message.getMessageProperties().setHeader(MANDATORY_HEADER, true);
+        return message;
+    };
+
+    @Autowired
+    private SeckillSessionMapper sessionMapper;
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired
+    private SkuOwnership ownership;
+
+    @Autowired
+    private SeckillOrderMapper orderMapper;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    @Qualifier("seckillDispatchExecutor")
+    private Executor dispatchExecutor;
+
+    @Value("${ly.item.seckill.warm-ahead:60000}")
+    private long warmAhead = 60000;
+
+    @Value("${ly.item.seckill.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+
+    @Value("${ly.item.seckill.retry-interval:1000}")
+    private long retryInterval = 1000;
+
+    @Value("${ly.item.seckill.confirm-timeout:5000}")
+    private long confirmTimeout = 5000;
+
+    @Value("${ly.item.seckill.redeliver-after:60000}")
+    private long redeliverAfter = 60000;
+
+    @Value("${ly.item.seckill.redeliver-batch:100}")
+    private int redeliverBatch = 100;
+
+    /**
+     * SKU ID -> its loaded session; a SKU has at most one session at a time
+     */
+    private final ConcurrentMap<Long, SeckillCounter> counters = new ConcurrentHashMap<>();
+
+    private BlockingQueue<SeckillOrder> queue;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        dispatchExecutor.execute(this::dispatch);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        reconcile();
+    }
+
+    /**
+     * Schedule a flash sale
+     *
+     * @param session SKU and sale window
+     * @return The saved session with its ID
+     * @throws LyException if the window is invalid, the SKU has no seckill stock or already has a sale then
+     */
+    public SeckillSession createSession(SeckillSession session) {
+        long now = System.currentTimeMillis();
+        if (session == null || session.getSkuId() == null || session.getStartTime() == null || session.getEndTime() == null
+                || !session.getStartTime().before(session.getEndTime()) || session.getEndTime().getTime() <= now) {
+            throw new LyException(ExceptionEnum.INVALID_SECKILL_SESSION);
+        }
+        Stock stock = stockMapper.selectByPrimaryKey(session.getSkuId());
+        if (stock == null || stock.getSeckillStock() == null || stock.getSeckillStock() <= 0) {
+            throw new LyException(ExceptionEnum.INVALID_SECKILL_SESSION);
+        }
+        Example overlap = new Example(SeckillSession.class);
+        overlap.createCriteria()
+                .andEqualTo("skuId", session.getSkuId())
+                .andGreaterThan("endTime", session.getStartTime())
+                .andLessThan("startTime", session.getEndTime());
+        if (sessionMapper.selectCountByExample(overlap) > 0) {
+            throw new LyException(ExceptionEnum.INVALID_SECKILL_SESSION);
+        }
+        session.setId(null);
+        sessionMapper.insert(session);
+        return session;
+    }
+
+    /**
+     * Admit a user to a flash sale
+     *
+     * @param skuId SKU on sale
+     * @param userId User ID
+     * @return The queued order, whose token identifies the win
+     * @throws LyException SKU_NOT_OWNED with the owner if another instance runs the sale of this SKU;
+     *                     SECKILL_NOT_FOUND, SECKILL_NOT_STARTED, SECKILL_ENDED, SECKILL_SOLD_OUT,
+     *                     SECKILL_REPEATED, or SECKILL_BUSY if the win could not be saved
+     */
+    public SeckillOrder admit(Long skuId, Long userId) {
+        if (skuId == null || userId == null) {
+            throw new LyException(ExceptionEnum.SECKILL_NOT_FOUND);
+        }
+        SeckillCounter counter = counters.get(skuId);
+        if (counter == null || counter.isClosed()) {
+            if (!ownership.owns(skuId)) {
+                throw new LyException(ExceptionEnum.SKU_NOT_OWNED, Collections.singletonMap(skuId, ownership.owner(skuId)));
+            }
+            throw new LyException(ExceptionEnum.SECKILL_NOT_FOUND);
+        }
+        long now = System.currentTimeMillis();
+        SeckillSession session = counter.getSession();
+        if (now < session.getStartTime().getTime()) {
+            throw new LyException(ExceptionEnum.SECKILL_NOT_STARTED);
+        }
+        if (now >= session.getEndTime().getTime()) {
+            throw new LyException(ExceptionEnum.SECKILL_ENDED);
+        }
+        if (counter.hasWon(userId)) {
+            throw new LyException(ExceptionEnum.SECKILL_REPEATED);
+        }
+        if (!counter.take(userId)) {
+            throw new LyException(counter.hasWon(userId) ? ExceptionEnum.SECKILL_REPEATED : ExceptionEnum.SECKILL_SOLD_OUT);
+        }
+        SeckillOrder order = new SeckillOrder(UUID.randomUUID().toString(), session.getId(), skuId, userId, now);
+        try {
+            orderMapper.insert(order);
+        } catch (RuntimeException e) {
+            log.error("Failed to save seckill order {} of user {}", order.getToken(), userId, e);
+            counter.giveBack(userId);
+            throw new LyException(ExceptionEnum.SECKILL_BUSY);
+        }
+        if (!queue.offer(order)) {
+            log.warn("Seckill queue is full, order {} is left to the redelivery", order.getToken());
+        }
+        return order;
+    }
+
+    /**
+     * @param skuId SKU on sale
+     * @return Units left in the loaded sale of the SKU, null if it is not loaded on this instance
+     */
+    public Integer queryRemaining(Long skuId) {
+        SeckillCounter counter = counters.get(skuId);
+        return counter == null || counter.isClosed() ? null : counter.getRemaining();
+    }
+
+    /**
+     * Load the owned sessions that start soon and close the ones that ended or moved away
+     */
+    @Scheduled(fixedDelayString = "${ly.item.seckill.refresh-interval:5000}")
+    public void refresh() {
+        long now = System.currentTimeMillis();
+        counters.forEach((skuId, counter) -> {
+            if (counter.getSession().getEndTime().getTime() <= now || !ownership.owns(skuId)) {
+                counter.close();
+            }
+        });
+
+        Example upcoming = new Example(SeckillSession.class);
+        upcoming.createCriteria()
+                .andGreaterThan("endTime", new Date(now))
+                .andLessThanOrEqualTo("startTime", new Date(now + warmAhead));
+        List<SeckillSession> sessions = new ArrayList<>();
+        for (SeckillSession session : sessionMapper.selectByExample(upcoming)) {
+            SeckillCounter current = counters.get(session.getSkuId());
+            if (ownership.owns(session.getSkuId()) && (current == null || current.isClosed())) {
+                sessions.add(session);
+            }
+        }
+        // the previous owner may still be selling these SKUs
+        if (!sessions.isEmpty() && !ownership.isSettling(now)) {
+            warm(sessions);
+        }
+        reconcile();
+    }
+
+    /**
+     * Subtract the units won since the last run from tb_stock.seckill_stock and drop closed sessions
+     */
+    @Scheduled(fixedDelayString = "${ly.item.seckill.reconcile-interval:1000}")
+    public synchronized void reconcile() {
+        List<CartDTO> deltas = new ArrayList<>();
+        List<SeckillCounter> drained = new ArrayList<>();
+        new TreeMap<>(counters).forEach((skuId, counter) -> {
+            // a closed counter is dropped one run later, when no admission can still be taking from it
+            boolean drop = counter.isClosed() && counter.closedBefore();
+            int delta = counter.drainUnreconciled();
+            // negative when a win given back was already reconciled
+            if (delta != 0) {
+                deltas.add(new CartDTO(skuId, delta));
+                drained.add(counter);
+            } else if (drop) {
+                counters.remove(skuId, counter);
+            }
+        });
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            stockMapper.decreaseSeckillStockBatch(deltas);
+        } catch (RuntimeException e) {
+            log.error("Failed to reconcile the seckill stock of {} skus, retrying on the next run", deltas.size(), e);
+            for (int i = 0; i < deltas.size(); i++) {
+                drained.get(i).undrain(deltas.get(i).getNum());
+            }
+        }
+    }
+
+    private void warm(List<SeckillSession> sessions) {
+        List<Long> skuIds = new ArrayList<>();
+        sessions.forEach(s -> skuIds.add(s.getSkuId()));
+        Map<Long, Integer> seckillStock = new HashMap<>();
+        for (Stock stock : stockMapper.selectByIdList(skuIds)) {
+            seckillStock.put(stock.getSkuId(), stock.getSeckillStock() == null ? 0 : stock.getSeckillStock());
+        }
+        for (SeckillSession session : sessions) {
+            SeckillCounter counter = new SeckillCounter(session, seckillStock.getOrDefault(session.getSkuId(), 0));
+            // a closed counter is only replaced once its last wins are reconciled
+            if (counters.putIfAbsent(session.getSkuId(), counter) == null) {
+                log.info("Flash sale {} of sku {} loaded with {} units", session.getId(), session.getSkuId(), counter.getRemaining());
+            }
+        }
+    }
+
+    /**
+     * Send again the wins that were not delivered within redeliver-after ms, oldest first
+     */
+    @Scheduled(fixedDelayString = "${ly.item.seckill.redeliver-interval:30000}")
+    public void redeliver() {
+        List<SeckillOrder> stale = orderMapper.selectAdmittedBefore(System.currentTimeMillis() - redeliverAfter, redeliverBatch);
+        for (SeckillOrder order : stale) {
+            if (!deliver(order)) {
+                // the broker is unavailable, the next run tries again
+                return;
+            }
+        }
+        if (!stale.isEmpty()) {
+            log.info("Redelivered {} seckill orders", stale.size());
+        }
+    }
+
+    /**
+     * Hand the queued winners to order creation, one at a time and in admission order
+     */
+    private void dispatch() {
+        while (running || !queue.isEmpty()) {
+            SeckillOrder order;
+            try {
+                order = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (order != null) {
+                send(order);
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Seckill dispatcher stopped with {} queued orders, they are left to the redelivery", queue.size());
+        }
+    }
+
+    private void send(SeckillOrder order) {
+        while (!deliver(order)) {
+            if (!running) {
+                log.warn("Seckill order {} was not delivered before shutdown, it is left to the redelivery", order.getToken());
+                return;
+            }
+            try {
+                Thread.sleep(retryInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Seckill order {} was not delivered before shutdown, it is left to the redelivery", order.getToken());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Send one win and delete its row once the broker has it
+     *
+     * @return false if it could not be sent, was nacked, was returned as unroutable or was not confirmed
+     *         within confirm-timeout ms
+     */
+    boolean deliver(SeckillOrder order) {
+        CorrelationData correlation = new CorrelationData(order.getToken());
+        try {
+            rabbitTemplate.convertAndSend(ORDER_KEY, order, MANDATORY, correlation);
+            CorrelationData.Confirm confirm = correlation.getFuture().get(confirmTimeout, TimeUnit.MILLISECONDS);
+            if (!confirm.isAck()) {
+                log.warn("Seckill order {} was refused by the broker: {}", order.getToken(), confirm.getReason());
+                return false;
+            }
+            // a return always comes before the ack of its message
+            if (correlation.getReturned() != null) {
+                log.warn("Seckill order {} was not routed to any queue: {}", order.getToken(), correlation.getReturned().getReplyText());
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (TimeoutException e) {
+            log.warn("No confirm for seckill order {} within {} ms", order.getToken(), confirmTimeout);
+            return false;
+        } catch (Exception e) {
+            log.warn("Failed to send seckill order {}", order.getToken(), e);
+            return false;
+        }
+        try {
+            orderMapper.deleteByToken(order.getToken());
+        } catch (RuntimeException e) {
+            // it is delivered once more by the redelivery, order creation drops the repeated token
+            log.error("Failed to delete delivered seckill order {}", order.getToken(), e);
+        }
+        return true;
+    }
+}
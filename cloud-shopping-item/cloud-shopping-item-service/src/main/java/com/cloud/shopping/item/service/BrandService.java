@@ -1,5 +1,7 @@
 package com.cloud.shopping.item.service;
 
+import com.cloud.shopping.common.cache.BoundedCache;
+import com.cloud.shopping.common.cache.BoundedCacheMetrics;
 import com.cloud.shopping.common.enums.ExceptionEnum;
 import com.cloud.shopping.common.exception.LyException;
 import com.cloud.shopping.common.vo.PageResult;
@@ -7,20 +9,79 @@ import com.cloud.shopping.item.pojo.Brand;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.cloud.shopping.item.mapper.BrandMapper;
+import com.cloud.shopping.item.utils.TransactionUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import tk.mybatis.mapper.entity.Example;
 
-import java.util.List;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+/**
+ * Brand Management Service
+ *
+ * Brands are read on every product list and detail page, so lookups by id and by category
+ * go through two bounded caches:
+ * - brandById: brand id -> brand
+ * - brandIdsByCid: category id -> ids of the brands in that category
+ * Every write invalidates the affected entries, once right away and once more after commit,
+ * so a reader that loaded the old rows before the commit cannot leave them in the cache.
+ * After commit it also broadcasts "brand.update" with the brand id (0 if none) and the affected
+ * category ids in a header, so the other item-service instances drop the same entries.
+ * A lost broadcast is covered by the cache ttl.
+ */
+@Slf4j
 @Service
 public class BrandService {
+
+    /**
+     * Routing key used to tell other instances that brands or category brand lists changed
+     */
+    public static final String BRAND_UPDATE_KEY = "brand.update";
+
+    /**
+     * Header of brand.update listing the category ids whose brand lists changed, comma separated
+     */
+    public static final String CATEGORY_IDS_HEADER = "cids";
+
     @Autowired
     private BrandMapper brandMapper;
 
+    @Autowired(required = false)
+    private AmqpTemplate amqpTemplate;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${ly.item.cache.brand.maximum-size:10000}")
+    private int brandCacheSize = 10000;
+
+    @Value("${ly.item.cache.brand-category.maximum-size:2000}")
+    private int categoryCacheSize = 2000;
+
+    @Value("${ly.item.cache.brand.ttl:600000}")
+    private long cacheTtl = 600000;
+
+    private BoundedCache<Long, Brand> brandById;
+    private BoundedCache<Long, List<Long>> brandIdsByCid;
+
+    @PostConstruct
+    public void init() {
+        brandById = new BoundedCache<>("brand", brandCacheSize, cacheTtl);
+        brandIdsByCid = new BoundedCache<>("brand.category", categoryCacheSize, cacheTtl);
+        BoundedCacheMetrics.monitor(meterRegistry, brandById);
+        BoundedCacheMetrics.monitor(meterRegistry, brandIdsByCid);
+    }
+
     /**
      * Query brands with pagination and filtering
      *
@@ -87,6 +148,9 @@ public class BrandService {
                 throw new LyException(ExceptionEnum.CATEGORY_BRAND_SAVE_ERROR);
             }
         }
+
+        // A new brand can only show up in the category lists
+        changed(null, cids);
     }
 
     /**
@@ -98,8 +162,8 @@ public class BrandService {
     @Transactional(rollbackFor = Exception.class)
     public void updateBrand(Brand brand,List<Long> categories) {
 
-        // Remove existing category associations
-        deleteByBrandIdInCategoryBrand(brand.getId());
+        // Remove existing category associations, their lists are dropped with the brand below
+        brandMapper.deleteByBrandIdInCategoryBrand(brand.getId());
 
         // Update brand information
         this.brandMapper.updateByPrimaryKeySelective(brand);
@@ -108,6 +172,8 @@ public class BrandService {
         for (Long cid : categories) {
             this.brandMapper.insertCategoryBrand(cid, brand.getId());
         }
+
+        changed(brand.getId(), categories);
     }
 
     /**
@@ -118,7 +184,7 @@ public class BrandService {
      * @throws LyException if brand not found
      */
     public Brand queryById(Long id){
-        Brand brand = brandMapper.selectByPrimaryKey(id);
+        Brand brand = brandById.get(id, brandMapper::selectByPrimaryKey);
         if(brand == null){
             throw new LyException(ExceptionEnum.BRAND_NOT_FOUND);
         }
@@ -133,7 +199,14 @@ public class BrandService {
      * @throws LyException if no brands found
      */
     public List<Brand> queryBrandByCid(Long cid) {
-        List<Brand> list = brandMapper.queryByCategoryId(cid);
+        // Brands fetched by the join are reused for the id lookup below, so a cold category costs one query
+        Map<Long, Brand> fetched = new HashMap<>();
+        List<Long> ids = brandIdsByCid.get(cid, c -> {
+            List<Brand> brands = brandMapper.queryByCategoryId(c);
+            brands.forEach(b -> fetched.put(b.getId(), b));
+            return brands.stream().map(Brand::getId).collect(Collectors.toList());
+        });
+        List<Brand> list = loadBrands(ids, fetched);
         if (CollectionUtils.isEmpty(list)) {
             throw new LyException(ExceptionEnum.BRAND_NOT_FOUND);
         }
@@ -148,13 +221,43 @@ public class BrandService {
      * @throws LyException if no brands found
      */
     public List<Brand> queryBrandsByIds(List<Long> ids) {
-        List<Brand> brands = brandMapper.selectByIdList(ids);
+        List<Brand> brands = findBrandsByIds(ids);
         if (CollectionUtils.isEmpty(brands)) {
             throw new LyException(ExceptionEnum.BRAND_NOT_FOUND);
         }
         return brands;
     }
 
+    /**
+     * Look up multiple brands by IDs, without failing when none exists
+     *
+     * @param ids List of brand IDs
+     * @return The existing brands, possibly empty
+     */
+    public List<Brand> findBrandsByIds(List<Long> ids) {
+        return loadBrands(ids, Collections.emptyMap());
+    }
+
+    /**
+     * Resolve brand ids through the cache, loading all the missing ones with a single IN query
+     *
+     * @param ids Brand IDs
+     * @param fetched Brands already read from the database by the caller
+     * @return Existing brands in the order of the given ids
+     */
+    private List<Brand> loadBrands(List<Long> ids, Map<Long, Brand> fetched) {
+        if (CollectionUtils.isEmpty(ids)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(brandById.getAll(ids, missing -> {
+            if (fetched.keySet().containsAll(missing)) {
+                return fetched;
+            }
+            return brandMapper.selectByIdList(new ArrayList<>(missing)).stream()
+                    .collect(Collectors.toMap(Brand::getId, Function.identity()));
+        }).values());
+    }
+
     /**
      * Delete brand and its category associations
      *
@@ -167,6 +270,8 @@ public class BrandService {
 
         // Delete Category Associations
         brandMapper.deleteByBrandIdInCategoryBrand(id);
+
+        changed(id, null);
     }
 
     /**
@@ -176,5 +281,60 @@ public class BrandService {
      */
     public void deleteByBrandIdInCategoryBrand(Long bid) {
         brandMapper.deleteByBrandIdInCategoryBrand(bid);
+
+        changed(bid, null);
+    }
+
+    /**
+     * Drop the brand lists of categories whose brands changed elsewhere, e.g. deleted categories
+     *
+     * @param cids Category IDs
+     */
+    public void categoriesChanged(Collection<Long> cids) {
+        changed(null, cids);
+    }
+
+    /**
+     * Drop cached entries on this instance only
+     *
+     * @param bid Brand ID whose entry and containing category lists are dropped, null for none
+     * @param cids Category IDs whose brand lists are dropped, may be null
+     */
+    public void evict(Long bid, Collection<Long> cids) {
+        if (bid != null) {
+            brandById.invalidate(bid);
+            brandIdsByCid.invalidateIf(ids -> ids.contains(bid));
+        }
+        if (!CollectionUtils.isEmpty(cids)) {
+            brandIdsByCid.invalidateAll(cids);
+        }
+    }
+
+    /**
+     * Evict now and again after the surrounding transaction commits, then tell the other instances
+     */
+    private void changed(Long bid, Collection<Long> cids) {
+        evict(bid, cids);
+        TransactionUtils.afterCommit(() -> {
+            evict(bid, cids);
+            broadcast(bid, cids);
+        });
+    }
+
+    private void broadcast(Long bid, Collection<Long> cids) {
+        if (amqpTemplate == null) {
+            return;
+        }
+        try {
+            amqpTemplate.convertAndSend(BRAND_UPDATE_KEY, bid == null ? 0L : bid, message -> {
+                if (!CollectionUtils.isEmpty(cids)) {
+                    message.getMessageProperties().setHeader(CATEGORY_IDS_HEADER, StringUtils.join(cids, ','));
+                }
+                return message;
+            });
+        } catch (Exception e) {
+            // the other instances fall back to the ttl
+            log.error("Failed to broadcast change of brand {} in categories {}", bid, cids, e);
+        }
     }
 }
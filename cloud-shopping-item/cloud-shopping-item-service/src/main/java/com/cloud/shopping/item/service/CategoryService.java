@@ -4,14 +4,19 @@ import com.cloud.shopping.common.enums.ExceptionEnum;
 import com.cloud.shopping.common.exception.LyException;
 import com.cloud.shopping.item.pojo.Category;
 import com.cloud.shopping.item.mapper.CategoryMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 import tk.mybatis.mapper.entity.Example;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Category Management Service
@@ -19,12 +24,89 @@ import java.util.List;
  *
  * Note: This is currently implemented as a concrete class without an interface.
  * Could be improved by extracting an interface following SOLID principles.
+ *
+ * Reads are served from an in-memory {@link CategorySnapshot} of the whole tree. Every write rebuilds
+ * the snapshot and broadcasts "category.update" so that the other item-service instances rebuild too.
+ * As a safety net against a lost broadcast, a snapshot older than the configured max age is rebuilt
+ * on the next read.
  */
+@Slf4j
 @Service
 public class CategoryService {
+
+    /**
+     * Routing key used to tell other instances that the category tree changed
+     */
+    public static final String CATEGORY_UPDATE_KEY = "category.update";
+
     @Autowired
     private CategoryMapper categoryMapper;
 
+    @Autowired
+    private AmqpTemplate amqpTemplate;
+
+    @Autowired
+    private BrandService brandService;
+
+    @Value("${ly.item.category.snapshot-max-age:600000}")
+    private long snapshotMaxAge = 600000;
+
+    /**
+     * Identifies this instance as the origin of a broadcast, so it can skip its own messages
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private volatile CategorySnapshot snapshot;
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Get the current snapshot, building it on first use or when it is older than the max age
+     */
+    public CategorySnapshot snapshot() {
+        CategorySnapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.getBuiltAt() > snapshotMaxAge) {
+            current = refreshIfStale(current);
+        }
+        return current;
+    }
+
+    private synchronized CategorySnapshot refreshIfStale(CategorySnapshot seen) {
+        // another thread may have rebuilt it while we were waiting for the lock
+        if (snapshot != seen) {
+            return snapshot;
+        }
+        return refresh();
+    }
+
+    /**
+     * Reload the whole tree from the database and atomically swap in the new snapshot
+     *
+     * @return The new snapshot
+     */
+    public synchronized CategorySnapshot refresh() {
+        long version = snapshot == null ? 1 : snapshot.getVersion() + 1;
+        CategorySnapshot next = CategorySnapshot.build(version, categoryMapper.selectAll());
+        snapshot = next;
+        log.info("Category tree snapshot rebuilt, version: {}, size: {}", next.getVersion(), next.size());
+        return next;
+    }
+
+    /**
+     * Rebuild the local snapshot after a write and tell the other instances to do the same
+     */
+    private void onCategoryChanged() {
+        refresh();
+        try {
+            amqpTemplate.convertAndSend(CATEGORY_UPDATE_KEY, instanceId);
+        } catch (Exception e) {
+            // the other instances fall back to the max age rebuild
+            log.error("Failed to broadcast category change", e);
+        }
+    }
+
     /**
      * Query child categories by parent ID
      *
@@ -33,10 +115,7 @@ public class CategoryService {
      * @throws LyException if no categories found
      */
     public List<Category> queryCategoryListByPid(Long pid) {
-        // Create query criteria using non-null properties
-        Category t = new Category();
-        t.setParentId(pid);
-        List<Category> list = categoryMapper.select(t);
+        List<Category> list = snapshot().children(pid);
 
         // Validate results
         if(CollectionUtils.isEmpty(list)){
@@ -53,25 +132,37 @@ public class CategoryService {
      * @throws LyException if no categories found
      */
     public List<Category> queryByIds(List<Long> ids) {
-        List<Category> list = categoryMapper.selectByIdList(ids);
+        List<Category> list = findByIds(ids);
         if(CollectionUtils.isEmpty(list)){
             throw new LyException((ExceptionEnum.CATEGORY_NOT_FOUND));
         }
         return list;
     }
 
+    /**
+     * Look up multiple categories by their IDs, without failing when none exists
+     *
+     * @param ids List of category IDs
+     * @return The existing categories, possibly empty
+     */
+    public List<Category> findByIds(List<Long> ids) {
+        return snapshot().getAll(ids);
+    }
+
     /**
      * Query complete category path from level 3 to level 1
      * Returns categories in order: [level1, level2, level3]
      *
      * @param id Level 3 category ID
      * @return Ordered list of categories from root to leaf
+     * @throws LyException if the category does not exist
      */
     public List<Category> queryAllByCid3(Long id) {
-        Category c3 = this.categoryMapper.selectByPrimaryKey(id);
-        Category c2 = this.categoryMapper.selectByPrimaryKey(c3.getParentId());
-        Category c1 = this.categoryMapper.selectByPrimaryKey(c2.getParentId());
-        return Arrays.asList(c1,c2,c3);
+        List<Category> path = snapshot().path(id);
+        if(CollectionUtils.isEmpty(path)){
+            throw new LyException(ExceptionEnum.CATEGORY_NOT_FOUND);
+        }
+        return path;
     }
 
     /**
@@ -100,6 +191,8 @@ public class CategoryService {
         parent.setId(category.getParentId());
         parent.setIsParent(true);
         this.categoryMapper.updateByPrimaryKeySelective(parent);
+
+        onCategoryChanged();
     }
 
     /**
@@ -126,6 +219,7 @@ public class CategoryService {
             for (Category c : leafNodes){
                 this.categoryMapper.deleteByCategoryIdInCategoryBrand(c.getId());
             }
+            brandService.categoriesChanged(allNodes.stream().map(Category::getId).collect(Collectors.toList()));
         } else {
             // Handle leaf category deletion
             Example example = new Example(Category.class);
@@ -145,7 +239,10 @@ public class CategoryService {
             }
             // Clean up brand associations
             this.categoryMapper.deleteByCategoryIdInCategoryBrand(category.getId());
+            brandService.categoriesChanged(Collections.singletonList(category.getId()));
         }
+
+        onCategoryChanged();
     }
 
     /**
@@ -194,6 +291,8 @@ public class CategoryService {
      */
     public void updateCategory(Category category) {
         this.categoryMapper.updateByPrimaryKeySelective(category);
+
+        onCategoryChanged();
     }
 
     /**
@@ -0,0 +1,119 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.pojo.Category;
+
+import java.util.*;
+
+/**
+ * Immutable, versioned view of the whole category tree
+ *
+ * Built once from a full table scan and never modified afterwards, so it can be shared by any number
+ * of readers without locking. Writers build a new snapshot and swap the reference.
+ * The Category instances are shared between readers and must be treated as read-only.
+ */
+public final class CategorySnapshot {
+
+    private final long version;
+    private final long builtAt;
+    private final Map<Long, Category> byId;
+    private final Map<Long, List<Category>> childrenByParent;
+    private final Map<Long, List<Category>> pathById;
+
+    private CategorySnapshot(long version, Map<Long, Category> byId, Map<Long, List<Category>> childrenByParent,
+                             Map<Long, List<Category>> pathById) {
+        this.version = version;
+        this.builtAt = System.currentTimeMillis();
+        this.byId = byId;
+        this.childrenByParent = childrenByParent;
+        this.pathById = pathById;
+    }
+
+    /**
+     * Build a snapshot from all category rows
+     *
+     * @param version Version number of the new snapshot
+     * @param categories All rows of tb_category
+     * @return New snapshot
+     */
+    public static CategorySnapshot build(long version, List<Category> categories) {
+        List<Category> sorted = new ArrayList<>(categories);
+        sorted.sort(Comparator.comparing(Category::getId));
+
+        Map<Long, Category> byId = new HashMap<>(sorted.size() * 2);
+        Map<Long, List<Category>> children = new HashMap<>();
+        for (Category c : sorted) {
+            byId.put(c.getId(), c);
+            children.computeIfAbsent(c.getParentId(), k -> new ArrayList<>()).add(c);
+        }
+
+        Map<Long, List<Category>> childrenByParent = new HashMap<>(children.size() * 2);
+        children.forEach((pid, list) -> childrenByParent.put(pid, Collections.unmodifiableList(list)));
+
+        Map<Long, List<Category>> pathById = new HashMap<>(byId.size() * 2);
+        for (Category c : sorted) {
+            pathById.put(c.getId(), path(c, byId));
+        }
+
+        return new CategorySnapshot(version, byId, childrenByParent, pathById);
+    }
+
+    /**
+     * Walk up the parent chain, stopping at a missing parent or a cycle
+     */
+    private static List<Category> path(Category leaf, Map<Long, Category> byId) {
+        LinkedList<Category> path = new LinkedList<>();
+        Set<Long> seen = new HashSet<>();
+        for (Category c = leaf; c != null && seen.add(c.getId()); c = byId.get(c.getParentId())) {
+            path.addFirst(c);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(path));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getBuiltAt() {
+        return builtAt;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * @return Category with the given id, or null
+     */
+    public Category get(Long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * @return Direct children of the given parent, empty if none
+     */
+    public List<Category> children(Long pid) {
+        return childrenByParent.getOrDefault(pid, Collections.emptyList());
+    }
+
+    /**
+     * @return Categories from the root down to the given node, empty if the node does not exist
+     */
+    public List<Category> path(Long id) {
+        return pathById.getOrDefault(id, Collections.emptyList());
+    }
+
+    /**
+     * @return Categories with the given ids in request order, skipping unknown and duplicate ids
+     */
+    public List<Category> getAll(Collection<Long> ids) {
+        List<Category> list = new ArrayList<>(ids.size());
+        Set<Long> seen = new HashSet<>();
+        for (Long id : ids) {
+            Category c = byId.get(id);
+            if (c != null && seen.add(id)) {
+                list.add(c);
+            }
+        }
+        return list;
+    }
+}
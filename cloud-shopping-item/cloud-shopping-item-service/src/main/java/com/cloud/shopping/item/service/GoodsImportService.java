@@ -0,0 +1,317 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.importer.GoodsImportReader;
+import com.cloud.shopping.item.importer.ImportFormat;
+import com.cloud.shopping.item.importer.ImportJob;
+import com.cloud.shopping.item.importer.ImportRecord;
+import com.cloud.shopping.item.pojo.Brand;
+import com.cloud.shopping.item.pojo.Category;
+import com.cloud.shopping.item.pojo.Sku;
+import com.cloud.shopping.item.pojo.Spu;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk Goods Import Service
+ *
+ * Imports a supplier feed of SPUs with their SKUs without one POST /goods per product:
+ * - The upload is streamed to a temporary file, so the request returns as soon as the body is received.
+ * - A reader thread parses the file record by record and validates each SPU against the cached category
+ *   tree and brand lookups. Invalid records are reported with their line and skipped.
+ * - Valid SPUs are grouped into chunks of chunk-size and each chunk is written by the writer pool in
+ *   one transaction, through {@link GoodsService#saveGoodsBatch(List)}, which also publishes one
+ *   item.import event for the whole chunk.
+ * - The reader holds at most max-in-flight-chunks chunks; when they are all being written it waits,
+ *   so parsing never runs ahead of the database and memory stays bounded by the chunks in flight.
+ * - If a chunk fails, its SPUs are retried one by one so that a single bad row only fails itself.
+ *
+ * Jobs are kept in memory on the instance that runs them. Finished jobs beyond max-jobs are forgotten,
+ * oldest first.
+ */
+@Slf4j
+@Service
+public class GoodsImportService {
+
+    @Autowired
+    private GoodsService goodsService;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @Autowired
+    private BrandService brandService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("goodsImportReaderExecutor")
+    private Executor readerExecutor;
+
+    @Autowired
+    @Qualifier("goodsImportExecutor")
+    private Executor writerExecutor;
+
+    @Value("${ly.item.import.chunk-size:200}")
+    private int chunkSize = 200;
+
+    @Value("${ly.item.import.max-in-flight-chunks:4}")
+    private int maxInFlightChunks = 4;
+
+    @Value("${ly.item.import.max-errors:1000}")
+    private int maxErrors = 1000;
+
+    @Value("${ly.item.import.max-jobs:100}")
+    private int maxJobs = 100;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Receive a feed and start importing it in the background
+     *
+     * @param body The feed, read to the end before this method returns
+     * @param contentType Content type of the feed, selects NDJSON or CSV
+     * @return The started job
+     * @throws LyException if the format is not supported, the upload fails or too many imports are running
+     */
+    public ImportJob startImport(InputStream body, String contentType) {
+        ImportFormat format = ImportFormat.of(contentType);
+        Path file;
+        try {
+            file = Files.createTempFile("goods-import-", "." + format.name().toLowerCase());
+        } catch (IOException e) {
+            log.error("Failed to create the import spool file", e);
+            throw new LyException(ExceptionEnum.IMPORT_UPLOAD_ERROR);
+        }
+        try {
+            Files.copy(body, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Failed to receive the import feed", e);
+            deleteQuietly(file);
+            throw new LyException(ExceptionEnum.IMPORT_UPLOAD_ERROR);
+        }
+
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), format, maxErrors);
+        register(job);
+        try {
+            readerExecutor.execute(() -> run(job, file));
+        } catch (TaskRejectedException e) {
+            jobs.remove(job.getId());
+            deleteQuietly(file);
+            throw new LyException(ExceptionEnum.IMPORT_BUSY);
+        }
+        return job;
+    }
+
+    /**
+     * @param jobId Job ID returned by {@link #startImport}
+     * @return The job with its current progress
+     * @throws LyException if the job is unknown or already forgotten
+     */
+    public ImportJob queryJob(String jobId) {
+        ImportJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new LyException(ExceptionEnum.IMPORT_JOB_NOT_FOUND);
+        }
+        return job;
+    }
+
+    private void register(ImportJob job) {
+        jobs.put(job.getId(), job);
+        int excess = jobs.size() - maxJobs;
+        if (excess > 0) {
+            jobs.values().stream()
+                    .filter(ImportJob::isFinished)
+                    .sorted(Comparator.comparingLong(ImportJob::getStartTime))
+                    .limit(excess)
+                    .map(ImportJob::getId)
+                    .collect(Collectors.toList())
+                    .forEach(jobs::remove);
+        }
+    }
+
+    /**
+     * Read the spooled feed and hand it to the writers chunk by chunk, then wait for the last chunks
+     */
+    private void run(ImportJob job, Path file) {
+        Semaphore inFlight = new Semaphore(maxInFlightChunks);
+        String failure = null;
+        try (GoodsImportReader reader = job.getFormat().open(Files.newBufferedReader(file, StandardCharsets.UTF_8), objectMapper)) {
+            List<ImportRecord> chunk = new ArrayList<>(chunkSize);
+            for (ImportRecord record = reader.next(); record != null; record = reader.next()) {
+                job.recordRead();
+                String error = record.getError() != null ? record.getError() : validate(record.getSpu());
+                if (error != null) {
+                    job.failed(record.getLine(), error);
+                    continue;
+                }
+                chunk.add(record);
+                if (chunk.size() >= chunkSize) {
+                    submit(job, chunk, inFlight);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(job, chunk, inFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = "Import interrupted";
+        } catch (IOException | RuntimeException e) {
+            log.error("Import {} stopped", job.getId(), e);
+            failure = StringUtils.defaultIfBlank(e.getMessage(), e.getClass().getSimpleName());
+        } finally {
+            // the job is done once every chunk already handed out is written
+            inFlight.acquireUninterruptibly(maxInFlightChunks);
+            deleteQuietly(file);
+            job.finish(failure);
+        }
+        log.info("Import {} finished: {} records, {} spus imported, {} failed",
+                job.getId(), job.getRecordsRead(), job.getSpusImported(), job.getRecordsFailed());
+    }
+
+    /**
+     * Hand a chunk to the writer pool, waiting while max-in-flight-chunks chunks are still being written
+     */
+    private void submit(ImportJob job, List<ImportRecord> chunk, Semaphore inFlight) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            writerExecutor.execute(() -> {
+                try {
+                    writeChunk(job, chunk);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Write a chunk in one transaction; if that fails, write its SPUs one by one to find the bad ones
+     */
+    private void writeChunk(ImportJob job, List<ImportRecord> chunk) {
+        List<Spu> spus = chunk.stream().map(ImportRecord::getSpu).collect(Collectors.toList());
+        try {
+            goodsService.saveGoodsBatch(spus);
+            job.imported(spus.size(), countSkus(spus));
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Import {} chunk of {} spus failed, retrying them one by one: {}", job.getId(), spus.size(), describe(e));
+        }
+        for (ImportRecord record : chunk) {
+            try {
+                goodsService.saveGoodsBatch(Collections.singletonList(record.getSpu()));
+                job.imported(1, countSkus(Collections.singletonList(record.getSpu())));
+            } catch (RuntimeException e) {
+                job.failed(record.getLine(), describe(e));
+            }
+        }
+    }
+
+    /**
+     * Check an SPU against the category tree and brand caches and fill in the parent categories
+     *
+     * @param spu SPU read from the feed
+     * @return Why the SPU cannot be imported, null if it can
+     */
+    String validate(Spu spu) {
+        if (StringUtils.isBlank(spu.getTitle())) {
+            return "title is required";
+        }
+        Long cid3 = spu.getCategoryId3();
+        List<Category> path = cid3 == null ? Collections.emptyList() : categoryService.snapshot().path(cid3);
+        if (path.size() != 3 || Boolean.TRUE.equals(path.get(2).getIsParent())) {
+            return "cid3 " + cid3 + " is not a level 3 category";
+        }
+        Long cid1 = path.get(0).getId();
+        Long cid2 = path.get(1).getId();
+        if ((spu.getCategoryId1() != null && !spu.getCategoryId1().equals(cid1))
+                || (spu.getCategoryId2() != null && !spu.getCategoryId2().equals(cid2))) {
+            return "cid1 and cid2 do not match the parents of cid3 " + cid3;
+        }
+        spu.setCategoryId1(cid1);
+        spu.setCategoryId2(cid2);
+
+        if (spu.getBrandId() == null) {
+            return "brandId is required";
+        }
+        if (!brandInCategory(spu.getBrandId(), cid3)) {
+            return "brand " + spu.getBrandId() + " does not exist in category " + cid3;
+        }
+
+        if (spu.getSpuDetail() == null
+                || spu.getSpuDetail().getGenericSpec() == null || spu.getSpuDetail().getSpecialSpec() == null) {
+            return "genericSpec and specialSpec are required";
+        }
+        if (CollectionUtils.isEmpty(spu.getSkus())) {
+            return "at least one sku is required";
+        }
+        for (Sku sku : spu.getSkus()) {
+            if (sku.getPrice() == null || sku.getPrice() < 0) {
+                return "sku price is required and must not be negative";
+            }
+            if (sku.getStock() == null || sku.getStock() < 0) {
+                return "sku stock is required and must not be negative";
+            }
+        }
+        return null;
+    }
+
+    private boolean brandInCategory(Long brandId, Long cid3) {
+        try {
+            for (Brand brand : brandService.queryBrandByCid(cid3)) {
+                if (brandId.equals(brand.getId())) {
+                    return true;
+                }
+            }
+        } catch (LyException e) {
+            // the category has no brands
+        }
+        return false;
+    }
+
+    private static int countSkus(List<Spu> spus) {
+        return spus.stream().mapToInt(s -> s.getSkus() == null ? 0 : s.getSkus().size()).sum();
+    }
+
+    private static String describe(Exception e) {
+        if (e instanceof LyException && ((LyException) e).getExceptionEnum() != null) {
+            return ((LyException) e).getExceptionEnum().getMsg();
+        }
+        Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+        return StringUtils.defaultIfBlank(cause.getMessage(), cause.getClass().getSimpleName());
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete import spool file {}", file, e);
+        }
+    }
+}
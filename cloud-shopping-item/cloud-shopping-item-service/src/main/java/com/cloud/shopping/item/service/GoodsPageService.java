@@ -0,0 +1,166 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.GoodsPage;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.Spu;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Product Page Service
+ *
+ * Loads everything a product page shows in one call. The SPU row comes first because the category
+ * path, brand and spec groups depend on its categoryId3 and brandId; the skus with their stock and the
+ * detail only need the SPU id and start right away. Every lookup runs on the bounded goodsPageExecutor
+ * with its own timeout.
+ *
+ * The SPU is required: if it is missing the page is a 404, if it fails or times out the page fails.
+ * Any other lookup that fails or times out is left out of the document and named in its errors list.
+ *
+ * Each lookup is timed as item.goods.page.branch, tagged with the branch and its outcome
+ * (success, error or timeout).
+ */
+@Slf4j
+@Service
+public class GoodsPageService {
+
+    static final String BRANCH_TIMER = "item.goods.page.branch";
+
+    @Autowired
+    private SpuMapper spuMapper;
+
+    @Autowired
+    private GoodsService goodsService;
+
+    @Autowired
+    private CategoryService categoryService;
+
+    @Autowired
+    private BrandService brandService;
+
+    @Autowired
+    private SpecificationService specificationService;
+
+    @Autowired
+    @Qualifier("goodsPageExecutor")
+    private Executor executor;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${ly.item.goods-page.timeout.spu:500}")
+    private long spuTimeout = 500;
+
+    @Value("${ly.item.goods-page.timeout.branch:800}")
+    private long branchTimeout = 800;
+
+    /**
+     * Load the product page of one SPU
+     *
+     * @param spuId SPU ID
+     * @return The page document, possibly partial
+     * @throws LyException GOODS_NOT_FOUND if the SPU does not exist, GOODS_PAGE_UNAVAILABLE if it could not be loaded
+     */
+    public GoodsPage queryGoodsPage(Long spuId) {
+        CompletableFuture<Spu> spu = branch("spu", spuTimeout, () -> {
+            Spu row = spuMapper.selectByPrimaryKey(spuId);
+            if (row == null) {
+                throw new LyException(ExceptionEnum.GOODS_NOT_FOUND);
+            }
+            return row;
+        });
+        CompletableFuture<?> skus = branch("skus", branchTimeout, () -> goodsService.querySkuBySpuId(spuId));
+        CompletableFuture<?> detail = branch("detail", branchTimeout, () -> goodsService.queryDetailById(spuId));
+        CompletableFuture<?> categories = spu.thenCompose(s ->
+                branch("categories", branchTimeout, () -> categoryService.queryAllByCid3(s.getCategoryId3())));
+        CompletableFuture<?> brand = spu.thenCompose(s ->
+                branch("brand", branchTimeout, () -> brandService.queryById(s.getBrandId())));
+        CompletableFuture<?> specGroups = spu.thenCompose(s ->
+                branch("specGroups", branchTimeout, () -> specificationService.queryListByCid(s.getCategoryId3())));
+
+        GoodsPage page = new GoodsPage();
+        Spu result = required(spu, spuId);
+        page.setSpu(result);
+        result.setSkus(optional(skus, "skus", spuId, page));
+        result.setSpuDetail(optional(detail, "detail", spuId, page));
+        page.setCategories(optional(categories, "categories", spuId, page));
+        page.setBrand(optional(brand, "brand", spuId, page));
+        page.setSpecGroups(optional(specGroups, "specGroups", spuId, page));
+        return page;
+    }
+
+    /**
+     * Start one timed lookup on the page executor
+     */
+    private <T> CompletableFuture<T> branch(String name, long timeoutMillis, Supplier<T> lookup) {
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(lookup, executor)
+                .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((value, e) -> record(name, outcome(e), System.nanoTime() - start));
+    }
+
+    private Spu required(CompletableFuture<Spu> spu, Long spuId) {
+        try {
+            return spu.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof LyException) {
+                throw (LyException) cause;
+            }
+            log.error("Product page of spu {} failed to load the spu", spuId, cause);
+            throw new LyException(ExceptionEnum.GOODS_PAGE_UNAVAILABLE);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T optional(CompletableFuture<?> future, String name, Long spuId, GoodsPage page) {
+        try {
+            return (T) future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof TimeoutException) {
+                log.warn("Product page of spu {}: {} timed out", spuId, name);
+            } else {
+                log.warn("Product page of spu {}: {} failed: {}", spuId, name, cause.toString());
+            }
+            page.getErrors().add(name);
+            return null;
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private static String outcome(Throwable e) {
+        if (e == null) {
+            return "success";
+        }
+        return unwrap(e) instanceof TimeoutException ? "timeout" : "error";
+    }
+
+    private void record(String branch, String outcome, long nanos) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Timer.builder(BRANCH_TIMER)
+                .description("Time spent loading one part of the product page")
+                .tag("branch", branch)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
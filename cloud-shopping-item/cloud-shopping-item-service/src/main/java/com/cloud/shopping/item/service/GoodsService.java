@@ -1,9 +1,12 @@
 package com.cloud.shopping.item.service;
 
 import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.common.dto.StockShortfall;
 import com.cloud.shopping.common.enums.ExceptionEnum;
 import com.cloud.shopping.common.exception.LyException;
 import com.cloud.shopping.common.vo.PageResult;
+import com.cloud.shopping.item.index.SpecFacetIndex;
+import com.cloud.shopping.item.index.SpuTitleIndex;
 import com.cloud.shopping.item.pojo.*;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
@@ -12,15 +15,18 @@ import com.cloud.shopping.item.mapper.SpuDetailMapper;
 import com.cloud.shopping.item.mapper.SpuMapper;
 import com.cloud.shopping.item.mapper.StockMapper;
 import com.cloud.shopping.item.pojo.*;
+import com.cloud.shopping.item.utils.PageCursor;
+import com.cloud.shopping.item.utils.TransactionUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import tk.mybatis.mapper.entity.Example;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -45,31 +51,71 @@ public class GoodsService {
     @Autowired
     private BrandService brandService;
 
-    //注入mq模板
     @Autowired
-    private AmqpTemplate amqpTemplate;
+    private SpuTitleIndex titleIndex;
+
+    @Autowired
+    private SpecFacetIndex facetIndex;
+
+    @Autowired
+    private StockCache stockCache;
+
+    //热点sku的分桶库存
+    @Autowired
+    private StockBucketService stockBucketService;
+
+    @Value("${ly.item.sku.max-spu-batch-size:200}")
+    private int maxSpuBatchSize = 200;
+
+    //游标分页每页的最大行数，超过时按最大值查询
+    @Value("${ly.item.spu.max-page-size:100}")
+    private int maxPageSize = 100;
+
+    //新增sku和库存时每条insert语句的最大行数
+    @Value("${ly.item.sku.insert-batch-size:100}")
+    private int insertBatchSize = 100;
+
+    //商品变更的mq消息，在本事务中写入outbox，提交后由relay发送
+    @Autowired
+    private ItemEventPublisher eventPublisher;
+
+    /**
+     * 总数的计算方式
+     * EXACT：count(*)精确计数；ESTIMATE：无过滤条件时取表统计信息，有过滤条件时精确计数；NONE：不计数
+     */
+    public enum CountMode {
+        EXACT, ESTIMATE, NONE;
+
+        public static CountMode of(String value, CountMode defaultMode) {
+            if (StringUtils.isBlank(value)) {
+                return defaultMode;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new LyException(ExceptionEnum.INVALID_COUNT_MODE);
+            }
+        }
+    }
 
     public PageResult<Spu> querySpuByPage(Integer page, Integer rows, Boolean saleable, String key) {
-        //分页
-        PageHelper.startPage(page,rows);
+        return querySpuByPage(page, rows, saleable, key, CountMode.EXACT);
+    }
+
+    /**
+     * 偏移量分页查询spu
+     * @param countMode 总数的计算方式，只有EXACT时才让PageHelper执行count
+     */
+    public PageResult<Spu> querySpuByPage(Integer page, Integer rows, Boolean saleable, String key, CountMode countMode) {
         //过滤
-        Example example = new Example(Spu.class);
-        Example.Criteria criteria = example.createCriteria();
-        //搜索字段过滤
-        if(StringUtils.isNotBlank(key)){
-            criteria.andLike("title","%"+key+"%");
-        }
-        //上下架过滤
-        if(saleable!=null){
-            criteria.andEqualTo("saleable",saleable);
-        }
-        //默认排序
-        example.setOrderByClause("last_update_time DESC");
+        Example example = spuExample(saleable, key);
+        //默认排序，带上id保证更新时间相同时顺序稳定
+        example.setOrderByClause("last_update_time DESC, id DESC");
 
-        //查询
+        //分页并查询
+        PageHelper.startPage(page, rows, countMode == CountMode.EXACT);
         List<Spu> spus=spuMapper.selectByExample(example);
 
-
         //判断
         if(CollectionUtils.isEmpty(spus)){
             throw new LyException(ExceptionEnum.GOODS_NOT_FOUND);
@@ -77,24 +123,141 @@ public class GoodsService {
 
         //解析分类和品牌名称
         loadCaegroaryAndBrandName(spus);
-        
+
         //解析分页结果
-        PageInfo<Spu> info = new PageInfo<>(spus);
-        return new PageResult<>(info.getTotal(),spus);
+        Long total = countMode == CountMode.EXACT ? new PageInfo<>(spus).getTotal() : countSpu(countMode, saleable, key);
+        return new PageResult<>(total,spus);
+    }
+
+    /**
+     * 游标分页（keyset分页）查询spu
+     * 按 (last_update_time, id) 倒序，直接定位到上一页最后一条之后，不使用OFFSET，
+     * 翻到多深都只扫描本页的行，配合索引 idx_last_update_time_id 使用
+     * @param cursor 上一页返回的nextCursor，为空时查询第一页
+     * @param rows 每页行数，至少为1，最多ly.item.spu.max-page-size
+     * @param countMode 总数的计算方式，默认不计数
+     */
+    public PageResult<Spu> querySpuByCursor(String cursor, Integer rows, Boolean saleable, String key, CountMode countMode) {
+        if (rows == null || rows < 1) {
+            throw new LyException(ExceptionEnum.INVALID_PAGE_SIZE);
+        }
+        rows = Math.min(rows, maxPageSize);
+        Example example = spuExample(saleable, key);
+        if (StringUtils.isNotBlank(cursor)) {
+            PageCursor after = PageCursor.decode(cursor);
+            //(last_update_time, id) < (t, id) 等价于 last_update_time <= t AND (last_update_time < t OR id < id)
+            example.getOredCriteria().get(0).andLessThanOrEqualTo("lastUpdateTime", after.getLastUpdateTime());
+            example.and()
+                    .orLessThan("lastUpdateTime", after.getLastUpdateTime())
+                    .orLessThan("id", after.getId());
+        }
+        example.setOrderByClause("last_update_time DESC, id DESC");
+
+        //多查一条用来判断是否还有下一页，不执行count
+        PageHelper.startPage(1, rows + 1, false);
+        List<Spu> spus = spuMapper.selectByExample(example);
+
+        //第一页就没有数据才算查不到，后面的页为空说明数据在翻页期间被删除了
+        if (CollectionUtils.isEmpty(spus) && StringUtils.isBlank(cursor)) {
+            throw new LyException(ExceptionEnum.GOODS_NOT_FOUND);
+        }
+
+        String nextCursor = null;
+        if (spus.size() > rows) {
+            spus = new ArrayList<>(spus.subList(0, rows));
+            Spu last = spus.get(spus.size() - 1);
+            nextCursor = new PageCursor(last.getLastUpdateTime(), last.getId()).encode();
+        }
+        if (!spus.isEmpty()) {
+            loadCaegroaryAndBrandName(spus);
+        }
+
+        PageResult<Spu> result = new PageResult<>(countSpu(countMode, saleable, key), spus);
+        result.setNextCursor(nextCursor);
+        return result;
     }
 
+    /**
+     * 构造spu的过滤条件
+     * 关键字匹配标题或副标题。标题索引可用时先把关键字换成候选id，
+     * MySQL只需要按主键取出这些行再用LIKE复核，不用全表扫描
+     */
+    private Example spuExample(Boolean saleable, String key) {
+        Example example = new Example(Spu.class);
+        Example.Criteria criteria = example.createCriteria();
+        //搜索字段过滤
+        if(StringUtils.isNotBlank(key)){
+            List<Long> candidates = titleIndex.search(key);
+            if (candidates != null) {
+                if (candidates.isEmpty()) {
+                    //索引确定没有匹配的商品
+                    criteria.andCondition("1 = 0");
+                } else {
+                    criteria.andIn("id", candidates);
+                }
+            }
+            example.and().orLike("title","%"+key+"%").orLike("subTitle","%"+key+"%");
+        }
+        //上下架过滤
+        if(saleable!=null){
+            criteria.andEqualTo("saleable",saleable);
+        }
+        return example;
+    }
+
+    /**
+     * 按计数方式统计spu总数，NONE时返回null
+     */
+    private Long countSpu(CountMode countMode, Boolean saleable, String key) {
+        switch (countMode) {
+            case NONE:
+                return null;
+            case ESTIMATE:
+                //没有过滤条件时，表统计信息就是总数的估计值
+                if (saleable == null && StringUtils.isBlank(key)) {
+                    Long estimate = spuMapper.estimateRowCount();
+                    if (estimate != null) {
+                        return estimate;
+                    }
+                }
+                return (long) spuMapper.selectCountByExample(spuExample(saleable, key));
+            default:
+                return (long) spuMapper.selectCountByExample(spuExample(saleable, key));
+        }
+    }
+
+    /**
+     * 批量解析分类和品牌名称
+     * 先收集本页所有的分类id和品牌id，各查询一次，再在内存中拼接名称，
+     * 这样无论一页有多少条spu，都只需要两次查询
+     * @param spus
+     */
     private void loadCaegroaryAndBrandName(List<Spu> spus) {
-        for (Spu spu:spus){
-            //处理分类名称
-            List<String> names = categoryService.queryByIds(Arrays.asList(spu.getCategoryId1(), spu.getCategoryId2(), spu.getCategoryId3()))
-                    .stream().map(Category::getName).collect(Collectors.toList());
-            spu.setCategoryName(StringUtils.join(names,"/"));
-            //处理品牌名称
-            System.out.println("该品牌id:"+spu.getBrandId());
-            //这里判断品牌id是否为0，因为查到这种情况会抛出“品牌不存在”的异常，导致页面刷不出来，这里是自己添加的
-//            if(spu.getBrandId()!=0){
-                spu.setBrandName(brandService.queryById(spu.getBrandId()).getName());
-//            }
+        //收集本页的分类id和品牌id
+        Set<Long> cids = new HashSet<>();
+        Set<Long> bids = new HashSet<>();
+        for (Spu spu : spus) {
+            cids.add(spu.getCategoryId1());
+            cids.add(spu.getCategoryId2());
+            cids.add(spu.getCategoryId3());
+            bids.add(spu.getBrandId());
+        }
+        cids.remove(null);
+        bids.remove(null);
+
+        //各查询一次，转成 id -> 名称 的map；id为空时不查，查不到时返回空而不是404
+        Map<Long, String> categoryNames = cids.isEmpty() ? Collections.emptyMap() : categoryService.findByIds(new ArrayList<>(cids))
+                .stream().collect(Collectors.toMap(Category::getId, Category::getName));
+        Map<Long, String> brandNames = bids.isEmpty() ? Collections.emptyMap() : brandService.findBrandsByIds(new ArrayList<>(bids))
+                .stream().collect(Collectors.toMap(Brand::getId, Brand::getName));
+
+        for (Spu spu : spus) {
+            //处理分类名称，查不到的分类直接跳过
+            List<String> names = Arrays.asList(spu.getCategoryId1(), spu.getCategoryId2(), spu.getCategoryId3())
+                    .stream().map(categoryNames::get).filter(Objects::nonNull).collect(Collectors.toList());
+            spu.setCategoryName(StringUtils.join(names, "/"));
+            //处理品牌名称，品牌不存在（比如品牌id为0）时不再让整页报错
+            spu.setBrandName(brandNames.get(spu.getBrandId()));
         }
     }
 
@@ -124,11 +287,65 @@ public class GoodsService {
         saveSkuAndStock(spu);
 
         //发送mq消息
-        try{
-            amqpTemplate.convertAndSend("item.insert",spu.getId());
-        }catch(Exception e){
-            e.getMessage();
+        eventPublisher.publishInsert(spu.getId());
+        //提交后更新本机的索引，其他实例通过mq消息更新
+        reindexAfterCommit(spu.getId());
+    }
+
+    /**
+     * 批量新增一批商品，用于商品导入，整批在一个事务中
+     * spu、detail、sku和库存各自按insertBatchSize分批执行多行insert，整批只发一条mq消息
+     * @param spus 已经校验过的商品，生成的id回填到spu和sku中
+     */
+    @Transactional
+    public void saveGoodsBatch(List<Spu> spus){
+        if(CollectionUtils.isEmpty(spus)){
+            return;
+        }
+        Date now = new Date();
+        for(Spu spu:spus){
+            spu.setId(null);//自增
+            spu.setCreateTime(now);
+            spu.setLastUpdateTime(now);
+            spu.setSaleable(true);
+            spu.setValid(false);
         }
+        //新增spu
+        for(List<Spu> batch : partition(spus, insertBatchSize)){
+            if(spuMapper.insertBatch(batch)!=batch.size()){
+                throw new LyException(ExceptionEnum.GOODS_SAVE_ERROR);
+            }
+        }
+
+        List<SpuDetail> details = new ArrayList<>(spus.size());
+        List<Sku> skus = new ArrayList<>();
+        for(Spu spu:spus){
+            SpuDetail detail = spu.getSpuDetail();
+            detail.setSpuId(spu.getId());
+            details.add(detail);
+            if(spu.getSkus()!=null){
+                for(Sku sku:spu.getSkus()){
+                    sku.setId(null);
+                    sku.setSpuId(spu.getId());
+                    sku.setCreateTime(now);
+                    sku.setLastUpdateTime(now);
+                    skus.add(sku);
+                }
+            }
+        }
+        //新增detail
+        for(List<SpuDetail> batch : partition(details, insertBatchSize)){
+            if(detailMapper.insertBatch(batch)!=batch.size()){
+                throw new LyException(ExceptionEnum.GOODS_SAVE_ERROR);
+            }
+        }
+        //新增sku和库存，整批一起分批
+        insertSkus(skus);
+
+        //整批发一条mq消息
+        List<Long> ids = spus.stream().map(Spu::getId).collect(Collectors.toList());
+        eventPublisher.publishImport(ids);
+        ids.forEach(this::reindexAfterCommit);
     }
 
     /**
@@ -136,34 +353,62 @@ public class GoodsService {
      * @param spu
      */
     private void saveSkuAndStock(Spu spu){
-        int count;
-        //定义库存集合
-        List<Stock> stockList= new ArrayList<>();
-        //新增sku
-        List<Sku> skus = spu.getSkus();
+        insertSkuAndStock(spu.getId(), spu.getSkus());
+    }
+
+    /**
+     * 批量新增一个spu下的sku和库存
+     * @param spuId
+     * @param skus
+     */
+    private void insertSkuAndStock(Long spuId, List<Sku> skus){
+        if(CollectionUtils.isEmpty(skus)){
+            return;
+        }
+        Date now = new Date();
         for(Sku sku:skus){
-            sku.setCreateTime(new Date());
-            sku.setLastUpdateTime(sku.getCreateTime());
-            sku.setSpuId(spu.getId());
+            sku.setCreateTime(now);
+            sku.setLastUpdateTime(now);
+            sku.setSpuId(spuId);
+        }
+        insertSkus(skus);
+    }
 
-            count = skuMapper.insert(sku);
-            if(count!=1){
+    /**
+     * 批量新增sku和库存，sku的spuId和时间已经设置好
+     * @param skus
+     */
+    private void insertSkus(List<Sku> skus){
+        if(CollectionUtils.isEmpty(skus)){
+            return;
+        }
+        //批量新增sku，分批执行多行insert，自增id按顺序回填
+        for(List<Sku> batch : partition(skus, insertBatchSize)){
+            int count = skuMapper.insertBatch(batch);
+            if(count!=batch.size()){
                 throw new LyException(ExceptionEnum.GOODS_SAVE_ERROR);
             }
+        }
 
-            //新增库存
+        //定义库存集合
+        List<Stock> stockList= new ArrayList<>(skus.size());
+        for(Sku sku:skus){
             Stock stock = new Stock();
             stock.setSkuId(sku.getId());
             stock.setStock(sku.getStock());
-
             stockList.add(stock);
-
         }
         //批量新增库存
-        count=stockMapper.insertList(stockList);
-        if(count!=1){
-            throw new LyException(ExceptionEnum.GOODS_SAVE_ERROR);
+        for(List<Stock> batch : partition(stockList, insertBatchSize)){
+            int count=stockMapper.insertList(batch);
+            if(count!=batch.size()){
+                throw new LyException(ExceptionEnum.GOODS_SAVE_ERROR);
+            }
         }
+        //新库存在提交后写入缓存
+        Map<Long, Integer> written = new HashMap<>();
+        stockList.forEach(s -> written.put(s.getSkuId(), s.getStock()));
+        stockCache.written(written);
     }
     public SpuDetail queryDetailById(Long spuId) {
         SpuDetail detail = detailMapper.selectByPrimaryKey(spuId);
@@ -174,27 +419,46 @@ public class GoodsService {
     }
 
     public List<Sku> querySkuBySpuId(Long spuId) {
-        //查询sku
-        Sku sku = new Sku();
-        sku.setSpuId(spuId);
-        List<Sku> skuList = skuMapper.select(sku);
+        //sku和库存一次连表查出
+        List<Sku> skuList = skuMapper.selectWithStockBySpuIds(Collections.singletonList(spuId));
         if(CollectionUtils.isEmpty(skuList)){
             throw new LyException(ExceptionEnum.GOODS_SKU_NOT_FOUND);
         }
-        //查询库存
-
-        List<Long> ids = skuList.stream().map(Sku::getId).collect(Collectors.toList());
-        List<Stock> stockList = stockMapper.selectByIdList(ids);
-        if(CollectionUtils.isEmpty(stockList)){
+        //一条库存都没有
+        if(skuList.stream().allMatch(s -> s.getStock() == null)){
             throw new LyException(ExceptionEnum.GOODS_STOCK_NOT_FOUND);
         }
-        //我们把stock变成一个map,其key是：sku的id,值是库存值
-        Map<Long, Integer> stockMap = stockList.stream()
-                .collect(Collectors.toMap(Stock::getSkuId, Stock::getStock));
-        skuList.forEach(s->s.setStock(stockMap.get(s.getId())));
+        //修改时带回加载时的库存
+        skuList.forEach(s -> s.setLoadedStock(s.getStock()));
         return skuList;
     }
 
+    /**
+     * 批量查询多个spu的sku和库存，一次连表查询
+     * @param spuIds
+     * @return spuId -> sku集合，按请求顺序，没有sku的spu对应空集合
+     */
+    public Map<Long, List<Sku>> querySkusBySpuIds(List<Long> spuIds) {
+        if (CollectionUtils.isEmpty(spuIds)) {
+            return Collections.emptyMap();
+        }
+        //去重并保持顺序
+        Set<Long> ids = spuIds.stream().filter(Objects::nonNull).collect(Collectors.toCollection(LinkedHashSet::new));
+        if (ids.size() > maxSpuBatchSize) {
+            throw new LyException(ExceptionEnum.SPU_BATCH_TOO_LARGE);
+        }
+        Map<Long, List<Sku>> result = new LinkedHashMap<>();
+        ids.forEach(id -> result.put(id, new ArrayList<>()));
+        if (ids.isEmpty()) {
+            return result;
+        }
+        //按spu分组
+        for (Sku sku : skuMapper.selectWithStockBySpuIds(ids)) {
+            result.get(sku.getSpuId()).add(sku);
+        }
+        return result;
+    }
+
     /**
      * 修改商品信息
      * @param spu
@@ -204,20 +468,6 @@ public class GoodsService {
         if(spu.getId()==null){
             throw new LyException(ExceptionEnum.GOODS_ID_CANNOT_BE_NULL);
         }
-        Sku sku = new Sku();
-        sku.setSpuId(spu.getId());
-
-        //查询sku
-        List<Sku> skuList = skuMapper.select(sku);
-        if(!CollectionUtils.isEmpty(skuList)){
-            //删除sku
-            skuMapper.delete(sku);
-            //删除stock
-            List<Long> ids = skuList.stream().map(Sku::getId).collect(Collectors.toList());
-            stockMapper.deleteByIdList(ids);
-
-        }
-
         //修改spu
         spu.setValid(null);
         spu.setSaleable(null);
@@ -236,16 +486,160 @@ public class GoodsService {
             System.out.println("//修改detail");
             throw new LyException(ExceptionEnum.GOODS_UPDATE_ERROR);
         }
-        //新增sku和stock
-        saveSkuAndStock(spu);
+        //对比新旧sku，只执行需要的新增、修改和删除
+        SkuChanges changes = updateSkuAndStock(spu.getId(), spu.getSkus());
 
-        //发送mq消息
-        try{
-            amqpTemplate.convertAndSend("item.update",spu.getId());
-        }catch (Exception e){
-            e.getMessage();
+        //发送mq消息，带上变化的sku
+        eventPublisher.publishUpdate(spu.getId(), changes.inserted, changes.updated, changes.deleted);
+        reindexAfterCommit(spu.getId());
+    }
 
+    /**
+     * 把spu下现有的sku改成传入的sku
+     * 传入的sku先按id、再按indexes匹配现有的sku：匹配上的只在字段或库存有变化时修改，
+     * 没匹配上的新增，没有被匹配的现有sku删除。传入sku中为null的字段保持原值。
+     * 库存按表单加载时的值(loadedStock)做条件更新：库存没改就不写，改了只在数据库里还是加载时的值时才覆盖，
+     * 否则说明表单加载后有订单扣减或别人修改过，抛出STOCK_CHANGED，不会冲掉并发的扣减
+     * @param spuId
+     * @param incoming
+     * @return 新增、修改、删除的sku id
+     */
+    private SkuChanges updateSkuAndStock(Long spuId, List<Sku> incoming){
+        SkuChanges changes = new SkuChanges();
+        if(incoming == null){
+            incoming = Collections.emptyList();
+        }
+        //现有的sku和库存
+        List<Sku> existing = skuMapper.selectWithStockBySpuIds(Collections.singletonList(spuId));
+        Map<Long, Sku> byId = new HashMap<>();
+        Map<String, Sku> byIndexes = new HashMap<>();
+        for(Sku old : existing){
+            byId.put(old.getId(), old);
+            if(StringUtils.isNotBlank(old.getIndexes())){
+                byIndexes.putIfAbsent(old.getIndexes(), old);
+            }
+        }
+
+        Date now = new Date();
+        Set<Long> matched = new HashSet<>();
+        List<Sku> toInsert = new ArrayList<>();
+        List<Sku> toUpdate = new ArrayList<>();
+        List<Sku> stockToUpdate = new ArrayList<>();
+        List<Stock> stockToInsert = new ArrayList<>();
+        for(Sku sku : incoming){
+            Sku old = sku.getId() == null ? null : byId.get(sku.getId());
+            if(old == null && StringUtils.isNotBlank(sku.getIndexes())){
+                old = byIndexes.get(sku.getIndexes());
+            }
+            if(old == null || !matched.add(old.getId())){
+                //新的sku
+                sku.setId(null);
+                toInsert.add(sku);
+                continue;
+            }
+            sku.setId(old.getId());
+            sku.setSpuId(spuId);
+
+            //只合并有变化的字段
+            boolean changed = change(old.getTitle(), sku.getTitle(), old::setTitle)
+                    | change(old.getImages(), sku.getImages(), old::setImages)
+                    | change(old.getPrice(), sku.getPrice(), old::setPrice)
+                    | change(old.getIndexes(), sku.getIndexes(), old::setIndexes)
+                    | change(old.getOwnSpec(), sku.getOwnSpec(), old::setOwnSpec)
+                    | change(old.getEnable(), sku.getEnable(), old::setEnable);
+            if(changed){
+                old.setLastUpdateTime(now);
+                toUpdate.add(old);
+            }
+            Integer loaded = sku.getLoadedStock() != null ? sku.getLoadedStock() : old.getStock();
+            boolean stockChanged = sku.getStock() != null && !sku.getStock().equals(loaded);
+            if(stockChanged && old.getStock() == null){
+                //库存行不存在时补上
+                Stock stock = new Stock();
+                stock.setSkuId(old.getId());
+                stock.setStock(sku.getStock());
+                stockToInsert.add(stock);
+            }else if(stockChanged){
+                //没带加载时的库存，无法判断表单是否过期
+                if(sku.getLoadedStock() == null){
+                    throw new LyException(ExceptionEnum.STOCK_CHANGED);
+                }
+                stockToUpdate.add(sku);
+            }
+            if(changed || stockChanged){
+                changes.updated.add(old.getId());
+            }
+        }
+        for(Sku old : existing){
+            if(!matched.contains(old.getId())){
+                changes.deleted.add(old.getId());
+            }
         }
+
+        //删除
+        if(!changes.deleted.isEmpty()){
+            skuMapper.deleteByIdList(changes.deleted);
+            stockMapper.deleteByIdList(changes.deleted);
+            stockBucketService.deleteBySkuIds(changes.deleted);
+        }
+        //修改
+        for(List<Sku> batch : partition(toUpdate, insertBatchSize)){
+            if(skuMapper.updateBatch(batch) != batch.size()){
+                throw new LyException(ExceptionEnum.GOODS_UPDATE_ERROR);
+            }
+        }
+        //分桶的sku把新库存平均分到各个桶，库存已经变了的整个修改回滚
+        List<Long> stockIds = stockToUpdate.stream().map(Sku::getId).collect(Collectors.toList());
+        Set<Long> bucketed = stockBucketService.countBuckets(stockIds).keySet();
+        List<Sku> plainStock = new ArrayList<>();
+        for(Sku sku : stockToUpdate){
+            if(!bucketed.contains(sku.getId())){
+                plainStock.add(sku);
+            }else if(!stockBucketService.setStock(sku.getId(), sku.getLoadedStock(), sku.getStock())){
+                throw new LyException(ExceptionEnum.STOCK_CHANGED);
+            }
+        }
+        for(List<Sku> batch : partition(plainStock, insertBatchSize)){
+            if(stockMapper.updateStockIfUnchanged(batch) != batch.size()){
+                throw new LyException(ExceptionEnum.STOCK_CHANGED);
+            }
+        }
+        for(List<Stock> batch : partition(stockToInsert, insertBatchSize)){
+            if(stockMapper.insertList(batch) != batch.size()){
+                throw new LyException(ExceptionEnum.GOODS_UPDATE_ERROR);
+            }
+        }
+        //新增
+        insertSkuAndStock(spuId, toInsert);
+        toInsert.forEach(sku -> changes.inserted.add(sku.getId()));
+
+        //改过和删掉的库存在提交后更新缓存，新增的已经在insertSkuAndStock里处理
+        Map<Long, Integer> written = deletedStocks(changes.deleted);
+        stockToUpdate.forEach(s -> written.put(s.getId(), s.getStock()));
+        stockToInsert.forEach(s -> written.put(s.getSkuId(), s.getStock()));
+        stockCache.written(written);
+        return changes;
+    }
+
+    /**
+     * 新值不为空且和旧值不同时设置新值
+     * @return 是否有变化
+     */
+    private static <T> boolean change(T current, T next, Consumer<T> setter){
+        if(next == null || next.equals(current)){
+            return false;
+        }
+        setter.accept(next);
+        return true;
+    }
+
+    /**
+     * 一次修改中新增、修改、删除的sku id
+     */
+    private static class SkuChanges {
+        private final List<Long> inserted = new ArrayList<>();
+        private final List<Long> updated = new ArrayList<>();
+        private final List<Long> deleted = new ArrayList<>();
     }
 
 
@@ -263,27 +657,66 @@ public class GoodsService {
     }
 
     /**
-     * 商品删除二合一（多个单个）
+     * 删除单个商品
      * @param id
      */
     @Transactional(rollbackFor = Exception.class)
     public void deleteGoods(long id) {
-        //删除spu表中的数据
-        this.spuMapper.deleteByPrimaryKey(id);
-
-        //删除spu_detail中的数据
-        Example example = new Example(SpuDetail.class);
-        example.createCriteria().andEqualTo("spuId",id);
-        detailMapper.deleteByExample(example);
+        deleteGoodsBatch(Collections.singletonList(id));
+    }
 
-        List<Sku> skuList = this.skuMapper.selectByExample(example);
-        for (Sku sku : skuList){
-            //删除sku中的数据
-            this.skuMapper.deleteByPrimaryKey(sku.getId());
-            //删除stock中的数据
-            this.stockMapper.deleteByPrimaryKey(sku.getId());
+    /**
+     * 批量删除商品，在一个事务中
+     * 不管选中多少个spu，都只执行固定的几条in语句：查sku、删库存、删sku、删detail、删spu
+     * @param ids spu id，不存在的忽略
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void deleteGoodsBatch(Collection<Long> ids) {
+        List<Long> spuIds = distinctIds(ids);
+        if(spuIds.isEmpty()){
+            return;
         }
+        //查出要删除的sku，用于清掉库存缓存
+        Example skuExample = new Example(Sku.class);
+        skuExample.selectProperties("id");
+        skuExample.createCriteria().andIn("spuId",spuIds);
+        List<Long> skuIds = skuMapper.selectByExample(skuExample).stream().map(Sku::getId).collect(Collectors.toList());
+
+        //删除stock中的数据，按spu关联sku删除，要在删除sku之前
+        stockMapper.deleteBySpuIds(spuIds);
+        stockBucketService.deleteBySkuIds(skuIds);
+        //删除sku中的数据
+        Example skuDelete = new Example(Sku.class);
+        skuDelete.createCriteria().andIn("spuId",spuIds);
+        skuMapper.deleteByExample(skuDelete);
+        //删除spu_detail中的数据
+        Example detailExample = new Example(SpuDetail.class);
+        detailExample.createCriteria().andIn("spuId",spuIds);
+        detailMapper.deleteByExample(detailExample);
+        //删除spu表中的数据
+        Example spuExample = new Example(Spu.class);
+        spuExample.createCriteria().andIn("id",spuIds);
+        spuMapper.deleteByExample(spuExample);
+
+        stockCache.written(deletedStocks(skuIds));
+
+        //发送mq消息，每个spu一条，消费方的消息格式不变
+        eventPublisher.publishDeletes(spuIds);
+        TransactionUtils.afterCommit(() -> spuIds.forEach(id -> {
+            titleIndex.remove(id);
+            facetIndex.remove(id);
+        }));
+    }
 
+    /**
+     * 事务提交后重建本机内存索引中这个spu的数据
+     * @param spuId
+     */
+    private void reindexAfterCommit(Long spuId) {
+        TransactionUtils.afterCommit(() -> {
+            titleIndex.reindex(spuId);
+            facetIndex.reindex(spuId);
+        });
     }
 
 
@@ -314,13 +747,11 @@ public class GoodsService {
     }
 
     private void fillStock(List<Long> ids, List<Sku> skus) {
-        //批量查询库存
-        List<Stock> stocks = stockMapper.selectByIdList(ids);
-        if (CollectionUtils.isEmpty(stocks)) {
+        //批量查询库存，先查缓存，key为sku的ID
+        Map<Long, Integer> map = stockCache.getStocks(ids);
+        if (CollectionUtils.isEmpty(map)) {
             throw new LyException(ExceptionEnum.STOCK_NOT_FOUND);
         }
-        //首先将库存转换为map，key为sku的ID
-        Map<Long, Integer> map = stocks.stream().collect(Collectors.toMap(s -> s.getSkuId(), s -> s.getStock()));
 
         //遍历skus，并填充库存
         for (Sku sku : skus) {
@@ -341,12 +772,91 @@ public class GoodsService {
         * 在SQL语句中加入判断 where sku_id = #{skuId} and stock >= #{num}，
         * 这样有一百个人抢，执行成功的条件就是stock满足条件
         * */
-        for (CartDTO cartDto : carts) {
-            int count = stockMapper.decreaseStock(cartDto.getSkuId(), cartDto.getNum());
-            if (count != 1) {
-                throw new LyException(ExceptionEnum.STOCK_NOT_ENOUGH);
+        //同一个sku的多行合并，并按skuId排序，所有下单事务按同一顺序锁行，避免死锁
+        List<CartDTO> lines = mergeCartLines(carts);
+        if (lines.isEmpty()) {
+            return;
+        }
+        //分桶的sku单独扣减，其余的先按skuId顺序锁行读出库存，够了再一条语句扣减
+        List<Long> skuIds = lines.stream().map(CartDTO::getSkuId).collect(Collectors.toList());
+        Map<Long, Integer> buckets = stockBucketService.countBuckets(skuIds);
+        List<CartDTO> plain = lines.stream().filter(l -> !buckets.containsKey(l.getSkuId())).collect(Collectors.toList());
+        List<StockShortfall> shortfalls = new ArrayList<>();
+        //不分桶的行在提交前都被本事务锁住，扣减后的值就是提交后的库存，提交后直接写入缓存
+        Map<Long, Integer> written = new HashMap<>();
+        if (!plain.isEmpty()) {
+            Map<Long, Integer> stocks = new HashMap<>();
+            stockMapper.selectForUpdateBatch(plain.stream().map(CartDTO::getSkuId).collect(Collectors.toList()))
+                    .forEach(s -> stocks.put(s.getSkuId(), s.getStock()));
+            for (CartDTO line : plain) {
+                int stock = stocks.getOrDefault(line.getSkuId(), 0);
+                if (stock < line.getNum()) {
+                    shortfalls.add(new StockShortfall(line.getSkuId(), line.getNum(), stock));
+                } else {
+                    written.put(line.getSkuId(), stock - line.getNum());
+                }
+            }
+            if (shortfalls.isEmpty()) {
+                stockMapper.decreaseStockBatch(plain);
             }
         }
+        for (CartDTO line : lines) {
+            Integer count = buckets.get(line.getSkuId());
+            if (count == null) {
+                continue;
+            }
+            if (shortfalls.isEmpty() && stockBucketService.decrease(line.getSkuId(), count, line.getNum())) {
+                //分桶的sku只锁了扣减的那个桶，其他桶的扣减可能先于本事务提交却不在本事务的快照里，
+                //读到的和值会偏大，所以只让缓存失效，下次读取时再查库
+                written.put(line.getSkuId(), null);
+                continue;
+            }
+            //没扣减成功时什么都没改，锁住所有桶读到的和值就是判断用的库存
+            int stock = stockBucketService.lock(line.getSkuId()).stream().mapToInt(StockBucket::getStock).sum();
+            if (stock < line.getNum()) {
+                shortfalls.add(new StockShortfall(line.getSkuId(), line.getNum(), stock));
+            }
+        }
+        if (!shortfalls.isEmpty()) {
+            //有sku库存不足，抛出异常整个事务回滚，同时告诉调用方是哪些sku
+            shortfalls.sort(Comparator.comparing(StockShortfall::getSkuId));
+            throw new LyException(ExceptionEnum.STOCK_NOT_ENOUGH, shortfalls);
+        }
+        stockCache.written(written);
+    }
+
+    /**
+     * 合并同一个sku的购物车行，按skuId排序
+     * @param carts
+     * @return 每个sku一行
+     */
+    private static List<CartDTO> mergeCartLines(List<CartDTO> carts) {
+        SortedMap<Long, Integer> merged = new TreeMap<>();
+        if (carts != null) {
+            for (CartDTO cart : carts) {
+                if (cart.getSkuId() == null || cart.getNum() == null || cart.getNum() <= 0) {
+                    throw new LyException(ExceptionEnum.INVALID_STOCK_QUANTITY);
+                }
+                merged.merge(cart.getSkuId(), cart.getNum(), Integer::sum);
+            }
+        }
+        List<CartDTO> lines = new ArrayList<>(merged.size());
+        merged.forEach((skuId, num) -> lines.add(new CartDTO(skuId, num)));
+        return lines;
+    }
+
+    private static <T> List<List<T>> partition(List<T> list, int size) {
+        List<List<T>> batches = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += size) {
+            batches.add(list.subList(i, Math.min(i + size, list.size())));
+        }
+        return batches;
+    }
+
+    private static Map<Long, Integer> deletedStocks(List<Long> skuIds) {
+        Map<Long, Integer> deleted = new HashMap<>();
+        skuIds.forEach(skuId -> deleted.put(skuId, null));
+        return deleted;
     }
 
     /**
@@ -356,32 +866,55 @@ public class GoodsService {
     @Transactional(rollbackFor = Exception.class)
     public void goodsSoldOut(Long id) {
         //下架或者上架spu中的商品
-
         Spu oldSpu = this.spuMapper.selectByPrimaryKey(id);
-        Example example = new Example(Sku.class);
-        example.createCriteria().andEqualTo("spuId",id);
-        List<Sku> skuList = this.skuMapper.selectByExample(example);
-        if (oldSpu.getSaleable()){
-            //下架
-            oldSpu.setSaleable(false);
-            this.spuMapper.updateByPrimaryKeySelective(oldSpu);
-            //下架sku中的具体商品
-            for (Sku sku : skuList){
-                sku.setEnable(false);
-                this.skuMapper.updateByPrimaryKeySelective(sku);
-            }
+        if(oldSpu==null){
+            throw new LyException(ExceptionEnum.GOODS_NOT_FOUND);
+        }
+        //上架的下架，下架的上架
+        updateSaleable(Collections.singletonList(id), !Boolean.TRUE.equals(oldSpu.getSaleable()));
+    }
 
-        }else {
-            //上架
-            oldSpu.setSaleable(true);
-            this.spuMapper.updateByPrimaryKeySelective(oldSpu);
-            //上架sku中的具体商品
-            for (Sku sku : skuList){
-                sku.setEnable(true);
-                this.skuMapper.updateByPrimaryKeySelective(sku);
-            }
+    /**
+     * 批量上架或下架商品，在一个事务中
+     * 不管选中多少个spu，都只执行两条in语句：修改spu的saleable和这些spu下所有sku的enable
+     * @param ids spu id，不存在的忽略
+     * @param saleable true上架，false下架
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void updateSaleable(Collection<Long> ids, boolean saleable) {
+        List<Long> spuIds = distinctIds(ids);
+        if(spuIds.isEmpty()){
+            return;
         }
+        Date now = new Date();
+        //修改spu
+        Spu spu = new Spu();
+        spu.setSaleable(saleable);
+        spu.setLastUpdateTime(now);
+        Example spuExample = new Example(Spu.class);
+        spuExample.createCriteria().andIn("id",spuIds);
+        spuMapper.updateByExampleSelective(spu,spuExample);
+        //修改sku
+        Sku sku = new Sku();
+        sku.setEnable(saleable);
+        sku.setLastUpdateTime(now);
+        Example skuExample = new Example(Sku.class);
+        skuExample.createCriteria().andIn("spuId",spuIds);
+        skuMapper.updateByExampleSelective(sku,skuExample);
+
+        //发送mq消息并在提交后更新本机索引
+        eventPublisher.publishUpdates(spuIds);
+        spuIds.forEach(this::reindexAfterCommit);
+    }
 
+    /**
+     * 去掉空值和重复的id，保持顺序
+     */
+    private static List<Long> distinctIds(Collection<Long> ids) {
+        if(ids==null){
+            return Collections.emptyList();
+        }
+        return ids.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
     }
 
 }
@@ -0,0 +1,138 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.pojo.ItemOutboxEvent;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+
+/**
+ * Merges the outbox events of one relay batch into the messages that are actually sent
+ *
+ * Per-SPU events (item.insert, item.update, item.delete) become one message per SPU carrying its latest
+ * change: an insert or a delete absorbs the updates around it, and consecutive updates add up their SKU
+ * changes, or become a plain update when one of them did not track its SKUs. A SKU inserted and deleted
+ * within the batch is left out entirely.
+ *
+ * Multi-SPU events (item.import and the bulk batches) are sent as they are.
+ *
+ * Every message carries the id of the newest event it covers as its version, and the messages are
+ * ordered by version, so a consumer can drop a message older than one it already handled for the SPU.
+ */
+final class ItemEventCoalescer {
+
+    private ItemEventCoalescer() {
+    }
+
+    /**
+     * @param events Events in id order
+     * @return Messages in version order
+     */
+    static List<Outgoing> coalesce(List<ItemOutboxEvent> events) {
+        Map<String, Outgoing> perSpu = new HashMap<>();
+        List<Outgoing> messages = new ArrayList<>();
+        for (ItemOutboxEvent event : events) {
+            if (!isPerSpu(event.getRoutingKey())) {
+                Outgoing batch = new Outgoing(event);
+                messages.add(batch);
+                continue;
+            }
+            Outgoing current = perSpu.get(event.getPayload());
+            if (current == null) {
+                current = new Outgoing(event);
+                perSpu.put(event.getPayload(), current);
+                messages.add(current);
+            } else {
+                current.merge(event);
+            }
+        }
+        messages.sort(Comparator.comparingLong(Outgoing::getVersion));
+        return messages;
+    }
+
+    private static boolean isPerSpu(String key) {
+        return ItemEventPublisher.INSERT_KEY.equals(key) || ItemEventPublisher.UPDATE_KEY.equals(key)
+                || ItemEventPublisher.DELETE_KEY.equals(key);
+    }
+
+    /**
+     * One message to send, with the outbox rows it stands for
+     */
+    @Getter
+    static final class Outgoing {
+        private String routingKey;
+        private final String payload;
+        private long version;
+        private final List<Long> eventIds = new ArrayList<>();
+
+        /**
+         * SKU changes of an item.update, null when the update did not track them
+         */
+        private Set<Long> skuInserted;
+        private Set<Long> skuUpdated;
+        private Set<Long> skuDeleted;
+
+        private Outgoing(ItemOutboxEvent event) {
+            routingKey = event.getRoutingKey();
+            payload = event.getPayload();
+            version = event.getId();
+            eventIds.add(event.getId());
+            if (event.getSkuInserted() != null) {
+                skuInserted = ids(event.getSkuInserted());
+                skuUpdated = ids(event.getSkuUpdated());
+                skuDeleted = ids(event.getSkuDeleted());
+            }
+        }
+
+        private void merge(ItemOutboxEvent event) {
+            version = event.getId();
+            eventIds.add(event.getId());
+            String key = event.getRoutingKey();
+            if (!ItemEventPublisher.UPDATE_KEY.equals(key)) {
+                // an insert or delete says it all
+                routingKey = key;
+                clearSkus();
+            } else if (ItemEventPublisher.UPDATE_KEY.equals(routingKey)) {
+                if (skuInserted == null || event.getSkuInserted() == null) {
+                    clearSkus();
+                } else {
+                    addSkus(ids(event.getSkuInserted()), ids(event.getSkuUpdated()), ids(event.getSkuDeleted()));
+                }
+            }
+        }
+
+        private void addSkus(Set<Long> inserted, Set<Long> updated, Set<Long> deleted) {
+            skuInserted.addAll(inserted);
+            for (Long id : updated) {
+                if (!skuInserted.contains(id)) {
+                    skuUpdated.add(id);
+                }
+            }
+            for (Long id : deleted) {
+                // consumers never saw a SKU that came and went within the batch
+                if (!skuInserted.remove(id)) {
+                    skuUpdated.remove(id);
+                    skuDeleted.add(id);
+                }
+            }
+        }
+
+        private void clearSkus() {
+            skuInserted = null;
+            skuUpdated = null;
+            skuDeleted = null;
+        }
+
+        boolean hasSkuChanges() {
+            return skuInserted != null;
+        }
+
+        private static Set<Long> ids(String joined) {
+            Set<Long> ids = new TreeSet<>();
+            for (String id : StringUtils.split(StringUtils.defaultString(joined), ',')) {
+                ids.add(Long.valueOf(id));
+            }
+            return ids;
+        }
+    }
+}
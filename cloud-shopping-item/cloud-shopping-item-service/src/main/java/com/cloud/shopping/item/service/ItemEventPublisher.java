@@ -0,0 +1,150 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.ItemOutboxMapper;
+import com.cloud.shopping.item.pojo.ItemOutboxEvent;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Publishes the SPU change events (item.insert, item.update, item.delete) to ly.item.exchange
+ *
+ * The payload stays the bare SPU id, which is what every existing consumer expects. An update also
+ * says which of the SPU's SKUs changed, as comma separated id lists in message headers; consumers
+ * that do not know the headers simply ignore them.
+ *
+ * A bulk import publishes one item.import per written chunk instead, carrying the list of the new SPU ids.
+ * A bulk update or delete of several SPUs publishes the usual item.update or item.delete per SPU and,
+ * next to them, item.update.batch or item.delete.batch carrying up to batch-size SPU ids each, for
+ * consumers that would rather take a bulk change in a few messages. A consumer binds one of the two
+ * families for bulk changes, otherwise it sees every SPU twice.
+ *
+ * Events are not sent from here: they are written to tb_item_outbox in the caller's transaction, so an
+ * event exists exactly when its change committed, and {@link ItemOutboxRelay} sends them afterwards.
+ * A failed write fails the change. The relay merges the changes of one SPU that are close together
+ * (see {@link ItemEventCoalescer}) and stamps each message with a version header.
+ */
+@Component
+public class ItemEventPublisher {
+
+    public static final String INSERT_KEY = "item.insert";
+    public static final String UPDATE_KEY = "item.update";
+    public static final String DELETE_KEY = "item.delete";
+    public static final String IMPORT_KEY = "item.import";
+    public static final String UPDATE_BATCH_KEY = "item.update.batch";
+    public static final String DELETE_BATCH_KEY = "item.delete.batch";
+
+    /**
+     * Headers of item.update listing the SKU ids that were inserted, updated and deleted
+     */
+    public static final String SKU_INSERTED_HEADER = "skuInserted";
+    public static final String SKU_UPDATED_HEADER = "skuUpdated";
+    public static final String SKU_DELETED_HEADER = "skuDeleted";
+
+    /**
+     * Header with the id of the newest change a message covers, increasing for any one SPU
+     */
+    public static final String VERSION_HEADER = "version";
+
+    @Autowired
+    private ItemOutboxMapper outboxMapper;
+
+    @Value("${ly.item.events.batch-size:500}")
+    private int batchSize = 500;
+
+    public void publishInsert(Long spuId) {
+        write(Collections.singletonList(event(INSERT_KEY, spuId.toString())));
+    }
+
+    /**
+     * An update without the SKU headers, for changes that do not track which SKUs they touched
+     *
+     * @param spuId SPU ID
+     */
+    public void publishUpdate(Long spuId) {
+        publishUpdates(Collections.singletonList(spuId));
+    }
+
+    /**
+     * An item.update without the SKU headers per SPU, plus item.update.batch events if there are several
+     *
+     * @param spuIds IDs of the updated SPUs
+     */
+    public void publishUpdates(Collection<Long> spuIds) {
+        write(events(UPDATE_KEY, UPDATE_BATCH_KEY, spuIds));
+    }
+
+    /**
+     * @param spuId SPU ID
+     * @param inserted IDs of the SKUs added to the SPU
+     * @param updated IDs of the SKUs whose fields or stock changed
+     * @param deleted IDs of the SKUs removed from the SPU
+     */
+    public void publishUpdate(Long spuId, Collection<Long> inserted, Collection<Long> updated, Collection<Long> deleted) {
+        ItemOutboxEvent event = event(UPDATE_KEY, spuId.toString());
+        event.setSkuInserted(StringUtils.join(inserted, ','));
+        event.setSkuUpdated(StringUtils.join(updated, ','));
+        event.setSkuDeleted(StringUtils.join(deleted, ','));
+        write(Collections.singletonList(event));
+    }
+
+    public void publishDelete(Long spuId) {
+        publishDeletes(Collections.singletonList(spuId));
+    }
+
+    /**
+     * An item.delete per SPU, plus item.delete.batch events if there are several
+     *
+     * @param spuIds IDs of the deleted SPUs
+     */
+    public void publishDeletes(Collection<Long> spuIds) {
+        write(events(DELETE_KEY, DELETE_BATCH_KEY, spuIds));
+    }
+
+    /**
+     * @param spuIds IDs of the SPUs created together by one import chunk
+     */
+    public void publishImport(List<Long> spuIds) {
+        write(Collections.singletonList(event(IMPORT_KEY, StringUtils.join(spuIds, ','))));
+    }
+
+    private List<ItemOutboxEvent> events(String key, String batchKey, Collection<Long> spuIds) {
+        List<Long> ids = new ArrayList<>(spuIds);
+        List<ItemOutboxEvent> events = new ArrayList<>();
+        // the per-SPU events are what the existing consumers bind
+        ids.forEach(id -> events.add(event(key, id.toString())));
+        if (ids.size() == 1) {
+            return events;
+        }
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            events.add(event(batchKey, StringUtils.join(ids.subList(from, Math.min(from + batchSize, ids.size())), ',')));
+        }
+        return events;
+    }
+
+    private static ItemOutboxEvent event(String key, String payload) {
+        ItemOutboxEvent event = new ItemOutboxEvent();
+        event.setRoutingKey(key);
+        event.setPayload(payload);
+        event.setCreateTime(new Date());
+        return event;
+    }
+
+    private void write(List<ItemOutboxEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (outboxMapper.insertList(events) != events.size()) {
+            throw new LyException(ExceptionEnum.ITEM_EVENT_SAVE_ERROR);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.ItemOutboxMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.ItemOutboxEvent;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.service.ItemEventCoalescer.Outgoing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Item Outbox Relay
+ *
+ * Sends the events written by {@link ItemEventPublisher} to ly.item.exchange, every relay-interval ms:
+ * - The oldest batch-size rows of tb_item_outbox are read and locked, in a read committed transaction
+ *   so that new events can still be inserted behind them; a relay on another instance waits for them.
+ * - Nothing is sent until the oldest of them is coalesce-window ms old; then the changes of each SPU
+ *   in the batch are merged into one versioned message (see {@link ItemEventCoalescer}).
+ * - All messages are sent before any confirm is awaited, each correlated with its version.
+ * - Once the confirms are in, or after confirm-timeout ms, the rows of the messages up to the first one
+ *   that was not acked are deleted. The rest stay and are merged and sent again by the next run, so a
+ *   consumer may get a message twice, or after a newer one of the same SPU; the version tells.
+ * - Full batches are relayed back to back until the outbox is drained.
+ *
+ * Meters: item.outbox.published and item.outbox.unconfirmed count the messages, item.outbox.coalesced
+ * the events merged into another one, item.outbox.batch times each batch and item.outbox.lag is the
+ * age of the oldest event seen by the last run.
+ *
+ * {@link #replay(Long, Long)} writes a fresh item.update for every SPU of an id range, so consumers
+ * that lost events can rebuild; sent events themselves are not kept.
+ */
+@Slf4j
+@Component
+public class ItemOutboxRelay {
+
+    @Autowired
+    private ItemOutboxMapper outboxMapper;
+
+    @Autowired
+    private SpuMapper spuMapper;
+
+    @Autowired
+    private ItemEventPublisher eventPublisher;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${ly.item.outbox.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${ly.item.outbox.confirm-timeout:5000}")
+    private long confirmTimeout = 5000;
+
+    @Value("${ly.item.outbox.coalesce-window:1000}")
+    private long coalesceWindow = 1000;
+
+    private TransactionTemplate transactionTemplate;
+
+    private final AtomicLong lag = new AtomicLong();
+    private Counter published;
+    private Counter unconfirmed;
+    private Counter coalesced;
+    private Timer batchTimer;
+
+    @PostConstruct
+    public void init() {
+        if (transactionManager != null) {
+            transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        }
+        if (meterRegistry != null) {
+            published = Counter.builder("item.outbox.published")
+                    .description("Item messages sent and confirmed by the broker")
+                    .register(meterRegistry);
+            unconfirmed = Counter.builder("item.outbox.unconfirmed")
+                    .description("Item messages sent again by the next run because they or an older one were not confirmed")
+                    .register(meterRegistry);
+            coalesced = Counter.builder("item.outbox.coalesced")
+                    .description("Item events merged into a later change of the same SPU")
+                    .register(meterRegistry);
+            batchTimer = Timer.builder("item.outbox.batch")
+                    .description("Time to send one outbox batch and collect its confirms")
+                    .register(meterRegistry);
+            Gauge.builder("item.outbox.lag", lag, AtomicLong::get)
+                    .description("Age in milliseconds of the oldest event seen by the last relay run")
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Send everything in the outbox
+     */
+    @Scheduled(fixedDelayString = "${ly.item.outbox.relay-interval:200}")
+    public synchronized void relay() {
+        int relayed;
+        do {
+            relayed = relayBatch();
+        } while (relayed == batchSize);
+    }
+
+    /**
+     * Write an item.update for every existing SPU with an id from fromId to toId
+     *
+     * @param fromId First SPU ID
+     * @param toId Last SPU ID
+     * @return Number of events written
+     * @throws LyException if the range is empty
+     */
+    public int replay(Long fromId, Long toId) {
+        if (fromId == null || toId == null || fromId < 1 || fromId > toId) {
+            throw new LyException(ExceptionEnum.INVALID_REPLAY_RANGE);
+        }
+        int count = 0;
+        long after = fromId - 1;
+        while (true) {
+            List<Long> ids = new ArrayList<>(batchSize);
+            for (Spu spu : spuMapper.selectTitlesAfter(after, batchSize)) {
+                if (spu.getId() <= toId) {
+                    ids.add(spu.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            eventPublisher.publishUpdates(ids);
+            count += ids.size();
+            after = ids.get(ids.size() - 1);
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        log.info("Replayed {} item.update events for spu {} to {}", count, fromId, toId);
+        return count;
+    }
+
+    /**
+     * @return Number of events sent and deleted
+     */
+    int relayBatch() {
+        long start = System.nanoTime();
+        Integer relayed = transactionTemplate == null ? sendOldest() : transactionTemplate.execute(status -> sendOldest());
+        if (batchTimer != null && relayed != null && relayed > 0) {
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return relayed == null ? 0 : relayed;
+    }
+
+    private int sendOldest() {
+        List<ItemOutboxEvent> batch = outboxMapper.selectOldestForUpdate(batchSize);
+        if (batch.isEmpty()) {
+            lag.set(0);
+            return 0;
+        }
+        long oldest = System.currentTimeMillis() - batch.get(0).getCreateTime().getTime();
+        lag.set(oldest);
+        if (oldest < coalesceWindow) {
+            // later changes of the same SPUs may still come
+            return 0;
+        }
+        List<Outgoing> messages = ItemEventCoalescer.coalesce(batch);
+
+        // pipelined: everything goes out before the first confirm is awaited
+        List<CorrelationData> sent = new ArrayList<>(messages.size());
+        for (Outgoing message : messages) {
+            CorrelationData correlation = new CorrelationData(String.valueOf(message.getVersion()));
+            try {
+                rabbitTemplate.convertAndSend(message.getRoutingKey(), payload(message.getRoutingKey(), message.getPayload()),
+                        headers(message), correlation);
+            } catch (Exception e) {
+                log.error("Failed to send item event {}, retrying on the next run", message.getVersion(), e);
+                break;
+            }
+            sent.add(correlation);
+        }
+
+        List<Long> done = new ArrayList<>(batch.size());
+        int confirmed = awaitConfirms(sent);
+        messages.subList(0, confirmed).forEach(m -> done.addAll(m.getEventIds()));
+        if (!done.isEmpty()) {
+            outboxMapper.deleteByIdList(done);
+        }
+        if (published != null) {
+            published.increment(confirmed);
+            unconfirmed.increment(messages.size() - confirmed);
+            coalesced.increment(batch.size() - messages.size());
+        }
+        return done.size();
+    }
+
+    /**
+     * @return Length of the acked prefix of the sent messages
+     */
+    private int awaitConfirms(List<CorrelationData> sent) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeout);
+        for (int i = 0; i < sent.size(); i++) {
+            CorrelationData correlation = sent.get(i);
+            try {
+                CorrelationData.Confirm confirm = correlation.getFuture().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                if (!confirm.isAck()) {
+                    log.warn("Item event {} was refused by the broker: {}", correlation.getId(), confirm.getReason());
+                    return i;
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                log.warn("No confirm for item event {} within {} ms", correlation.getId(), confirmTimeout);
+                return i;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return i;
+            }
+        }
+        return sent.size();
+    }
+
+    /**
+     * The payload each consumer expects: the SPU ID, or the list of SPU IDs of an import or a bulk batch
+     */
+    static Serializable payload(String routingKey, String payload) {
+        if (ItemEventPublisher.IMPORT_KEY.equals(routingKey) || ItemEventPublisher.UPDATE_BATCH_KEY.equals(routingKey)
+                || ItemEventPublisher.DELETE_BATCH_KEY.equals(routingKey)) {
+            return Arrays.stream(StringUtils.split(payload, ','))
+                    .map(Long::valueOf).collect(Collectors.toCollection(ArrayList::new));
+        }
+        return Long.valueOf(payload);
+    }
+
+    private static MessagePostProcessor headers(Outgoing outgoing) {
+        return message -> {
+            MessageProperties properties = message.getMessageProperties();
+            properties.setHeader(ItemEventPublisher.VERSION_HEADER, outgoing.getVersion());
+            if (outgoing.hasSkuChanges()) {
+                properties.setHeader(ItemEventPublisher.SKU_INSERTED_HEADER, StringUtils.join(outgoing.getSkuInserted(), ','));
+                properties.setHeader(ItemEventPublisher.SKU_UPDATED_HEADER, StringUtils.join(outgoing.getSkuUpdated(), ','));
+                properties.setHeader(ItemEventPublisher.SKU_DELETED_HEADER, StringUtils.join(outgoing.getSkuDeleted(), ','));
+            }
+            return message;
+        };
+    }
+}
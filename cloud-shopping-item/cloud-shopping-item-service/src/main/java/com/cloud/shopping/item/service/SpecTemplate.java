@@ -0,0 +1,51 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.pojo.SpecGroup;
+import org.springframework.util.DigestUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The assembled spec groups of one category together with their JSON encoding
+ *
+ * Encoded once when the template is loaded, so the spec/group endpoint can write the bytes as they are
+ * and answer conditional requests from the ETag. The groups are shared by all readers and must be
+ * treated as read-only.
+ */
+public final class SpecTemplate {
+
+    private final Long cid;
+    private final List<SpecGroup> groups;
+    private final byte[] json;
+    private final String etag;
+
+    public SpecTemplate(Long cid, List<SpecGroup> groups, byte[] json) {
+        this.cid = cid;
+        this.groups = Collections.unmodifiableList(groups);
+        this.json = json;
+        this.etag = "\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+    }
+
+    public Long getCid() {
+        return cid;
+    }
+
+    public List<SpecGroup> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return The JSON bytes of the groups; do not modify
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * @return Strong ETag of the JSON bytes, quoted
+     */
+    public String getEtag() {
+        return etag;
+    }
+}
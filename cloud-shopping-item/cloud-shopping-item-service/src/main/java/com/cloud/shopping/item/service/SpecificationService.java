@@ -1,5 +1,7 @@
 package com.cloud.shopping.item.service;
 
+import com.cloud.shopping.common.cache.BoundedCache;
+import com.cloud.shopping.common.cache.BoundedCacheMetrics;
 import com.cloud.shopping.common.enums.ExceptionEnum;
 import com.cloud.shopping.common.exception.LyException;
 import com.cloud.shopping.item.pojo.SpecGroup;
@@ -8,7 +10,15 @@ import com.cloud.shopping.item.pojo.Specification;
 import com.cloud.shopping.item.mapper.SpecGroupMapper;
 import com.cloud.shopping.item.mapper.SpecParamMapper;
 import com.cloud.shopping.item.mapper.SpecificationMapper;
+import com.cloud.shopping.item.utils.TransactionUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
@@ -23,9 +33,20 @@ import java.util.Map;
  *
  * Note: This is currently implemented as a concrete class without an interface.
  * Could be improved by extracting an interface following SOLID principles.
+ *
+ * The assembled spec groups of a category (the spec/group template) rarely change, so they are kept
+ * in a bounded cache together with their JSON encoding. Writes drop the entry right away and again after
+ * commit, and broadcast the category id so the other instances drop theirs too.
  */
+@Slf4j
 @Service
 public class SpecificationService {
+
+    /**
+     * Routing key used to tell all instances that the spec template of a category changed
+     */
+    public static final String SPEC_UPDATE_KEY = "spec.update";
+
     @Autowired
     private SpecGroupMapper specGroupMapper;
 
@@ -35,6 +56,29 @@ public class SpecificationService {
     @Autowired
     private SpecificationMapper specificationMapper;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AmqpTemplate amqpTemplate;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${ly.item.cache.spec-template.maximum-size:2000}")
+    private int templateCacheSize = 2000;
+
+    @Value("${ly.item.cache.spec-template.ttl:3600000}")
+    private long templateCacheTtl = 3600000;
+
+    private BoundedCache<Long, SpecTemplate> templates;
+
+    @PostConstruct
+    public void init() {
+        templates = new BoundedCache<>("spec.template", templateCacheSize, templateCacheTtl);
+        BoundedCacheMetrics.monitor(meterRegistry, templates);
+    }
+
     /**
      * Query specification groups by category ID
      *
@@ -86,6 +130,30 @@ public class SpecificationService {
      * @return List of specification groups with their parameters
      */
     public List<SpecGroup> queryListByCid(Long cid) {
+        return queryTemplateByCid(cid).getGroups();
+    }
+
+    /**
+     * Query the spec template of a category: its groups with their parameters and their JSON encoding
+     *
+     * @param cid Category ID
+     * @return Cached template, shared between callers
+     * @throws LyException if the category has no groups or no parameters
+     */
+    public SpecTemplate queryTemplateByCid(Long cid) {
+        return templates.get(cid, this::loadTemplate);
+    }
+
+    private SpecTemplate loadTemplate(Long cid) {
+        List<SpecGroup> groups = loadGroups(cid);
+        try {
+            return new SpecTemplate(cid, groups, objectMapper.writeValueAsBytes(groups));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode the spec template of category " + cid, e);
+        }
+    }
+
+    private List<SpecGroup> loadGroups(Long cid) {
         // Query specification groups
         List<SpecGroup> specGroups = querySpecGroupByCid(cid);
 
@@ -125,6 +193,7 @@ public class SpecificationService {
      */
     public void saveSpecification(Specification specification) {
         this.specificationMapper.insert(specification);
+        onTemplateChanged(specification.getCategoryId());
     }
 
     /**
@@ -134,6 +203,7 @@ public class SpecificationService {
      */
     public void updateSpecification(Specification specification) {
         this.specificationMapper.updateByPrimaryKeySelective(specification);
+        onTemplateChanged(specification.getCategoryId());
     }
 
     /**
@@ -143,6 +213,37 @@ public class SpecificationService {
      */
     public void deleteSpecification(Specification specification) {
         this.specificationMapper.deleteByPrimaryKey(specification);
+        onTemplateChanged(specification.getCategoryId());
+    }
+
+    /**
+     * Drop a cached template, e.g. when another instance changed it
+     *
+     * @param cid Category ID, or null to drop all of them
+     */
+    public void evictTemplate(Long cid) {
+        if (cid == null) {
+            templates.invalidateAll();
+        } else {
+            templates.invalidate(cid);
+        }
+    }
+
+    /**
+     * Drop the template now and after commit, so a read that saw the old rows cannot keep them,
+     * then tell every instance to drop it as well
+     */
+    private void onTemplateChanged(Long cid) {
+        evictTemplate(cid);
+        TransactionUtils.afterCommit(() -> {
+            evictTemplate(cid);
+            try {
+                amqpTemplate.convertAndSend(SPEC_UPDATE_KEY, cid == null ? 0L : cid);
+            } catch (Exception e) {
+                // the other instances fall back to the ttl
+                log.error("Failed to broadcast spec template change of category {}", cid, e);
+            }
+        });
     }
 
 }
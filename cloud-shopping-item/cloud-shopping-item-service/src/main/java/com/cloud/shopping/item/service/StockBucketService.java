@@ -0,0 +1,201 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.StockBucketMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.pojo.StockBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bucketed stock of hot SKUs
+ *
+ * Every order of a best-seller waits for the lock of its one tb_stock row. A SKU can instead be split
+ * into N rows of tb_stock_bucket, holding its whole stock between them while its tb_stock.stock stays 0:
+ * - A decrement picks a bucket at random and takes the quantity from it with one conditional update,
+ *   locking only that row, so N buyers can go through at once.
+ * - If that bucket is short, it locks all buckets of the SKU and takes the quantity from several of them,
+ *   which only happens when the stock is running low. No bucket ever goes below zero, so a SKU is short
+ *   exactly when the sum of its buckets is.
+ * - Reads sum the buckets (see {@link StockMapper#selectStocks}).
+ * - {@link #resize(Long, int)} splits a SKU into buckets or merges them back at runtime.
+ *
+ * Bucketing is opt in per SKU and SKUs without buckets are not touched. A decrement that races with
+ * a resize of the same SKU may fail with STOCK_NOT_ENOUGH and has to be retried.
+ */
+@Slf4j
+@Service
+public class StockBucketService {
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired
+    private StockBucketMapper bucketMapper;
+
+    @Autowired
+    private StockCache stockCache;
+
+    @Value("${ly.item.stock.bucket.max-count:64}")
+    private int maxBuckets = 64;
+
+    /**
+     * @param skuIds SKU ids
+     * @return SKU id -> number of buckets, for the SKUs that have buckets
+     */
+    public Map<Long, Integer> countBuckets(Collection<Long> skuIds) {
+        Map<Long, Integer> counts = new HashMap<>();
+        if (skuIds.isEmpty()) {
+            return counts;
+        }
+        for (Map<String, Object> row : bucketMapper.countBuckets(skuIds)) {
+            counts.put(((Number) row.get("skuId")).longValue(), ((Number) row.get("buckets")).intValue());
+        }
+        return counts;
+    }
+
+    /**
+     * Decrease the stock of a bucketed SKU, in the caller's transaction
+     *
+     * @param skuId SKU ID
+     * @param buckets Number of buckets of the SKU
+     * @param num Quantity, positive
+     * @return false if the buckets together do not have num, in which case nothing was decreased
+     */
+    public boolean decrease(Long skuId, int buckets, int num) {
+        int start = ThreadLocalRandom.current().nextInt(buckets);
+        if (bucketMapper.decreaseBucket(skuId, start, num) == 1) {
+            return true;
+        }
+        // the bucket ran dry: lock them all and take from the next ones round-robin
+        return take(lock(skuId), num, start);
+    }
+
+    /**
+     * Read and lock every bucket of a SKU, in the caller's transaction
+     *
+     * @param skuId SKU ID
+     * @return The buckets, empty if the SKU has none
+     */
+    public List<StockBucket> lock(Long skuId) {
+        return bucketMapper.selectForUpdate(skuId);
+    }
+
+    /**
+     * Take a quantity from buckets locked by {@link #lock(Long)}, spread so that no bucket goes below zero
+     *
+     * @param locked The locked buckets of one SKU
+     * @param num Quantity, positive
+     * @param start Index of the first bucket to take from
+     * @return false if the buckets together do not have num, in which case nothing was decreased
+     */
+    public boolean take(List<StockBucket> locked, int num, int start) {
+        int total = locked.stream().mapToInt(StockBucket::getStock).sum();
+        if (locked.isEmpty() || total < num) {
+            return false;
+        }
+        int left = num;
+        for (int i = 0; i < locked.size() && left > 0; i++) {
+            StockBucket bucket = locked.get((start + i) % locked.size());
+            int take = Math.min(left, Math.max(bucket.getStock(), 0));
+            if (take > 0) {
+                bucketMapper.updateBucket(bucket.getSkuId(), bucket.getBucket(), bucket.getStock() - take);
+                bucket.setStock(bucket.getStock() - take);
+                left -= take;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set the stock of a bucketed SKU, spread evenly over its buckets, in the caller's transaction
+     *
+     * @param skuId SKU ID
+     * @param expected Stock the new value was based on
+     * @param stock New stock
+     * @return false if the buckets no longer add up to expected, in which case nothing was written
+     */
+    public boolean setStock(Long skuId, int expected, int stock) {
+        List<StockBucket> all = bucketMapper.selectForUpdate(skuId);
+        if (all.stream().mapToInt(StockBucket::getStock).sum() != expected) {
+            return false;
+        }
+        List<StockBucket> spread = spread(skuId, stock, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            bucketMapper.updateBucket(skuId, all.get(i).getBucket(), spread.get(i).getStock());
+        }
+        return true;
+    }
+
+    /**
+     * Split the stock of a SKU into buckets, or merge it back into its tb_stock row
+     *
+     * @param skuId SKU ID
+     * @param buckets Number of buckets, 1 to merge
+     * @return The buckets, empty after a merge
+     * @throws LyException if the count is out of range or the SKU has no stock row
+     */
+    @Transactional
+    public List<StockBucket> resize(Long skuId, int buckets) {
+        if (buckets < 1 || buckets > maxBuckets) {
+            throw new LyException(ExceptionEnum.INVALID_STOCK_BUCKET_COUNT);
+        }
+        Stock row = stockMapper.selectForUpdate(skuId);
+        if (row == null) {
+            throw new LyException(ExceptionEnum.STOCK_NOT_FOUND);
+        }
+        List<StockBucket> current = bucketMapper.selectForUpdate(skuId);
+        int total = current.isEmpty() ? row.getStock() : current.stream().mapToInt(StockBucket::getStock).sum();
+
+        if (!current.isEmpty()) {
+            bucketMapper.deleteBySkuIds(Collections.singletonList(skuId));
+        }
+        List<StockBucket> next = buckets == 1 ? Collections.emptyList() : spread(skuId, total, buckets);
+        if (!next.isEmpty()) {
+            bucketMapper.insertBuckets(next);
+        }
+        Stock stock = new Stock();
+        stock.setSkuId(skuId);
+        stock.setStock(next.isEmpty() ? total : 0);
+        stockMapper.updateStockBatch(Collections.singletonList(stock));
+
+        stockCache.written(Collections.singletonMap(skuId, total));
+        log.info("Stock of sku {} moved from {} to {} buckets, total {}", skuId, Math.max(current.size(), 1), buckets, total);
+        return next;
+    }
+
+    /**
+     * @param skuId SKU ID
+     * @return The buckets of the SKU, empty if it has none
+     */
+    public List<StockBucket> queryBuckets(Long skuId) {
+        return bucketMapper.selectBySkuId(skuId);
+    }
+
+    public void deleteBySkuIds(Collection<Long> skuIds) {
+        if (!skuIds.isEmpty()) {
+            bucketMapper.deleteBySkuIds(skuIds);
+        }
+    }
+
+    /**
+     * Spread a stock over buckets as evenly as possible, the first buckets taking the remainder
+     */
+    static List<StockBucket> spread(Long skuId, int stock, int buckets) {
+        List<StockBucket> spread = new ArrayList<>(buckets);
+        int base = Math.floorDiv(stock, buckets);
+        int remainder = Math.floorMod(stock, buckets);
+        for (int i = 0; i < buckets; i++) {
+            spread.add(new StockBucket(skuId, i, base + (i < remainder ? 1 : 0)));
+        }
+        return spread;
+    }
+}
@@ -0,0 +1,300 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.cache.BoundedCache;
+import com.cloud.shopping.common.cache.BoundedCacheMetrics;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.utils.TransactionUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Short-lived SKU id -> stock cache
+ *
+ * Stock only changes through decreaseStock and the goods save, update and delete paths. Each of
+ * them reports the SKUs it wrote while its transaction is still open, through {@link #written(Map)}:
+ * - From then until the transaction finishes the SKU is locked out: reads go to the database and
+ *   nothing is cached for it, so no reader can keep a value from before the commit.
+ * - After a commit the exact value read inside the transaction is written through, unless another
+ *   write of the same SKU committed after it, in which case the entry is just dropped.
+ * - After a rollback the entry is dropped.
+ *
+ * Every instance has its own cache, so the SKUs of each commit are also broadcast as "stock.update"
+ * (see StockListener) and the other instances drop them. Broadcasts are sent in batches every
+ * broadcast-interval ms, off the order path, so another instance may serve a value older than a commit
+ * for about that long plus the broker's delivery time. If a broadcast is lost the TTL bounds how long
+ * a stale value is served, which is why it stays at a few seconds; it also covers changes made outside
+ * this service, e.g. by hand in SQL. Readers that must not oversell never rely on this cache: every
+ * decrement is a guarded update of tb_stock.
+ *
+ * Besides the standard cache meters (cache.gets etc., name "stock") it publishes
+ * item.stock.cache.age, the age of the cached values that were served, and
+ * item.stock.cache.bypass, the number of reads that skipped the cache because of a pending write.
+ */
+@Slf4j
+@Component
+public class StockCache {
+
+    public static final String STOCK_UPDATE_KEY = "stock.update";
+
+    /**
+     * Header with the instance that sent a broadcast
+     */
+    public static final String ORIGIN_HEADER = "origin";
+
+    @Autowired
+    private StockMapper stockMapper;
+
+    @Autowired(required = false)
+    private AmqpTemplate amqpTemplate;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${ly.item.cache.stock.maximum-size:100000}")
+    private int maximumSize = 100000;
+
+    @Value("${ly.item.cache.stock.ttl:2000}")
+    private long ttl = 2000;
+
+    /**
+     * Identifies this instance as the origin of a broadcast, so it can skip its own messages
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    /**
+     * Called with the SKUs whose stock changed, here after a commit or on another instance
+     */
+    private final List<Consumer<Set<Long>>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * SKUs committed here and not broadcast yet; guarded by itself
+     */
+    private final Set<Long> unsent = new TreeSet<>();
+
+    private BoundedCache<Long, Cached> cache;
+
+    /**
+     * SKUs written by transactions that have not finished yet; guarded by this
+     */
+    private final Map<Long, PendingWrite> pending = new HashMap<>();
+
+    /**
+     * Issues write tickets, in commit order for any single SKU; guarded by this
+     */
+    private long tickets;
+
+    private Timer age;
+    private Counter bypass;
+
+    @PostConstruct
+    public void init() {
+        cache = new BoundedCache<>("stock", maximumSize, ttl);
+        BoundedCacheMetrics.monitor(meterRegistry, cache);
+        if (meterRegistry != null) {
+            age = Timer.builder("item.stock.cache.age")
+                    .description("Age of the cached stock values served to readers")
+                    .register(meterRegistry);
+            bypass = Counter.builder("item.stock.cache.bypass")
+                    .description("Stock reads that skipped the cache because the SKU had a pending write")
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Get the stock of several SKUs
+     *
+     * @param skuIds SKU IDs
+     * @return SKU ID -> stock, without SKUs that have no stock row
+     */
+    public Map<Long, Integer> getStocks(Collection<Long> skuIds) {
+        long now = System.currentTimeMillis();
+        Set<Long> locked = new HashSet<>();
+        List<Long> cacheable = new ArrayList<>(skuIds.size());
+        synchronized (this) {
+            for (Long id : skuIds) {
+                if (pending.containsKey(id)) {
+                    locked.add(id);
+                } else {
+                    cacheable.add(id);
+                }
+            }
+        }
+
+        Map<Long, Integer> result = new HashMap<>();
+        // values of SKUs that got locked out while loading are returned but not cached
+        Map<Long, Cached> uncached = new HashMap<>();
+        Set<Long> loadedIds = new HashSet<>();
+        Map<Long, Cached> values = cache.getAll(cacheable, missing -> {
+            loadedIds.addAll(missing);
+            Map<Long, Cached> loaded = load(missing);
+            synchronized (this) {
+                loaded.keySet().removeIf(id -> {
+                    if (pending.containsKey(id)) {
+                        uncached.put(id, loaded.get(id));
+                        return true;
+                    }
+                    return false;
+                });
+            }
+            return loaded;
+        });
+        values.forEach((id, cached) -> {
+            result.put(id, cached.stock);
+            if (age != null && !loadedIds.contains(id)) {
+                age.record(now - cached.loadedAt, TimeUnit.MILLISECONDS);
+            }
+        });
+        uncached.forEach((id, cached) -> result.put(id, cached.stock));
+
+        if (!locked.isEmpty()) {
+            if (bypass != null) {
+                bypass.increment(locked.size());
+            }
+            load(locked).forEach((id, cached) -> result.put(id, cached.stock));
+        }
+        return result;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @param listener Called with the SKUs whose stock changed, after the commit that changed it or when
+     *                 another instance reports a change; it may run inside this cache's own callbacks
+     */
+    public void addListener(Consumer<Set<Long>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Drop the SKUs another instance changed
+     *
+     * @param skuIds SKU IDs
+     */
+    public void evict(Collection<Long> skuIds) {
+        if (skuIds.isEmpty()) {
+            return;
+        }
+        cache.invalidateAll(skuIds);
+        Set<Long> changed = Collections.unmodifiableSet(new HashSet<>(skuIds));
+        listeners.forEach(l -> l.accept(changed));
+    }
+
+    /**
+     * Send the SKUs committed since the last broadcast to the other instances
+     */
+    @Scheduled(fixedDelayString = "${ly.item.cache.stock.broadcast-interval:100}")
+    public void broadcast() {
+        List<Long> skuIds;
+        synchronized (unsent) {
+            if (unsent.isEmpty()) {
+                return;
+            }
+            skuIds = new ArrayList<>(unsent);
+            unsent.clear();
+        }
+        if (amqpTemplate == null) {
+            return;
+        }
+        try {
+            amqpTemplate.convertAndSend(STOCK_UPDATE_KEY, skuIds, message -> {
+                message.getMessageProperties().setHeader(ORIGIN_HEADER, instanceId);
+                return message;
+            });
+        } catch (Exception e) {
+            // the other instances fall back to the ttl
+            log.error("Failed to broadcast the stock change of {} skus", skuIds.size(), e);
+        }
+    }
+
+    /**
+     * Report stock rows written by the current transaction; call it after the write, before the commit
+     *
+     * @param stocks SKU ID -> stock as read back inside the transaction, or null if the row was deleted or is unknown
+     */
+    public void written(Map<Long, Integer> stocks) {
+        if (stocks.isEmpty()) {
+            return;
+        }
+        long ticket;
+        synchronized (this) {
+            // the row locks are held until commit, so tickets follow the commit order of each SKU
+            ticket = ++tickets;
+            for (Long id : stocks.keySet()) {
+                PendingWrite write = pending.computeIfAbsent(id, k -> new PendingWrite());
+                write.count++;
+                write.lastTicket = ticket;
+            }
+            cache.invalidateAll(stocks.keySet());
+        }
+        TransactionUtils.afterCompletion(committed -> {
+            complete(stocks, ticket, committed);
+            if (committed) {
+                synchronized (unsent) {
+                    unsent.addAll(stocks.keySet());
+                }
+                Set<Long> changed = Collections.unmodifiableSet(stocks.keySet());
+                listeners.forEach(l -> l.accept(changed));
+            }
+        });
+    }
+
+    private synchronized void complete(Map<Long, Integer> stocks, long ticket, boolean committed) {
+        // drops values loaded before the commit, which the epoch check would otherwise let through
+        cache.invalidateAll(stocks.keySet());
+        long now = System.currentTimeMillis();
+        stocks.forEach((id, stock) -> {
+            PendingWrite write = pending.get(id);
+            if (write == null) {
+                return;
+            }
+            boolean latest = write.lastTicket == ticket;
+            if (--write.count == 0) {
+                pending.remove(id);
+            }
+            // a later write of the same SKU that is still open or already done decides the value instead
+            if (committed && latest && write.count == 0 && stock != null) {
+                cache.put(id, new Cached(stock, now));
+            }
+        });
+    }
+
+    private Map<Long, Cached> load(Collection<Long> skuIds) {
+        long now = System.currentTimeMillis();
+        Map<Long, Cached> loaded = new HashMap<>();
+        for (Stock stock : stockMapper.selectStocks(skuIds)) {
+            loaded.put(stock.getSkuId(), new Cached(stock.getStock(), now));
+        }
+        return loaded;
+    }
+
+    private static final class PendingWrite {
+        private int count;
+        private long lastTicket;
+    }
+
+    private static final class Cached {
+        private final Integer stock;
+        private final long loadedAt;
+
+        private Cached(Integer stock, long loadedAt) {
+            this.stock = stock;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.cloud.shopping.item.utils;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Opaque keyset cursor on (last_update_time, id)
+ *
+ * Encoded as URL-safe base64 of "lastUpdateTimeMillis:id", so clients treat it as a token
+ * and the format can change without breaking them.
+ */
+public final class PageCursor {
+
+    private final Date lastUpdateTime;
+    private final Long id;
+
+    public PageCursor(Date lastUpdateTime, Long id) {
+        this.lastUpdateTime = lastUpdateTime;
+        this.id = id;
+    }
+
+    public Date getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String encode() {
+        String raw = lastUpdateTime.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param token Token returned by {@link #encode()}
+     * @return Decoded cursor
+     * @throws LyException if the token is malformed
+     */
+    public static PageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int sep = raw.indexOf(':');
+            return new PageCursor(new Date(Long.parseLong(raw.substring(0, sep))), Long.parseLong(raw.substring(sep + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new LyException(ExceptionEnum.INVALID_PAGE_CURSOR);
+        }
+    }
+}
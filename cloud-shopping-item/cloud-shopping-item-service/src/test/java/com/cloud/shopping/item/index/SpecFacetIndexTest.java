@@ -0,0 +1,183 @@
+package com.cloud.shopping.item.index;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.FacetQuery;
+import com.cloud.shopping.item.dto.FacetResult;
+import com.cloud.shopping.item.mapper.SpecParamMapper;
+import com.cloud.shopping.item.mapper.SpuDetailMapper;
+import com.cloud.shopping.item.pojo.SpecParam;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpecFacetIndexTest {
+
+    private static final long CID = 76L;
+    private static final long BRAND = 1L;
+    private static final long SCREEN = 2L;
+    private static final long COLOR = 3L;
+
+    private final Map<Long, SpuSpecRow> table = new TreeMap<>();
+    private SpecFacetIndex index;
+
+    @BeforeEach
+    void setUp() {
+        List<SpecParam> params = Arrays.asList(
+                param(BRAND, "品牌", true, false, null, null),
+                param(SCREEN, "屏幕尺寸", true, true, "英寸", "0-5.0,5.0-6.0,6.0-"),
+                param(COLOR, "颜色", false, false, null, null));
+
+        add(1L, true, "{\"1\":\"华为\",\"2\":6.39}", "{\"3\":[\"亮黑色\",\"宝石蓝\"]}");
+        add(2L, true, "{\"1\":\"华为\",\"2\":5.8}", "{\"3\":[\"亮黑色\"]}");
+        add(3L, true, "{\"1\":\"小米\",\"2\":6.3}", "{\"3\":[\"梦幻蓝\"]}");
+        add(4L, true, "{\"1\":\"Apple\",\"2\":4.7}", "{\"3\":[\"金色\",\"亮黑色\"]}");
+        add(5L, false, "{\"1\":\"小米\",\"2\":6.0}", "{\"3\":[\"梦幻蓝\"]}");
+
+        SpecParamMapper specParamMapper = mock(SpecParamMapper.class);
+        when(specParamMapper.select(any())).thenReturn(params);
+        SpuDetailMapper detailMapper = mock(SpuDetailMapper.class);
+        when(detailMapper.selectSpecRowsAfter(anyLong(), anyInt())).thenAnswer(inv -> {
+            long afterId = inv.getArgument(0);
+            int limit = inv.getArgument(1);
+            return table.values().stream().filter(r -> r.getSpuId() > afterId).limit(limit).collect(Collectors.toList());
+        });
+        when(detailMapper.selectSpecRow(any())).thenAnswer(inv -> table.get((Long) inv.getArgument(0)));
+
+        index = new SpecFacetIndex();
+        ReflectionTestUtils.setField(index, "specParamMapper", specParamMapper);
+        ReflectionTestUtils.setField(index, "detailMapper", detailMapper);
+        ReflectionTestUtils.setField(index, "batchSize", 2);
+    }
+
+    @Test
+    void countsEveryValueOfTheSaleableSpus() {
+        index.build();
+        FacetResult result = index.search(query(Collections.emptyMap()));
+
+        assertEquals(4L, result.getTotal());
+        assertEquals(Arrays.asList(4L, 3L, 2L, 1L), result.getSpuIds());
+        assertEquals(counts("华为", 2L, "小米", 1L, "Apple", 1L), counts(result, BRAND));
+        assertEquals(counts("亮黑色", 3L, "宝石蓝", 1L, "梦幻蓝", 1L, "金色", 1L), counts(result, COLOR));
+        assertEquals(counts("0-5.0", 1L, "5.0-6.0", 1L, "6.0-", 2L), counts(result, SCREEN));
+
+        Map<String, String> labels = facet(result, SCREEN).getValues().stream()
+                .collect(Collectors.toMap(FacetResult.FacetValue::getValue, FacetResult.FacetValue::getLabel));
+        assertEquals("below 5.0英寸", labels.get("0-5.0"));
+        assertEquals("5.0-6.0英寸", labels.get("5.0-6.0"));
+        assertEquals("6.0英寸 and above", labels.get("6.0-"));
+    }
+
+    @Test
+    void filtersAreDisjunctiveWithinAParam() {
+        index.build();
+        Map<Long, List<String>> filters = new HashMap<>();
+        filters.put(BRAND, Arrays.asList("华为", "Apple"));
+        filters.put(COLOR, Collections.singletonList("亮黑色"));
+        FacetResult result = index.search(query(filters));
+
+        assertEquals(Arrays.asList(4L, 2L, 1L), result.getSpuIds());
+        // brand counts ignore the brand selection but honour the color one
+        assertEquals(counts("华为", 2L, "Apple", 1L, "小米", 0L), counts(result, BRAND));
+        // color counts ignore the color selection but honour the brand one
+        assertEquals(counts("亮黑色", 3L, "宝石蓝", 1L, "金色", 1L, "梦幻蓝", 0L), counts(result, COLOR));
+        assertEquals(counts("0-5.0", 1L, "5.0-6.0", 1L, "6.0-", 1L), counts(result, SCREEN));
+        assertTrue(facet(result, BRAND).getValues().stream()
+                .filter(FacetResult.FacetValue::getSelected)
+                .map(FacetResult.FacetValue::getValue)
+                .collect(Collectors.toSet()).containsAll(Arrays.asList("华为", "Apple")));
+    }
+
+    @Test
+    void followsUpdatesAndDeletes() {
+        index.build();
+        table.get(3L).setSaleable(false);
+        index.reindex(3L);
+        add(6L, true, "{\"1\":\"小米\",\"2\":6.9}", "{\"3\":[\"宝石蓝\"]}");
+        index.reindex(6L);
+        table.get(1L).setGenericSpec("{\"1\":\"荣耀\",\"2\":6.39}");
+        index.reindex(1L);
+        index.remove(4L);
+
+        FacetResult result = index.search(query(Collections.emptyMap()));
+        assertEquals(Arrays.asList(6L, 2L, 1L), result.getSpuIds());
+        assertEquals(counts("华为", 1L, "荣耀", 1L, "小米", 1L), counts(result, BRAND));
+    }
+
+    @Test
+    void pagesNewestFirst() {
+        index.build();
+        FacetQuery query = query(Collections.emptyMap());
+        query.setRows(3);
+        query.setPage(2);
+        assertEquals(Collections.singletonList(1L), index.search(query).getSpuIds());
+    }
+
+    @Test
+    void refusesQueriesBeforeTheIndexIsBuilt() {
+        LyException e = assertThrows(LyException.class, () -> index.search(query(Collections.emptyMap())));
+        assertEquals(ExceptionEnum.FACET_INDEX_NOT_READY.getCode(), e.getExceptionEnum().getCode());
+
+        // changes made during the build are applied once it is done
+        index.reindex(2L);
+        table.get(2L).setGenericSpec("{\"1\":\"荣耀\",\"2\":5.8}");
+        index.build();
+        assertEquals(counts("华为", 1L, "荣耀", 1L, "小米", 1L, "Apple", 1L),
+                counts(index.search(query(Collections.emptyMap())), BRAND));
+    }
+
+    private Map<String, Long> counts(FacetResult result, Long paramId) {
+        return facet(result, paramId).getValues().stream()
+                .collect(Collectors.toMap(FacetResult.FacetValue::getValue, FacetResult.FacetValue::getCount));
+    }
+
+    private static Map<String, Long> counts(Object... pairs) {
+        Map<String, Long> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((String) pairs[i], (Long) pairs[i + 1]);
+        }
+        return map;
+    }
+
+    private static FacetResult.Facet facet(FacetResult result, Long paramId) {
+        return result.getFacets().stream().filter(f -> f.getParamId().equals(paramId)).findFirst().orElseThrow();
+    }
+
+    private static FacetQuery query(Map<Long, List<String>> filters) {
+        FacetQuery query = new FacetQuery();
+        query.setCid3(CID);
+        query.setFilters(filters);
+        return query;
+    }
+
+    private void add(Long spuId, boolean saleable, String genericSpec, String specialSpec) {
+        SpuSpecRow row = new SpuSpecRow();
+        row.setSpuId(spuId);
+        row.setCid3(CID);
+        row.setSaleable(saleable);
+        row.setGenericSpec(genericSpec);
+        row.setSpecialSpec(specialSpec);
+        table.put(spuId, row);
+    }
+
+    private static SpecParam param(Long id, String name, boolean generic, boolean numeric, String unit, String segments) {
+        SpecParam param = new SpecParam();
+        param.setId(id);
+        param.setCid(CID);
+        param.setName(name);
+        param.setGeneric(generic);
+        param.setNumeric(numeric);
+        param.setUnit(unit);
+        param.setSegments(segments);
+        param.setSearching(true);
+        return param;
+    }
+}
@@ -0,0 +1,124 @@
+package com.cloud.shopping.item.index;
+
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.Spu;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpuTitleIndexTest {
+
+    private final Map<Long, Spu> table = new TreeMap<>();
+    private SpuTitleIndex index;
+
+    @BeforeEach
+    void setUp() {
+        add(1L, "华为 HUAWEI Mate 20 Pro 6GB+128GB 亮黑色", "麒麟980芯片 全网通版");
+        add(2L, "Apple iPhone XS Max 256GB 金色", "移动联通电信4G手机");
+        add(3L, "小米 Redmi Note7 4GB+64GB 梦幻蓝", "千元机 拍照手机");
+        add(4L, "Ｓａｍｓｕｎｇ Galaxy S10 全网通", "Café édition");
+        add(5L, "荣耀 Honor 10 青春版 幻彩渐变", null);
+
+        SpuMapper spuMapper = mock(SpuMapper.class);
+        when(spuMapper.selectTitlesAfter(anyLong(), anyInt())).thenAnswer(inv -> {
+            long afterId = inv.getArgument(0);
+            int limit = inv.getArgument(1);
+            return table.values().stream().filter(s -> s.getId() > afterId).limit(limit).collect(Collectors.toList());
+        });
+        when(spuMapper.selectByPrimaryKey(any())).thenAnswer(inv -> table.get((Long) inv.getArgument(0)));
+
+        index = new SpuTitleIndex();
+        ReflectionTestUtils.setField(index, "spuMapper", spuMapper);
+        // small batches so the build walks several of them
+        ReflectionTestUtils.setField(index, "batchSize", 2);
+    }
+
+    @Test
+    void candidatesAreASupersetOfLikeMatches() {
+        index.build();
+        List<String> keys = Arrays.asList("手机", "全网通", "gb", "128gb", "iphone", "IPHONE", "mate", "note7",
+                "麒麟", "黑", "samsung", "cafe", "edition", "幻彩渐变", "不存在", "xyz");
+        for (String key : keys) {
+            List<Long> candidates = index.search(key);
+            List<Long> expected = like(key);
+            if (candidates == null) {
+                // the index gave up, LIKE alone decides
+                continue;
+            }
+            assertTrue(candidates.containsAll(expected), key + ": " + candidates + " misses " + expected);
+        }
+        assertEquals(Arrays.asList(2L, 3L), index.search("手机"));
+        assertEquals(Collections.singletonList(2L), index.search("iphone"));
+        assertEquals(Collections.singletonList(4L), index.search("samsung"));
+        assertEquals(Collections.singletonList(4L), index.search("cafe"));
+        assertEquals(Collections.emptyList(), index.search("不存在"));
+    }
+
+    @Test
+    void shortOrUnbuiltQueriesFallBack() {
+        assertNull(index.search("手机"), "not built yet");
+        index.build();
+        assertNull(index.search("gb"), "latin keyword shorter than a trigram");
+        assertNull(index.search("  "));
+        assertNotNull(index.search("黑"), "a single CJK character is a unigram");
+    }
+
+    @Test
+    void followsUpdatesAndDeletes() {
+        index.build();
+        table.get(2L).setTitle("Apple iPad Pro 11");
+        table.get(2L).setSubTitle("平板电脑");
+        index.reindex(2L);
+        add(6L, "Apple iPhone 11", "双卡双待手机");
+        index.reindex(6L);
+        table.remove(3L);
+        index.remove(3L);
+
+        assertEquals(Collections.singletonList(6L), index.search("iphone"));
+        assertEquals(Collections.singletonList(2L), index.search("ipad"));
+        assertEquals(Collections.singletonList(6L), index.search("手机"));
+    }
+
+    @Test
+    void changesDuringBuildAreAppliedAfterwards() {
+        index.reindex(1L);
+        table.get(1L).setTitle("华为 P30");
+        index.build();
+        assertEquals(Collections.emptyList(), index.search("mate"));
+        assertEquals(Collections.singletonList(1L), index.search("p30"));
+    }
+
+    @Test
+    void postingListsRoundTrip() {
+        long[] ids = {3, 17, 18, 300, 70000, 27359021728L};
+        byte[] encoded = PostingList.encode(ids, ids.length);
+        assertArrayEquals(ids, PostingList.decode(encoded));
+        assertEquals(6, PostingList.count(encoded));
+        assertArrayEquals(new long[]{3, 17, 18, 19, 300, 70000, 27359021728L}, PostingList.decode(PostingList.add(encoded, 19)));
+        assertArrayEquals(new long[]{3, 18, 300, 70000, 27359021728L}, PostingList.decode(PostingList.remove(encoded, 17)));
+        assertNull(PostingList.add(encoded, 18));
+    }
+
+    private List<Long> like(String key) {
+        String k = NgramTokenizer.normalize(key);
+        return table.values().stream()
+                .filter(s -> NgramTokenizer.normalize(s.getTitle()).contains(k) || NgramTokenizer.normalize(s.getSubTitle()).contains(k))
+                .map(Spu::getId).collect(Collectors.toList());
+    }
+
+    private void add(Long id, String title, String subTitle) {
+        Spu spu = new Spu();
+        spu.setId(id);
+        spu.setTitle(title);
+        spu.setSubTitle(subTitle);
+        table.put(id, spu);
+    }
+}
@@ -0,0 +1,409 @@
+package com.cloud.shopping.item.reservation;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.common.dto.StockShortfall;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.StockReservation;
+import com.cloud.shopping.item.mapper.StockLeaseMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.pojo.StockLease;
+import com.cloud.shopping.item.service.StockBucketService;
+import com.cloud.shopping.item.service.StockCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class StockReservationEngineTest {
+
+    /**
+     * tb_stock per SKU; SKU 4 has no stock row
+     */
+    private final Map<Long, Integer> stock = new ConcurrentHashMap<>();
+    /**
+     * tb_stock_lease per SKU
+     */
+    private final Map<Long, StockLease> leases = new ConcurrentHashMap<>();
+    private StockMapper stockMapper;
+    private StockLeaseMapper leaseMapper;
+    private StockCache stockCache;
+    private SkuOwnership ownership;
+    private StockReservationEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        stock.put(1L, 10);
+        stock.put(2L, 2);
+        stock.put(3L, 1000);
+
+        stockMapper = mock(StockMapper.class);
+        stockCache = mock(StockCache.class);
+        when(stockMapper.selectStocks(anyCollection())).thenAnswer(inv -> rows(inv.getArgument(0)));
+        when(stockMapper.selectForUpdateBatch(anyCollection())).thenAnswer(inv -> rows(inv.getArgument(0)));
+        when(stockMapper.decreaseStockBatch(anyList())).thenAnswer(inv -> {
+            List<CartDTO> carts = inv.getArgument(0);
+            int decreased = 0;
+            for (CartDTO c : carts) {
+                Integer s = stock.get(c.getSkuId());
+                if (s != null && s >= c.getNum()) {
+                    stock.put(c.getSkuId(), s - c.getNum());
+                    decreased++;
+                }
+            }
+            return decreased;
+        });
+        mockLeases();
+
+        ownership = new SkuOwnership();
+        ReflectionTestUtils.setField(ownership, "selfId", "item-service:8085");
+        ownership.update(Collections.emptyList(), 0);
+
+        engine = new StockReservationEngine();
+        ReflectionTestUtils.setField(engine, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(engine, "leaseMapper", leaseMapper);
+        ReflectionTestUtils.setField(engine, "stockCache", stockCache);
+        ReflectionTestUtils.setField(engine, "ownership", ownership);
+        ReflectionTestUtils.setField(engine, "stockBucketService", mock(StockBucketService.class));
+        engine.init();
+    }
+
+    @Test
+    void writesOnlyConfirmedUnits() {
+        StockReservation kept = engine.reserve(Arrays.asList(new CartDTO(1L, 2), new CartDTO(1L, 1)), null);
+        StockReservation dropped = engine.reserve(Collections.singletonList(new CartDTO(1L, 4)), null);
+        assertEquals(Collections.singletonList(new CartDTO(1L, 3)), kept.getLines());
+        assertEquals(3, engine.available(1L));
+        verify(stockMapper, never()).decreaseStockBatch(anyList());
+
+        engine.confirm(kept.getId());
+        engine.release(dropped.getId());
+
+        verify(stockMapper, times(1)).decreaseStockBatch(Collections.singletonList(new CartDTO(1L, 3)));
+        assertEquals(7, stock.get(1L));
+        assertEquals(7, engine.available(1L));
+        verify(stockCache).written(Collections.singletonMap(1L, 7));
+
+        LyException twice = assertThrows(LyException.class, () -> engine.confirm(kept.getId()));
+        assertEquals(ExceptionEnum.STOCK_RESERVATION_NOT_FOUND, twice.getExceptionEnum());
+    }
+
+    @Test
+    void reservesAllLinesOrNone() {
+        LyException e = assertThrows(LyException.class, () -> engine.reserve(Arrays.asList(
+                new CartDTO(1L, 5), new CartDTO(2L, 3), new CartDTO(4L, 1)), null));
+
+        assertEquals(ExceptionEnum.STOCK_NOT_ENOUGH, e.getExceptionEnum());
+        assertEquals(Arrays.asList(new StockShortfall(2L, 3, 2), new StockShortfall(4L, 1, 0)), e.getDetails());
+        assertEquals(10, engine.available(1L));
+        assertEquals(2, engine.available(2L));
+        // SKU 4 has no row, so its lease is given back at once
+        assertTrue(leases.get(4L).getExpired());
+    }
+
+    @Test
+    void releasesExpiredReservations() throws InterruptedException {
+        StockReservation reservation = engine.reserve(Collections.singletonList(new CartDTO(2L, 2)), 1L);
+        assertEquals(0, engine.available(2L));
+        Thread.sleep(5);
+
+        engine.expire();
+
+        assertEquals(2, engine.available(2L));
+        LyException e = assertThrows(LyException.class, () -> engine.confirm(reservation.getId()));
+        assertEquals(ExceptionEnum.STOCK_RESERVATION_NOT_FOUND, e.getExceptionEnum());
+    }
+
+    @Test
+    void keepsTheReservationWhenTheWriteFails() {
+        StockReservation reservation = engine.reserve(Collections.singletonList(new CartDTO(1L, 2)), null);
+        when(stockMapper.selectForUpdateBatch(anyCollection())).thenThrow(new RuntimeException("db down"));
+
+        LyException e = assertThrows(LyException.class, () -> engine.confirm(reservation.getId()));
+        assertEquals(ExceptionEnum.STOCK_UPDATE_ERROR, e.getExceptionEnum());
+        assertEquals(10, stock.get(1L));
+        assertEquals(8, engine.available(1L));
+        verify(stockCache, never()).written(anyMap());
+
+        doAnswer(inv -> rows(inv.getArgument(0))).when(stockMapper).selectForUpdateBatch(anyCollection());
+        engine.confirm(reservation.getId());
+        assertEquals(8, stock.get(1L));
+        assertEquals(8, engine.available(1L));
+    }
+
+    @Test
+    void refusesConfirmationsTheStockNoLongerCovers() {
+        StockReservation first = engine.reserve(Collections.singletonList(new CartDTO(1L, 5)), null);
+        StockReservation second = engine.reserve(Collections.singletonList(new CartDTO(1L, 3)), null);
+        // an order went through the plain stock path meanwhile
+        stock.put(1L, 4);
+
+        LyException e = assertThrows(LyException.class, () -> engine.confirm(first.getId()));
+        assertEquals(ExceptionEnum.STOCK_NOT_ENOUGH, e.getExceptionEnum());
+        assertEquals(Collections.singletonList(new StockShortfall(1L, 5, 4)), e.getDetails());
+        engine.confirm(second.getId());
+
+        assertEquals(1, stock.get(1L));
+        assertEquals(1, engine.available(1L));
+        assertThrows(LyException.class, () -> engine.release(first.getId()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void picksUpStockWrittenElsewhere() {
+        ArgumentCaptor<Consumer<Set<Long>>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(stockCache).addListener(listener.capture());
+        engine.reserve(Collections.singletonList(new CartDTO(1L, 2)), null);
+
+        stock.put(1L, 4);
+        listener.getValue().accept(new HashSet<>(Arrays.asList(1L, 2L)));
+
+        assertEquals(2, engine.available(1L));
+        assertEquals(-1, engine.available(2L));
+    }
+
+    @Test
+    void aConfirmationDoesNotWriteTheOnesQueuedAfterIt() throws Exception {
+        StockReservation first = engine.reserve(Collections.singletonList(new CartDTO(1L, 1)), null);
+        StockReservation second = engine.reserve(Collections.singletonList(new CartDTO(2L, 1)), null);
+        Queue<?> confirms = (Queue<?>) ReflectionTestUtils.getField(engine, "confirms");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        List<Future<?>> later = new CopyOnWriteArrayList<>();
+        Map<Long, Thread> writers = new ConcurrentHashMap<>();
+        when(stockMapper.decreaseStockBatch(anyList())).thenAnswer(inv -> {
+            List<CartDTO> carts = inv.getArgument(0);
+            carts.forEach(c -> writers.put(c.getSkuId(), Thread.currentThread()));
+            if (later.isEmpty()) {
+                // the second confirmation arrives while the first one is being written
+                later.add(pool.submit(() -> engine.confirm(second.getId())));
+                long deadline = System.currentTimeMillis() + 5000;
+                while (confirms.isEmpty() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            }
+            return carts.size();
+        });
+
+        engine.confirm(first.getId());
+        later.get(0).get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertSame(Thread.currentThread(), writers.get(1L));
+        assertNotSame(Thread.currentThread(), writers.get(2L));
+    }
+
+    @Test
+    void hotSkuNeverOversells() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger granted = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            futures.add(pool.submit(() -> {
+                try {
+                    engine.confirm(engine.reserve(Collections.singletonList(new CartDTO(3L, 1)), null).getId());
+                    granted.incrementAndGet();
+                } catch (LyException e) {
+                    refused.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        assertEquals(1000, granted.get());
+        assertEquals(200, refused.get());
+        assertEquals(0, stock.get(3L));
+    }
+
+    @Test
+    void rejectsSkusOwnedByOtherInstances() {
+        ownership.update(Arrays.asList("item-service:8085", "item-service:8086"), 0);
+        long foreign = firstSkuOwnedBy("item-service:8086");
+
+        LyException e = assertThrows(LyException.class,
+                () -> engine.reserve(Collections.singletonList(new CartDTO(foreign, 1)), null));
+
+        assertEquals(ExceptionEnum.SKU_NOT_OWNED, e.getExceptionEnum());
+        assertEquals(Collections.singletonMap(foreign, "item-service:8086"), e.getDetails());
+        verifyNoInteractions(stockMapper, leaseMapper);
+    }
+
+    @Test
+    void handsOffSkusThatMoveAway() {
+        long sku = firstSkuOwnedBy("item-service:8085");
+        stock.put(sku, 5);
+        StockReservation open = engine.reserve(Collections.singletonList(new CartDTO(sku, 2)), null);
+
+        // a new instance wins the SKU: no new reservations, the open one still settles here
+        ownership.update(Arrays.asList("item-service:8085", winnerAgainst(sku)), 0);
+        LyException e = assertThrows(LyException.class,
+                () -> engine.reserve(Collections.singletonList(new CartDTO(sku, 1)), null));
+        assertEquals(ExceptionEnum.SKU_NOT_OWNED, e.getExceptionEnum());
+        assertFalse(leases.get(sku).getExpired());
+
+        engine.confirm(open.getId());
+
+        verify(stockMapper).decreaseStockBatch(Collections.singletonList(new CartDTO(sku, 2)));
+        assertEquals(3, stock.get(sku));
+        assertEquals(-1, engine.available(sku));
+        // settled, so the new owner may take it over right away
+        assertTrue(leases.get(sku).getExpired());
+    }
+
+    @Test
+    void waitsForTheLeaseOfThePreviousOwner() {
+        long sku = firstSkuOwnedBy("item-service:8085");
+        stock.put(sku, 5);
+        leases.put(sku, new StockLease(sku, "item-service:8086/previous", 3L, false));
+
+        LyException e = assertThrows(LyException.class,
+                () -> engine.reserve(Collections.singletonList(new CartDTO(sku, 1)), null));
+        assertEquals(ExceptionEnum.STOCK_OWNERSHIP_MOVING, e.getExceptionEnum());
+        assertEquals(-1, engine.available(sku));
+
+        // released, or run out because the previous owner died
+        leases.get(sku).setExpired(true);
+        engine.reserve(Collections.singletonList(new CartDTO(sku, 1)), null);
+        assertEquals(4, engine.available(sku));
+        assertEquals(engine.getLeaseOwner(), leases.get(sku).getOwner());
+        assertEquals(4L, leases.get(sku).getEpoch());
+    }
+
+    @Test
+    void writesNothingAfterLosingTheLease() {
+        StockReservation open = engine.reserve(Collections.singletonList(new CartDTO(1L, 2)), null);
+        // the lease ran out while this instance stalled and another one took the SKU over
+        leases.put(1L, new StockLease(1L, "item-service:8086/next", leases.get(1L).getEpoch() + 1, false));
+
+        engine.renew();
+        LyException moving = assertThrows(LyException.class,
+                () -> engine.reserve(Collections.singletonList(new CartDTO(1L, 1)), null));
+        assertEquals(ExceptionEnum.STOCK_OWNERSHIP_MOVING, moving.getExceptionEnum());
+
+        LyException e = assertThrows(LyException.class, () -> engine.confirm(open.getId()));
+        assertEquals(ExceptionEnum.STOCK_OWNERSHIP_MOVING, e.getExceptionEnum());
+        verify(stockMapper, never()).decreaseStockBatch(anyList());
+        assertEquals(10, stock.get(1L));
+        assertEquals("item-service:8086/next", leases.get(1L).getOwner());
+    }
+
+    @Test
+    void renewsTheLeasesOfLoadedSkus() {
+        engine.reserve(Collections.singletonList(new CartDTO(1L, 1)), null);
+
+        engine.renew();
+
+        verify(leaseMapper).renewLeases(eq(engine.getLeaseOwner()), eq(Collections.singletonList(1L)), anyLong());
+        assertEquals(9, engine.available(1L));
+        engine.shutdown();
+        assertTrue(leases.get(1L).getExpired());
+    }
+
+    @Test
+    void rendezvousMovesOnlyTheSkusOfTheNewInstance() {
+        List<String> two = Arrays.asList("item-service:8085", "item-service:8086");
+        ownership.update(two, 0);
+        Map<Long, String> before = new HashMap<>();
+        for (long sku = 1; sku <= 10000; sku++) {
+            before.put(sku, ownership.owner(sku));
+        }
+        long first = before.values().stream().filter("item-service:8085"::equals).count();
+        assertTrue(first > 4500 && first < 5500, "uneven split: " + first);
+
+        ownership.update(Arrays.asList("item-service:8085", "item-service:8086", "item-service:8087"), 0);
+        int moved = 0;
+        for (long sku = 1; sku <= 10000; sku++) {
+            String owner = ownership.owner(sku);
+            if (!owner.equals(before.get(sku))) {
+                assertEquals("item-service:8087", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 2800 && moved < 3900, "moved: " + moved);
+    }
+
+    private void mockLeases() {
+        leaseMapper = mock(StockLeaseMapper.class);
+        when(leaseMapper.selectForUpdate(anyCollection())).thenAnswer(inv -> {
+            Collection<Long> ids = inv.getArgument(0);
+            return ids.stream().filter(leases::containsKey).sorted().map(id -> copy(leases.get(id))).collect(Collectors.toList());
+        });
+        when(leaseMapper.upsertLeases(anyList(), anyLong())).thenAnswer(inv -> {
+            List<StockLease> next = inv.getArgument(0);
+            next.forEach(l -> leases.put(l.getSkuId(), new StockLease(l.getSkuId(), l.getOwner(), l.getEpoch(), false)));
+            return next.size();
+        });
+        when(leaseMapper.selectHeld(anyString(), anyCollection())).thenAnswer(inv -> {
+            String owner = inv.getArgument(0);
+            Collection<Long> ids = inv.getArgument(1);
+            return ids.stream().map(leases::get)
+                    .filter(l -> l != null && owner.equals(l.getOwner()) && !l.getExpired())
+                    .map(StockReservationEngineTest::copy).collect(Collectors.toList());
+        });
+        when(leaseMapper.releaseLeases(anyCollection())).thenAnswer(inv -> {
+            Collection<StockLease> released = inv.getArgument(0);
+            int count = 0;
+            for (StockLease l : released) {
+                StockLease current = leases.get(l.getSkuId());
+                if (current != null && current.getOwner().equals(l.getOwner()) && current.getEpoch().equals(l.getEpoch())) {
+                    current.setExpired(true);
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    private List<Stock> rows(Collection<Long> ids) {
+        return ids.stream().filter(stock::containsKey).sorted().map(id -> {
+            Stock s = new Stock();
+            s.setSkuId(id);
+            s.setStock(stock.get(id));
+            return s;
+        }).collect(Collectors.toList());
+    }
+
+    private static StockLease copy(StockLease lease) {
+        return new StockLease(lease.getSkuId(), lease.getOwner(), lease.getEpoch(), lease.getExpired());
+    }
+
+    private long firstSkuOwnedBy(String instance) {
+        SkuOwnership probe = new SkuOwnership();
+        ReflectionTestUtils.setField(probe, "selfId", "item-service:8085");
+        probe.update(Arrays.asList("item-service:8085", "item-service:8086"), 0);
+        for (long sku = 100; ; sku++) {
+            if (probe.owner(sku).equals(instance)) {
+                return sku;
+            }
+        }
+    }
+
+    /**
+     * @return An instance id that wins the SKU against this instance
+     */
+    private static String winnerAgainst(long sku) {
+        for (int port = 9000; ; port++) {
+            SkuOwnership probe = new SkuOwnership();
+            ReflectionTestUtils.setField(probe, "selfId", "item-service:8085");
+            String candidate = "item-service:" + port;
+            probe.update(Collections.singletonList(candidate), 0);
+            if (candidate.equals(probe.owner(sku))) {
+                return candidate;
+            }
+        }
+    }
+}
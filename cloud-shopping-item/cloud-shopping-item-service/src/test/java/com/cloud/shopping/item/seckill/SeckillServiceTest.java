@@ -0,0 +1,298 @@
+package com.cloud.shopping.item.seckill;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.SeckillOrder;
+import com.cloud.shopping.item.mapper.SeckillOrderMapper;
+import com.cloud.shopping.item.mapper.SeckillSessionMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.SeckillSession;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.reservation.SkuOwnership;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+import tk.mybatis.mapper.entity.Config;
+import tk.mybatis.mapper.mapperhelper.EntityHelper;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class SeckillServiceTest {
+
+    private static final long SKU = 7L;
+
+    private final List<SeckillOrder> sent = new CopyOnWriteArrayList<>();
+    private SeckillSessionMapper sessionMapper;
+    private StockMapper stockMapper;
+    private SeckillOrderMapper orderMapper;
+    private RabbitTemplate rabbitTemplate;
+    private ExecutorService dispatcher;
+    private SeckillService seckillService;
+
+    @BeforeEach
+    void setUp() {
+        EntityHelper.initEntityNameMap(SeckillSession.class, new Config());
+
+        sessionMapper = mock(SeckillSessionMapper.class);
+        stockMapper = mock(StockMapper.class);
+        Stock stock = new Stock();
+        stock.setSkuId(SKU);
+        stock.setSeckillStock(5);
+        when(stockMapper.selectByIdList(anyList())).thenReturn(Collections.singletonList(stock));
+        orderMapper = mock(SeckillOrderMapper.class);
+        rabbitTemplate = mock(RabbitTemplate.class);
+        doAnswer(ack()).when(rabbitTemplate).convertAndSend(eq(SeckillService.ORDER_KEY), any(Object.class),
+                any(MessagePostProcessor.class), any(CorrelationData.class));
+
+        SkuOwnership ownership = mock(SkuOwnership.class);
+        when(ownership.owns(anyLong())).thenReturn(true);
+
+        dispatcher = Executors.newSingleThreadExecutor();
+        seckillService = new SeckillService();
+        ReflectionTestUtils.setField(seckillService, "sessionMapper", sessionMapper);
+        ReflectionTestUtils.setField(seckillService, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(seckillService, "ownership", ownership);
+        ReflectionTestUtils.setField(seckillService, "orderMapper", orderMapper);
+        ReflectionTestUtils.setField(seckillService, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(seckillService, "dispatchExecutor", dispatcher);
+        ReflectionTestUtils.setField(seckillService, "retryInterval", 10L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        seckillService.shutdown();
+        dispatcher.shutdownNow();
+    }
+
+    @Test
+    void admitsExactlyTheUnitsOnSale() throws Exception {
+        seckillService.init();
+        loadSession(-1000, 60000);
+
+        ExecutorService users = Executors.newFixedThreadPool(8);
+        AtomicInteger soldOut = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (long user = 1; user <= 500; user++) {
+            long userId = user;
+            futures.add(users.submit(() -> {
+                try {
+                    seckillService.admit(SKU, userId);
+                } catch (LyException e) {
+                    assertEquals(ExceptionEnum.SECKILL_SOLD_OUT, e.getExceptionEnum());
+                    soldOut.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        users.shutdown();
+
+        assertEquals(495, soldOut.get());
+        assertEquals(0, seckillService.queryRemaining(SKU));
+        awaitSent(5);
+        assertEquals(5, new HashSet<>(tokens()).size());
+        verify(orderMapper, times(5)).insert(any());
+        tokens().forEach(token -> verify(orderMapper).deleteByToken(token));
+        verify(stockMapper, never()).decreaseSeckillStockBatch(anyList());
+
+        seckillService.reconcile();
+        verify(stockMapper).decreaseSeckillStockBatch(Collections.singletonList(new CartDTO(SKU, 5)));
+    }
+
+    @Test
+    void rejectsRepeatsAndRequestsOutsideTheWindow() {
+        seckillService.init();
+        loadSession(-1000, 60000);
+        SeckillOrder order = seckillService.admit(SKU, 1L);
+        assertEquals(SKU, order.getSkuId());
+        assertEquals(ExceptionEnum.SECKILL_REPEATED, assertThrows(LyException.class,
+                () -> seckillService.admit(SKU, 1L)).getExceptionEnum());
+        assertEquals(ExceptionEnum.SECKILL_NOT_FOUND, assertThrows(LyException.class,
+                () -> seckillService.admit(8L, 1L)).getExceptionEnum());
+    }
+
+    @Test
+    void rejectsBeforeTheStart() {
+        seckillService.init();
+        loadSession(30000, 60000);
+        assertEquals(ExceptionEnum.SECKILL_NOT_STARTED, assertThrows(LyException.class,
+                () -> seckillService.admit(SKU, 1L)).getExceptionEnum());
+        assertEquals(5, seckillService.queryRemaining(SKU));
+    }
+
+    @Test
+    void keepsWinsThatDoNotFitTheQueue() {
+        // no dispatcher, so the queue fills up
+        ReflectionTestUtils.setField(seckillService, "dispatchExecutor", (Executor) r -> { });
+        ReflectionTestUtils.setField(seckillService, "queueCapacity", 2);
+        seckillService.init();
+        loadSession(-1000, 60000);
+
+        seckillService.admit(SKU, 1L);
+        seckillService.admit(SKU, 2L);
+        SeckillOrder third = seckillService.admit(SKU, 3L);
+
+        // saved, so the redelivery sends it
+        verify(orderMapper).insert(third);
+        assertEquals(2, seckillService.queryRemaining(SKU));
+        seckillService.reconcile();
+        verify(stockMapper).decreaseSeckillStockBatch(Collections.singletonList(new CartDTO(SKU, 3)));
+    }
+
+    @Test
+    void givesBackWinsThatCannotBeSaved() {
+        when(orderMapper.insert(any())).thenThrow(new QueryTimeoutException("database down"));
+        seckillService.init();
+        loadSession(-1000, 60000);
+
+        assertEquals(ExceptionEnum.SECKILL_BUSY, assertThrows(LyException.class,
+                () -> seckillService.admit(SKU, 1L)).getExceptionEnum());
+        assertEquals(5, seckillService.queryRemaining(SKU));
+        verify(rabbitTemplate, never()).convertAndSend(anyString(), any(Object.class), any(MessagePostProcessor.class), any(CorrelationData.class));
+    }
+
+    @Test
+    void retriesOrdersUntilTheBrokerConfirmsThem() throws Exception {
+        doThrow(new AmqpException("broker down"))
+                .doAnswer(inv -> {
+                    CorrelationData correlation = inv.getArgument(3);
+                    correlation.getFuture().complete(new CorrelationData.Confirm(false, "nack"));
+                    return null;
+                })
+                .doAnswer(inv -> {
+                    // no queue bound to seckill.order
+                    CorrelationData correlation = inv.getArgument(3);
+                    correlation.setReturned(new ReturnedMessage(new Message(new byte[0], new MessageProperties()),
+                            312, "NO_ROUTE", "ly.item.exchange", SeckillService.ORDER_KEY));
+                    correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+                    return null;
+                })
+                .doAnswer(ack())
+                .when(rabbitTemplate).convertAndSend(eq(SeckillService.ORDER_KEY), any(Object.class),
+                        any(MessagePostProcessor.class), any(CorrelationData.class));
+        seckillService.init();
+        loadSession(-1000, 60000);
+
+        SeckillOrder order = seckillService.admit(SKU, 1L);
+
+        awaitSent(1);
+        assertEquals(order.getToken(), sent.get(0).getToken());
+        verify(rabbitTemplate, times(4)).convertAndSend(eq(SeckillService.ORDER_KEY), any(Object.class),
+                any(MessagePostProcessor.class), any(CorrelationData.class));
+        verify(orderMapper, timeout(1000)).deleteByToken(order.getToken());
+    }
+
+    @Test
+    void redeliversSavedWinsUntilTheBrokerFails() {
+        SeckillOrder first = new SeckillOrder("a", 1L, SKU, 1L, 1L);
+        SeckillOrder second = new SeckillOrder("b", 1L, SKU, 2L, 2L);
+        SeckillOrder third = new SeckillOrder("c", 1L, SKU, 3L, 3L);
+        when(orderMapper.selectAdmittedBefore(anyLong(), anyInt())).thenReturn(Arrays.asList(first, second, third));
+        doAnswer(ack()).doThrow(new AmqpException("broker down")).when(rabbitTemplate).convertAndSend(
+                eq(SeckillService.ORDER_KEY), any(Object.class), any(MessagePostProcessor.class), any(CorrelationData.class));
+
+        seckillService.redeliver();
+
+        assertEquals(Collections.singletonList(first), sent);
+        verify(orderMapper).deleteByToken("a");
+        verify(orderMapper, never()).deleteByToken("b");
+        verify(rabbitTemplate, times(2)).convertAndSend(eq(SeckillService.ORDER_KEY), any(Object.class),
+                any(MessagePostProcessor.class), any(CorrelationData.class));
+    }
+
+    @Test
+    void reconcilesAndDropsEndedSessions() throws Exception {
+        seckillService.init();
+        loadSession(-1000, 50);
+        seckillService.admit(SKU, 1L);
+        Thread.sleep(60);
+        when(sessionMapper.selectByExample(any())).thenReturn(Collections.emptyList());
+
+        seckillService.refresh();
+        assertEquals(ExceptionEnum.SECKILL_NOT_FOUND, assertThrows(LyException.class,
+                () -> seckillService.admit(SKU, 2L)).getExceptionEnum());
+        verify(stockMapper).decreaseSeckillStockBatch(Collections.singletonList(new CartDTO(SKU, 1)));
+
+        seckillService.reconcile();
+        assertNull(seckillService.queryRemaining(SKU));
+        verify(stockMapper, times(1)).decreaseSeckillStockBatch(anyList());
+    }
+
+    @Test
+    void validatesNewSessions() {
+        SeckillSession session = session(-2000, -1000);
+        assertEquals(ExceptionEnum.INVALID_SECKILL_SESSION, assertThrows(LyException.class,
+                () -> seckillService.createSession(session)).getExceptionEnum());
+
+        Stock empty = new Stock();
+        empty.setSkuId(SKU);
+        empty.setSeckillStock(0);
+        when(stockMapper.selectByPrimaryKey(SKU)).thenReturn(empty);
+        assertEquals(ExceptionEnum.INVALID_SECKILL_SESSION, assertThrows(LyException.class,
+                () -> seckillService.createSession(session(1000, 2000))).getExceptionEnum());
+        verify(sessionMapper, never()).insert(any());
+    }
+
+    /**
+     * The broker takes the order and acks it
+     */
+    private Answer<Void> ack() {
+        return inv -> {
+            sent.add(inv.getArgument(1));
+            CorrelationData correlation = inv.getArgument(3);
+            correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+            return null;
+        };
+    }
+
+    private void loadSession(long startOffset, long endOffset) {
+        when(sessionMapper.selectByExample(any())).thenReturn(Collections.singletonList(session(startOffset, endOffset)));
+        seckillService.refresh();
+    }
+
+    private static SeckillSession session(long startOffset, long endOffset) {
+        long now = System.currentTimeMillis();
+        SeckillSession session = new SeckillSession();
+        session.setId(1L);
+        session.setSkuId(SKU);
+        session.setStartTime(new Date(now + startOffset));
+        session.setEndTime(new Date(now + endOffset));
+        return session;
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && sent.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, sent.size());
+    }
+
+    private List<String> tokens() {
+        List<String> tokens = new ArrayList<>();
+        sent.forEach(o -> tokens.add(o.getToken()));
+        return tokens;
+    }
+}
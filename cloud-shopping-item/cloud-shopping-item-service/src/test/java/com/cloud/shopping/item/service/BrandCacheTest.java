@@ -0,0 +1,103 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.listener.BrandListener;
+import com.cloud.shopping.item.mapper.BrandMapper;
+import com.cloud.shopping.item.mapper.CategoryMapper;
+import com.cloud.shopping.item.pojo.Brand;
+import com.cloud.shopping.item.pojo.Category;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.test.util.ReflectionTestUtils;
+import tk.mybatis.mapper.entity.Config;
+import tk.mybatis.mapper.mapperhelper.EntityHelper;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class BrandCacheTest {
+
+    private BrandMapper brandMapper;
+    private AmqpTemplate amqpTemplate;
+    private BrandService brandService;
+
+    @BeforeEach
+    void setUp() {
+        brandMapper = mock(BrandMapper.class);
+        amqpTemplate = mock(AmqpTemplate.class);
+        when(brandMapper.queryByCategoryId(anyLong())).thenAnswer(inv -> new ArrayList<>(Arrays.asList(brand(1L), brand(2L))));
+
+        brandService = new BrandService();
+        ReflectionTestUtils.setField(brandService, "brandMapper", brandMapper);
+        ReflectionTestUtils.setField(brandService, "amqpTemplate", amqpTemplate);
+        brandService.init();
+    }
+
+    @Test
+    void broadcastsTheBrandAndItsCategories() {
+        Brand brand = brand(1L);
+        brandService.updateBrand(brand, Arrays.asList(76L, 77L));
+
+        ArgumentCaptor<MessagePostProcessor> headers = ArgumentCaptor.forClass(MessagePostProcessor.class);
+        verify(amqpTemplate).convertAndSend(eq(BrandService.BRAND_UPDATE_KEY), eq(1L), headers.capture());
+        Message message = headers.getValue().postProcessMessage(new Message(new byte[0], new MessageProperties()));
+        assertEquals("76,77", message.getMessageProperties().getHeader(BrandService.CATEGORY_IDS_HEADER));
+    }
+
+    @Test
+    void anotherInstanceDropsTheChangedEntries() {
+        brandService.queryBrandByCid(76L);
+        brandService.queryBrandByCid(80L);
+        BrandListener listener = new BrandListener();
+        ReflectionTestUtils.setField(listener, "brandService", brandService);
+
+        // a change in category 76 only
+        listener.onBrandUpdate(0L, "76");
+        brandService.queryBrandByCid(76L);
+        brandService.queryBrandByCid(80L);
+        verify(brandMapper, times(2)).queryByCategoryId(76L);
+        verify(brandMapper, times(1)).queryByCategoryId(80L);
+
+        // brand 2 changed, every list holding it goes
+        listener.onBrandUpdate(2L, null);
+        brandService.queryBrandByCid(80L);
+        verify(brandMapper, times(2)).queryByCategoryId(80L);
+    }
+
+    @Test
+    void deletingACategoryDropsItsBrandList() {
+        EntityHelper.initEntityNameMap(Category.class, new Config());
+        brandService.queryBrandByCid(76L);
+        CategoryMapper categoryMapper = mock(CategoryMapper.class);
+        Category category = new Category();
+        category.setId(76L);
+        category.setParentId(75L);
+        category.setIsParent(false);
+        when(categoryMapper.selectByPrimaryKey(76L)).thenReturn(category);
+        when(categoryMapper.selectByExample(any())).thenReturn(Arrays.asList(category, new Category()));
+        CategoryService categoryService = new CategoryService();
+        ReflectionTestUtils.setField(categoryService, "categoryMapper", categoryMapper);
+        ReflectionTestUtils.setField(categoryService, "amqpTemplate", amqpTemplate);
+        ReflectionTestUtils.setField(categoryService, "brandService", brandService);
+
+        categoryService.deleteCategory(76L);
+
+        brandService.queryBrandByCid(76L);
+        verify(brandMapper, times(2)).queryByCategoryId(76L);
+        verify(amqpTemplate).convertAndSend(eq(BrandService.BRAND_UPDATE_KEY), eq(0L), any(MessagePostProcessor.class));
+    }
+
+    private static Brand brand(Long id) {
+        Brand brand = new Brand();
+        brand.setId(id);
+        brand.setName("brand-" + id);
+        return brand;
+    }
+}
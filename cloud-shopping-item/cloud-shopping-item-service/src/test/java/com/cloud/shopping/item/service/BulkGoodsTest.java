@@ -0,0 +1,148 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.index.SpecFacetIndex;
+import com.cloud.shopping.item.index.SpuTitleIndex;
+import com.cloud.shopping.item.mapper.SkuMapper;
+import com.cloud.shopping.item.mapper.SpuDetailMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Sku;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.pojo.SpuDetail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import tk.mybatis.mapper.entity.Config;
+import tk.mybatis.mapper.entity.Example;
+import tk.mybatis.mapper.mapperhelper.EntityHelper;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+public class BulkGoodsTest {
+
+    private SpuMapper spuMapper;
+    private SpuDetailMapper detailMapper;
+    private SkuMapper skuMapper;
+    private StockMapper stockMapper;
+    private StockCache stockCache;
+    private ItemEventPublisher eventPublisher;
+    private GoodsService goodsService;
+
+    @BeforeEach
+    void setUp() {
+        // Example needs the entity metadata that the mapper scanner registers at runtime
+        Config config = new Config();
+        EntityHelper.initEntityNameMap(Spu.class, config);
+        EntityHelper.initEntityNameMap(Sku.class, config);
+        EntityHelper.initEntityNameMap(SpuDetail.class, config);
+
+        spuMapper = mock(SpuMapper.class);
+        detailMapper = mock(SpuDetailMapper.class);
+        skuMapper = mock(SkuMapper.class);
+        stockMapper = mock(StockMapper.class);
+        stockCache = mock(StockCache.class);
+        eventPublisher = mock(ItemEventPublisher.class);
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(goodsService, "detailMapper", detailMapper);
+        ReflectionTestUtils.setField(goodsService, "skuMapper", skuMapper);
+        ReflectionTestUtils.setField(goodsService, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(goodsService, "stockCache", stockCache);
+        ReflectionTestUtils.setField(goodsService, "stockBucketService", mock(StockBucketService.class));
+        ReflectionTestUtils.setField(goodsService, "titleIndex", mock(SpuTitleIndex.class));
+        ReflectionTestUtils.setField(goodsService, "facetIndex", mock(SpecFacetIndex.class));
+        ReflectionTestUtils.setField(goodsService, "eventPublisher", eventPublisher);
+    }
+
+    @Test
+    void deleteRunsTheSameStatementsForAnySelection() {
+        for (int size : new int[]{1, 500}) {
+            clearInvocations(spuMapper, detailMapper, skuMapper, stockMapper, stockCache, eventPublisher);
+            List<Long> ids = ids(size);
+            when(skuMapper.selectByExample(any())).thenReturn(skus(ids));
+
+            goodsService.deleteGoodsBatch(ids);
+
+            // one select and four deletes, whatever the size
+            assertEquals(5, statements());
+            verify(stockMapper).deleteBySpuIds(ids);
+            verify(skuMapper).deleteByExample(any());
+            verify(detailMapper).deleteByExample(any());
+            verify(spuMapper).deleteByExample(any());
+            verify(stockCache).written(argThat(m -> m.size() == size && m.values().stream().allMatch(Objects::isNull)));
+            verify(eventPublisher).publishDeletes(ids);
+        }
+    }
+
+    @Test
+    void deleteIgnoresDuplicatesAndEmptySelections() {
+        when(skuMapper.selectByExample(any())).thenReturn(Collections.emptyList());
+        goodsService.deleteGoodsBatch(Collections.emptyList());
+        assertEquals(0, statements());
+
+        goodsService.deleteGoodsBatch(Arrays.asList(3L, 3L, null, 4L));
+        verify(stockMapper).deleteBySpuIds(Arrays.asList(3L, 4L));
+    }
+
+    @Test
+    void saleableUpdatesSpusAndSkusWithTwoStatements() {
+        List<Long> ids = ids(300);
+
+        goodsService.updateSaleable(ids, false);
+
+        assertEquals(2, statements());
+        ArgumentCaptor<Spu> spu = ArgumentCaptor.forClass(Spu.class);
+        ArgumentCaptor<Example> spuExample = ArgumentCaptor.forClass(Example.class);
+        verify(spuMapper).updateByExampleSelective(spu.capture(), spuExample.capture());
+        assertFalse(spu.getValue().getSaleable());
+        assertNull(spu.getValue().getTitle());
+        ArgumentCaptor<Sku> sku = ArgumentCaptor.forClass(Sku.class);
+        verify(skuMapper).updateByExampleSelective(sku.capture(), any());
+        assertFalse(sku.getValue().getEnable());
+        verify(eventPublisher).publishUpdates(ids);
+        verify(stockCache, never()).written(anyMap());
+    }
+
+    @Test
+    void soldOutTogglesThroughTheBulkPath() {
+        Spu onShelf = new Spu();
+        onShelf.setId(9L);
+        onShelf.setSaleable(true);
+        when(spuMapper.selectByPrimaryKey(9L)).thenReturn(onShelf);
+
+        goodsService.goodsSoldOut(9L);
+
+        ArgumentCaptor<Sku> sku = ArgumentCaptor.forClass(Sku.class);
+        verify(skuMapper).updateByExampleSelective(sku.capture(), any());
+        assertFalse(sku.getValue().getEnable());
+        verify(skuMapper, never()).updateByPrimaryKeySelective(any());
+    }
+
+    private int statements() {
+        return mockingDetails(spuMapper).getInvocations().size()
+                + mockingDetails(detailMapper).getInvocations().size()
+                + mockingDetails(skuMapper).getInvocations().size()
+                + mockingDetails(stockMapper).getInvocations().size();
+    }
+
+    private static List<Long> ids(int size) {
+        return LongStream.rangeClosed(1, size).boxed().collect(Collectors.toList());
+    }
+
+    private static List<Sku> skus(List<Long> spuIds) {
+        return spuIds.stream().map(spuId -> {
+            Sku sku = new Sku();
+            sku.setId(spuId * 10);
+            return sku;
+        }).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,137 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.listener.CategoryListener;
+import com.cloud.shopping.item.mapper.CategoryMapper;
+import com.cloud.shopping.item.pojo.Category;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class CategorySnapshotTest {
+
+    private final List<Category> table = new ArrayList<>();
+    private CategoryMapper categoryMapper;
+    private AmqpTemplate amqpTemplate;
+    private CategoryService categoryService;
+
+    @BeforeEach
+    void setUp() {
+        // 1 > 2 > {3, 4}, and 8 <-> 9 pointing at each other
+        table.add(category(4L, 2L));
+        table.add(category(3L, 2L));
+        table.add(category(2L, 1L));
+        table.add(category(1L, 0L));
+        table.add(category(8L, 9L));
+        table.add(category(9L, 8L));
+
+        categoryMapper = mock(CategoryMapper.class);
+        amqpTemplate = mock(AmqpTemplate.class);
+        when(categoryMapper.selectAll()).thenAnswer(inv -> new ArrayList<>(table));
+
+        categoryService = new CategoryService();
+        ReflectionTestUtils.setField(categoryService, "categoryMapper", categoryMapper);
+        ReflectionTestUtils.setField(categoryService, "amqpTemplate", amqpTemplate);
+    }
+
+    @Test
+    void answersReadsFromOneTableScan() {
+        assertEquals(Arrays.asList(3L, 4L), ids(categoryService.queryCategoryListByPid(2L)));
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(categoryService.queryAllByCid3(3L)));
+        assertEquals(Arrays.asList(4L, 1L), ids(categoryService.queryByIds(Arrays.asList(4L, 7L, 1L, 4L))));
+        assertTrue(categoryService.findByIds(Collections.singletonList(7L)).isEmpty());
+
+        CategorySnapshot snapshot = categoryService.snapshot();
+        assertEquals(Arrays.asList(9L, 8L), ids(snapshot.path(8L)));
+        assertTrue(snapshot.path(7L).isEmpty());
+        assertTrue(snapshot.children(3L).isEmpty());
+        assertEquals(6, snapshot.size());
+        assertEquals(1, snapshot.getVersion());
+        verify(categoryMapper, times(1)).selectAll();
+    }
+
+    @Test
+    void missingCategoriesAreNotFound() {
+        LyException children = assertThrows(LyException.class, () -> categoryService.queryCategoryListByPid(3L));
+        assertEquals(ExceptionEnum.CATEGORY_NOT_FOUND, children.getExceptionEnum());
+        LyException path = assertThrows(LyException.class, () -> categoryService.queryAllByCid3(7L));
+        assertEquals(ExceptionEnum.CATEGORY_NOT_FOUND, path.getExceptionEnum());
+    }
+
+    @Test
+    void rebuildsASnapshotOlderThanTheMaxAge() {
+        categoryService.snapshot();
+        table.add(category(5L, 2L));
+        assertEquals(Arrays.asList(3L, 4L), ids(categoryService.queryCategoryListByPid(2L)));
+
+        // any age is too old now
+        ReflectionTestUtils.setField(categoryService, "snapshotMaxAge", -1L);
+        assertEquals(Arrays.asList(3L, 4L, 5L), ids(categoryService.queryCategoryListByPid(2L)));
+        verify(categoryMapper, times(2)).selectAll();
+        verifyNoInteractions(amqpTemplate);
+    }
+
+    @Test
+    void aWriteRebuildsAndBroadcasts() {
+        CategorySnapshot before = categoryService.snapshot();
+        Category renamed = category(3L, 2L);
+        renamed.setName("renamed");
+        table.set(1, renamed);
+
+        categoryService.updateCategory(renamed);
+
+        verify(categoryMapper).updateByPrimaryKeySelective(renamed);
+        CategorySnapshot after = categoryService.snapshot();
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertEquals("renamed", after.get(3L).getName());
+        assertEquals("c3", before.get(3L).getName());
+        verify(amqpTemplate).convertAndSend(CategoryService.CATEGORY_UPDATE_KEY, categoryService.getInstanceId());
+    }
+
+    @Test
+    void aLostBroadcastStillRebuildsLocally() {
+        categoryService.snapshot();
+        doThrow(new AmqpException("broker down")).when(amqpTemplate).convertAndSend(anyString(), any(Object.class));
+
+        categoryService.updateCategory(category(3L, 2L));
+
+        assertEquals(2, categoryService.snapshot().getVersion());
+    }
+
+    @Test
+    void otherInstancesRebuildOnTheBroadcast() {
+        CategoryListener listener = new CategoryListener();
+        ReflectionTestUtils.setField(listener, "categoryService", categoryService);
+        categoryService.snapshot();
+
+        // its own broadcast is skipped, the origin rebuilt before sending
+        listener.onCategoryUpdate(categoryService.getInstanceId());
+        assertEquals(1, categoryService.snapshot().getVersion());
+
+        listener.onCategoryUpdate("another-instance");
+        assertEquals(2, categoryService.snapshot().getVersion());
+        verify(categoryMapper, times(2)).selectAll();
+    }
+
+    private static List<Long> ids(List<Category> categories) {
+        return categories.stream().map(Category::getId).collect(Collectors.toList());
+    }
+
+    private static Category category(Long id, Long parentId) {
+        Category category = new Category();
+        category.setId(id);
+        category.setParentId(parentId);
+        category.setName("c" + id);
+        return category;
+    }
+}
@@ -0,0 +1,222 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.dto.CartDTO;
+import com.cloud.shopping.common.dto.StockShortfall;
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.pojo.StockBucket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class DecreaseStockTest {
+
+    /**
+     * Committed stock per SKU; SKU 4 has no stock row
+     */
+    private final Map<Long, Integer> stock = new HashMap<>();
+    private StockMapper stockMapper;
+    private StockCache stockCache;
+    private StockBucketService stockBucketService;
+    private GoodsService goodsService;
+
+    @BeforeEach
+    void setUp() {
+        stock.put(1L, 10);
+        stock.put(2L, 1);
+        stock.put(3L, 5);
+
+        stockMapper = mock(StockMapper.class);
+        stockCache = mock(StockCache.class);
+        stockBucketService = mock(StockBucketService.class);
+        // applies the lines that have enough stock, like the guarded CASE update
+        when(stockMapper.decreaseStockBatch(anyList())).thenAnswer(inv -> {
+            List<CartDTO> lines = inv.getArgument(0);
+            int count = 0;
+            for (CartDTO line : lines) {
+                Integer current = stock.get(line.getSkuId());
+                if (current != null && current >= line.getNum()) {
+                    stock.put(line.getSkuId(), current - line.getNum());
+                    count++;
+                }
+            }
+            return count;
+        });
+        when(stockMapper.selectForUpdateBatch(anyCollection())).thenAnswer(inv -> read(inv.getArgument(0)));
+        when(stockMapper.selectStocks(anyCollection())).thenAnswer(inv -> read(inv.getArgument(0)));
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(goodsService, "stockCache", stockCache);
+        ReflectionTestUtils.setField(goodsService, "stockBucketService", stockBucketService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void mergesAndSortsLinesIntoOneStatement() {
+        goodsService.decreaseStock(Arrays.asList(new CartDTO(3L, 1), new CartDTO(1L, 2), new CartDTO(3L, 2)));
+
+        ArgumentCaptor<List<CartDTO>> lines = cartListCaptor();
+        verify(stockMapper, times(1)).decreaseStockBatch(lines.capture());
+        assertEquals(Arrays.asList(new CartDTO(1L, 2), new CartDTO(3L, 3)), lines.getValue());
+        verify(stockMapper, never()).decreaseStock(any(), any());
+        // the rows locked before the update give the stock after it, nothing is read back
+        verify(stockMapper, never()).selectStocks(anyCollection());
+        verify(stockCache).written(stocks(1L, 8, 3L, 2));
+    }
+
+    @Test
+    void reportsExactlyTheShortSkus() {
+        LyException e = assertThrows(LyException.class, () -> goodsService.decreaseStock(Arrays.asList(
+                new CartDTO(4L, 1), new CartDTO(1L, 10), new CartDTO(2L, 2), new CartDTO(3L, 5))));
+
+        assertEquals(ExceptionEnum.STOCK_NOT_ENOUGH, e.getExceptionEnum());
+        assertEquals(Arrays.asList(new StockShortfall(2L, 2, 1), new StockShortfall(4L, 1, 0)), e.getDetails());
+        // checked on the locked rows of the same transaction, before anything is decreased
+        verify(stockMapper, never()).decreaseStockBatch(anyList());
+        verify(stockCache, never()).written(anyMap());
+    }
+
+    @Test
+    void decreasesBucketedSkusBucketByBucket() {
+        when(stockBucketService.countBuckets(anyCollection())).thenReturn(Collections.singletonMap(3L, 4));
+        when(stockBucketService.decrease(3L, 4, 2)).thenReturn(true);
+
+        goodsService.decreaseStock(Arrays.asList(new CartDTO(3L, 2), new CartDTO(1L, 1)));
+
+        verify(stockMapper).decreaseStockBatch(Collections.singletonList(new CartDTO(1L, 1)));
+        verify(stockBucketService).decrease(3L, 4, 2);
+        verify(stockCache).written(anyMap());
+    }
+
+    @Test
+    void bucketedSkusCommittedOutOfOrderAreNotCachedTooHigh() {
+        // a real cache, transactions simulated by driving the synchronizations by hand
+        StockCache cache = new StockCache();
+        ReflectionTestUtils.setField(cache, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(cache, "ttl", 60000L);
+        cache.init();
+        ReflectionTestUtils.setField(goodsService, "stockCache", cache);
+        when(stockBucketService.countBuckets(anyCollection())).thenReturn(Collections.singletonMap(3L, 4));
+        when(stockBucketService.decrease(eq(3L), eq(4), anyInt())).thenReturn(true);
+
+        // 10 in stock: the first order takes 1 from one bucket, the second 2 from another; each
+        // transaction only sees its own decrement, 9 and 8
+        stock.put(3L, 9);
+        List<TransactionSynchronization> first = begin();
+        goodsService.decreaseStock(Collections.singletonList(new CartDTO(3L, 1)));
+        first = suspend(first);
+        stock.put(3L, 8);
+        List<TransactionSynchronization> second = begin();
+        goodsService.decreaseStock(Collections.singletonList(new CartDTO(3L, 2)));
+        second = suspend(second);
+
+        // both commit, the second one last
+        stock.put(3L, 7);
+        finish(first, TransactionSynchronization.STATUS_COMMITTED);
+        finish(second, TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(Collections.singletonMap(3L, 7), cache.getStocks(Collections.singletonList(3L)));
+    }
+
+    @Test
+    void reportsAShortBucketedSku() {
+        when(stockBucketService.countBuckets(anyCollection())).thenReturn(Collections.singletonMap(3L, 4));
+        when(stockBucketService.lock(3L)).thenReturn(Arrays.asList(
+                new StockBucket(3L, 0, 2), new StockBucket(3L, 1, 1), new StockBucket(3L, 2, 2), new StockBucket(3L, 3, 0)));
+
+        LyException e = assertThrows(LyException.class,
+                () -> goodsService.decreaseStock(Arrays.asList(new CartDTO(1L, 1), new CartDTO(3L, 6))));
+
+        assertEquals(ExceptionEnum.STOCK_NOT_ENOUGH, e.getExceptionEnum());
+        assertEquals(Collections.singletonList(new StockShortfall(3L, 6, 5)), e.getDetails());
+    }
+
+    @Test
+    void reportsShortPlainAndBucketedSkusTogether() {
+        when(stockBucketService.countBuckets(anyCollection())).thenReturn(Collections.singletonMap(3L, 4));
+        when(stockBucketService.lock(3L)).thenReturn(Collections.singletonList(new StockBucket(3L, 0, 5)));
+
+        LyException e = assertThrows(LyException.class, () -> goodsService.decreaseStock(Arrays.asList(
+                new CartDTO(3L, 6), new CartDTO(2L, 2), new CartDTO(1L, 1))));
+
+        assertEquals(Arrays.asList(new StockShortfall(2L, 2, 1), new StockShortfall(3L, 6, 5)), e.getDetails());
+        verify(stockBucketService, never()).decrease(any(), anyInt(), anyInt());
+    }
+
+    @Test
+    void rejectsNonPositiveQuantities() {
+        LyException e = assertThrows(LyException.class,
+                () -> goodsService.decreaseStock(Arrays.asList(new CartDTO(1L, 1), new CartDTO(2L, -1))));
+        assertEquals(ExceptionEnum.INVALID_STOCK_QUANTITY, e.getExceptionEnum());
+        verifyNoInteractions(stockMapper);
+    }
+
+    @Test
+    void emptyCartTouchesNothing() {
+        goodsService.decreaseStock(Collections.emptyList());
+        verifyNoInteractions(stockMapper, stockCache);
+    }
+
+    private static List<TransactionSynchronization> begin() {
+        TransactionSynchronizationManager.initSynchronization();
+        return Collections.emptyList();
+    }
+
+    private static List<TransactionSynchronization> suspend(List<TransactionSynchronization> registered) {
+        List<TransactionSynchronization> list = new ArrayList<>(registered);
+        list.addAll(TransactionSynchronizationManager.getSynchronizations());
+        TransactionSynchronizationManager.clearSynchronization();
+        return list;
+    }
+
+    private static void finish(List<TransactionSynchronization> synchronizations, int status) {
+        synchronizations.forEach(s -> s.afterCompletion(status));
+    }
+
+    private List<Stock> read(Collection<Long> ids) {
+        return ids.stream().filter(stock::containsKey).map(id -> {
+            Stock s = new Stock();
+            s.setSkuId(id);
+            s.setStock(stock.get(id));
+            return s;
+        }).collect(Collectors.toList());
+    }
+
+    private static Map<Long, Integer> stocks(Object... pairs) {
+        Map<Long, Integer> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((Long) pairs[i], (Integer) pairs[i + 1]);
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<CartDTO>> cartListCaptor() {
+        return ArgumentCaptor.forClass(List.class);
+    }
+}
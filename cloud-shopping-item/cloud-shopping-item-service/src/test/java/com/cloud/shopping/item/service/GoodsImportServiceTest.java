@@ -0,0 +1,234 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.importer.ImportJob;
+import com.cloud.shopping.item.pojo.Brand;
+import com.cloud.shopping.item.pojo.Category;
+import com.cloud.shopping.item.pojo.Sku;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.pojo.SpuDetail;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class GoodsImportServiceTest {
+
+    private static final String GENERIC = "{\\\"1\\\":\\\"x\\\"}";
+
+    private final List<List<String>> chunks = new CopyOnWriteArrayList<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+    private GoodsService goodsService;
+    private ThreadPoolTaskExecutor readers;
+    private ThreadPoolTaskExecutor writers;
+    private GoodsImportService importService;
+
+    @BeforeEach
+    void setUp() {
+        CategoryService categoryService = mock(CategoryService.class);
+        when(categoryService.snapshot()).thenReturn(CategorySnapshot.build(1, Arrays.asList(
+                category(1L, 0L, true), category(2L, 1L, true), category(3L, 2L, false))));
+        BrandService brandService = mock(BrandService.class);
+        Brand brand = new Brand();
+        brand.setId(8L);
+        when(brandService.queryBrandByCid(3L)).thenReturn(Collections.singletonList(brand));
+
+        // records the titles of every chunk, rejects any chunk holding a spu titled "bad"
+        goodsService = mock(GoodsService.class);
+        doAnswer(inv -> {
+            int now = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(20);
+                List<Spu> spus = inv.getArgument(0);
+                List<String> titles = new ArrayList<>();
+                spus.forEach(s -> titles.add(s.getTitle()));
+                if (titles.contains("bad")) {
+                    throw new LyException(ExceptionEnum.GOODS_SAVE_ERROR);
+                }
+                chunks.add(titles);
+                return null;
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }).when(goodsService).saveGoodsBatch(anyList());
+
+        readers = executor(1, 0);
+        writers = executor(4, 8);
+        importService = new GoodsImportService();
+        ReflectionTestUtils.setField(importService, "goodsService", goodsService);
+        ReflectionTestUtils.setField(importService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(importService, "brandService", brandService);
+        ReflectionTestUtils.setField(importService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(importService, "readerExecutor", readers);
+        ReflectionTestUtils.setField(importService, "writerExecutor", writers);
+        ReflectionTestUtils.setField(importService, "chunkSize", 2);
+        ReflectionTestUtils.setField(importService, "maxInFlightChunks", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        readers.shutdown();
+        writers.shutdown();
+    }
+
+    @Test
+    void importsNdjsonInChunksAndReportsBadRecords() throws Exception {
+        StringBuilder feed = new StringBuilder();
+        for (int i = 1; i <= 5; i++) {
+            feed.append(spuJson("spu-" + i, 3L, 8L)).append('\n');
+        }
+        feed.append("{not json\n");
+        feed.append('\n');
+        feed.append(spuJson("wrong-category", 2L, 8L)).append('\n');
+        feed.append(spuJson("wrong-brand", 3L, 9L)).append('\n');
+
+        ImportJob job = await(importService.startImport(stream(feed), "application/x-ndjson"));
+
+        assertEquals(ImportJob.Status.COMPLETED, job.getStatus());
+        assertEquals(8, job.getRecordsRead());
+        assertEquals(5, job.getSpusImported());
+        assertEquals(5, job.getSkusImported());
+        assertEquals(3, job.getRecordsFailed());
+        assertEquals(Arrays.asList(6L, 8L, 9L), lines(job));
+        // five valid spus in chunks of two, never more than two chunks in flight
+        assertEquals(3, chunks.size());
+        assertTrue(maxConcurrent.get() <= 2);
+        verify(goodsService, times(3)).saveGoodsBatch(anyList());
+    }
+
+    @Test
+    void retriesAFailedChunkRowByRow() throws Exception {
+        String feed = spuJson("good", 3L, 8L) + "\n" + spuJson("bad", 3L, 8L) + "\n";
+
+        ImportJob job = await(importService.startImport(stream(feed), "application/x-ndjson; charset=UTF-8"));
+
+        assertEquals(1, job.getSpusImported());
+        assertEquals(1, job.getRecordsFailed());
+        assertEquals(Collections.singletonList(2L), lines(job));
+        assertEquals(ExceptionEnum.GOODS_SAVE_ERROR.getMsg(), job.getErrors().get(0).getMessage());
+        assertEquals(Collections.singletonList(Collections.singletonList("good")), chunks);
+    }
+
+    @Test
+    void groupsCsvRowsIntoSpus() throws Exception {
+        String feed = "spu,title,cid3,brandId,genericSpec,specialSpec,skuTitle,price,stock,indexes\r\n"
+                + "A1,Phone,3,8,{},{},\"Phone, black\",1999,10,0_0\r\n"
+                + "A1,,,,,,\"Phone, \"\"white\"\"\",1999,5,0_1\r\n"
+                + "\r\n"
+                + "B2,Case,3,8,{},{},,abc,1,0\r\n"
+                + "C3,\"Multi\nline\",3,8,{},{},,10,1,0\r\n";
+
+        ImportJob job = await(importService.startImport(stream(feed), "text/csv"));
+
+        assertEquals(3, job.getRecordsRead());
+        assertEquals(2, job.getSpusImported());
+        assertEquals(3, job.getSkusImported());
+        assertEquals(Collections.singletonList(5L), lines(job));
+        assertEquals("Invalid price: abc", job.getErrors().get(0).getMessage());
+
+        verify(goodsService).saveGoodsBatch(argThatTitles("Phone", "Multi\nline"));
+    }
+
+    @Test
+    void fillsParentCategoriesAndRejectsMismatches() {
+        Spu spu = spu("x", 3L, 8L);
+        assertNull(importService.validate(spu));
+        assertEquals(1L, spu.getCategoryId1());
+        assertEquals(2L, spu.getCategoryId2());
+
+        Spu mismatched = spu("x", 3L, 8L);
+        mismatched.setCategoryId2(1L);
+        assertNotNull(importService.validate(mismatched));
+    }
+
+    @Test
+    void rejectsUnknownFormatsAndJobs() {
+        LyException format = assertThrows(LyException.class,
+                () -> importService.startImport(stream("x"), "application/xml"));
+        assertEquals(ExceptionEnum.IMPORT_FORMAT_NOT_SUPPORTED, format.getExceptionEnum());
+        LyException job = assertThrows(LyException.class, () -> importService.queryJob("nope"));
+        assertEquals(ExceptionEnum.IMPORT_JOB_NOT_FOUND, job.getExceptionEnum());
+    }
+
+    private List<Spu> argThatTitles(String... titles) {
+        return argThat(spus -> spus != null && spus.size() == titles.length
+                && spus.get(0).getTitle().equals(titles[0]) && spus.get(1).getTitle().equals(titles[1])
+                && spus.get(0).getSkus().size() == 2
+                && "Phone, \"white\"".equals(spus.get(0).getSkus().get(1).getTitle()));
+    }
+
+    private ImportJob await(ImportJob job) throws InterruptedException {
+        for (int i = 0; i < 500 && !job.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished(), "import did not finish");
+        assertSame(job, importService.queryJob(job.getId()));
+        return job;
+    }
+
+    private static List<Long> lines(ImportJob job) {
+        List<Long> lines = new ArrayList<>();
+        job.getErrors().forEach(e -> lines.add(e.getLine()));
+        return lines;
+    }
+
+    private static String spuJson(String title, Long cid3, Long brandId) {
+        return "{\"title\":\"" + title + "\",\"categoryId3\":" + cid3 + ",\"brandId\":" + brandId
+                + ",\"spuDetail\":{\"genericSpec\":\"" + GENERIC + "\",\"specialSpec\":\"{}\"}"
+                + ",\"skus\":[{\"title\":\"" + title + "\",\"price\":100,\"stock\":3}]}";
+    }
+
+    private static Spu spu(String title, Long cid3, Long brandId) {
+        Spu spu = new Spu();
+        spu.setTitle(title);
+        spu.setCategoryId3(cid3);
+        spu.setBrandId(brandId);
+        SpuDetail detail = new SpuDetail();
+        detail.setGenericSpec("{}");
+        detail.setSpecialSpec("{}");
+        spu.setSpuDetail(detail);
+        Sku sku = new Sku();
+        sku.setPrice(1L);
+        sku.setStock(1);
+        spu.setSkus(Collections.singletonList(sku));
+        return spu;
+    }
+
+    private static Category category(Long id, Long parentId, boolean isParent) {
+        Category category = new Category();
+        category.setId(id);
+        category.setParentId(parentId);
+        category.setIsParent(isParent);
+        category.setName("c" + id);
+        return category;
+    }
+
+    private static ByteArrayInputStream stream(CharSequence text) {
+        return new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ThreadPoolTaskExecutor executor(int size, int queue) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
+        executor.setQueueCapacity(queue);
+        executor.initialize();
+        return executor;
+    }
+}
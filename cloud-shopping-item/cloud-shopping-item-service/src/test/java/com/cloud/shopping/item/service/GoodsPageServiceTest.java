@@ -0,0 +1,131 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.dto.GoodsPage;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * The product page with every lookup mocked to take 100 ms
+ */
+public class GoodsPageServiceTest {
+
+    private static final long DELAY = 100;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private SpuMapper spuMapper;
+    private GoodsService goodsService;
+    private CategoryService categoryService;
+    private BrandService brandService;
+    private SpecificationService specificationService;
+    private GoodsPageService pageService;
+
+    @BeforeEach
+    void setUp() {
+        Spu spu = new Spu();
+        spu.setId(1L);
+        spu.setBrandId(8557L);
+        spu.setCategoryId3(76L);
+
+        spuMapper = mock(SpuMapper.class);
+        goodsService = mock(GoodsService.class);
+        categoryService = mock(CategoryService.class);
+        brandService = mock(BrandService.class);
+        specificationService = mock(SpecificationService.class);
+
+        when(spuMapper.selectByPrimaryKey(1L)).thenAnswer(slow(spu));
+        when(goodsService.querySkuBySpuId(1L)).thenAnswer(slow(Collections.singletonList(new Sku())));
+        when(goodsService.queryDetailById(1L)).thenAnswer(slow(new SpuDetail()));
+        when(categoryService.queryAllByCid3(76L)).thenAnswer(slow(Arrays.asList(new Category(), new Category(), new Category())));
+        when(brandService.queryById(8557L)).thenAnswer(slow(new Brand()));
+        when(specificationService.queryListByCid(76L)).thenAnswer(slow(Collections.singletonList(new SpecGroup())));
+
+        pageService = new GoodsPageService();
+        ReflectionTestUtils.setField(pageService, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(pageService, "goodsService", goodsService);
+        ReflectionTestUtils.setField(pageService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(pageService, "brandService", brandService);
+        ReflectionTestUtils.setField(pageService, "specificationService", specificationService);
+        ReflectionTestUtils.setField(pageService, "executor", executor);
+        ReflectionTestUtils.setField(pageService, "meterRegistry", registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void loadsTheBranchesConcurrently() {
+        long start = System.currentTimeMillis();
+        GoodsPage page = pageService.queryGoodsPage(1L);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(1, page.getSpu().getSkus().size());
+        assertNotNull(page.getSpu().getSpuDetail());
+        assertEquals(3, page.getCategories().size());
+        assertNotNull(page.getBrand());
+        assertEquals(1, page.getSpecGroups().size());
+        assertTrue(page.getErrors().isEmpty());
+        // spu, then the dependent lookups side by side: two round trips instead of six
+        assertTrue(elapsed < 4 * DELAY, "took " + elapsed + " ms");
+        assertEquals(1, registry.get(GoodsPageService.BRANCH_TIMER).tag("branch", "brand").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void failedOrSlowBranchesAreLeftOut() {
+        when(brandService.queryById(8557L)).thenThrow(new LyException(ExceptionEnum.BRAND_NOT_FOUND));
+        when(specificationService.queryListByCid(76L)).thenAnswer(slow(Collections.emptyList(), 2000));
+        ReflectionTestUtils.setField(pageService, "branchTimeout", 300L);
+
+        GoodsPage page = pageService.queryGoodsPage(1L);
+
+        assertNotNull(page.getSpu());
+        assertNotNull(page.getCategories());
+        assertNull(page.getBrand());
+        assertNull(page.getSpecGroups());
+        assertEquals(Arrays.asList("brand", "specGroups"), page.getErrors());
+        assertEquals(1, registry.get(GoodsPageService.BRANCH_TIMER).tag("branch", "brand").tag("outcome", "error").timer().count());
+        assertEquals(1, registry.get(GoodsPageService.BRANCH_TIMER).tag("branch", "specGroups").tag("outcome", "timeout").timer().count());
+    }
+
+    @Test
+    void theSpuIsRequired() {
+        LyException missing = assertThrows(LyException.class, () -> pageService.queryGoodsPage(2L));
+        assertEquals(ExceptionEnum.GOODS_NOT_FOUND, missing.getExceptionEnum());
+
+        when(spuMapper.selectByPrimaryKey(anyLong())).thenAnswer(slow(null, 2000));
+        LyException slow = assertThrows(LyException.class, () -> pageService.queryGoodsPage(1L));
+        assertEquals(ExceptionEnum.GOODS_PAGE_UNAVAILABLE, slow.getExceptionEnum());
+    }
+
+    private static <T> Answer<T> slow(T value) {
+        return slow(value, DELAY);
+    }
+
+    private static <T> Answer<T> slow(T value, long millis) {
+        return inv -> {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return value;
+        };
+    }
+}
@@ -0,0 +1,213 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.ItemOutboxMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.ItemOutboxEvent;
+import com.cloud.shopping.item.pojo.Spu;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ItemOutboxRelayTest {
+
+    /**
+     * tb_item_outbox, id -> event
+     */
+    private final SortedMap<Long, ItemOutboxEvent> outbox = new TreeMap<>();
+    /**
+     * Sent messages: routing key, payload and headers
+     */
+    private final List<Object[]> sent = new ArrayList<>();
+    /**
+     * Event IDs the broker refuses, or never confirms
+     */
+    private final Set<String> nacked = new HashSet<>();
+    private final Set<String> lost = new HashSet<>();
+
+    private ItemOutboxMapper outboxMapper;
+    private SpuMapper spuMapper;
+    private SimpleMeterRegistry registry;
+    private ItemEventPublisher publisher;
+    private ItemOutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        outboxMapper = mock(ItemOutboxMapper.class);
+        when(outboxMapper.insertList(anyList())).thenAnswer(inv -> {
+            List<ItemOutboxEvent> events = inv.getArgument(0);
+            for (ItemOutboxEvent event : events) {
+                event.setId(outbox.isEmpty() ? 1L : outbox.lastKey() + 1);
+                outbox.put(event.getId(), event);
+            }
+            return events.size();
+        });
+        when(outboxMapper.selectOldestForUpdate(anyInt())).thenAnswer(inv ->
+                outbox.values().stream().limit((int) inv.getArgument(0)).collect(Collectors.toList()));
+        when(outboxMapper.deleteByIdList(anyList())).thenAnswer(inv -> {
+            List<Long> ids = inv.getArgument(0);
+            ids.forEach(outbox::remove);
+            return ids.size();
+        });
+
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        doAnswer(inv -> {
+            Message message = ((MessagePostProcessor) inv.getArgument(2)).postProcessMessage(new Message(new byte[0], new MessageProperties()));
+            sent.add(new Object[]{inv.getArgument(0), inv.getArgument(1), message.getMessageProperties().getHeaders()});
+            CorrelationData correlation = inv.getArgument(3);
+            if (!lost.contains(correlation.getId())) {
+                correlation.getFuture().complete(new CorrelationData.Confirm(!nacked.contains(correlation.getId()), null));
+            }
+            return null;
+        }).when(rabbitTemplate).convertAndSend(anyString(), any(Object.class), any(MessagePostProcessor.class), any(CorrelationData.class));
+
+        spuMapper = mock(SpuMapper.class);
+        publisher = new ItemEventPublisher();
+        ReflectionTestUtils.setField(publisher, "outboxMapper", outboxMapper);
+
+        registry = new SimpleMeterRegistry();
+        relay = new ItemOutboxRelay();
+        ReflectionTestUtils.setField(relay, "outboxMapper", outboxMapper);
+        ReflectionTestUtils.setField(relay, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(relay, "eventPublisher", publisher);
+        ReflectionTestUtils.setField(relay, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(relay, "meterRegistry", registry);
+        ReflectionTestUtils.setField(relay, "confirmTimeout", 50L);
+        ReflectionTestUtils.setField(relay, "coalesceWindow", 0L);
+        relay.init();
+    }
+
+    @Test
+    void sendsWhatConsumersExpectAndDeletesIt() {
+        publisher.publishInsert(7L);
+        publisher.publishUpdate(6L, Collections.singletonList(70L), Arrays.asList(71L, 72L), Collections.emptyList());
+        publisher.publishImport(Arrays.asList(8L, 9L));
+
+        relay.relay();
+
+        assertEquals(3, sent.size());
+        assertEquals(ItemEventPublisher.INSERT_KEY, sent.get(0)[0]);
+        assertEquals(7L, sent.get(0)[1]);
+        assertEquals(Collections.singletonMap(ItemEventPublisher.VERSION_HEADER, 1L), sent.get(0)[2]);
+        assertEquals(ItemEventPublisher.UPDATE_KEY, sent.get(1)[0]);
+        Map<?, ?> headers = (Map<?, ?>) sent.get(1)[2];
+        assertEquals("70", headers.get(ItemEventPublisher.SKU_INSERTED_HEADER));
+        assertEquals("71,72", headers.get(ItemEventPublisher.SKU_UPDATED_HEADER));
+        assertEquals("", headers.get(ItemEventPublisher.SKU_DELETED_HEADER));
+        assertEquals(Arrays.asList(8L, 9L), sent.get(2)[1]);
+
+        assertTrue(outbox.isEmpty());
+        assertEquals(3, registry.get("item.outbox.published").counter().count());
+    }
+
+    @Test
+    void coalescesTheChangesOfEachSpu() {
+        publisher.publishUpdate(1L, Arrays.asList(10L, 11L), Collections.singletonList(12L), Collections.emptyList());
+        publisher.publishUpdate(2L);
+        publisher.publishUpdate(1L, Collections.emptyList(), Arrays.asList(10L, 13L), Arrays.asList(11L, 12L));
+        publisher.publishInsert(3L);
+        publisher.publishUpdate(3L);
+        publisher.publishUpdates(Arrays.asList(4L, 5L));
+
+        relay.relay();
+
+        // 2, then 1 and 3 at their latest version, 4 and 5 each on their own and the batch as it is
+        assertEquals(Arrays.asList(2L, 1L, 3L, 4L, 5L, Arrays.asList(4L, 5L)), sent.stream().map(m -> m[1]).collect(Collectors.toList()));
+        Map<?, ?> headers = (Map<?, ?>) sent.get(1)[2];
+        assertEquals(3L, headers.get(ItemEventPublisher.VERSION_HEADER));
+        assertEquals("10", headers.get(ItemEventPublisher.SKU_INSERTED_HEADER));
+        assertEquals("13", headers.get(ItemEventPublisher.SKU_UPDATED_HEADER));
+        assertEquals("12", headers.get(ItemEventPublisher.SKU_DELETED_HEADER));
+        assertEquals(ItemEventPublisher.INSERT_KEY, sent.get(2)[0]);
+        assertEquals(Collections.singletonMap(ItemEventPublisher.VERSION_HEADER, 5L), sent.get(2)[2]);
+        assertEquals(ItemEventPublisher.UPDATE_KEY, sent.get(3)[0]);
+        assertEquals(ItemEventPublisher.UPDATE_BATCH_KEY, sent.get(5)[0]);
+        assertTrue(outbox.isEmpty());
+        assertEquals(2, registry.get("item.outbox.coalesced").counter().count());
+    }
+
+    @Test
+    void waitsForTheWindowOfTheOldestEvent() {
+        ReflectionTestUtils.setField(relay, "coalesceWindow", 60000L);
+        publisher.publishUpdate(1L);
+
+        relay.relay();
+        assertTrue(sent.isEmpty());
+
+        outbox.get(1L).setCreateTime(new Date(System.currentTimeMillis() - 60000));
+        publisher.publishUpdate(1L);
+        relay.relay();
+        assertEquals(1, sent.size());
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    void keepsEverythingFromTheFirstUnconfirmedEvent() {
+        Arrays.asList(1L, 2L, 3L, 4L).forEach(publisher::publishDelete);
+        nacked.add("2");
+        lost.add("4");
+
+        relay.relay();
+
+        // all four went out before any confirm was awaited
+        assertEquals(4, sent.size());
+        assertEquals(Arrays.asList(2L, 3L, 4L), new ArrayList<>(outbox.keySet()));
+        assertEquals(3, registry.get("item.outbox.unconfirmed").counter().count());
+
+        nacked.clear();
+        lost.clear();
+        relay.relay();
+        assertTrue(outbox.isEmpty());
+        assertEquals(4, registry.get("item.outbox.published").counter().count());
+    }
+
+    @Test
+    void drainsFullBatchesBackToBack() {
+        ReflectionTestUtils.setField(relay, "batchSize", 2);
+        Arrays.asList(1L, 2L, 3L, 4L, 5L).forEach(publisher::publishUpdate);
+
+        relay.relay();
+
+        assertTrue(outbox.isEmpty());
+        verify(outboxMapper, times(3)).selectOldestForUpdate(2);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), sent.stream().map(m -> m[1]).collect(Collectors.toList()));
+    }
+
+    @Test
+    void replaysTheSpusOfARange() {
+        ReflectionTestUtils.setField(relay, "batchSize", 2);
+        when(spuMapper.selectTitlesAfter(anyLong(), eq(2))).thenAnswer(inv -> {
+            long after = inv.getArgument(0);
+            return Arrays.asList(after + 1, after + 2).stream().map(id -> {
+                Spu spu = new Spu();
+                spu.setId(id);
+                return spu;
+            }).collect(Collectors.toList());
+        });
+
+        assertEquals(3, relay.replay(10L, 12L));
+
+        // every SPU on its own, plus a batch per page of several
+        assertEquals(Arrays.asList("10", "11", "10,11", "12"),
+                outbox.values().stream().map(ItemOutboxEvent::getPayload).collect(Collectors.toList()));
+        assertEquals(Arrays.asList(ItemEventPublisher.UPDATE_KEY, ItemEventPublisher.UPDATE_KEY,
+                        ItemEventPublisher.UPDATE_BATCH_KEY, ItemEventPublisher.UPDATE_KEY),
+                outbox.values().stream().map(ItemOutboxEvent::getRoutingKey).collect(Collectors.toList()));
+        assertEquals(ExceptionEnum.INVALID_REPLAY_RANGE, assertThrows(LyException.class,
+                () -> relay.replay(12L, 10L)).getExceptionEnum());
+    }
+}
@@ -0,0 +1,70 @@
+package com.cloud.shopping.item.service;
+
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated database round trips for the benchmark tests
+ *
+ * Mocked mapper answers wrapped by {@link #of(Answer)} count as one round trip each and park the
+ * thread for a simulated network latency, so a benchmark can compare statement counts and timings
+ * of two implementations. The timings go to the test log, the assertions only check the counts.
+ */
+final class RoundTrips {
+
+    private static final Logger log = LoggerFactory.getLogger(RoundTrips.class);
+
+    private final long latencyNanos;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param latencyMicros Simulated latency of one round trip
+     */
+    RoundTrips(long latencyMicros) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    <T> Answer<T> of(Answer<T> answer) {
+        return inv -> {
+            count.incrementAndGet();
+            LockSupport.parkNanos(latencyNanos);
+            return answer.answer(inv);
+        };
+    }
+
+    /**
+     * Run an action from a zero count
+     *
+     * @return Round trips and elapsed microseconds of the action
+     */
+    Measurement measure(Runnable action) {
+        count.set(0);
+        long start = System.nanoTime();
+        action.run();
+        return new Measurement(count.get(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    /**
+     * Log one line of a benchmark table
+     */
+    static void report(String format, Object... args) {
+        if (log.isInfoEnabled()) {
+            log.info(String.format(format, args));
+        }
+    }
+
+    static final class Measurement {
+        final int roundTrips;
+        final long micros;
+
+        private Measurement(int roundTrips, long micros) {
+            this.roundTrips = roundTrips;
+            this.micros = micros;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.index.SpecFacetIndex;
+import com.cloud.shopping.item.index.SpuTitleIndex;
+import com.cloud.shopping.item.mapper.SkuMapper;
+import com.cloud.shopping.item.mapper.SpuDetailMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Sku;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.pojo.SpuDetail;
+import com.cloud.shopping.item.pojo.Stock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmark of saveGoods latency against the number of SKUs
+ *
+ * Every mapper call is a simulated round trip (see {@link RoundTrips}). The legacy column inserts the
+ * SKUs one statement at a time.
+ */
+public class SaveGoodsBenchmarkTest {
+
+    private static final int[] SKU_COUNTS = {1, 10, 50, 200, 500};
+    private static final int BATCH_SIZE = 100;
+
+    private final RoundTrips statements = new RoundTrips(200);
+    private final AtomicLong ids = new AtomicLong();
+
+    private SkuMapper skuMapper;
+    private GoodsService goodsService;
+
+    @BeforeEach
+    void setUp() {
+        SpuMapper spuMapper = mock(SpuMapper.class);
+        SpuDetailMapper detailMapper = mock(SpuDetailMapper.class);
+        skuMapper = mock(SkuMapper.class);
+        StockMapper stockMapper = mock(StockMapper.class);
+
+        when(spuMapper.insert(any())).thenAnswer(statements.of(inv -> {
+            ((Spu) inv.getArgument(0)).setId(ids.incrementAndGet());
+            return 1;
+        }));
+        when(detailMapper.insert(any())).thenAnswer(statements.of(inv -> 1));
+        when(skuMapper.insert(any())).thenAnswer(statements.of(inv -> {
+            ((Sku) inv.getArgument(0)).setId(ids.incrementAndGet());
+            return 1;
+        }));
+        when(skuMapper.insertBatch(anyList())).thenAnswer(statements.of(inv -> {
+            List<Sku> skus = inv.getArgument(0);
+            skus.forEach(s -> s.setId(ids.incrementAndGet()));
+            return skus.size();
+        }));
+        when(stockMapper.insertList(anyList())).thenAnswer(statements.of(inv -> ((List<?>) inv.getArgument(0)).size()));
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(goodsService, "detailMapper", detailMapper);
+        ReflectionTestUtils.setField(goodsService, "skuMapper", skuMapper);
+        ReflectionTestUtils.setField(goodsService, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(goodsService, "stockCache", mock(StockCache.class));
+        ReflectionTestUtils.setField(goodsService, "titleIndex", mock(SpuTitleIndex.class));
+        ReflectionTestUtils.setField(goodsService, "facetIndex", mock(SpecFacetIndex.class));
+        ReflectionTestUtils.setField(goodsService, "eventPublisher", mock(ItemEventPublisher.class));
+        ReflectionTestUtils.setField(goodsService, "insertBatchSize", BATCH_SIZE);
+    }
+
+    @Test
+    void statementCountGrowsWithBatchesNotSkus() {
+        RoundTrips.report("skus | legacy statements | batched statements | legacy us | batched us");
+        for (int count : SKU_COUNTS) {
+            RoundTrips.Measurement legacy = statements.measure(() -> legacySave(spu(count)));
+            Spu spu = spu(count);
+            RoundTrips.Measurement batched = statements.measure(() -> goodsService.saveGoods(spu));
+
+            RoundTrips.report("%4d | %17d | %18d | %9d | %10d", count, legacy.roundTrips, batched.roundTrips,
+                    legacy.micros, batched.micros);
+
+            int batches = (count + BATCH_SIZE - 1) / BATCH_SIZE;
+            // spu, detail, then one sku and one stock statement per batch
+            assertEquals(2 + 2 * batches, batched.roundTrips);
+            assertEquals(3 + count, legacy.roundTrips);
+            assertTrue(spu.getSkus().stream().allMatch(s -> s.getId() != null && spu.getId().equals(s.getSpuId())));
+        }
+    }
+
+    /**
+     * The spu save as it was before the batched sku insert: one insert per sku, then one stock insert
+     */
+    private void legacySave(Spu spu) {
+        SpuMapper spuMapper = (SpuMapper) ReflectionTestUtils.getField(goodsService, "spuMapper");
+        SpuDetailMapper detailMapper = (SpuDetailMapper) ReflectionTestUtils.getField(goodsService, "detailMapper");
+        StockMapper stockMapper = (StockMapper) ReflectionTestUtils.getField(goodsService, "stockMapper");
+        spuMapper.insert(spu);
+        detailMapper.insert(spu.getSpuDetail());
+        List<Stock> stocks = new ArrayList<>();
+        for (Sku sku : spu.getSkus()) {
+            skuMapper.insert(sku);
+            Stock stock = new Stock();
+            stock.setSkuId(sku.getId());
+            stock.setStock(sku.getStock());
+            stocks.add(stock);
+        }
+        stockMapper.insertList(stocks);
+    }
+
+    private static Spu spu(int skuCount) {
+        Spu spu = new Spu();
+        spu.setTitle("spu");
+        spu.setSpuDetail(new SpuDetail());
+        List<Sku> skus = new ArrayList<>();
+        for (int i = 0; i < skuCount; i++) {
+            Sku sku = new Sku();
+            sku.setTitle("sku-" + i);
+            sku.setStock(10);
+            skus.add(sku);
+        }
+        spu.setSkus(skus);
+        return spu;
+    }
+}
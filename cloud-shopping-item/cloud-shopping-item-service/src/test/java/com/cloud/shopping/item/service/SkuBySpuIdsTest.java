@@ -0,0 +1,84 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.SkuMapper;
+import com.cloud.shopping.item.pojo.Sku;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+public class SkuBySpuIdsTest {
+
+    private final List<Sku> table = new ArrayList<>();
+    private SkuMapper skuMapper;
+    private GoodsService goodsService;
+
+    @BeforeEach
+    void setUp() {
+        table.add(sku(11L, 1L, 10));
+        table.add(sku(12L, 1L, 0));
+        table.add(sku(31L, 3L, null));
+        table.add(sku(32L, 3L, 5));
+
+        skuMapper = mock(SkuMapper.class);
+        when(skuMapper.selectWithStockBySpuIds(anyCollection())).thenAnswer(inv -> {
+            Collection<Long> spuIds = inv.getArgument(0);
+            return table.stream().filter(s -> spuIds.contains(s.getSpuId())).collect(Collectors.toList());
+        });
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "skuMapper", skuMapper);
+        ReflectionTestUtils.setField(goodsService, "maxSpuBatchSize", 3);
+    }
+
+    @Test
+    void groupsSkusBySpuInOneQuery() {
+        Map<Long, List<Sku>> result = goodsService.querySkusBySpuIds(Arrays.asList(3L, 2L, 1L, 3L));
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), new ArrayList<>(result.keySet()));
+        assertEquals(Arrays.asList(31L, 32L), ids(result.get(3L)));
+        assertEquals(Collections.emptyList(), result.get(2L));
+        assertEquals(Arrays.asList(11L, 12L), ids(result.get(1L)));
+        assertEquals(10, result.get(1L).get(0).getStock());
+        verify(skuMapper, times(1)).selectWithStockBySpuIds(anyCollection());
+    }
+
+    @Test
+    void capsTheBatchSize() {
+        // duplicates do not count towards the cap
+        assertEquals(3, goodsService.querySkusBySpuIds(Arrays.asList(1L, 2L, 3L, 1L)).size());
+        LyException e = assertThrows(LyException.class,
+                () -> goodsService.querySkusBySpuIds(Arrays.asList(1L, 2L, 3L, 4L)));
+        assertEquals(ExceptionEnum.SPU_BATCH_TOO_LARGE, e.getExceptionEnum());
+    }
+
+    @Test
+    void singleSpuLookupKeepsItsErrors() {
+        assertEquals(Arrays.asList(31L, 32L), ids(goodsService.querySkuBySpuId(3L)));
+        table.get(3).setStock(null);
+        LyException noStock = assertThrows(LyException.class, () -> goodsService.querySkuBySpuId(3L));
+        assertEquals(ExceptionEnum.GOODS_STOCK_NOT_FOUND, noStock.getExceptionEnum());
+        LyException noSku = assertThrows(LyException.class, () -> goodsService.querySkuBySpuId(2L));
+        assertEquals(ExceptionEnum.GOODS_SKU_NOT_FOUND, noSku.getExceptionEnum());
+    }
+
+    private static List<Long> ids(List<Sku> skus) {
+        return skus.stream().map(Sku::getId).collect(Collectors.toList());
+    }
+
+    private static Sku sku(Long id, Long spuId, Integer stock) {
+        Sku sku = new Sku();
+        sku.setId(id);
+        sku.setSpuId(spuId);
+        sku.setStock(stock);
+        return sku;
+    }
+}
@@ -0,0 +1,139 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.controller.SpecificationController;
+import com.cloud.shopping.item.mapper.SpecGroupMapper;
+import com.cloud.shopping.item.mapper.SpecParamMapper;
+import com.cloud.shopping.item.mapper.SpecificationMapper;
+import com.cloud.shopping.item.pojo.SpecGroup;
+import com.cloud.shopping.item.pojo.SpecParam;
+import com.cloud.shopping.item.pojo.Specification;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SpecTemplateCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<SpecParam> params = new ArrayList<>();
+    private SpecGroupMapper groupMapper;
+    private SpecParamMapper paramMapper;
+    private AmqpTemplate amqpTemplate;
+    private SpecificationService specService;
+    private SpecificationController controller;
+
+    @BeforeEach
+    void setUp() {
+        SpecGroup group = new SpecGroup();
+        group.setId(1L);
+        group.setCid(76L);
+        group.setName("主体");
+        params.add(param(1L, 1L, "品牌"));
+        params.add(param(2L, 1L, "型号"));
+
+        groupMapper = mock(SpecGroupMapper.class);
+        paramMapper = mock(SpecParamMapper.class);
+        amqpTemplate = mock(AmqpTemplate.class);
+        // a fresh copy per query, like the real mapper
+        when(groupMapper.select(any())).thenAnswer(inv -> {
+            SpecGroup copy = new SpecGroup();
+            copy.setId(group.getId());
+            copy.setCid(group.getCid());
+            copy.setName(group.getName());
+            return new ArrayList<>(Collections.singletonList(copy));
+        });
+        when(paramMapper.select(any())).thenAnswer(inv -> new ArrayList<>(params));
+
+        specService = new SpecificationService();
+        ReflectionTestUtils.setField(specService, "specGroupMapper", groupMapper);
+        ReflectionTestUtils.setField(specService, "specParamMapper", paramMapper);
+        ReflectionTestUtils.setField(specService, "specificationMapper", mock(SpecificationMapper.class));
+        ReflectionTestUtils.setField(specService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(specService, "amqpTemplate", amqpTemplate);
+        specService.init();
+
+        controller = new SpecificationController();
+        ReflectionTestUtils.setField(controller, "specService", specService);
+    }
+
+    @Test
+    void assemblesAndEncodesOnce() throws Exception {
+        SpecTemplate first = specService.queryTemplateByCid(76L);
+        SpecTemplate second = specService.queryTemplateByCid(76L);
+
+        assertSame(first, second);
+        verify(groupMapper, times(1)).select(any());
+        verify(paramMapper, times(1)).select(any());
+        assertEquals(2, first.getGroups().get(0).getParams().size());
+        assertArrayEquals(objectMapper.writeValueAsBytes(first.getGroups()), first.getJson());
+        assertSame(first.getGroups(), specService.queryListByCid(76L));
+    }
+
+    @Test
+    void answersConditionalRequestsFromTheEtag() {
+        ResponseEntity<byte[]> full = get(null);
+        assertEquals(HttpStatus.OK, full.getStatusCode());
+        String etag = full.getHeaders().getETag();
+        assertNotNull(etag);
+        assertArrayEquals(specService.queryTemplateByCid(76L).getJson(), full.getBody());
+
+        ResponseEntity<byte[]> notModified = get(etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+
+        // the template changes, so the old ETag no longer matches
+        params.add(param(3L, 1L, "颜色"));
+        Specification specification = new Specification();
+        specification.setCategoryId(76L);
+        specService.updateSpecification(specification);
+        ResponseEntity<byte[]> changed = get(etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+    }
+
+    @Test
+    void writesEvictAndBroadcast() {
+        Specification specification = new Specification();
+        specification.setCategoryId(76L);
+
+        specService.queryTemplateByCid(76L);
+        specService.saveSpecification(specification);
+        specService.queryTemplateByCid(76L);
+        specService.deleteSpecification(specification);
+        specService.queryTemplateByCid(76L);
+        specService.evictTemplate(null);
+        specService.queryTemplateByCid(76L);
+
+        verify(groupMapper, times(4)).select(any());
+        verify(amqpTemplate, times(2)).convertAndSend(SpecificationService.SPEC_UPDATE_KEY, 76L);
+    }
+
+    private ResponseEntity<byte[]> get(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/spec/group");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return controller.queryListByCid(76L, new ServletWebRequest(request, new MockHttpServletResponse()));
+    }
+
+    private static SpecParam param(Long id, Long groupId, String name) {
+        SpecParam param = new SpecParam();
+        param.setId(id);
+        param.setGroupId(groupId);
+        param.setCid(76L);
+        param.setName(name);
+        return param;
+    }
+}
@@ -0,0 +1,202 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.common.vo.PageResult;
+import com.cloud.shopping.item.mapper.BrandMapper;
+import com.cloud.shopping.item.mapper.CategoryMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.Brand;
+import com.cloud.shopping.item.pojo.Category;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.utils.PageCursor;
+import com.github.pagehelper.Page;
+import com.github.pagehelper.PageHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import tk.mybatis.mapper.entity.Config;
+import tk.mybatis.mapper.entity.Example;
+import tk.mybatis.mapper.mapperhelper.EntityHelper;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Keyset pagination of /spu/page against an in-memory table that the mocked mapper
+ * filters and limits the same way MySQL would for the generated Example
+ */
+public class SpuCursorPageTest {
+
+    private final List<Spu> table = new ArrayList<>();
+    private final List<Integer> limits = new ArrayList<>();
+
+    private SpuMapper spuMapper;
+    private GoodsService goodsService;
+
+    @BeforeEach
+    void setUp() {
+        EntityHelper.initEntityNameMap(Spu.class, new Config());
+
+        // 7 rows, several sharing the same update time so that the id tie-break matters
+        long[] times = {5000, 5000, 5000, 4000, 4000, 3000, 2000};
+        for (int i = 0; i < times.length; i++) {
+            Spu spu = new Spu();
+            spu.setId(i + 1L);
+            spu.setLastUpdateTime(new Date(times[i]));
+            spu.setCategoryId1(1L);
+            spu.setCategoryId2(2L);
+            spu.setCategoryId3(3L);
+            spu.setBrandId(1L);
+            table.add(spu);
+        }
+
+        spuMapper = mock(SpuMapper.class);
+        when(spuMapper.selectByExample(any())).thenAnswer(inv -> select(inv.getArgument(0)));
+        when(spuMapper.selectCountByExample(any())).thenReturn(table.size());
+
+        CategoryMapper categoryMapper = mock(CategoryMapper.class);
+        when(categoryMapper.selectAll()).thenReturn(Arrays.asList(category(1L, 0L), category(2L, 1L), category(3L, 2L)));
+        BrandMapper brandMapper = mock(BrandMapper.class);
+        when(brandMapper.selectByIdList(anyList())).thenAnswer(inv -> {
+            Brand brand = new Brand();
+            brand.setId(1L);
+            brand.setName("brand");
+            return Collections.singletonList(brand);
+        });
+
+        CategoryService categoryService = new CategoryService();
+        ReflectionTestUtils.setField(categoryService, "categoryMapper", categoryMapper);
+        BrandService brandService = new BrandService();
+        ReflectionTestUtils.setField(brandService, "brandMapper", brandMapper);
+        brandService.init();
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(goodsService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(goodsService, "brandService", brandService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        PageHelper.clearPage();
+    }
+
+    @Test
+    void walksAllRowsInOrderWithoutGapsOrDuplicates() {
+        List<Long> seen = new ArrayList<>();
+        String cursor = "";
+        int pages = 0;
+        do {
+            PageResult<Spu> result = goodsService.querySpuByCursor(cursor, 3, null, null, GoodsService.CountMode.NONE);
+            result.getItems().forEach(spu -> seen.add(spu.getId()));
+            assertNull(result.getTotal());
+            cursor = result.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(Arrays.asList(3L, 2L, 1L, 5L, 4L, 6L, 7L), seen);
+        assertEquals(3, pages);
+        // one extra row is fetched to detect the next page, and no page ever counts
+        assertEquals(Arrays.asList(4, 4, 4), limits);
+        verify(spuMapper, never()).selectCountByExample(any());
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        PageResult<Spu> result = goodsService.querySpuByCursor("", 10, null, null, GoodsService.CountMode.EXACT);
+        assertEquals(7, result.getItems().size());
+        assertNull(result.getNextCursor());
+        assertEquals(7L, result.getTotal());
+    }
+
+    @Test
+    void rejectsMalformedCursor() {
+        LyException e = assertThrows(LyException.class,
+                () -> goodsService.querySpuByCursor("not a cursor", 3, null, null, GoodsService.CountMode.NONE));
+        assertEquals(ExceptionEnum.INVALID_PAGE_CURSOR, e.getExceptionEnum());
+    }
+
+    @Test
+    void rejectsAnEmptyPageAndCapsALargeOne() {
+        for (Integer rows : Arrays.asList(0, -1, null)) {
+            LyException e = assertThrows(LyException.class,
+                    () -> goodsService.querySpuByCursor("", rows, null, null, GoodsService.CountMode.NONE));
+            assertEquals(ExceptionEnum.INVALID_PAGE_SIZE, e.getExceptionEnum());
+        }
+        verify(spuMapper, never()).selectByExample(any());
+
+        ReflectionTestUtils.setField(goodsService, "maxPageSize", 2);
+        PageResult<Spu> result = goodsService.querySpuByCursor("", 1000, null, null, GoodsService.CountMode.NONE);
+        assertEquals(2, result.getItems().size());
+        assertNotNull(result.getNextCursor());
+        assertEquals(Collections.singletonList(3), limits);
+    }
+
+    @Test
+    void cursorRoundTrips() {
+        PageCursor cursor = PageCursor.decode(new PageCursor(new Date(1554204900000L), 42L).encode());
+        assertEquals(1554204900000L, cursor.getLastUpdateTime().getTime());
+        assertEquals(42L, cursor.getId());
+    }
+
+    private Category category(Long id, Long parentId) {
+        Category category = new Category();
+        category.setId(id);
+        category.setParentId(parentId);
+        category.setName("c" + id);
+        return category;
+    }
+
+    /**
+     * Evaluate the seek conditions of the Example on the in-memory table
+     */
+    private List<Spu> select(Example example) {
+        Page<?> page = PageHelper.getLocalPage();
+        limits.add(page.getPageSize());
+        PageHelper.clearPage();
+
+        Comparator<Spu> order = Comparator.comparing(Spu::getLastUpdateTime).thenComparing(Spu::getId).reversed();
+        return table.stream()
+                .filter(spu -> example.getOredCriteria().stream().allMatch(c -> matches(c, spu)))
+                .sorted(order)
+                .limit(page.getPageSize())
+                .collect(Collectors.toList());
+    }
+
+    private boolean matches(Example.Criteria criteria, Spu spu) {
+        if (criteria.getCriteria().isEmpty()) {
+            return true;
+        }
+        boolean any = false;
+        boolean all = true;
+        for (Example.Criterion criterion : criteria.getCriteria()) {
+            boolean match = test(criterion, spu);
+            any |= match;
+            all &= match;
+        }
+        boolean ored = criteria.getCriteria().stream().skip(1).anyMatch(c -> "or".equals(c.getAndOr()));
+        return ored ? any : all;
+    }
+
+    private boolean test(Example.Criterion criterion, Spu spu) {
+        String condition = criterion.getCondition().trim();
+        long actual = condition.startsWith("last_update_time")
+                ? spu.getLastUpdateTime().getTime() : spu.getId();
+        Object value = criterion.getValue();
+        long expected = value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue();
+        if (condition.endsWith("<=")) {
+            return actual <= expected;
+        }
+        if (condition.endsWith("<")) {
+            return actual < expected;
+        }
+        throw new IllegalStateException("unexpected condition " + condition);
+    }
+}
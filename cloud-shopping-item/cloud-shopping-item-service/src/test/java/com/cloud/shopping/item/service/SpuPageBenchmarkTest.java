@@ -0,0 +1,186 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.vo.PageResult;
+import com.cloud.shopping.item.mapper.BrandMapper;
+import com.cloud.shopping.item.mapper.CategoryMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.pojo.Brand;
+import com.cloud.shopping.item.pojo.Category;
+import com.cloud.shopping.item.pojo.Spu;
+import com.github.pagehelper.PageHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import tk.mybatis.mapper.entity.Config;
+import tk.mybatis.mapper.mapperhelper.EntityHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmark for the category/brand name resolution on /spu/page
+ *
+ * The mappers are mocked and every call is a simulated round trip (see {@link RoundTrips}),
+ * so the numbers show how query count and latency grow with the page size for the old
+ * per-row lookup and the bulk lookup.
+ */
+public class SpuPageBenchmarkTest {
+
+    private static final int[] PAGE_SIZES = {5, 10, 50, 100};
+
+    private final RoundTrips queries = new RoundTrips(200);
+
+    private SpuMapper spuMapper;
+    private CategoryService categoryService;
+    private BrandMapper brandMapper;
+    private BrandService brandService;
+    private GoodsService goodsService;
+
+    private List<Spu> page;
+
+    @BeforeEach
+    void setUp() {
+        // Example needs the entity metadata that the mapper scanner registers at runtime
+        EntityHelper.initEntityNameMap(Spu.class, new Config());
+
+        spuMapper = mock(SpuMapper.class);
+        CategoryMapper categoryMapper = mock(CategoryMapper.class);
+        brandMapper = mock(BrandMapper.class);
+
+        when(spuMapper.selectByExample(any())).thenAnswer(queries.of(inv -> page));
+        when(categoryMapper.selectAll()).thenAnswer(queries.of(inv ->
+                Arrays.asList(category(1L, 0L), category(2L, 1L), category(3L, 2L))));
+        when(brandMapper.selectByIdList(anyList())).thenAnswer(queries.of(inv ->
+                ((List<Long>) inv.getArgument(0)).stream().filter(id -> id > 0).map(this::brand).collect(Collectors.toList())));
+        when(brandMapper.selectByPrimaryKey(any())).thenAnswer(queries.of(inv -> brand(inv.getArgument(0))));
+
+        categoryService = new CategoryService();
+        ReflectionTestUtils.setField(categoryService, "categoryMapper", categoryMapper);
+        // categories are served from the in-memory tree snapshot, built once up front
+        categoryService.refresh();
+        brandService = new BrandService();
+        ReflectionTestUtils.setField(brandService, "brandMapper", brandMapper);
+        // measure the uncached brand path, every lookup reaches the mapper
+        ReflectionTestUtils.setField(brandService, "brandCacheSize", 0);
+        brandService.init();
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(goodsService, "categoryService", categoryService);
+        ReflectionTestUtils.setField(goodsService, "brandService", brandService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        PageHelper.clearPage();
+    }
+
+    @Test
+    void queryCountStaysConstantWithPageSize() {
+        RoundTrips.report("rows | legacy queries | bulk queries | legacy us | bulk us");
+        for (int size : PAGE_SIZES) {
+            page = spus(size);
+
+            RoundTrips.Measurement legacy = queries.measure(() -> legacyLoad(spuMapper.selectByExample(null)));
+            List<PageResult<Spu>> results = new ArrayList<>();
+            RoundTrips.Measurement bulk = queries.measure(
+                    () -> results.add(goodsService.querySpuByPage(1, size, null, null)));
+            PageResult<Spu> result = results.get(0);
+
+            RoundTrips.report("%4d | %14d | %12d | %9d | %7d", size, legacy.roundTrips, bulk.roundTrips,
+                    legacy.micros, bulk.micros);
+
+            // one spu page query and one brand query, categories come from the snapshot
+            assertEquals(2, bulk.roundTrips);
+            assertEquals(1 + size, legacy.roundTrips);
+            assertEquals(size, result.getItems().size());
+            Spu first = result.getItems().get(0);
+            assertEquals("c1/c2/c3", first.getCategoryName());
+            assertEquals("brand-" + first.getBrandId(), first.getBrandName());
+        }
+    }
+
+    @Test
+    void aPageWithoutKnownBrandsOrCategoriesStillLoads() {
+        // brand 0 and categories 97 to 99 do not exist
+        page = spus(3);
+        page.forEach(spu -> {
+            spu.setBrandId(0L);
+            spu.setCategoryId1(97L);
+            spu.setCategoryId2(98L);
+            spu.setCategoryId3(99L);
+        });
+
+        List<Spu> items = goodsService.querySpuByPage(1, 3, null, null).getItems();
+
+        assertEquals(3, items.size());
+        assertEquals("", items.get(0).getCategoryName());
+        assertNull(items.get(0).getBrandName());
+    }
+
+    @Test
+    void aPageWithoutIdsLooksNothingUp() {
+        page = spus(2);
+        page.forEach(spu -> {
+            spu.setBrandId(null);
+            spu.setCategoryId1(null);
+            spu.setCategoryId2(null);
+            spu.setCategoryId3(null);
+        });
+
+        assertEquals(2, goodsService.querySpuByPage(1, 2, null, null).getItems().size());
+        verify(brandMapper, never()).selectByIdList(anyList());
+    }
+
+    /**
+     * The per-row resolution that /spu/page used before the bulk resolver
+     */
+    private void legacyLoad(List<Spu> spus) {
+        for (Spu spu : spus) {
+            List<String> names = categoryService.queryByIds(Arrays.asList(spu.getCategoryId1(), spu.getCategoryId2(), spu.getCategoryId3()))
+                    .stream().map(Category::getName).collect(Collectors.toList());
+            spu.setCategoryName(String.join("/", names));
+            spu.setBrandName(brandService.queryById(spu.getBrandId()).getName());
+        }
+    }
+
+    private List<Spu> spus(int size) {
+        List<Spu> spus = new ArrayList<>();
+        for (long i = 1; i <= size; i++) {
+            Spu spu = new Spu();
+            spu.setId(i);
+            spu.setCategoryId1(1L);
+            spu.setCategoryId2(2L);
+            spu.setCategoryId3(3L);
+            spu.setBrandId(1000 + i % 7);
+            spus.add(spu);
+        }
+        return spus;
+    }
+
+    private Category category(Long id, Long parentId) {
+        Category category = new Category();
+        category.setId(id);
+        category.setParentId(parentId);
+        category.setName("c" + id);
+        return category;
+    }
+
+    private Brand brand(Long id) {
+        Brand brand = new Brand();
+        brand.setId(id);
+        brand.setName("brand-" + id);
+        return brand;
+    }
+}
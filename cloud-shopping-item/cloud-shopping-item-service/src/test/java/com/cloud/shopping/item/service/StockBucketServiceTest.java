@@ -0,0 +1,177 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.mapper.StockBucketMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import com.cloud.shopping.item.pojo.StockBucket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class StockBucketServiceTest {
+
+    private static final long SKU = 7L;
+
+    /**
+     * tb_stock_bucket of SKU 7, bucket -> stock
+     */
+    private final SortedMap<Integer, Integer> buckets = new TreeMap<>();
+    private StockMapper stockMapper;
+    private StockBucketMapper bucketMapper;
+    private StockCache stockCache;
+    private StockBucketService bucketService;
+
+    @BeforeEach
+    void setUp() {
+        stockMapper = mock(StockMapper.class);
+        bucketMapper = mock(StockBucketMapper.class);
+        stockCache = mock(StockCache.class);
+        when(bucketMapper.decreaseBucket(eq(SKU), anyInt(), anyInt())).thenAnswer(inv -> {
+            int bucket = inv.getArgument(1);
+            int num = inv.getArgument(2);
+            Integer stock = buckets.get(bucket);
+            if (stock == null || stock < num) {
+                return 0;
+            }
+            buckets.put(bucket, stock - num);
+            return 1;
+        });
+        when(bucketMapper.selectForUpdate(SKU)).thenAnswer(inv -> rows());
+        when(bucketMapper.updateBucket(eq(SKU), anyInt(), anyInt())).thenAnswer(inv -> {
+            buckets.put(inv.getArgument(1), inv.getArgument(2));
+            return 1;
+        });
+        when(bucketMapper.deleteBySkuIds(anyCollection())).thenAnswer(inv -> {
+            int deleted = buckets.size();
+            buckets.clear();
+            return deleted;
+        });
+        when(bucketMapper.insertBuckets(anyList())).thenAnswer(inv -> {
+            List<StockBucket> rows = inv.getArgument(0);
+            rows.forEach(b -> buckets.put(b.getBucket(), b.getStock()));
+            return rows.size();
+        });
+
+        bucketService = new StockBucketService();
+        ReflectionTestUtils.setField(bucketService, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(bucketService, "bucketMapper", bucketMapper);
+        ReflectionTestUtils.setField(bucketService, "stockCache", stockCache);
+    }
+
+    @Test
+    void takesFromOneBucketWhenItHasEnough() {
+        fill(10, 10, 10, 10);
+
+        assertTrue(bucketService.decrease(SKU, 4, 3));
+
+        assertEquals(37, total());
+        verify(bucketMapper, times(1)).decreaseBucket(eq(SKU), anyInt(), eq(3));
+        verify(bucketMapper, never()).selectForUpdate(anyLong());
+    }
+
+    @Test
+    void fallsBackToTheOtherBucketsWhenOneRunsDry() {
+        fill(1, 1, 1, 1);
+
+        assertTrue(bucketService.decrease(SKU, 4, 3));
+
+        assertEquals(1, total());
+        assertTrue(buckets.values().stream().allMatch(s -> s >= 0));
+        verify(bucketMapper).selectForUpdate(SKU);
+    }
+
+    @Test
+    void takesNothingWhenTheBucketsAreShortTogether() {
+        fill(1, 2, 0, 1);
+
+        assertFalse(bucketService.decrease(SKU, 4, 5));
+
+        assertEquals(Arrays.asList(1, 2, 0, 1), new ArrayList<>(buckets.values()));
+        verify(bucketMapper, never()).updateBucket(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void checksTheRealSumOfTheBuckets() {
+        // a bucket left below zero by an older flush does not count as stock
+        fill(-2, 1, 1, 1);
+
+        assertFalse(bucketService.decrease(SKU, 4, 2));
+        assertTrue(bucketService.take(bucketService.lock(SKU), 1, 0));
+        assertEquals(0, total());
+        assertFalse(bucketService.take(bucketService.lock(SKU), 1, 0));
+        assertEquals(Arrays.asList(-2, 0, 1, 1), new ArrayList<>(buckets.values()));
+    }
+
+    @Test
+    void takesNothingFromASkuWithoutBuckets() {
+        assertFalse(bucketService.take(bucketService.lock(SKU), 1, 0));
+        verify(bucketMapper, never()).updateBucket(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void spreadsTheRemainderOverTheFirstBuckets() {
+        List<Integer> spread = StockBucketService.spread(SKU, 10, 4).stream()
+                .map(StockBucket::getStock).collect(Collectors.toList());
+        assertEquals(Arrays.asList(3, 3, 2, 2), spread);
+        // an oversold SKU stays oversold by the same amount
+        assertEquals(-3, StockBucketService.spread(SKU, -3, 2).stream().mapToInt(StockBucket::getStock).sum());
+    }
+
+    @Test
+    void splitsAndMergesAtRuntime() {
+        when(stockMapper.selectForUpdate(SKU)).thenReturn(stock(10));
+
+        List<StockBucket> split = bucketService.resize(SKU, 4);
+        assertEquals(4, split.size());
+        assertEquals(10, total());
+        verify(stockMapper).updateStockBatch(Collections.singletonList(stock(0)));
+
+        buckets.put(2, 0);
+        List<StockBucket> merged = bucketService.resize(SKU, 1);
+        assertTrue(merged.isEmpty());
+        assertTrue(buckets.isEmpty());
+        verify(stockMapper).updateStockBatch(Collections.singletonList(stock(8)));
+        verify(stockCache).written(Collections.singletonMap(SKU, 8));
+    }
+
+    @Test
+    void rejectsBadResizes() {
+        assertEquals(ExceptionEnum.INVALID_STOCK_BUCKET_COUNT, assertThrows(LyException.class,
+                () -> bucketService.resize(SKU, 0)).getExceptionEnum());
+        assertEquals(ExceptionEnum.INVALID_STOCK_BUCKET_COUNT, assertThrows(LyException.class,
+                () -> bucketService.resize(SKU, 65)).getExceptionEnum());
+        assertEquals(ExceptionEnum.STOCK_NOT_FOUND, assertThrows(LyException.class,
+                () -> bucketService.resize(SKU, 4)).getExceptionEnum());
+        verify(bucketMapper, never()).insertBuckets(anyList());
+    }
+
+    private void fill(int... stocks) {
+        for (int i = 0; i < stocks.length; i++) {
+            buckets.put(i, stocks[i]);
+        }
+    }
+
+    private int total() {
+        return buckets.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private List<StockBucket> rows() {
+        return buckets.entrySet().stream().map(e -> new StockBucket(SKU, e.getKey(), e.getValue())).collect(Collectors.toList());
+    }
+
+    private static Stock stock(int stock) {
+        Stock row = new Stock();
+        row.setSkuId(SKU);
+        row.setStock(stock);
+        return row;
+    }
+}
@@ -0,0 +1,197 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Stock;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Transactions are simulated by driving the transaction synchronizations by hand
+ */
+public class StockCacheTest {
+
+    private final Map<Long, Integer> table = new HashMap<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private StockMapper stockMapper;
+    private StockCache stockCache;
+
+    @BeforeEach
+    void setUp() {
+        table.put(1L, 10);
+        table.put(2L, 20);
+
+        stockMapper = mock(StockMapper.class);
+        when(stockMapper.selectStocks(anyCollection())).thenAnswer(inv -> read(inv.getArgument(0)));
+
+        stockCache = new StockCache();
+        ReflectionTestUtils.setField(stockCache, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(stockCache, "meterRegistry", registry);
+        ReflectionTestUtils.setField(stockCache, "ttl", 60000L);
+        stockCache.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void servesRepeatedReadsFromTheCache() {
+        assertEquals(stocks(1L, 10, 2L, 20), stockCache.getStocks(Arrays.asList(1L, 2L)));
+        assertEquals(stocks(1L, 10, 2L, 20), stockCache.getStocks(Arrays.asList(1L, 2L)));
+        verify(stockMapper, times(1)).selectStocks(anyCollection());
+        assertEquals(2, registry.get("cache.gets").tag("cache", "stock").tag("result", "hit").functionCounter().count());
+        assertEquals(2, registry.get("item.stock.cache.age").timer().count());
+    }
+
+    @Test
+    void pendingWritesBypassTheCacheAndCommitsWriteThrough() {
+        stockCache.getStocks(Collections.singletonList(1L));
+
+        List<TransactionSynchronization> tx = begin();
+        table.put(1L, 7);
+        stockCache.written(stocks(1L, 7));
+        List<TransactionSynchronization> open = suspend(tx);
+
+        // not committed yet: every read goes to the database
+        table.put(1L, 10);
+        assertEquals(stocks(1L, 10), stockCache.getStocks(Collections.singletonList(1L)));
+        assertEquals(stocks(1L, 10), stockCache.getStocks(Collections.singletonList(1L)));
+        assertEquals(2, registry.get("item.stock.cache.bypass").counter().count());
+
+        table.put(1L, 7);
+        finish(open, TransactionSynchronization.STATUS_COMMITTED);
+        clearInvocations(stockMapper);
+        assertEquals(stocks(1L, 7), stockCache.getStocks(Collections.singletonList(1L)));
+        verify(stockMapper, never()).selectStocks(anyCollection());
+    }
+
+    @Test
+    void rollbackDropsTheEntry() {
+        stockCache.getStocks(Collections.singletonList(1L));
+        List<TransactionSynchronization> tx = begin();
+        stockCache.written(stocks(1L, 3));
+        List<TransactionSynchronization> open = suspend(tx);
+        finish(open, TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        clearInvocations(stockMapper);
+        assertEquals(stocks(1L, 10), stockCache.getStocks(Collections.singletonList(1L)));
+        verify(stockMapper, times(1)).selectStocks(anyCollection());
+    }
+
+    @Test
+    void anEarlierCommitCompletingLastDoesNotWinTheEntry() {
+        List<TransactionSynchronization> first = begin();
+        stockCache.written(stocks(1L, 8));
+        first = suspend(first);
+        List<TransactionSynchronization> second = begin();
+        stockCache.written(stocks(1L, 5));
+        second = suspend(second);
+
+        table.put(1L, 5);
+        finish(second, TransactionSynchronization.STATUS_COMMITTED);
+        finish(first, TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(stocks(1L, 5), stockCache.getStocks(Collections.singletonList(1L)));
+        assertEquals(stocks(1L, 5), stockCache.getStocks(Collections.singletonList(1L)));
+    }
+
+    @Test
+    void aValueLoadedAcrossACommitIsNotCached() {
+        // the first load reads 10, then a decrement commits before the load is installed
+        AtomicBoolean raced = new AtomicBoolean();
+        when(stockMapper.selectStocks(anyCollection())).thenAnswer(inv -> {
+            Map<Long, Integer> before = read(inv.getArgument(0)).stream()
+                    .collect(Collectors.toMap(Stock::getSkuId, Stock::getStock));
+            if (raced.compareAndSet(false, true)) {
+                table.put(1L, 9);
+                stockCache.written(stocks(1L, 9));
+            }
+            return before.entrySet().stream().map(e -> stock(e.getKey(), e.getValue())).collect(Collectors.toList());
+        });
+
+        assertEquals(stocks(1L, 10), stockCache.getStocks(Collections.singletonList(1L)));
+        assertEquals(stocks(1L, 9), stockCache.getStocks(Collections.singletonList(1L)));
+    }
+
+    @Test
+    void broadcastsCommittedSkusAndDropsTheOnesChangedElsewhere() {
+        AmqpTemplate amqpTemplate = mock(AmqpTemplate.class);
+        ReflectionTestUtils.setField(stockCache, "amqpTemplate", amqpTemplate);
+        List<Set<Long>> changes = new ArrayList<>();
+        stockCache.addListener(changes::add);
+
+        List<TransactionSynchronization> tx = begin();
+        stockCache.written(stocks(2L, 19, 1L, 9));
+        finish(suspend(tx), TransactionSynchronization.STATUS_COMMITTED);
+        stockCache.written(stocks(1L, 8));
+        stockCache.broadcast();
+        stockCache.broadcast();
+
+        verify(amqpTemplate, times(1)).convertAndSend(eq(StockCache.STOCK_UPDATE_KEY), eq(Arrays.asList(1L, 2L)), any(MessagePostProcessor.class));
+        assertEquals(Arrays.asList(Set.of(1L, 2L), Set.of(1L)), changes);
+
+        // another instance changed SKU 2: the next read goes to the database
+        table.put(2L, 15);
+        stockCache.evict(Collections.singletonList(2L));
+        assertEquals(stocks(1L, 8, 2L, 15), stockCache.getStocks(Arrays.asList(1L, 2L)));
+        assertEquals(Set.of(2L), changes.get(2));
+    }
+
+    private List<Stock> read(Collection<Long> ids) {
+        return ids.stream().filter(table::containsKey).map(id -> stock(id, table.get(id))).collect(Collectors.toList());
+    }
+
+    private static List<TransactionSynchronization> begin() {
+        TransactionSynchronizationManager.initSynchronization();
+        return Collections.emptyList();
+    }
+
+    private static List<TransactionSynchronization> suspend(List<TransactionSynchronization> registered) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return registered;
+        }
+        List<TransactionSynchronization> list = new ArrayList<>(registered);
+        list.addAll(TransactionSynchronizationManager.getSynchronizations());
+        TransactionSynchronizationManager.clearSynchronization();
+        return list;
+    }
+
+    private static void finish(List<TransactionSynchronization> synchronizations, int status) {
+        synchronizations.forEach(s -> s.afterCompletion(status));
+    }
+
+    private static Map<Long, Integer> stocks(Object... pairs) {
+        Map<Long, Integer> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((Long) pairs[i], (Integer) pairs[i + 1]);
+        }
+        return map;
+    }
+
+    private static Stock stock(Long skuId, Integer value) {
+        Stock stock = new Stock();
+        stock.setSkuId(skuId);
+        stock.setStock(value);
+        return stock;
+    }
+}
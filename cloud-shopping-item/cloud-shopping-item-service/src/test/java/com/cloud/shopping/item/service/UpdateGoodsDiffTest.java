@@ -0,0 +1,196 @@
+package com.cloud.shopping.item.service;
+
+import com.cloud.shopping.common.enums.ExceptionEnum;
+import com.cloud.shopping.common.exception.LyException;
+import com.cloud.shopping.item.index.SpecFacetIndex;
+import com.cloud.shopping.item.index.SpuTitleIndex;
+import com.cloud.shopping.item.mapper.SkuMapper;
+import com.cloud.shopping.item.mapper.SpuDetailMapper;
+import com.cloud.shopping.item.mapper.SpuMapper;
+import com.cloud.shopping.item.mapper.StockMapper;
+import com.cloud.shopping.item.pojo.Sku;
+import com.cloud.shopping.item.pojo.Spu;
+import com.cloud.shopping.item.pojo.SpuDetail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class UpdateGoodsDiffTest {
+
+    private static final Long SPU_ID = 7L;
+
+    private SkuMapper skuMapper;
+    private StockMapper stockMapper;
+    private StockCache stockCache;
+    private ItemEventPublisher eventPublisher;
+    private GoodsService goodsService;
+
+    @BeforeEach
+    void setUp() {
+        SpuMapper spuMapper = mock(SpuMapper.class);
+        SpuDetailMapper detailMapper = mock(SpuDetailMapper.class);
+        skuMapper = mock(SkuMapper.class);
+        stockMapper = mock(StockMapper.class);
+        stockCache = mock(StockCache.class);
+        eventPublisher = mock(ItemEventPublisher.class);
+
+        when(spuMapper.updateByPrimaryKeySelective(any())).thenReturn(1);
+        when(detailMapper.updateByPrimaryKeySelective(any())).thenReturn(1);
+        // three existing skus: red (10 in stock), blue (5) and green (3)
+        when(skuMapper.selectWithStockBySpuIds(any())).thenAnswer(inv -> new ArrayList<>(Arrays.asList(
+                sku(1L, "red", "0_0", 100L, 10),
+                sku(2L, "blue", "0_1", 100L, 5),
+                sku(3L, "green", "0_2", 100L, 3))));
+        when(skuMapper.updateBatch(anyList())).thenAnswer(inv -> ((List<?>) inv.getArgument(0)).size());
+        // the database still has the stock every form was loaded with, unless a test says otherwise
+        when(stockMapper.updateStockIfUnchanged(anyList())).thenAnswer(inv -> ((List<?>) inv.getArgument(0)).size());
+        when(stockMapper.insertList(anyList())).thenAnswer(inv -> ((List<?>) inv.getArgument(0)).size());
+        when(skuMapper.insertBatch(anyList())).thenAnswer(inv -> {
+            List<Sku> skus = inv.getArgument(0);
+            long id = 100;
+            for (Sku s : skus) {
+                s.setId(id++);
+            }
+            return skus.size();
+        });
+
+        goodsService = new GoodsService();
+        ReflectionTestUtils.setField(goodsService, "spuMapper", spuMapper);
+        ReflectionTestUtils.setField(goodsService, "detailMapper", detailMapper);
+        ReflectionTestUtils.setField(goodsService, "skuMapper", skuMapper);
+        ReflectionTestUtils.setField(goodsService, "stockMapper", stockMapper);
+        ReflectionTestUtils.setField(goodsService, "stockCache", stockCache);
+        ReflectionTestUtils.setField(goodsService, "stockBucketService", mock(StockBucketService.class));
+        ReflectionTestUtils.setField(goodsService, "titleIndex", mock(SpuTitleIndex.class));
+        ReflectionTestUtils.setField(goodsService, "facetIndex", mock(SpecFacetIndex.class));
+        ReflectionTestUtils.setField(goodsService, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(goodsService, "insertBatchSize", 100);
+    }
+
+    @Test
+    void unchangedSkusAreNotWritten() {
+        goodsService.updateGoods(spu(
+                sku(1L, "red", "0_0", 100L, 10),
+                sku(2L, "blue", "0_1", 100L, 5),
+                sku(3L, "green", "0_2", 100L, 3)));
+
+        verify(skuMapper, never()).updateBatch(anyList());
+        verify(skuMapper, never()).insertBatch(anyList());
+        verify(skuMapper, never()).deleteByIdList(anyList());
+        verify(stockMapper, never()).updateStockIfUnchanged(anyList());
+        verify(stockMapper, never()).deleteByIdList(anyList());
+        verify(eventPublisher).publishUpdate(SPU_ID, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    @Test
+    void appliesOnlyTheDifference() {
+        // red: price changed; blue: matched by indexes without id, stock changed; green: removed; white: new
+        Sku blue = sku(null, "blue", "0_1", 100L, 8);
+        blue.setLoadedStock(5);
+        Sku white = sku(null, "white", "0_3", 120L, 4);
+        goodsService.updateGoods(spu(sku(1L, "red", "0_0", 90L, 10), blue, white));
+
+        ArgumentCaptor<List<Sku>> updated = skuListCaptor();
+        verify(skuMapper).updateBatch(updated.capture());
+        assertEquals(1, updated.getValue().size());
+        assertEquals(1L, updated.getValue().get(0).getId());
+        assertEquals(90L, updated.getValue().get(0).getPrice());
+
+        ArgumentCaptor<List<Sku>> stocks = skuListCaptor();
+        verify(stockMapper).updateStockIfUnchanged(stocks.capture());
+        assertEquals(1, stocks.getValue().size());
+        assertEquals(2L, stocks.getValue().get(0).getId());
+        assertEquals(8, stocks.getValue().get(0).getStock());
+        assertEquals(5, stocks.getValue().get(0).getLoadedStock());
+        assertEquals(2L, blue.getId());
+
+        verify(skuMapper).deleteByIdList(Collections.singletonList(3L));
+        verify(stockMapper).deleteByIdList(Collections.singletonList(3L));
+
+        ArgumentCaptor<List<Sku>> inserted = skuListCaptor();
+        verify(skuMapper).insertBatch(inserted.capture());
+        assertEquals(Collections.singletonList(white), inserted.getValue());
+        assertEquals(SPU_ID, white.getSpuId());
+
+        verify(eventPublisher).publishUpdate(SPU_ID, Collections.singletonList(100L), Arrays.asList(1L, 2L),
+                Collections.singletonList(3L));
+        verify(stockCache, atLeastOnce()).written(argThat(m -> m.containsKey(3L) && m.get(3L) == null
+                && Integer.valueOf(8).equals(m.get(2L))));
+    }
+
+    @Test
+    void nullFieldsAndStockKeepTheirValues() {
+        Sku red = new Sku();
+        red.setId(1L);
+        red.setTitle("dark red");
+        goodsService.updateGoods(spu(red, sku(2L, "blue", "0_1", 100L, 5), sku(3L, "green", "0_2", 100L, 3)));
+
+        ArgumentCaptor<List<Sku>> updated = skuListCaptor();
+        verify(skuMapper).updateBatch(updated.capture());
+        Sku written = updated.getValue().get(0);
+        assertEquals("dark red", written.getTitle());
+        assertEquals("0_0", written.getIndexes());
+        assertEquals(100L, written.getPrice());
+        verify(stockMapper, never()).updateStockIfUnchanged(anyList());
+    }
+
+    @Test
+    void aStaleFormKeepsTheOrdersPlacedSinceItWasLoaded() {
+        // loaded with 10 in stock, 2 were ordered since
+        Sku red = sku(1L, "dark red", "0_0", 100L, 10);
+        red.setLoadedStock(10);
+        when(skuMapper.selectWithStockBySpuIds(any())).thenAnswer(inv -> new ArrayList<>(Arrays.asList(
+                sku(1L, "red", "0_0", 100L, 8), sku(2L, "blue", "0_1", 100L, 5), sku(3L, "green", "0_2", 100L, 3))));
+
+        goodsService.updateGoods(spu(red, sku(2L, "blue", "0_1", 100L, 5), sku(3L, "green", "0_2", 100L, 3)));
+        verify(stockMapper, never()).updateStockIfUnchanged(anyList());
+
+        // an edited stock is only written if the database still has the loaded one
+        red.setStock(20);
+        when(stockMapper.updateStockIfUnchanged(anyList())).thenReturn(0);
+        LyException e = assertThrows(LyException.class, () -> goodsService.updateGoods(
+                spu(red, sku(2L, "blue", "0_1", 100L, 5), sku(3L, "green", "0_2", 100L, 3))));
+        assertEquals(ExceptionEnum.STOCK_CHANGED, e.getExceptionEnum());
+        verify(stockCache, never()).written(argThat(m -> m.containsKey(1L)));
+    }
+
+    @Test
+    void refusesAStockChangeWithoutTheLoadedStock() {
+        LyException e = assertThrows(LyException.class, () -> goodsService.updateGoods(spu(
+                sku(1L, "red", "0_0", 100L, 20), sku(2L, "blue", "0_1", 100L, 5), sku(3L, "green", "0_2", 100L, 3))));
+
+        assertEquals(ExceptionEnum.STOCK_CHANGED, e.getExceptionEnum());
+        verify(stockMapper, never()).updateStockIfUnchanged(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArgumentCaptor<List<Sku>> skuListCaptor() {
+        return ArgumentCaptor.forClass(List.class);
+    }
+
+    private static Spu spu(Sku... skus) {
+        Spu spu = new Spu();
+        spu.setId(SPU_ID);
+        spu.setSpuDetail(new SpuDetail());
+        spu.setSkus(new ArrayList<>(Arrays.asList(skus)));
+        return spu;
+    }
+
+    private static Sku sku(Long id, String title, String indexes, Long price, Integer stock) {
+        Sku sku = new Sku();
+        sku.setId(id);
+        sku.setSpuId(SPU_ID);
+        sku.setTitle(title);
+        sku.setIndexes(indexes);
+        sku.setPrice(price);
+        sku.setStock(stock);
+        return sku;
+    }
+}
@@ -204,7 +204,9 @@ CREATE TABLE `tb_spu`
     `valid`            BOOLEAN      NOT NULL DEFAULT TRUE COMMENT 'Is Valid',
     `create_time`      TIMESTAMP             DEFAULT CURRENT_TIMESTAMP COMMENT 'Creation Time',
     `last_update_time` TIMESTAMP             DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT 'Last Update Time',
-    PRIMARY KEY (`id`)
+    PRIMARY KEY (`id`),
+    KEY                `idx_last_update_time_id` (`last_update_time`, `id`) USING BTREE,
+    KEY                `idx_saleable_last_update_time_id` (`saleable`, `last_update_time`, `id`) USING BTREE
 ) ENGINE=InnoDB AUTO_INCREMENT=195 DEFAULT CHARSET=utf8mb4 COMMENT='SPU Table for Abstract Product Descriptions';
 
 -- ----------------------------
@@ -235,6 +237,76 @@ CREATE TABLE `tb_stock`
     PRIMARY KEY (`sku_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Stock Information Table';
 
+-- ----------------------------
+-- Table structure for tb_stock_bucket
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_stock_bucket`;
+CREATE TABLE `tb_stock_bucket`
+(
+    `sku_id` BIGINT NOT NULL COMMENT 'SKU ID',
+    `bucket` INT    NOT NULL COMMENT 'Bucket Number, from 0',
+    `stock`  INT    NOT NULL COMMENT 'Stock Quantity in this Bucket',
+    PRIMARY KEY (`sku_id`, `bucket`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Stock of hot SKUs split across rows; when a SKU has buckets, its stock is their sum';
+
+-- ----------------------------
+-- Table structure for tb_stock_lease
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_stock_lease`;
+CREATE TABLE `tb_stock_lease`
+(
+    `sku_id`      BIGINT       NOT NULL COMMENT 'SKU ID',
+    `owner`       VARCHAR(128) NOT NULL COMMENT 'Item-service instance holding the in-memory stock of the SKU',
+    `epoch`       BIGINT       NOT NULL COMMENT 'Incremented every time the SKU changes hands',
+    `expire_time` DATETIME(3)  NOT NULL COMMENT 'Lease end unless renewed, in database time',
+    PRIMARY KEY (`sku_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Which instance may reserve the stock of a SKU';
+
+-- ----------------------------
+-- Table structure for tb_seckill_session
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_seckill_session`;
+CREATE TABLE `tb_seckill_session`
+(
+    `id`         BIGINT   NOT NULL AUTO_INCREMENT COMMENT 'Session ID',
+    `sku_id`     BIGINT   NOT NULL COMMENT 'SKU on sale, its units come from tb_stock.seckill_stock',
+    `start_time` DATETIME NOT NULL COMMENT 'Sale Start Time',
+    `end_time`   DATETIME NOT NULL COMMENT 'Sale End Time',
+    PRIMARY KEY (`id`),
+    KEY `idx_end_time` (`end_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Flash Sale Sessions';
+
+-- ----------------------------
+-- Table structure for tb_seckill_order
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_seckill_order`;
+CREATE TABLE `tb_seckill_order`
+(
+    `token`       VARCHAR(36) NOT NULL COMMENT 'Admission token of the win',
+    `session_id`  BIGINT      NOT NULL COMMENT 'Flash sale session ID',
+    `sku_id`      BIGINT      NOT NULL COMMENT 'SKU on sale',
+    `user_id`     BIGINT      NOT NULL COMMENT 'Winning user',
+    `admitted_at` BIGINT      NOT NULL COMMENT 'Epoch milliseconds of the admission',
+    PRIMARY KEY (`token`),
+    KEY `idx_admitted_at` (`admitted_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Flash sale wins not yet confirmed by the broker';
+
+-- ----------------------------
+-- Table structure for tb_item_outbox
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_item_outbox`;
+CREATE TABLE `tb_item_outbox`
+(
+    `id`           BIGINT      NOT NULL AUTO_INCREMENT COMMENT 'Event ID, in commit order per SPU',
+    `routing_key`  VARCHAR(32) NOT NULL COMMENT 'Routing Key on ly.item.exchange',
+    `payload`      TEXT        NOT NULL COMMENT 'SPU ID, or comma separated SPU IDs for item.import',
+    `sku_inserted` TEXT COMMENT 'SKU IDs inserted by an item.update',
+    `sku_updated`  TEXT COMMENT 'SKU IDs updated by an item.update',
+    `sku_deleted`  TEXT COMMENT 'SKU IDs deleted by an item.update',
+    `create_time`  DATETIME(3) NOT NULL COMMENT 'Creation Time',
+    PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Item events written with the change, published and deleted by the relay';
+
 -- ----------------------------
 -- Table structure for tb_user
 -- ----------------------------